@@ -0,0 +1,160 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup
+
+import android.database.Cursor
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+import org.junit.Assert.assertEquals
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.SqlUtil
+import org.signal.core.util.insertInto
+import org.signal.core.util.logging.Log
+import org.signal.core.util.requireLong
+import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.database.MessageTable
+import org.thoughtcrime.securesms.database.MessageTypes
+import org.thoughtcrime.securesms.database.ReactionTable
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import kotlin.random.Random
+import kotlin.time.Duration.Companion.days
+import kotlin.time.Duration.Companion.hours
+
+/**
+ * Compares how long the legacy backup exporter takes to decide which of [REACTION_COUNT] reactions belong to messages that aren't about to
+ * expire, using a message lookup per reaction (the old way) against [FullBackupExporter.NonExpiringMessages] (the new way). Both must agree.
+ *
+ * The rest of the export (serializing and encrypting rows) is the same either way, so it isn't measured here.
+ *
+ * Generating the database takes a while, so this is ignored by default. Run it manually on a real device for meaningful numbers.
+ */
+@Ignore("Benchmark. Run manually on a real device.")
+@RunWith(AndroidJUnit4::class)
+class ExpiringMessageFilterBenchmark {
+
+  companion object {
+    private val TAG = Log.tag(ExpiringMessageFilterBenchmark::class.java)
+
+    private const val MESSAGE_COUNT = 50_000
+    private const val REACTIONS_PER_MESSAGE = 20
+    private const val REACTION_COUNT = MESSAGE_COUNT * REACTIONS_PER_MESSAGE
+    private const val START_TIME = 1_700_000_000_000L
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = REACTIONS_PER_MESSAGE)
+
+  @Test
+  fun filterReactions_1mReactions() {
+    AppDependencies.jobManager.shutdown()
+    generateData()
+
+    val db = SignalDatabase.backupDatabase
+    val now = System.currentTimeMillis()
+
+    val lookupStart = System.currentTimeMillis()
+    val lookupCount = countReactions(db) { messageId -> isForNonExpiringMessage(db, messageId, now) }
+    val lookupMs = System.currentTimeMillis() - lookupStart
+
+    val setStart = System.currentTimeMillis()
+    val nonExpiringMessages = FullBackupExporter.NonExpiringMessages.read(db, now)
+    val setCount = countReactions(db) { messageId -> nonExpiringMessages.contains(messageId) }
+    val setMs = System.currentTimeMillis() - setStart
+
+    assertEquals(lookupCount, setCount)
+
+    Log.i(TAG, "[$REACTION_COUNT reactions, $MESSAGE_COUNT messages] per-row lookup: $lookupMs ms, precomputed set: $setMs ms ($setCount reactions kept)")
+  }
+
+  private fun countReactions(db: SQLiteDatabase, predicate: (Long) -> Boolean): Int {
+    var count = 0
+
+    db.rawQuery("SELECT * FROM ${ReactionTable.TABLE_NAME}", null).use { cursor ->
+      while (cursor.moveToNext()) {
+        if (predicate(cursor.requireLong(ReactionTable.MESSAGE_ID))) {
+          count++
+        }
+      }
+    }
+
+    return count
+  }
+
+  /**
+   * The lookup the exporter used to do for every row that references a message.
+   */
+  private fun isForNonExpiringMessage(db: SQLiteDatabase, messageId: Long, now: Long): Boolean {
+    val columns = arrayOf(MessageTable.ID, MessageTable.EXPIRE_STARTED, MessageTable.EXPIRES_IN, MessageTable.LATEST_REVISION_ID)
+
+    db.query(MessageTable.TABLE_NAME, columns, "${MessageTable.ID} = ?", SqlUtil.buildArgs(messageId), null, null, null).use { cursor: Cursor ->
+      if (!cursor.moveToFirst()) {
+        return false
+      }
+
+      val id = cursor.requireLong(MessageTable.ID)
+      val expireStarted = cursor.requireLong(MessageTable.EXPIRE_STARTED)
+      val expiresIn = cursor.requireLong(MessageTable.EXPIRES_IN)
+      val latestRevisionId = cursor.requireLong(MessageTable.LATEST_REVISION_ID)
+
+      if (latestRevisionId > 0 && latestRevisionId != id) {
+        return isForNonExpiringMessage(db, latestRevisionId, now)
+      }
+
+      return !(expireStarted > 0 && expireStarted + expiresIn - now <= 1.days.inWholeMilliseconds)
+    }
+  }
+
+  /**
+   * Inserts messages and reactions directly, rather than through the tables, to keep setup time reasonable. One in ten messages is about to
+   * expire.
+   */
+  private fun generateData() {
+    val random = Random(1234)
+    val self = harness.self.id.toLong()
+    val others = harness.others.map { it.toLong() }
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(Recipient.resolved(harness.others[0]))
+    val now = System.currentTimeMillis()
+
+    SignalDatabase.rawDatabase.withinTransaction { db ->
+      for (i in 0 until MESSAGE_COUNT) {
+        val timestamp = START_TIME + i * 1000L
+        val expiring = random.nextInt(10) == 0
+
+        val messageId = db.insertInto(MessageTable.TABLE_NAME)
+          .values(
+            MessageTable.THREAD_ID to threadId,
+            MessageTable.FROM_RECIPIENT_ID to self,
+            MessageTable.TO_RECIPIENT_ID to others[0],
+            MessageTable.DATE_SENT to timestamp,
+            MessageTable.DATE_RECEIVED to timestamp,
+            MessageTable.TYPE to (MessageTypes.BASE_SENT_TYPE or MessageTypes.SECURE_MESSAGE_BIT or MessageTypes.PUSH_MESSAGE_BIT),
+            MessageTable.BODY to "Message $i",
+            MessageTable.EXPIRES_IN to if (expiring) 1.hours.inWholeMilliseconds else 0L,
+            MessageTable.EXPIRE_STARTED to if (expiring) now else 0L
+          )
+          .run()
+
+        for (author in others) {
+          db.insertInto(ReactionTable.TABLE_NAME)
+            .values(
+              ReactionTable.MESSAGE_ID to messageId,
+              ReactionTable.AUTHOR_ID to author,
+              ReactionTable.EMOJI to "👍",
+              ReactionTable.DATE_SENT to timestamp,
+              ReactionTable.DATE_RECEIVED to timestamp
+            )
+            .run()
+        }
+      }
+    }
+  }
+}
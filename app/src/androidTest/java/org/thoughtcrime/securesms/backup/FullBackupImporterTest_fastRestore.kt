@@ -0,0 +1,173 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup
+
+import android.database.Cursor
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.Hex
+import org.signal.core.util.readFully
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider
+import org.thoughtcrime.securesms.database.AttachmentTable
+import org.thoughtcrime.securesms.database.SearchTable
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.database.UriAttachmentBuilder
+import org.thoughtcrime.securesms.messages.MessageHelper
+import org.thoughtcrime.securesms.providers.BlobProvider
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.thoughtcrime.securesms.util.MediaUtil
+import org.thoughtcrime.securesms.util.Util
+import java.io.File
+import java.io.FileInputStream
+
+/**
+ * Restores the same backup with and without fast restore, and makes sure both end up with the same database.
+ */
+@Suppress("ClassName")
+@RunWith(AndroidJUnit4::class)
+class FullBackupImporterTest_fastRestore {
+
+  companion object {
+    private const val PASSPHRASE = "000000000000000000000000000000"
+
+    /** These point at the files written during the restore, so they're different every time. */
+    private val RESTORE_SPECIFIC_COLUMNS = mapOf(
+      AttachmentTable.TABLE_NAME to setOf(AttachmentTable.DATA_FILE, AttachmentTable.DATA_RANDOM)
+    )
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(createGroup = true)
+
+  private lateinit var messageHelper: MessageHelper
+  private lateinit var backupFile: File
+
+  @Before
+  fun setUp() {
+    messageHelper = MessageHelper(harness)
+    backupFile = File.createTempFile("fast-restore", ".backup", harness.context.cacheDir)
+  }
+
+  @After
+  fun tearDown() {
+    messageHelper.tearDown()
+    backupFile.delete()
+  }
+
+  @Test
+  fun givenABackup_whenIRestoreItWithAndWithoutFastRestore_thenIExpectTheSameRowsIndexesAndTriggers() {
+    val attachmentData = Util.getSecretBytes(256 * 1024)
+
+    messageHelper.incomingText()
+    messageHelper.incomingText(sender = messageHelper.bob)
+    messageHelper.incomingText(sender = messageHelper.bob, destination = messageHelper.group.recipientId)
+    messageHelper.outgoingText()
+    val mediaMessage = messageHelper.outgoingText { it.copy(attachments = listOf(createAttachment(attachmentData))) }
+
+    FullBackupExporter.export(
+      harness.context,
+      AttachmentSecretProvider.getInstance(harness.context).getOrCreateAttachmentSecret(),
+      SignalDatabase.backupDatabase,
+      backupFile,
+      PASSPHRASE
+    ) { false }
+
+    val slow = restore(fastRestore = false)
+    val fast = restore(fastRestore = true)
+
+    assertTrue(slow.schema.any { it.startsWith("index|") })
+    assertTrue(slow.schema.any { it.startsWith("trigger|") })
+    assertEquals(slow.schema, fast.schema)
+
+    assertTrue(slow.rows.getValue(AttachmentTable.TABLE_NAME).isNotEmpty())
+    assertTrue(slow.rows.getValue(SearchTable.FTS_TABLE_NAME).isNotEmpty())
+    assertEquals(slow.rows.keys, fast.rows.keys)
+    for ((table, rows) in slow.rows) {
+      assertEquals(table, rows, fast.rows[table])
+    }
+
+    val attachment = SignalDatabase.attachments.getAttachmentsForMessage(mediaMessage.messageId).single()
+    assertArrayEquals(attachmentData, SignalDatabase.attachments.getAttachmentStream(attachment.attachmentId, 0).readFully())
+  }
+
+  private fun restore(fastRestore: Boolean): Snapshot {
+    val database = SignalDatabase.backupDatabase
+
+    FileInputStream(backupFile).use { input ->
+      FullBackupImporter.importFile(
+        harness.context,
+        AttachmentSecretProvider.getInstance(harness.context).getOrCreateAttachmentSecret(),
+        database,
+        input,
+        PASSPHRASE,
+        fastRestore
+      )
+    }
+
+    // Fast restore leaves the search index to be rebuilt here, as every real restore does, so compare what the user ends up with.
+    SignalDatabase.runPostBackupRestoreTasks(database)
+
+    return snapshot()
+  }
+
+  private fun snapshot(): Snapshot {
+    val db = SignalDatabase.rawDatabase
+
+    val schema: List<String> = db.rawQuery("SELECT type, name, tbl_name, sql FROM sqlite_master ORDER BY type, name", null).use { cursor ->
+      cursor.readAll { "${it.getString(0)}|${it.getString(1)}|${it.getString(2)}|${it.getString(3)}" }
+    }
+
+    val tables: List<String> = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite_%'", null).use { cursor ->
+      cursor.readAll { it.getString(0) }
+    }
+
+    val rows: Map<String, List<String>> = tables.associateWith { table ->
+      val excluded = RESTORE_SPECIFIC_COLUMNS[table] ?: emptySet()
+
+      db.rawQuery("SELECT * FROM \"$table\"", null).use { cursor ->
+        cursor.readAll { row ->
+          (0 until row.columnCount)
+            .filterNot { excluded.contains(row.getColumnName(it)) }
+            .joinToString(separator = "|") { "${row.getColumnName(it)}=${row.valueToString(it)}" }
+        }.sorted()
+      }
+    }
+
+    return Snapshot(schema, rows)
+  }
+
+  private fun createAttachment(data: ByteArray) = UriAttachmentBuilder.build(
+    id = 1,
+    uri = BlobProvider.getInstance().forData(data).createForSingleSessionInMemory(),
+    contentType = MediaUtil.IMAGE_JPEG,
+    size = data.size.toLong()
+  )
+
+  private fun <T> Cursor.readAll(mapper: (Cursor) -> T): List<T> {
+    val out = ArrayList<T>(count)
+    while (moveToNext()) {
+      out += mapper(this)
+    }
+    return out
+  }
+
+  private fun Cursor.valueToString(column: Int): String? {
+    return when (getType(column)) {
+      Cursor.FIELD_TYPE_NULL -> null
+      Cursor.FIELD_TYPE_BLOB -> Hex.toStringCondensed(getBlob(column))
+      else -> getString(column)
+    }
+  }
+
+  private data class Snapshot(val schema: List<String>, val rows: Map<String, List<String>>)
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.Hex
+import org.signal.core.util.insertInto
+import org.signal.core.util.logging.Log
+import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.database.MessageTable
+import org.thoughtcrime.securesms.database.MessageTypes
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import java.io.OutputStream
+import java.security.DigestOutputStream
+import java.security.MessageDigest
+import kotlin.random.Random
+
+/**
+ * Compares the sequential and pipelined backup export modes on a generated database of [MESSAGE_COUNT] messages.
+ *
+ * Each mode is exported [RUNS] times (encrypted, since that's what we ship) and the median is logged. We also export each mode once in plaintext
+ * and check that the outputs are identical, since pipelining must not change the archive.
+ *
+ * Generating the database takes a while, so this is ignored by default. Run it manually on a real device for meaningful numbers.
+ */
+@Ignore("Benchmark. Run manually on a real device.")
+@RunWith(AndroidJUnit4::class)
+class PipelinedExportBenchmark {
+
+  companion object {
+    private val TAG = Log.tag(PipelinedExportBenchmark::class.java)
+
+    private const val MESSAGE_COUNT = 500_000
+    private const val RUNS = 3
+    private const val BACKUP_TIME = 1_700_000_000_000L
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = 20)
+
+  @Test
+  fun export_500kMessages() {
+    AppDependencies.jobManager.shutdown()
+    generateMessages()
+
+    val sequentialDigest = exportDigest(pipelined = false, plaintext = true)
+    val pipelinedDigest = exportDigest(pipelined = true, plaintext = true)
+    assertEquals(sequentialDigest, pipelinedDigest)
+
+    val sequentialMs = (0 until RUNS).map { timeExport(pipelined = false) }.sorted()
+    val pipelinedMs = (0 until RUNS).map { timeExport(pipelined = true) }.sorted()
+
+    Log.i(TAG, "[$MESSAGE_COUNT messages] sequential: ${sequentialMs[RUNS / 2]} ms, pipelined: ${pipelinedMs[RUNS / 2]} ms (all runs: $sequentialMs vs $pipelinedMs)")
+  }
+
+  private fun timeExport(pipelined: Boolean): Long {
+    val start = System.currentTimeMillis()
+    exportDigest(pipelined = pipelined, plaintext = false)
+    return System.currentTimeMillis() - start
+  }
+
+  private fun exportDigest(pipelined: Boolean, plaintext: Boolean): String {
+    val digest = MessageDigest.getInstance("SHA-256")
+    val outputStream = DigestOutputStream(NullOutputStream, digest)
+
+    BackupRepository.export(
+      outputStream = outputStream,
+      append = { outputStream.write(it) },
+      plaintext = plaintext,
+      currentTime = BACKUP_TIME,
+      mediaBackupEnabled = false,
+      pipelined = pipelined
+    )
+
+    return Hex.toStringCondensed(digest.digest())
+  }
+
+  /**
+   * Inserts messages directly, spread across the harness's contacts, with a mix of incoming and outgoing messages and a realistic spread of body
+   * lengths. Inserting directly (rather than through [MessageTable]) keeps setup time reasonable.
+   */
+  private fun generateMessages() {
+    val random = Random(1234)
+    val self = harness.self.id.toLong()
+    val threads: List<Pair<Long, Long>> = harness.others.map { it.toLong() to SignalDatabase.threads.getOrCreateThreadIdFor(Recipient.resolved(it)) }
+    val words = listOf("hey", "what", "are", "you", "up", "to", "tonight", "sounds", "good", "see", "you", "there", "lol", "ok", "sure", "thanks")
+
+    SignalDatabase.rawDatabase.withinTransaction { db ->
+      for (i in 0 until MESSAGE_COUNT) {
+        val (recipientId, threadId) = threads[random.nextInt(threads.size)]
+        val outgoing = random.nextBoolean()
+        val timestamp = BACKUP_TIME - (MESSAGE_COUNT - i) * 1000L
+        val body = (0 until 1 + random.nextInt(30)).joinToString(" ") { words[random.nextInt(words.size)] }
+
+        db.insertInto(MessageTable.TABLE_NAME)
+          .values(
+            MessageTable.THREAD_ID to threadId,
+            MessageTable.FROM_RECIPIENT_ID to if (outgoing) self else recipientId,
+            MessageTable.TO_RECIPIENT_ID to if (outgoing) recipientId else self,
+            MessageTable.DATE_SENT to timestamp,
+            MessageTable.DATE_RECEIVED to timestamp,
+            MessageTable.DATE_SERVER to timestamp,
+            MessageTable.TYPE to ((if (outgoing) MessageTypes.BASE_SENT_TYPE else MessageTypes.BASE_INBOX_TYPE) or MessageTypes.SECURE_MESSAGE_BIT or MessageTypes.PUSH_MESSAGE_BIT),
+            MessageTable.BODY to body,
+            MessageTable.READ to 1
+          )
+          .run()
+      }
+    }
+
+    threads.forEach { (_, threadId) -> SignalDatabase.threads.update(threadId, false) }
+  }
+
+  private object NullOutputStream : OutputStream() {
+    override fun write(b: Int) = Unit
+    override fun write(b: ByteArray, off: Int, len: Int) = Unit
+  }
+}
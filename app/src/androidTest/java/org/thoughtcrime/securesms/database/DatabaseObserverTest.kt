@@ -8,8 +8,11 @@ import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.signal.core.util.concurrent.SignalExecutors
+import org.thoughtcrime.securesms.database.model.MessageId
 import org.thoughtcrime.securesms.dependencies.AppDependencies
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
 
@@ -154,4 +157,97 @@ class DatabaseObserverTest {
     assertEquals(1, thread1Count.get())
     assertEquals(1, thread2Count.get())
   }
+
+  @Test
+  fun unsharded_deliversEveryNotificationAndMessageUpdate() {
+    val unsharded = DatabaseObserver(false)
+    val count = AtomicInteger(0)
+    val messageIds = CopyOnWriteArrayList<MessageId>()
+
+    unsharded.registerConversationObserver(1) { count.incrementAndGet() }
+    unsharded.registerMessageUpdateObserver { messageIds += it }
+
+    repeat(10) { unsharded.notifyConversationListeners(1) }
+    unsharded.notifyMessageUpdateObservers(MessageId(1))
+    unsharded.notifyMessageUpdateObservers(MessageId(2))
+    unsharded.flush()
+
+    assertEquals(10, count.get())
+    assertEquals(0, unsharded.coalescedCount)
+    assertEquals(listOf(MessageId(1), MessageId(2)), messageIds)
+  }
+
+  @Test
+  fun sharded_deliversAllMessageUpdatesInOneBatch() {
+    val sharded = DatabaseObserver(true)
+    val batches = CopyOnWriteArrayList<Set<MessageId>>()
+
+    sharded.registerMessageUpdateObserver(object : DatabaseObserver.MessageObserver {
+      override fun onMessageChanged(messageId: MessageId) = Unit
+      override fun onMessagesChanged(messageIds: Collection<MessageId>) {
+        batches += messageIds.toSet()
+      }
+    })
+
+    db.beginTransaction()
+    sharded.notifyMessageUpdateObservers(MessageId(1))
+    sharded.notifyMessageUpdateObservers(MessageId(2))
+    sharded.notifyMessageUpdateObservers(MessageId(2))
+    sharded.notifyMessageUpdateObservers(MessageId(3))
+    db.setTransactionSuccessful()
+    db.endTransaction()
+
+    sharded.flush()
+
+    assertEquals(listOf(setOf(MessageId(1), MessageId(2), MessageId(3))), batches)
+  }
+
+  @Test
+  fun sharded_conversationListIsNotifiedAfterTheConversation() {
+    val sharded = DatabaseObserver(true)
+    val events = CopyOnWriteArrayList<String>()
+
+    sharded.registerConversationObserver(1) { events += "conversation" }
+    sharded.registerConversationListObserver { events += "list" }
+    sharded.flush()
+
+    sharded.notifyConversationListeners(1)
+    sharded.notifyConversationListListeners()
+    sharded.flush()
+
+    assertEquals(listOf("conversation", "list"), events)
+  }
+
+  @Test
+  fun sharded_slowObserverDoesNotBlockOtherShards() {
+    val sharded = DatabaseObserver(true)
+    val release = CountDownLatch(1)
+    val messageChanged = CountDownLatch(1)
+
+    sharded.registerConversationListObserver { release.await() }
+    sharded.registerMessageUpdateObserver { messageChanged.countDown() }
+
+    sharded.notifyConversationListListeners()
+    sharded.notifyMessageUpdateObservers(MessageId(1))
+
+    assertTrue(messageChanged.await(5, TimeUnit.SECONDS))
+
+    release.countDown()
+    sharded.flush()
+  }
+
+  @Test
+  fun sharded_coalescesRepeatedNotifications() {
+    val sharded = DatabaseObserver(true)
+    val count = AtomicInteger(0)
+
+    sharded.registerConversationObserver(1) { count.incrementAndGet() }
+    sharded.flush()
+
+    repeat(10) { sharded.notifyConversationListeners(1) }
+    sharded.flush()
+
+    assertEquals(1, count.get())
+    assertEquals(9, sharded.coalescedCount)
+  }
 }
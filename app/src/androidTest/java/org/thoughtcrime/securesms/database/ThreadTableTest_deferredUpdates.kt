@@ -0,0 +1,65 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+
+@Suppress("ClassName")
+class ThreadTableTest_deferredUpdates {
+
+  @Rule
+  @JvmField
+  val databaseRule = SignalDatabaseRule()
+
+  private lateinit var recipient: Recipient
+
+  @Before
+  fun setUp() {
+    recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+  }
+
+  @Test
+  fun givenMessagesInsertedWhileDeferred_whenTheBlockFinishes_thenIExpectTheThreadToBeUpdatedOnce() {
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+
+    SignalDatabase.threads.withDeferredUpdates {
+      MmsHelper.insert(recipient = recipient, threadId = threadId, body = "first", sentTimeMillis = 1000)
+      MmsHelper.insert(recipient = recipient, threadId = threadId, body = "second", sentTimeMillis = 2000)
+
+      assertNotEquals("second", SignalDatabase.threads.getThreadRecord(threadId)!!.body)
+    }
+
+    assertEquals("second", SignalDatabase.threads.getThreadRecord(threadId)!!.body)
+  }
+
+  @Test
+  fun givenAThreadWithNoMessages_whenAnyDeferredUpdateDisallowsDeletion_thenIExpectTheThreadToBeKept() {
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+
+    SignalDatabase.threads.withDeferredUpdates {
+      assertFalse(SignalDatabase.threads.update(threadId, unarchive = false, allowDeletion = false))
+      assertFalse(SignalDatabase.threads.update(threadId, unarchive = false))
+    }
+
+    assertTrue(SignalDatabase.threads.containsId(threadId))
+
+    SignalDatabase.threads.withDeferredUpdates {
+      SignalDatabase.threads.update(threadId, unarchive = false)
+    }
+
+    assertFalse(SignalDatabase.threads.containsId(threadId))
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.messages
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+
+/**
+ * Compares draining [MESSAGE_COUNT] incoming messages into a single busy group, [GROUP_SIZE] messages per transaction (like a group commit in
+ * [IncomingMessageObserver]), with the thread recomputed after every message against with thread updates deferred to the end of each
+ * transaction.
+ *
+ * Each case is run [RUNS] times and the median is logged. We also check that the unread count on the thread stays accurate either way.
+ */
+@Ignore("Benchmark. Run manually on a real device.")
+@RunWith(AndroidJUnit4::class)
+class DeferredThreadUpdateBenchmark {
+
+  companion object {
+    private val TAG = Log.tag(DeferredThreadUpdateBenchmark::class.java)
+
+    private const val MESSAGE_COUNT = 300
+    private const val GROUP_SIZE = 30
+    private const val RUNS = 5
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(createGroup = true)
+
+  private lateinit var messageHelper: MessageHelper
+
+  @Before
+  fun setUp() {
+    messageHelper = MessageHelper(harness)
+  }
+
+  @After
+  fun tearDown() {
+    messageHelper.tearDown()
+  }
+
+  @Test
+  fun drainIntoBusyGroup() {
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(Recipient.resolved(messageHelper.group.recipientId))
+
+    val immediateMs = (0 until RUNS).map {
+      drain(deferred = false)
+    }.sorted()
+    val immediate = SignalDatabase.threads.getThreadRecord(threadId)!!
+    assertEquals(SignalDatabase.messages.getUnreadCount(threadId), immediate.unreadCount)
+
+    val deferredMs = (0 until RUNS).map {
+      drain(deferred = true)
+    }.sorted()
+    val deferred = SignalDatabase.threads.getThreadRecord(threadId)!!
+    assertEquals(SignalDatabase.messages.getUnreadCount(threadId), deferred.unreadCount)
+    assertEquals(immediate.unreadCount + MESSAGE_COUNT * RUNS, deferred.unreadCount)
+
+    Log.i(
+      TAG,
+      "[$MESSAGE_COUNT messages, $GROUP_SIZE per transaction] " +
+        "immediate: ${immediateMs[RUNS / 2]} ms (${MESSAGE_COUNT * 1000L / immediateMs[RUNS / 2].coerceAtLeast(1)} msg/s), " +
+        "deferred: ${deferredMs[RUNS / 2]} ms (${MESSAGE_COUNT * 1000L / deferredMs[RUNS / 2].coerceAtLeast(1)} msg/s) " +
+        "(all runs: $immediateMs vs $deferredMs)"
+    )
+  }
+
+  private fun drain(deferred: Boolean): Long {
+    val start = System.currentTimeMillis()
+
+    for (group in 0 until MESSAGE_COUNT / GROUP_SIZE) {
+      SignalDatabase.runInTransaction {
+        if (deferred) {
+          SignalDatabase.threads.withDeferredUpdates { processGroup(group) }
+        } else {
+          processGroup(group)
+        }
+      }
+    }
+
+    return System.currentTimeMillis() - start
+  }
+
+  private fun processGroup(group: Int) {
+    repeat(GROUP_SIZE) {
+      val sender = if ((group + it) % 2 == 0) messageHelper.alice else messageHelper.bob
+      messageHelper.incomingText(sender = sender, destination = messageHelper.group.recipientId)
+    }
+  }
+}
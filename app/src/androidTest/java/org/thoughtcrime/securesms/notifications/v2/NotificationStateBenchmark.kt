@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.notifications.v2
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.insertInto
+import org.signal.core.util.logging.Log
+import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.database.MessageTable
+import org.thoughtcrime.securesms.database.MessageTypes
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import kotlin.random.Random
+
+/**
+ * Compares rebuilding the notification state from scratch against updating it after a single new message, with [MESSAGE_COUNT] unread messages
+ * spread across [THREAD_COUNT] threads.
+ *
+ * Each case is run [RUNS] times and the median is logged. We also check that both produce the same notification.
+ *
+ * Generating the database takes a while, so this is ignored by default. Run it manually on a real device for meaningful numbers.
+ */
+@Ignore("Benchmark. Run manually on a real device.")
+@RunWith(AndroidJUnit4::class)
+class NotificationStateBenchmark {
+
+  companion object {
+    private val TAG = Log.tag(NotificationStateBenchmark::class.java)
+
+    private const val MESSAGE_COUNT = 5_000
+    private const val THREAD_COUNT = 200
+    private const val RUNS = 9
+    private const val START_TIME = 1_700_000_000_000L
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule(othersCount = THREAD_COUNT)
+
+  private val random = Random(1234)
+  private var messageCount = 0
+
+  @Test
+  fun constructNotificationState_5kUnreadMessages() {
+    AppDependencies.jobManager.shutdown()
+
+    val threads: List<Pair<Long, Long>> = harness.others.map { it.toLong() to SignalDatabase.threads.getOrCreateThreadIdFor(Recipient.resolved(it)) }
+    insertMessages(threads, MESSAGE_COUNT)
+
+    val fullMs = (0 until RUNS).map {
+      NotificationStateProvider.clearCache()
+      time { NotificationStateProvider.constructNotificationState(emptyMap(), null) }
+    }.sorted()
+
+    val incrementalMs = (0 until RUNS).map {
+      insertMessages(threads, 1)
+      time { NotificationStateProvider.constructNotificationState(emptyMap(), null) }
+    }.sorted()
+
+    val incremental = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+    NotificationStateProvider.clearCache()
+    val full = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+
+    assertEquals(full.messageCount, incremental.messageCount)
+    assertEquals(full.conversations.map { it.thread }, incremental.conversations.map { it.thread })
+
+    Log.i(TAG, "[$MESSAGE_COUNT messages, $THREAD_COUNT threads] full: ${fullMs[RUNS / 2]} ms, incremental: ${incrementalMs[RUNS / 2]} ms (all runs: $fullMs vs $incrementalMs)")
+  }
+
+  private fun time(block: () -> Unit): Long {
+    val start = System.currentTimeMillis()
+    block()
+    return System.currentTimeMillis() - start
+  }
+
+  /**
+   * Inserts unread incoming messages directly (rather than through [MessageTable]) to keep setup time reasonable.
+   */
+  private fun insertMessages(threads: List<Pair<Long, Long>>, count: Int) {
+    val self = harness.self.id.toLong()
+
+    SignalDatabase.rawDatabase.withinTransaction { db ->
+      repeat(count) {
+        val (recipientId, threadId) = threads[random.nextInt(threads.size)]
+        val timestamp = START_TIME + messageCount++ * 1000L
+
+        db.insertInto(MessageTable.TABLE_NAME)
+          .values(
+            MessageTable.THREAD_ID to threadId,
+            MessageTable.FROM_RECIPIENT_ID to recipientId,
+            MessageTable.TO_RECIPIENT_ID to self,
+            MessageTable.DATE_SENT to timestamp,
+            MessageTable.DATE_RECEIVED to timestamp,
+            MessageTable.DATE_SERVER to timestamp,
+            MessageTable.TYPE to (MessageTypes.BASE_INBOX_TYPE or MessageTypes.SECURE_MESSAGE_BIT or MessageTypes.PUSH_MESSAGE_BIT),
+            MessageTable.BODY to "Message $messageCount",
+            MessageTable.READ to 0
+          )
+          .run()
+      }
+    }
+  }
+}
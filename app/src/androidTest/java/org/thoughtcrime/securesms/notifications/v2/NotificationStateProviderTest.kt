@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.notifications.v2
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.messages.MessageHelper
+import org.thoughtcrime.securesms.profiles.ProfileName
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+
+@RunWith(AndroidJUnit4::class)
+class NotificationStateProviderTest {
+
+  @get:Rule
+  val harness = SignalActivityRule(createGroup = true)
+
+  private lateinit var messageHelper: MessageHelper
+
+  @Before
+  fun setUp() {
+    messageHelper = MessageHelper(harness)
+    NotificationStateProvider.clearCache()
+  }
+
+  @After
+  fun tearDown() {
+    messageHelper.tearDown()
+  }
+
+  @Test
+  fun givenACachedMessage_whenTheAuthorIsRenamed_thenIExpectTheNewName() {
+    messageHelper.incomingText(sender = messageHelper.alice)
+    setProfileName(messageHelper.alice, "Alice", "Before")
+
+    val before = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+    assertEquals(listOf("Alice Before"), before.notificationItems.map { it.authorRecipient.getDisplayName(harness.context) })
+
+    setProfileName(messageHelper.alice, "Alice", "After")
+
+    val after = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+    assertEquals(listOf("Alice After"), after.notificationItems.map { it.authorRecipient.getDisplayName(harness.context) })
+  }
+
+  @Test
+  fun givenACachedMessage_whenTheThreadBecomesSticky_thenIExpectTheSameNotification() {
+    messageHelper.incomingText(sender = messageHelper.alice)
+
+    val before = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+    val thread = before.conversations.single().thread
+    val stickyThread = DefaultMessageNotifier.StickyThread(thread, before.conversations.single().notificationId, before.notificationItems.single().timestamp)
+
+    val after = NotificationStateProvider.constructNotificationState(mapOf(thread to stickyThread), null)
+    assertEquals(before.notificationItems.map { it.id }, after.notificationItems.map { it.id })
+  }
+
+  @Test
+  fun givenACachedMessage_whenItIsNotified_thenIExpectItToNoLongerBeNew() {
+    messageHelper.incomingText(sender = messageHelper.alice)
+
+    val before = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+    assertEquals(listOf(true), before.notificationItems.map { it.isNewNotification })
+
+    SignalDatabase.messages.setNotifiedTimestamp(System.currentTimeMillis(), before.notificationItems.map { it.id })
+
+    val after = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+    assertEquals(listOf(false), after.notificationItems.map { it.isNewNotification })
+  }
+
+  private fun setProfileName(id: RecipientId, given: String, family: String) {
+    SignalDatabase.recipients.setProfileName(id, ProfileName.fromParts(given, family))
+    Recipient.live(id).refresh()
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.video
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.video.postprocessing.Mp4FaststartPostProcessor
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.security.MessageDigest
+import kotlin.random.Random
+
+/**
+ * Compares the stream and file channel versions of [Mp4FaststartPostProcessor] on a synthetic [MEDIA_DATA_SIZE] byte MP4 with its metadata at
+ * the end, the way our transcoder writes them. Each version is run [RUNS] times and the median is logged. Both must produce the same file.
+ *
+ * The synthetic file only has the boxes the sanitizer looks at, with a single track whose samples are filled with random bytes.
+ *
+ * Writing the file takes a while, so this is ignored by default. Run it manually on a real device for meaningful numbers.
+ */
+@Ignore("Benchmark. Run manually on a real device.")
+@RunWith(AndroidJUnit4::class)
+class Mp4FaststartBenchmark {
+
+  companion object {
+    private val TAG = Log.tag(Mp4FaststartBenchmark::class.java)
+
+    private const val SAMPLE_SIZE = 1024 * 1024
+    private const val SAMPLE_COUNT = 500
+    private const val MEDIA_DATA_SIZE = SAMPLE_SIZE.toLong() * SAMPLE_COUNT
+    private const val RUNS = 3
+  }
+
+  private lateinit var input: File
+  private lateinit var output: File
+
+  @Before
+  fun setUp() {
+    val cacheDir = InstrumentationRegistry.getInstrumentation().targetContext.cacheDir
+    input = File(cacheDir, "faststart-input.mp4")
+    output = File(cacheDir, "faststart-output.mp4")
+    writeSyntheticMp4(input)
+  }
+
+  @After
+  fun tearDown() {
+    input.delete()
+    output.delete()
+  }
+
+  @Test
+  fun faststart_500mb() {
+    val streamDigest = runStream()
+    val channelDigest = runChannel()
+    assertArrayEquals(streamDigest, channelDigest)
+
+    val streamMs = (0 until RUNS).map { time { runStream() } }.sorted()
+    val channelMs = (0 until RUNS).map { time { runChannel() } }.sorted()
+
+    Log.i(TAG, "[$MEDIA_DATA_SIZE bytes] stream: ${streamMs[RUNS / 2]} ms, channel: ${channelMs[RUNS / 2]} ms (all runs: $streamMs vs $channelMs)")
+  }
+
+  private fun runStream(): ByteArray {
+    FileOutputStream(output).use { outputStream ->
+      val written = Mp4FaststartPostProcessor { FileInputStream(input) }.processAndWriteTo(outputStream)
+      assertEquals(input.length(), written)
+    }
+    return digest(output)
+  }
+
+  private fun runChannel(): ByteArray {
+    FileInputStream(input).use { inputStream ->
+      FileOutputStream(output).use { outputStream ->
+        val written = Mp4FaststartPostProcessor.processAndWriteTo(inputStream.channel, outputStream)
+        assertEquals(input.length(), written)
+      }
+    }
+    return digest(output)
+  }
+
+  private fun time(block: () -> Unit): Long {
+    val start = System.currentTimeMillis()
+    block()
+    return System.currentTimeMillis() - start
+  }
+
+  private fun digest(file: File): ByteArray {
+    val digest = MessageDigest.getInstance("SHA-256")
+    val buffer = ByteArray(64 * 1024)
+
+    FileInputStream(file).use { inputStream ->
+      while (true) {
+        val read = inputStream.read(buffer)
+        if (read == -1) break
+        digest.update(buffer, 0, read)
+      }
+    }
+
+    return digest.digest()
+  }
+
+  /**
+   * Writes ftyp, then mdat, then moov, with the chunk offset pointing at the start of the media data.
+   */
+  private fun writeSyntheticMp4(file: File) {
+    val ftyp = box("ftyp") {
+      writeBytes("isom")
+      writeInt(0x200)
+      writeBytes("isomiso2mp41")
+    }
+
+    val mediaDataOffset = ftyp.size + 8L
+
+    val sample = Random(1234).nextBytes(SAMPLE_SIZE)
+
+    DataOutputStream(FileOutputStream(file).buffered(SAMPLE_SIZE)).use { out ->
+      out.write(ftyp)
+      out.writeInt((MEDIA_DATA_SIZE + 8).toInt())
+      out.writeBytes("mdat")
+      repeat(SAMPLE_COUNT) { out.write(sample) }
+      out.write(moov(mediaDataOffset))
+    }
+  }
+
+  private fun moov(mediaDataOffset: Long): ByteArray {
+    return box("moov") {
+      write(
+        fullBox("mvhd") {
+          writeInt(0) // creation time
+          writeInt(0) // modification time
+          writeInt(1000) // timescale
+          writeInt(SAMPLE_COUNT * 33) // duration
+          writeInt(0x00010000) // rate
+          writeShort(0x0100) // volume
+          write(ByteArray(10))
+          writeMatrix()
+          write(ByteArray(24))
+          writeInt(2) // next track id
+        }
+      )
+      write(
+        box("trak") {
+          write(
+            fullBox("tkhd", flags = 3) {
+              writeInt(0) // creation time
+              writeInt(0) // modification time
+              writeInt(1) // track id
+              writeInt(0)
+              writeInt(SAMPLE_COUNT * 33) // duration
+              write(ByteArray(8))
+              writeShort(0) // layer
+              writeShort(0) // alternate group
+              writeShort(0) // volume
+              writeShort(0)
+              writeMatrix()
+              writeInt(1280 shl 16) // width
+              writeInt(720 shl 16) // height
+            }
+          )
+          write(
+            box("mdia") {
+              write(
+                fullBox("mdhd") {
+                  writeInt(0) // creation time
+                  writeInt(0) // modification time
+                  writeInt(1000) // timescale
+                  writeInt(SAMPLE_COUNT * 33) // duration
+                  writeShort(0x55c4) // language
+                  writeShort(0)
+                }
+              )
+              write(
+                fullBox("hdlr") {
+                  writeInt(0)
+                  writeBytes("vide")
+                  write(ByteArray(12))
+                  writeByte(0) // name
+                }
+              )
+              write(
+                box("minf") {
+                  write(
+                    fullBox("vmhd", flags = 1) {
+                      write(ByteArray(8))
+                    }
+                  )
+                  write(
+                    box("dinf") {
+                      write(
+                        fullBox("dref") {
+                          writeInt(1)
+                          write(fullBox("url ", flags = 1) {})
+                        }
+                      )
+                    }
+                  )
+                  write(
+                    box("stbl") {
+                      write(fullBox("stsd") { writeInt(0) })
+                      write(
+                        fullBox("stts") {
+                          writeInt(1)
+                          writeInt(SAMPLE_COUNT)
+                          writeInt(33)
+                        }
+                      )
+                      write(
+                        fullBox("stsc") {
+                          writeInt(1)
+                          writeInt(1) // first chunk
+                          writeInt(SAMPLE_COUNT) // samples per chunk
+                          writeInt(1) // sample description index
+                        }
+                      )
+                      write(
+                        fullBox("stsz") {
+                          writeInt(SAMPLE_SIZE)
+                          writeInt(SAMPLE_COUNT)
+                        }
+                      )
+                      write(
+                        fullBox("stco") {
+                          writeInt(1)
+                          writeInt(mediaDataOffset.toInt())
+                        }
+                      )
+                    }
+                  )
+                }
+              )
+            }
+          )
+        }
+      )
+    }
+  }
+
+  private fun DataOutputStream.writeMatrix() {
+    intArrayOf(0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000).forEach { writeInt(it) }
+  }
+
+  private fun box(type: String, content: DataOutputStream.() -> Unit): ByteArray {
+    val body = ByteArrayOutputStream()
+    DataOutputStream(body).use { it.content() }
+
+    val box = ByteArrayOutputStream()
+    DataOutputStream(box).use {
+      it.writeInt(body.size() + 8)
+      it.writeBytes(type)
+      it.write(body.toByteArray())
+    }
+
+    return box.toByteArray()
+  }
+
+  private fun fullBox(type: String, version: Int = 0, flags: Int = 0, content: DataOutputStream.() -> Unit): ByteArray {
+    return box(type) {
+      writeInt((version shl 24) or flags)
+      content()
+    }
+  }
+}
@@ -127,22 +127,31 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
             }
         }
         frameBuffer = ByteBuffer.allocate((canvasWidth * canvasHeight / (sampleSize * sampleSize) + 1) * 4);
-        snapShot.byteBuffer = ByteBuffer.allocate((canvasWidth * canvasHeight / (sampleSize * sampleSize) + 1) * 4);
+        snapShot.byteBuffer = null;
         return new Rect(0, 0, canvasWidth, canvasHeight);
     }
 
+    /**
+     * Only frames that dispose to the previous frame need a snapshot, so most images never allocate one.
+     */
+    private ByteBuffer getSnapShotBuffer() {
+        if (snapShot.byteBuffer == null) {
+            snapShot.byteBuffer = ByteBuffer.allocate((fullRect.width() * fullRect.height() / (sampleSize * sampleSize) + 1) * 4);
+        }
+        return snapShot.byteBuffer;
+    }
+
     @Override
     protected void renderFrame(Frame frame) {
         if (frame == null || fullRect == null) {
             return;
         }
+        Bitmap bitmap   = null;
+        Bitmap inBitmap = null;
+        Bitmap drawn    = null;
         try {
-            Bitmap bitmap = obtainBitmap(fullRect.width() / sampleSize, fullRect.height() / sampleSize);
-            Canvas canvas = cachedCanvas.get(bitmap);
-            if (canvas == null) {
-                canvas = new Canvas(bitmap);
-                cachedCanvas.put(bitmap, canvas);
-            }
+            bitmap = obtainBitmap(fullRect.width() / sampleSize, fullRect.height() / sampleSize);
+            Canvas canvas = obtainCanvas(bitmap);
             if (frame instanceof APNGFrame) {
                 // 从缓存中恢复当前帧
                 frameBuffer.rewind();
@@ -156,8 +165,9 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
                     switch (snapShot.dispose_op) {
                         // 从快照中恢复上一帧之前的显示内容
                         case FCTLChunk.APNG_DISPOSE_OP_PREVIOUS:
-                            snapShot.byteBuffer.rewind();
-                            bitmap.copyPixelsFromBuffer(snapShot.byteBuffer);
+                            ByteBuffer previous = getSnapShotBuffer();
+                            previous.rewind();
+                            bitmap.copyPixelsFromBuffer(previous);
                             break;
                         // 清空上一帧所画区域
                         case FCTLChunk.APNG_DISPOSE_OP_BACKGROUND:
@@ -174,8 +184,9 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
                 // 然后根据dispose设定传递到快照信息中
                 if (((APNGFrame) frame).dispose_op == FCTLChunk.APNG_DISPOSE_OP_PREVIOUS) {
                     if (snapShot.dispose_op != FCTLChunk.APNG_DISPOSE_OP_PREVIOUS) {
-                        snapShot.byteBuffer.rewind();
-                        bitmap.copyPixelsToBuffer(snapShot.byteBuffer);
+                        ByteBuffer previous = getSnapShotBuffer();
+                        previous.rewind();
+                        bitmap.copyPixelsToBuffer(previous);
                     }
                 }
 
@@ -198,14 +209,21 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
                 canvas.restore();
             }
             //开始真正绘制当前帧的内容
-            Bitmap inBitmap = obtainBitmap(frame.frameWidth, frame.frameHeight);
-            recycleBitmap(frame.draw(canvas, paint, sampleSize, inBitmap, getWriter()));
-            recycleBitmap(inBitmap);
+            inBitmap = obtainBitmap(frame.frameWidth, frame.frameHeight);
+            drawn = frame.draw(canvas, paint, sampleSize, inBitmap, getWriter());
             frameBuffer.rewind();
             bitmap.copyPixelsToBuffer(frameBuffer);
-            recycleBitmap(bitmap);
         } catch (Throwable t) {
             Log.e(TAG, "Failed to render!", t);
+        } finally {
+            // Everything goes back to the pool even if drawing failed, or it'd never be reused, and its canvas would never be let go of.
+            recycleBitmap(drawn);
+            if (inBitmap != drawn) {
+                recycleBitmap(inBitmap);
+            }
+            if (bitmap != drawn && bitmap != inBitmap) {
+                recycleBitmap(bitmap);
+            }
         }
     }
 }
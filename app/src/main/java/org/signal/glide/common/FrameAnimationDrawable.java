@@ -204,6 +204,11 @@ public abstract class FrameAnimationDrawable<Decoder extends FrameSeqDecoder> ex
         Message.obtain(uiHandler, MSG_ANIMATION_END).sendToTarget();
     }
 
+    @Override
+    public boolean isOnScreen() {
+        return isVisible() && getCallback() != null;
+    }
+
     @Override
     public boolean setVisible(boolean visible, boolean restart) {
         if (this.autoPlay) {
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.glide.common.decode;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.logging.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A process-wide pool of bitmaps for decoding animation frames, shared by every {@link FrameSeqDecoder}.
+ * <p>
+ * Bitmaps are bucketed by the power of two just below their allocation size, and reconfigured to the size that's asked for. Released bitmaps are
+ * kept until they add up to {@link #getMaxBytes()}, after which the least recently released ones are recycled. Decoders don't recycle anything
+ * themselves when they stop; whatever they released stays here for the next decoder.
+ */
+public final class FrameBitmapPool {
+
+  private static final String TAG = Log.tag(FrameBitmapPool.class);
+
+  private static final int  BUCKET_COUNT    = 31;
+  private static final long MAX_BYTES_LIMIT = 32 * 1024 * 1024;
+
+  private static final FrameBitmapPool INSTANCE = new FrameBitmapPool(Math.min(Runtime.getRuntime().maxMemory() / 16, MAX_BYTES_LIMIT));
+
+  @SuppressWarnings("unchecked")
+  private final ArrayDeque<Bitmap>[]  buckets  = new ArrayDeque[BUCKET_COUNT];
+  private final LinkedHashSet<Bitmap> released = new LinkedHashSet<>();
+  private final Map<Bitmap, Canvas>   canvases = new WeakHashMap<>();
+  private final long                  maxBytes;
+
+  private long pooledBytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long allocatedBytes;
+
+  public static @NonNull FrameBitmapPool getInstance() {
+    return INSTANCE;
+  }
+
+  private FrameBitmapPool(long maxBytes) {
+    this.maxBytes = maxBytes;
+
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * @return A cleared ARGB_8888 bitmap of the given size, or null if one couldn't be allocated.
+   */
+  public synchronized @Nullable Bitmap obtain(int width, int height) {
+    long needed = (long) width * height * 4;
+
+    for (int bucket = bucketFor(needed); bucket < buckets.length; bucket++) {
+      Iterator<Bitmap> iterator = buckets[bucket].iterator();
+
+      while (iterator.hasNext()) {
+        Bitmap bitmap = iterator.next();
+
+        if (bitmap.getAllocationByteCount() >= needed) {
+          iterator.remove();
+          released.remove(bitmap);
+          pooledBytes -= bitmap.getAllocationByteCount();
+          hits++;
+
+          if (bitmap.getWidth() != width || bitmap.getHeight() != height || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+            canvases.remove(bitmap);
+          }
+          bitmap.eraseColor(0);
+          return bitmap;
+        }
+      }
+    }
+
+    misses++;
+
+    try {
+      Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      allocatedBytes += bitmap.getAllocationByteCount();
+      return bitmap;
+    } catch (OutOfMemoryError e) {
+      Log.w(TAG, "Failed to allocate a " + width + "x" + height + " frame. Clearing the pool.", e);
+      trimTo(0);
+      return null;
+    }
+  }
+
+  /**
+   * Returns a bitmap to the pool. The caller must not use it afterwards. Releasing the same bitmap twice is fine.
+   */
+  public synchronized void release(@Nullable Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || released.contains(bitmap)) {
+      return;
+    }
+
+    int size = bitmap.getAllocationByteCount();
+    if (size > maxBytes) {
+      canvases.remove(bitmap);
+      bitmap.recycle();
+      evictions++;
+      return;
+    }
+
+    buckets[bucketFor(size)].addLast(bitmap);
+    released.add(bitmap);
+    pooledBytes += size;
+
+    trimTo(maxBytes);
+  }
+
+  /**
+   * A canvas that draws into the bitmap, reused for as long as the bitmap keeps its size.
+   */
+  public synchronized @NonNull Canvas getCanvas(@NonNull Bitmap bitmap) {
+    Canvas canvas = canvases.get(bitmap);
+    if (canvas == null) {
+      canvas = new Canvas(bitmap);
+      canvases.put(bitmap, canvas);
+    }
+    return canvas;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized @NonNull Stats getStats() {
+    return new Stats(maxBytes, pooledBytes, released.size(), hits, misses, evictions, allocatedBytes);
+  }
+
+  private void trimTo(long bytes) {
+    Iterator<Bitmap> iterator = released.iterator();
+
+    while (pooledBytes > bytes && iterator.hasNext()) {
+      Bitmap bitmap = iterator.next();
+      int    size   = bitmap.getAllocationByteCount();
+
+      iterator.remove();
+      buckets[bucketFor(size)].remove(bitmap);
+      canvases.remove(bitmap);
+      pooledBytes -= size;
+      evictions++;
+
+      bitmap.recycle();
+    }
+  }
+
+  private static int bucketFor(long bytes) {
+    if (bytes <= 1) {
+      return 0;
+    }
+    return Math.min(63 - Long.numberOfLeadingZeros(bytes), BUCKET_COUNT - 1);
+  }
+
+  public static final class Stats {
+    public final long maxBytes;
+    public final long pooledBytes;
+    public final int  pooledBitmaps;
+    public final long hits;
+    public final long misses;
+    public final long evictions;
+    public final long allocatedBytes;
+
+    Stats(long maxBytes, long pooledBytes, int pooledBitmaps, long hits, long misses, long evictions, long allocatedBytes) {
+      this.maxBytes       = maxBytes;
+      this.pooledBytes    = pooledBytes;
+      this.pooledBitmaps  = pooledBitmaps;
+      this.hits           = hits;
+      this.misses         = misses;
+      this.evictions      = evictions;
+      this.allocatedBytes = allocatedBytes;
+    }
+
+    public float getHitRate() {
+      long total = hits + misses;
+      return total == 0 ? 0 : (float) hits / total;
+    }
+  }
+}
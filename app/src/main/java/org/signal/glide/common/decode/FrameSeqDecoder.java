@@ -8,15 +8,16 @@ package org.signal.glide.common.decode;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Rect;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import org.signal.core.util.logging.Log;
 import org.signal.glide.common.executor.FrameDecoderExecutor;
+import org.signal.glide.common.executor.FrameScheduler;
 import org.signal.glide.common.io.Reader;
 import org.signal.glide.common.io.Writer;
 import org.signal.glide.common.loader.Loader;
@@ -25,11 +26,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.LockSupport;
 
@@ -51,17 +49,45 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     private Set<RenderListener> renderListeners = new HashSet<>();
     private AtomicBoolean paused = new AtomicBoolean(true);
     private static final Rect RECT_EMPTY = new Rect();
+    /**
+     * When the next frame is due, in {@link SystemClock#uptimeMillis()}, or 0 to start the timeline over from the next frame.
+     */
+    private long nextFrameAt = 0;
+    private int coalescedFramesInRow = 0;
     private Runnable renderTask = new Runnable() {
         @Override
         public void run() {
             if (paused.get()) {
                 return;
             }
+            if (frameIndex >= 0 && !isOnScreen()) {
+                nextFrameAt = 0;
+                FrameScheduler.getInstance().onOffscreen();
+                workerHandler.postDelayed(this, FrameScheduler.OFFSCREEN_POLL_MS);
+                return;
+            }
             if (canStep()) {
-                long start = System.currentTimeMillis();
+                if (nextFrameAt == 0) {
+                    nextFrameAt = SystemClock.uptimeMillis();
+                }
                 long delay = step();
-                long cost = System.currentTimeMillis() - start;
-                workerHandler.postDelayed(this, Math.max(0, delay - cost));
+                long now = SystemClock.uptimeMillis();
+                nextFrameAt += delay;
+
+                switch (FrameScheduler.getInstance().onFrameComposed(now - nextFrameAt, coalescedFramesInRow)) {
+                    case SKIP:
+                        coalescedFramesInRow++;
+                        workerHandler.post(this);
+                        return;
+                    case RENDER_AND_RESYNC:
+                        nextFrameAt = now + delay;
+                        break;
+                    case RENDER:
+                        break;
+                }
+
+                coalescedFramesInRow = 0;
+                workerHandler.postDelayed(this, Math.max(0, nextFrameAt - now));
                 for (RenderListener renderListener : renderListeners) {
                     renderListener.onRender(frameBuffer);
                 }
@@ -72,8 +98,6 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     };
     protected int sampleSize = 1;
 
-    private Set<Bitmap> cacheBitmaps = new HashSet<>();
-    protected Map<Bitmap, Canvas> cachedCanvas = new WeakHashMap<>();
     protected ByteBuffer frameBuffer;
     protected volatile Rect fullRect;
     private W mWriter = getWriter();
@@ -102,45 +126,15 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     protected abstract R getReader(Reader reader);
 
     protected Bitmap obtainBitmap(int width, int height) {
-        Bitmap ret = null;
-        Iterator<Bitmap> iterator = cacheBitmaps.iterator();
-        while (iterator.hasNext()) {
-            int reuseSize = width * height * 4;
-            ret = iterator.next();
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                if (ret != null && ret.getAllocationByteCount() >= reuseSize) {
-                    iterator.remove();
-                    if (ret.getWidth() != width || ret.getHeight() != height) {
-                        ret.reconfigure(width, height, Bitmap.Config.ARGB_8888);
-                    }
-                    ret.eraseColor(0);
-                    return ret;
-                }
-            } else {
-                if (ret != null && ret.getByteCount() >= reuseSize) {
-                    if (ret.getWidth() == width && ret.getHeight() == height) {
-                        iterator.remove();
-                        ret.eraseColor(0);
-                    }
-                    return ret;
-                }
-            }
-        }
+        return FrameBitmapPool.getInstance().obtain(width, height);
+    }
 
-        try {
-            Bitmap.Config config = Bitmap.Config.ARGB_8888;
-            ret = Bitmap.createBitmap(width, height, config);
-        } catch (OutOfMemoryError e) {
-            e.printStackTrace();
-        }
-        return ret;
+    protected Canvas obtainCanvas(Bitmap bitmap) {
+        return FrameBitmapPool.getInstance().getCanvas(bitmap);
     }
 
     protected void recycleBitmap(Bitmap bitmap) {
-        if (bitmap != null && !cacheBitmaps.contains(bitmap)) {
-            cacheBitmaps.add(bitmap);
-        }
+        FrameBitmapPool.getInstance().release(bitmap);
     }
 
     /**
@@ -161,6 +155,13 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
          * 播放结束
          */
         void onEnd();
+
+        /**
+         * Whether anything that's rendered is visible. Frames aren't decoded while no listener is on screen.
+         */
+        default boolean isOnScreen() {
+            return true;
+        }
     }
 
 
@@ -304,6 +305,8 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
         }
         if (getNumPlays() == 0 || !finished) {
             this.frameIndex = -1;
+            this.nextFrameAt = 0;
+            this.coalescedFramesInRow = 0;
             renderTask.run();
             for (RenderListener renderListener : renderListeners) {
                 renderListener.onStart();
@@ -317,16 +320,9 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     private void innerStop() {
         workerHandler.removeCallbacks(renderTask);
         frames.clear();
-        for (Bitmap bitmap : cacheBitmaps) {
-            if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.recycle();
-            }
-        }
-        cacheBitmaps.clear();
         if (frameBuffer != null) {
             frameBuffer = null;
         }
-        cachedCanvas.clear();
         try {
             if (mReader != null) {
                 mReader.close();
@@ -449,6 +445,15 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
 
     protected abstract Rect read(R reader) throws IOException;
 
+    private boolean isOnScreen() {
+        for (RenderListener renderListener : renderListeners) {
+            if (renderListener.isOnScreen()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private int getNumPlays() {
         return this.loopLimit != null ? this.loopLimit : this.getLoopCount();
     }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.glide.common.executor;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when each animation decoder should show its next frame, and keeps count of what was decided across all of them.
+ * <p>
+ * Every decoder keeps a timeline of when its next frame is due. When a decoder thread falls behind that timeline (because it's shared with other
+ * decoders, or the device is busy), the frames that are already late are still composed, since each frame draws on top of the last, but aren't
+ * handed to the drawable. A decoder that falls very far behind skips ahead instead of trying to catch up. A decoder that nothing is showing on
+ * screen doesn't decode at all, and only checks back every so often.
+ */
+public final class FrameScheduler {
+
+  /** How often a decoder that isn't on screen checks whether it's back on screen. */
+  public static final long OFFSCREEN_POLL_MS = 500;
+
+  /** How late a decoder can fall before it gives up on catching up and restarts its timeline from now. */
+  private static final long MAX_LATENESS_MS = 500;
+
+  /** How many late frames in a row can be composed without being shown, so a slow decoder still shows something. */
+  private static final int MAX_COALESCED_FRAMES = 4;
+
+  private static final FrameScheduler INSTANCE = new FrameScheduler();
+
+  private final AtomicLong rendered  = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong resynced  = new AtomicLong();
+  private final AtomicLong offscreen = new AtomicLong();
+
+  public static @NonNull FrameScheduler getInstance() {
+    return INSTANCE;
+  }
+
+  private FrameScheduler() {}
+
+  /**
+   * @param lateness             How long ago the frame after the one that was just composed became due. Negative when there's still time to
+   *                             show the one that was just composed. A decoder that was paused comes back far behind, and so starts over.
+   * @param coalescedFramesInRow How many frames before this one in a row were composed without being shown.
+   */
+  public @NonNull Decision onFrameComposed(long lateness, int coalescedFramesInRow) {
+    if (lateness > MAX_LATENESS_MS) {
+      resynced.incrementAndGet();
+      rendered.incrementAndGet();
+      return Decision.RENDER_AND_RESYNC;
+    }
+
+    if (lateness > 0 && coalescedFramesInRow < MAX_COALESCED_FRAMES) {
+      coalesced.incrementAndGet();
+      return Decision.SKIP;
+    }
+
+    rendered.incrementAndGet();
+    return Decision.RENDER;
+  }
+
+  public void onOffscreen() {
+    offscreen.incrementAndGet();
+  }
+
+  public @NonNull Stats getStats() {
+    return new Stats(rendered.get(), coalesced.get(), resynced.get(), offscreen.get());
+  }
+
+  public enum Decision {
+    /** Show the frame, and wait until the next one is due. */
+    RENDER,
+    /** Show the frame, and start the timeline over from now. */
+    RENDER_AND_RESYNC,
+    /** Don't show the frame, and go straight on to the next one. */
+    SKIP
+  }
+
+  public static final class Stats {
+    public final long rendered;
+    public final long coalesced;
+    public final long resynced;
+    public final long offscreen;
+
+    Stats(long rendered, long coalesced, long resynced, long offscreen) {
+      this.rendered  = rendered;
+      this.coalesced = coalesced;
+      this.resynced  = resynced;
+      this.offscreen = offscreen;
+    }
+  }
+}
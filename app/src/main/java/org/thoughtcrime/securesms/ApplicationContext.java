@@ -45,7 +45,9 @@ import org.thoughtcrime.securesms.avatar.AvatarPickerStorage;
 import org.thoughtcrime.securesms.backup.v2.BackupRepository;
 import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
 import org.thoughtcrime.securesms.crypto.DatabaseSecretProvider;
+import org.thoughtcrime.securesms.crypto.ReentrantSessionLock;
 import org.thoughtcrime.securesms.database.LogDatabase;
+import org.thoughtcrime.securesms.database.QueryProfiler;
 import org.thoughtcrime.securesms.database.SignalDatabase;
 import org.thoughtcrime.securesms.database.SqlCipherLibraryLoader;
 import org.thoughtcrime.securesms.dependencies.AppDependencies;
@@ -182,6 +184,8 @@ public class ApplicationContext extends Application implements AppForegroundObse
                             })
                             .addBlocking("blob-provider", this::initializeBlobProvider)
                             .addBlocking("remote-config", RemoteConfig::init)
+                            .addBlocking("session-lock", () -> ReentrantSessionLock.INSTANCE.setStripingEnabled(RemoteConfig.stripedSessionLock()))
+                            .addBlocking("query-profiler", () -> QueryProfiler.INSTANCE.setEnabled(RemoteConfig.queryProfiler()))
                             .addBlocking("ring-rtc", this::initializeRingRtc)
                             .addBlocking("glide", () -> SignalGlideModule.setRegisterGlideComponents(new SignalGlideComponents()))
                             .addBlocking("tracer", this::initializeTracer)
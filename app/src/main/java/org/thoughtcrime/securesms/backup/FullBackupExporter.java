@@ -58,7 +58,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -160,18 +162,21 @@ public class FullBackupExporter extends FullBackupBase {
 
       Stopwatch stopwatch = new Stopwatch("Backup");
 
+      NonExpiringMessages nonExpiringMessages = NonExpiringMessages.read(input, System.currentTimeMillis());
+      stopwatch.split("non-expiring-messages");
+
       for (String table : tables) {
         throwIfCanceled(cancellationSignal);
         if (table.equals(MessageTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isNonExpiringMessage(input, cursor), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> nonExpiringMessages.contains(CursorUtil.requireLong(cursor, MessageTable.ID)), null, count, estimatedCount, cancellationSignal);
         } else if (table.equals(ReactionTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, CursorUtil.requireLong(cursor, ReactionTable.MESSAGE_ID)), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, forNonExpiringMessage(nonExpiringMessages, ReactionTable.MESSAGE_ID), null, count, estimatedCount, cancellationSignal);
         } else if (table.equals(MentionTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, CursorUtil.requireLong(cursor, MentionTable.MESSAGE_ID)), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, forNonExpiringMessage(nonExpiringMessages, MentionTable.MESSAGE_ID), null, count, estimatedCount, cancellationSignal);
         } else if (table.equals(GroupReceiptTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptTable.MMS_ID))), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, forNonExpiringMessage(nonExpiringMessages, GroupReceiptTable.MMS_ID), null, count, estimatedCount, cancellationSignal);
         } else if (table.equals(AttachmentTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentTable.MESSAGE_ID))), (cursor, innerCount) -> exportAttachment(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, forNonExpiringMessage(nonExpiringMessages, AttachmentTable.MESSAGE_ID), (cursor, innerCount) -> exportAttachment(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationSignal);
         } else if (table.equals(StickerTable.TABLE_NAME)) {
           count = exportTable(table, input, outputStream, cursor -> true, (cursor, innerCount) -> exportSticker(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationSignal);
         } else if (!TABLE_CONTENT_BLOCKLIST.contains(table)) {
@@ -582,38 +587,101 @@ public class FullBackupExporter extends FullBackupBase {
     return count;
   }
 
-  private static boolean isNonExpiringMessage(@NonNull SQLiteDatabase db, @NonNull Cursor cursor) {
-    long id                = CursorUtil.requireLong(cursor, MessageTable.ID);
-    long expireStarted     = CursorUtil.requireLong(cursor, MessageTable.EXPIRE_STARTED);
-    long expiresIn         = CursorUtil.requireLong(cursor, MessageTable.EXPIRES_IN);
-    long latestRevisionId  = CursorUtil.requireLong(cursor, MessageTable.LATEST_REVISION_ID);
+  /**
+   * @return A predicate that checks whether the message referenced by the given column will be in the backup. Looks the column up once, rather than
+   *         once per row.
+   */
+  private static Predicate<Cursor> forNonExpiringMessage(@NonNull NonExpiringMessages nonExpiringMessages, @NonNull String messageIdColumn) {
+    int[] columnIndex = { -1 };
+
+    return cursor -> {
+      if (columnIndex[0] == -1) {
+        columnIndex[0] = cursor.getColumnIndexOrThrow(messageIdColumn);
+      }
+      return nonExpiringMessages.contains(cursor.getLong(columnIndex[0]));
+    };
+  }
+
+  /**
+   * The set of messages that will be included in the backup, which is every message that isn't about to expire. Edited messages are included based
+   * on their latest revision. Built with a single scan of the message table, so that the message table and every table that references it can be
+   * filtered without querying the message table once per row.
+   * <p>
+   * Message ids are dense, so they're stored in bitsets, with a fallback for ids that don't fit.
+   */
+  @VisibleForTesting
+  static final class NonExpiringMessages {
+
+    private static final int MAX_REVISION_DEPTH = 100;
 
-    long expiresAt     = expireStarted + expiresIn;
-    long timeRemaining = expiresAt - System.currentTimeMillis();
+    private final long            now;
+    private final BitSet          existing         = new BitSet();
+    private final BitSet          nonExpiring      = new BitSet();
+    private final Set<Long>       otherExisting    = new HashSet<>();
+    private final Set<Long>       otherNonExpiring = new HashSet<>();
+    private final Map<Long, Long> latestRevisions  = new HashMap<>();
 
-    if (latestRevisionId > 0 && latestRevisionId != id ) {
-      return isForNonExpiringMessage(db, latestRevisionId);
+    @VisibleForTesting
+    NonExpiringMessages(long now) {
+      this.now = now;
     }
 
-    if (expireStarted > 0 && timeRemaining <= EXPIRATION_BACKUP_THRESHOLD) {
-      return false;
+    static @NonNull NonExpiringMessages read(@NonNull SQLiteDatabase db, long now) {
+      NonExpiringMessages messages = new NonExpiringMessages(now);
+      String[]            columns  = new String[] { MessageTable.ID, MessageTable.EXPIRE_STARTED, MessageTable.EXPIRES_IN, MessageTable.LATEST_REVISION_ID };
+
+      try (Cursor cursor = db.query(MessageTable.TABLE_NAME, columns, null, null, null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          messages.add(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3));
+        }
+      }
+
+      return messages;
     }
 
-    return true;
-  }
+    @VisibleForTesting
+    void add(long id, long expireStarted, long expiresIn, long latestRevisionId) {
+      long    timeRemaining = expireStarted + expiresIn - now;
+      boolean expiring      = expireStarted > 0 && timeRemaining <= EXPIRATION_BACKUP_THRESHOLD;
 
-  private static boolean isForNonExpiringMessage(@NonNull SQLiteDatabase db, long messageId) {
-    String[] columns = new String[] { MessageTable.ID, MessageTable.EXPIRE_STARTED, MessageTable.EXPIRES_IN, MessageTable.LATEST_REVISION_ID };
-    String   where   = MessageTable.ID + " = ?";
-    String[] args    = SqlUtil.buildArgs(messageId);
+      if (id >= 0 && id <= Integer.MAX_VALUE) {
+        existing.set((int) id);
+        nonExpiring.set((int) id, !expiring);
+      } else {
+        otherExisting.add(id);
+        if (!expiring) {
+          otherNonExpiring.add(id);
+        }
+      }
 
-    try (Cursor mmsCursor = db.query(MessageTable.TABLE_NAME, columns, where, args, null, null, null)) {
-      if (mmsCursor != null && mmsCursor.moveToFirst()) {
-        return isNonExpiringMessage(db, mmsCursor);
+      if (latestRevisionId > 0 && latestRevisionId != id) {
+        latestRevisions.put(id, latestRevisionId);
       }
     }
 
-    return false;
+    boolean contains(long messageId) {
+      long id = messageId;
+
+      for (int depth = 0; depth < MAX_REVISION_DEPTH; depth++) {
+        if (!exists(id)) {
+          return false;
+        }
+
+        Long latestRevisionId = latestRevisions.isEmpty() ? null : latestRevisions.get(id);
+        if (latestRevisionId == null) {
+          return id >= 0 && id <= Integer.MAX_VALUE ? nonExpiring.get((int) id) : otherNonExpiring.contains(id);
+        }
+
+        id = latestRevisionId;
+      }
+
+      Log.w(TAG, "Revision chain too long for message " + messageId + ", excluding it.");
+      return false;
+    }
+
+    private boolean exists(long id) {
+      return id >= 0 && id <= Integer.MAX_VALUE ? existing.get((int) id) : otherExisting.contains(id);
+    }
   }
 
   public interface PostProcessor {
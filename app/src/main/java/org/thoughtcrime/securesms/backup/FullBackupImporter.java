@@ -9,12 +9,17 @@ import android.net.Uri;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
+import net.zetetic.database.sqlcipher.SQLiteStatement;
 
 import org.greenrobot.eventbus.EventBus;
 import org.signal.core.util.SqlUtil;
+import org.signal.core.util.Stopwatch;
+import org.signal.core.util.ThreadUtil;
+import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.backup.proto.Attachment;
 import org.thoughtcrime.securesms.backup.proto.Avatar;
@@ -37,6 +42,7 @@ import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.profiles.AvatarHelper;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.BackupUtil;
+import org.thoughtcrime.securesms.util.RemoteConfig;
 import org.thoughtcrime.securesms.util.Util;
 
 import java.io.ByteArrayOutputStream;
@@ -49,6 +55,7 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -58,6 +65,12 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class FullBackupImporter extends FullBackupBase {
@@ -65,6 +78,8 @@ public class FullBackupImporter extends FullBackupBase {
   @SuppressWarnings("unused")
   private static final String TAG = Log.tag(FullBackupImporter.class);
 
+  private static final Pattern INDEX_OR_TRIGGER = Pattern.compile("^\\s*CREATE\\s+(UNIQUE\\s+)?(INDEX|TRIGGER)\\s", Pattern.CASE_INSENSITIVE);
+
   public static boolean validatePassphrase(@NonNull Context context,
                                            @NonNull Uri uri,
                                            @NonNull String passphrase)
@@ -95,10 +110,24 @@ public class FullBackupImporter extends FullBackupBase {
   public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
                                 @NonNull SQLiteDatabase db, @NonNull InputStream is, @NonNull String passphrase)
       throws IOException
+  {
+    importFile(context, attachmentSecret, db, is, passphrase, RemoteConfig.fastBackupRestore());
+  }
+
+  /**
+   * @param fastRestore If true, index and trigger creation is deferred until all rows are in, inserts reuse a compiled statement per table, and
+   *                    attachment files are written on a background pool while statements keep being applied. If false, every frame is applied
+   *                    as it arrives, in order. Defaults to {@link RemoteConfig#fastBackupRestore()}.
+   */
+  public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
+                                @NonNull SQLiteDatabase db, @NonNull InputStream is, @NonNull String passphrase, boolean fastRestore)
+      throws IOException
   {
     int count = 0;
 
     SQLiteDatabase keyValueDatabase = KeyValueDatabase.getInstance(AppDependencies.getApplication()).getSqlCipherDatabase();
+    FastRestore    fast             = fastRestore ? new FastRestore(db) : null;
+    Stopwatch      stopwatch        = new Stopwatch("Restore");
 
     db.setForeignKeyConstraintsEnabled(false);
     db.beginTransaction();
@@ -107,6 +136,7 @@ public class FullBackupImporter extends FullBackupBase {
       BackupRecordInputStream inputStream = new BackupRecordInputStream(is, passphrase);
 
       dropAllTables(db);
+      stopwatch.split("drop");
 
       BackupFrame frame;
 
@@ -115,18 +145,32 @@ public class FullBackupImporter extends FullBackupBase {
         count++;
 
         if      (frame.version != null)    processVersion(db, frame.version);
-        else if (frame.statement != null)  processStatement(db, frame.statement);
+        else if (frame.statement != null)  processStatement(db, frame.statement, fast);
         else if (frame.preference != null) processPreference(context, frame.preference);
-        else if (frame.attachment != null) processAttachment(context, attachmentSecret, db, frame.attachment, inputStream);
+        else if (frame.attachment != null) processAttachment(context, attachmentSecret, db, frame.attachment, inputStream, fast);
         else if (frame.sticker != null)    processSticker(context, attachmentSecret, db, frame.sticker, inputStream);
         else if (frame.avatar != null)     processAvatar(context, db, frame.avatar, inputStream);
         else if (frame.keyValue != null)   processKeyValue(frame.keyValue);
         else                            count--;
       }
 
+      stopwatch.split("frames");
+
+      if (fast != null) {
+        fast.awaitAttachmentWrites();
+        stopwatch.split("attachment-writes");
+
+        fast.applyDeferredStatements();
+        stopwatch.split("deferred-schema");
+      }
+
       db.setTransactionSuccessful();
       keyValueDatabase.setTransactionSuccessful();
     } finally {
+      if (fast != null) {
+        fast.close();
+      }
+
       List<SqlUtil.ForeignKeyViolation> violations = SqlUtil.getForeignKeyViolations(db)
           .stream()
           .filter(it -> !it.getTable().startsWith("msl_"))
@@ -143,6 +187,9 @@ public class FullBackupImporter extends FullBackupBase {
       db.setForeignKeyConstraintsEnabled(true);
     }
 
+    stopwatch.stop(TAG);
+    Log.i(TAG, "Restored " + count + " frames. Fast restore: " + fastRestore);
+
     EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, count, 0));
   }
 
@@ -162,7 +209,7 @@ public class FullBackupImporter extends FullBackupBase {
     db.setVersion(version.version);
   }
 
-  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
+  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement, @Nullable FastRestore fast) {
     if (statement.statement == null) {
       Log.w(TAG, "Null statement!");
       return;
@@ -177,6 +224,16 @@ public class FullBackupImporter extends FullBackupBase {
       return;
     }
 
+    if (fast != null && isIndexOrTrigger(statement.statement)) {
+      fast.deferredStatements.add(statement.statement);
+      return;
+    }
+
+    if (fast != null && isInsert(statement.statement) && statement.parameters.size() > 0) {
+      fast.insert(statement);
+      return;
+    }
+
     List<Object> parameters = new LinkedList<>();
 
     for (SqlStatement.SqlParameter parameter : statement.parameters) {
@@ -191,7 +248,12 @@ public class FullBackupImporter extends FullBackupBase {
     else                       db.execSQL(statement.statement);
   }
 
-  private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
+  private static void processAttachment(@NonNull Context context,
+                                        @NonNull AttachmentSecret attachmentSecret,
+                                        @NonNull SQLiteDatabase db,
+                                        @NonNull Attachment attachment,
+                                        BackupRecordInputStream inputStream,
+                                        @Nullable FastRestore fast)
       throws IOException
   {
     File                       dataFile      = AttachmentTable.newDataFile(context);
@@ -206,12 +268,17 @@ public class FullBackupImporter extends FullBackupBase {
     ContentValues contentValues = new ContentValues();
 
     try {
-      inputStream.readAttachmentTo(output.second, attachment.length);
+      if (fast != null && attachment.length <= FastRestore.MAX_PIPELINED_ATTACHMENT_SIZE) {
+        fast.readAndWriteAttachment(inputStream, attachment.length, output.second);
+      } else {
+        inputStream.readAttachmentTo(output.second, attachment.length);
+      }
 
       contentValues.put(dataFileColumnName, dataFile.getAbsolutePath());
       contentValues.put(dataRandomColumnName, output.first);
     } catch (BackupRecordInputStream.BadMacException e) {
       Log.w(TAG, "Bad MAC for attachment " + attachment.attachmentId + "! Can't restore it.", e);
+      output.second.close();
       dataFile.delete();
       contentValues.put(dataFileColumnName, (String) null);
       contentValues.put(dataRandomColumnName, (String) null);
@@ -223,6 +290,16 @@ public class FullBackupImporter extends FullBackupBase {
               SqlUtil.buildArgs(attachment.rowId));
   }
 
+  @VisibleForTesting
+  static boolean isIndexOrTrigger(@NonNull String statement) {
+    return INDEX_OR_TRIGGER.matcher(statement).find();
+  }
+
+  @VisibleForTesting
+  static boolean isInsert(@NonNull String statement) {
+    return statement.regionMatches(true, 0, "INSERT INTO ", 0, "INSERT INTO ".length());
+  }
+
   private static void processSticker(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Sticker sticker, BackupRecordInputStream inputStream)
       throws IOException
   {
@@ -383,6 +460,124 @@ public class FullBackupImporter extends FullBackupBase {
     return new ArrayList<>(dropOrder);
   }
 
+  /**
+   * State for a fast restore.
+   * <p>
+   * The exporter writes every CREATE TABLE first, then the indexes and triggers, then the rows. Building an index as rows come in is much slower
+   * than building it once at the end, and the only triggers that fire on insert populate the message search index, which
+   * {@link org.thoughtcrime.securesms.database.SignalDatabase#runPostBackupRestoreTasks} drops and recreates anyway. So we hold on to those
+   * statements and run them once everything else is in.
+   * <p>
+   * Every row of a table is inserted with the same SQL, so we compile it once and rebind it for each row.
+   * <p>
+   * Attachments have to be read off the backup stream in order, but encrypting them and writing them to disk doesn't. Smaller attachments are
+   * read into memory and handed to a small pool of writers, bounded by {@link #MAX_BUFFERED_ATTACHMENT_BYTES}, so we can move on to the next frame.
+   */
+  private static final class FastRestore {
+
+    static final int MAX_PIPELINED_ATTACHMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAX_BUFFERED_ATTACHMENT_BYTES = 32 * 1024 * 1024;
+    private static final int ATTACHMENT_WRITER_THREADS     = 2;
+
+    private final SQLiteDatabase               db;
+    private final List<String>                 deferredStatements = new ArrayList<>();
+    private final Map<String, SQLiteStatement> compiledInserts    = new HashMap<>();
+    private final Semaphore                    attachmentBudget   = new Semaphore(MAX_BUFFERED_ATTACHMENT_BYTES);
+    private final List<Future<Void>>           attachmentWrites   = new ArrayList<>();
+    private final ExecutorService              attachmentExecutor;
+
+    FastRestore(@NonNull SQLiteDatabase db) {
+      this.db                 = db;
+      this.attachmentExecutor = Executors.newFixedThreadPool(ATTACHMENT_WRITER_THREADS, new SignalExecutors.NumberedThreadFactory("signal-restore-io", ThreadUtil.PRIORITY_IMPORTANT_BACKGROUND_THREAD));
+    }
+
+    void insert(@NonNull SqlStatement statement) {
+      SQLiteStatement compiled = compiledInserts.get(statement.statement);
+
+      if (compiled == null) {
+        compiled = db.compileStatement(statement.statement);
+        compiledInserts.put(statement.statement, compiled);
+      }
+
+      compiled.clearBindings();
+
+      int index = 1;
+      for (SqlStatement.SqlParameter parameter : statement.parameters) {
+        if      (parameter.stringParamter != null)   compiled.bindString(index, parameter.stringParamter);
+        else if (parameter.doubleParameter != null)  compiled.bindDouble(index, parameter.doubleParameter);
+        else if (parameter.integerParameter != null) compiled.bindLong(index, parameter.integerParameter);
+        else if (parameter.blobParameter != null)    compiled.bindBlob(index, parameter.blobParameter.toByteArray());
+        else if (parameter.nullparameter != null)    compiled.bindNull(index);
+        else                                         continue;
+
+        index++;
+      }
+
+      compiled.executeInsert();
+    }
+
+    /**
+     * Reads the attachment into memory and writes it to {@code output} on the writer pool. The caller keeps ownership of {@code output} if
+     * this throws.
+     */
+    void readAndWriteAttachment(@NonNull BackupRecordInputStream inputStream, int length, @NonNull OutputStream output) throws IOException {
+      attachmentBudget.acquireUninterruptibly(length);
+
+      ByteArrayOutputStream plaintext = new ByteArrayOutputStream(length);
+
+      try {
+        inputStream.readAttachmentTo(plaintext, length);
+      } catch (IOException e) {
+        attachmentBudget.release(length);
+        throw e;
+      }
+
+      attachmentWrites.add(attachmentExecutor.submit(() -> {
+        try (OutputStream out = output) {
+          plaintext.writeTo(out);
+        } finally {
+          attachmentBudget.release(length);
+        }
+        return null;
+      }));
+    }
+
+    void awaitAttachmentWrites() throws IOException {
+      for (Future<Void> write : attachmentWrites) {
+        try {
+          write.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+
+      attachmentWrites.clear();
+    }
+
+    void applyDeferredStatements() {
+      Log.i(TAG, "Creating " + deferredStatements.size() + " deferred indexes and triggers.");
+
+      for (String statement : deferredStatements) {
+        db.execSQL(statement);
+      }
+    }
+
+    void close() {
+      attachmentExecutor.shutdownNow();
+
+      for (SQLiteStatement statement : compiledInserts.values()) {
+        statement.close();
+      }
+      compiledInserts.clear();
+    }
+  }
+
   public static class DatabaseDowngradeException extends IOException {
     DatabaseDowngradeException(int currentVersion, int backupVersion) {
       super("Tried to import a backup with version " + backupVersion + " into a database with version " + currentVersion);
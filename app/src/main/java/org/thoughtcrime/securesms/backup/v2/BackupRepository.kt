@@ -54,6 +54,7 @@ import org.thoughtcrime.securesms.backup.v2.stream.BackupExportWriter
 import org.thoughtcrime.securesms.backup.v2.stream.BackupImportReader
 import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupReader
 import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupWriter
+import org.thoughtcrime.securesms.backup.v2.stream.PipelinedBackupExportWriter
 import org.thoughtcrime.securesms.backup.v2.stream.PlainTextBackupReader
 import org.thoughtcrime.securesms.backup.v2.stream.PlainTextBackupWriter
 import org.thoughtcrime.securesms.backup.v2.ui.subscription.MessageBackupsType
@@ -429,7 +430,7 @@ object BackupRepository {
       append = { main.write(it) }
     )
 
-    export(currentTime = System.currentTimeMillis(), isLocal = true, writer = writer, progressEmitter = localBackupProgressEmitter, cancellationSignal = cancellationSignal) { dbSnapshot ->
+    export(currentTime = System.currentTimeMillis(), isLocal = true, backupWriter = writer, progressEmitter = localBackupProgressEmitter, cancellationSignal = cancellationSignal) { dbSnapshot ->
       val localArchivableAttachments = dbSnapshot
         .attachmentTable
         .getLocalArchivableAttachments()
@@ -462,6 +463,7 @@ object BackupRepository {
     mediaBackupEnabled: Boolean = SignalStore.backup.backsUpMedia,
     progressEmitter: ExportProgressListener? = null,
     cancellationSignal: () -> Boolean = { false },
+    pipelined: Boolean = RemoteConfig.backupPipelinedExport,
     exportExtras: ((SignalDatabase) -> Unit)? = null
   ) {
     val writer: BackupExportWriter = if (plaintext) {
@@ -478,10 +480,11 @@ object BackupRepository {
     export(
       currentTime = currentTime,
       isLocal = false,
-      writer = writer,
+      backupWriter = writer,
       progressEmitter = progressEmitter,
       mediaBackupEnabled = mediaBackupEnabled,
       cancellationSignal = cancellationSignal,
+      pipelined = pipelined,
       exportExtras = exportExtras
     )
   }
@@ -495,13 +498,18 @@ object BackupRepository {
     return outputStream.toByteArray()
   }
 
+  /**
+   * @param pipelined If true, frames are written (serialized, compressed, and encrypted) on a separate thread, and chat items are converted on a
+   *   pool while the next batch is read. The output is identical either way.
+   */
   private fun export(
     currentTime: Long,
     isLocal: Boolean,
-    writer: BackupExportWriter,
+    backupWriter: BackupExportWriter,
     mediaBackupEnabled: Boolean = SignalStore.backup.backsUpMedia,
     progressEmitter: ExportProgressListener? = null,
     cancellationSignal: () -> Boolean = { false },
+    pipelined: Boolean = RemoteConfig.backupPipelinedExport,
     exportExtras: ((SignalDatabase) -> Unit)? = null
   ) {
     val eventTimer = EventTimer()
@@ -521,6 +529,8 @@ object BackupRepository {
 
       var frameCount = 0L
 
+      val writer: BackupExportWriter = if (pipelined) PipelinedBackupExportWriter(backupWriter) else backupWriter
+
       writer.use {
         writer.write(
           BackupInfo(
@@ -613,7 +623,7 @@ object BackupRepository {
           val approximateMessageCount = dbSnapshot.messageTable.getApproximateExportableMessageCount(exportState.threadIds)
           val frameCountStart = frameCount
           progressEmitter?.onMessage(0, approximateMessageCount)
-          ChatItemArchiveProcessor.export(dbSnapshot, exportState, selfRecipientId, cancellationSignal) { frame ->
+          ChatItemArchiveProcessor.export(dbSnapshot, exportState, selfRecipientId, cancellationSignal, pipelined) { frame ->
             writer.write(frame)
             eventTimer.emit("message")
             frameCount++
@@ -632,7 +642,7 @@ object BackupRepository {
 
       exportExtras?.invoke(dbSnapshot)
 
-      Log.d(TAG, "[export] totalFrames: $frameCount | ${eventTimer.stop().summary}")
+      Log.d(TAG, "[export][pipelined = $pipelined] totalFrames: $frameCount | ${eventTimer.stop().summary}")
     } finally {
       deleteDatabaseSnapshot(mainDbName)
       deleteDatabaseSnapshot(keyValueDbName)
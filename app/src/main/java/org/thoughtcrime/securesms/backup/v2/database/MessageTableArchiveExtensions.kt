@@ -18,7 +18,7 @@ import org.thoughtcrime.securesms.recipients.RecipientId
 
 private val TAG = "MessageTableArchiveExtensions"
 
-fun MessageTable.getMessagesForBackup(db: SignalDatabase, backupTime: Long, mediaBackupEnabled: Boolean, selfRecipientId: RecipientId, exportState: ExportState): ChatItemArchiveExporter {
+fun MessageTable.getMessagesForBackup(db: SignalDatabase, backupTime: Long, mediaBackupEnabled: Boolean, selfRecipientId: RecipientId, exportState: ExportState, pipelined: Boolean = false): ChatItemArchiveExporter {
   // We create a covering index for the query to drastically speed up perf here.
   // Remember that we're working on a temporary snapshot of the database, so we can create an index and not worry about cleaning it up.
   val startTime = System.currentTimeMillis()
@@ -89,6 +89,7 @@ fun MessageTable.getMessagesForBackup(db: SignalDatabase, backupTime: Long, medi
     selfRecipientId = selfRecipientId,
     noteToSelfThreadId = db.threadTable.getThreadIdFor(selfRecipientId) ?: -1L,
     exportState = exportState,
+    pipelined = pipelined,
     cursorGenerator = { lastSeenReceivedTime, count ->
       readableDatabase
         .select(
@@ -12,6 +12,7 @@ import org.json.JSONException
 import org.signal.core.util.Base64
 import org.signal.core.util.EventTimer
 import org.signal.core.util.Hex
+import org.signal.core.util.ThreadUtil
 import org.signal.core.util.ParallelEventTimer
 import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.isNotNullOrBlank
@@ -97,6 +98,7 @@ import java.util.LinkedList
 import java.util.Queue
 import java.util.concurrent.Callable
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 import java.util.concurrent.Future
 import kotlin.math.max
 import kotlin.time.Duration.Companion.days
@@ -105,11 +107,18 @@ import org.thoughtcrime.securesms.backup.v2.proto.GiftBadge as BackupGiftBadge
 
 private val TAG = Log.tag(ChatItemArchiveExporter::class.java)
 
+/** How many records each conversion task handles when exporting in pipelined mode. */
+private const val CONVERSION_CHUNK_SIZE = 500
+
 /**
  * An iterator for chat items with a clever performance twist: rather than do the extra queries one at a time (for reactions,
  * attachments, etc), this will populate items in batches, doing bulk lookups to improve throughput. We keep these in a buffer
  * and only do more queries when the buffer is empty.
  *
+ * If [pipelined] is set, we go a step further: each batch is converted into [ChatItem]s on a pool of threads while the calling thread reads
+ * the next batch from the cursor. Results are still collected in cursor order, so the output is identical to the non-pipelined mode.
+ * Cursor reads stay on the calling thread, since that's the thread that owns the snapshot transaction.
+ *
  * All of this complexity is hidden from the user -- they just get a normal iterator interface.
  */
 class ChatItemArchiveExporter(
@@ -120,9 +129,17 @@ class ChatItemArchiveExporter(
   private val batchSize: Int,
   private val mediaArchiveEnabled: Boolean,
   private val exportState: ExportState,
+  private val pipelined: Boolean = false,
   private val cursorGenerator: (Long, Int) -> Cursor
 ) : Iterator<ChatItem?>, Closeable {
 
+  /** Only used in pipelined mode. We leave a couple of cores free for the thread reading the cursor and the thread writing the backup. */
+  private val conversionExecutor: ExecutorService? = if (pipelined) {
+    Executors.newFixedThreadPool(max(2, Runtime.getRuntime().availableProcessors() - 2), SignalExecutors.NumberedThreadFactory("backup-export-convert", ThreadUtil.PRIORITY_BACKGROUND_THREAD))
+  } else {
+    null
+  }
+
   /** Timer for more macro-level events, like fetching extra data vs transforming the data. */
   private val eventTimer = EventTimer()
 
@@ -157,273 +174,313 @@ class ChatItemArchiveExporter(
     eventTimer.emit("extra-data")
     transformTimer.emit("ignore")
 
-    for ((id, record) in records) {
-      val builder = record.toBasicChatItemBuilder(selfRecipientId, extraData.groupReceiptsById[id], exportState, backupStartTime)
-      transformTimer.emit("basic")
+    val recordIds = HashSet(records.keys)
+    val batch = records.values.toList()
 
-      if (builder == null) {
-        continue
-      }
+    if (conversionExecutor != null) {
+      // Convert this batch on the pool while we read the next one. We still collect the results in order, so the output is unchanged.
+      val pending: List<Future<List<Pair<BackupMessageRecord, ChatItem.Builder?>>>> = batch
+        .chunked(CONVERSION_CHUNK_SIZE)
+        .map { chunk -> conversionExecutor.submitTyped { chunk.map { record -> record to transform(record, extraData, timer = null) } } }
 
-      when {
-        record.remoteDeleted -> {
-          builder.remoteDeletedMessage = RemoteDeletedMessage()
-          transformTimer.emit("remote-delete")
-        }
+      records = readNextMessageRecordBatch(recordIds)
+      eventTimer.emit("messages")
 
-        MessageTypes.isJoinedType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.JOINED_SIGNAL)
-          transformTimer.emit("simple-update")
+      for (future in pending) {
+        for ((record, builder) in future.get()) {
+          addToBuffer(record, builder)
         }
+      }
+      eventTimer.emit("transform")
+    } else {
+      for (record in batch) {
+        addToBuffer(record, transform(record, extraData, transformTimer))
+        transformTimer.emit("revisions")
+      }
+      eventTimer.emit("transform")
 
-        MessageTypes.isIdentityUpdate(record.type) -> {
-          if (record.fromRecipientId == selfRecipientId.toLong()) {
-            Log.w(TAG, ExportSkips.identityUpdateForSelf(record.dateSent))
-            continue
-          }
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_UPDATE)
-          transformTimer.emit("simple-update")
-        }
+      records = readNextMessageRecordBatch(recordIds)
+      eventTimer.emit("messages")
+    }
 
-        MessageTypes.isIdentityVerified(record.type) -> {
-          if (record.toRecipientId == selfRecipientId.toLong()) {
-            Log.w(TAG, ExportSkips.identityVerifiedForSelf(record.dateSent))
-            continue
-          }
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_VERIFIED)
-          transformTimer.emit("simple-update")
-        }
+    return if (buffer.isNotEmpty()) {
+      buffer.remove()
+    } else {
+      null
+    }
+  }
 
-        MessageTypes.isIdentityDefault(record.type) -> {
-          if (record.toRecipientId == selfRecipientId.toLong()) {
-            Log.w(TAG, ExportSkips.identityDefaultForSelf(record.dateSent))
-            continue
-          }
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_DEFAULT)
-          transformTimer.emit("simple-update")
-        }
+  override fun close() {
+    conversionExecutor?.shutdown()
 
-        MessageTypes.isChangeNumber(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHANGE_NUMBER)
-          transformTimer.emit("simple-update")
-        }
+    Log.d(TAG, "[ChatItemArchiveExporter][batchSize = $batchSize][pipelined = $pipelined] ${eventTimer.stop().summary}")
+    Log.d(TAG, "[ChatItemArchiveExporterTransform][batchSize = $batchSize] ${transformTimer.stop().summary}")
+    Log.d(TAG, "[ChatItemArchiveExporterExtraData][batchSize = $batchSize] ${extraDataTimer.stop().summary}")
+  }
 
-        MessageTypes.isReleaseChannelDonationRequest(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.RELEASE_CHANNEL_DONATION_REQUEST)
-          transformTimer.emit("simple-update")
-        }
+  /**
+   * Converts a single record into a [ChatItem.Builder], or returns null if the record should be skipped. Does not touch any of the exporter's
+   * mutable state, so it's safe to call from multiple threads at once.
+   */
+  private fun transform(record: BackupMessageRecord, extraData: ExtraMessageData, timer: EventTimer?): ChatItem.Builder? {
+    val id = record.id
+    val builder = record.toBasicChatItemBuilder(selfRecipientId, extraData.groupReceiptsById[id], exportState, backupStartTime)
+    timer?.emit("basic")
 
-        MessageTypes.isEndSessionType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.END_SESSION)
-          transformTimer.emit("simple-update")
-        }
+    if (builder == null) {
+      return null
+    }
 
-        MessageTypes.isChatSessionRefresh(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHAT_SESSION_REFRESH)
-          transformTimer.emit("simple-update")
-        }
+    when {
+      record.remoteDeleted -> {
+        builder.remoteDeletedMessage = RemoteDeletedMessage()
+        timer?.emit("remote-delete")
+      }
 
-        MessageTypes.isBadDecryptType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BAD_DECRYPT)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isJoinedType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.JOINED_SIGNAL)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isPaymentsActivated(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.PAYMENTS_ACTIVATED)
-          transformTimer.emit("simple-update")
+      MessageTypes.isIdentityUpdate(record.type) -> {
+        if (record.fromRecipientId == selfRecipientId.toLong()) {
+          Log.w(TAG, ExportSkips.identityUpdateForSelf(record.dateSent))
+          return null
         }
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_UPDATE)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isPaymentsRequestToActivate(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.PAYMENT_ACTIVATION_REQUEST)
-          transformTimer.emit("simple-update")
+      MessageTypes.isIdentityVerified(record.type) -> {
+        if (record.toRecipientId == selfRecipientId.toLong()) {
+          Log.w(TAG, ExportSkips.identityVerifiedForSelf(record.dateSent))
+          return null
         }
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_VERIFIED)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isUnsupportedMessageType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNSUPPORTED_PROTOCOL_MESSAGE)
-          transformTimer.emit("simple-update")
+      MessageTypes.isIdentityDefault(record.type) -> {
+        if (record.toRecipientId == selfRecipientId.toLong()) {
+          Log.w(TAG, ExportSkips.identityDefaultForSelf(record.dateSent))
+          return null
         }
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_DEFAULT)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isReportedSpam(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.REPORTED_SPAM)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isChangeNumber(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHANGE_NUMBER)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isMessageRequestAccepted(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.MESSAGE_REQUEST_ACCEPTED)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isReleaseChannelDonationRequest(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.RELEASE_CHANNEL_DONATION_REQUEST)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isBlocked(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BLOCKED)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isEndSessionType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.END_SESSION)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isUnblocked(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNBLOCKED)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isChatSessionRefresh(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHAT_SESSION_REFRESH)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isExpirationTimerUpdate(record.type) -> {
-          if (exportState.threadIdToRecipientId[record.threadId] in exportState.groupRecipientIds) {
-            builder.updateMessage = record.toRemoteGroupExpireTimerUpdateFromGv1(exportState) ?: continue
-          } else {
-            builder.updateMessage = ChatUpdateMessage(expirationTimerChange = ExpirationTimerChatUpdate(record.expiresIn))
-          }
+      MessageTypes.isBadDecryptType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BAD_DECRYPT)
+        timer?.emit("simple-update")
+      }
 
-          builder.expireStartDate = null
-          builder.expiresInMs = null
-          transformTimer.emit("expire-update")
-        }
+      MessageTypes.isPaymentsActivated(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.PAYMENTS_ACTIVATED)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isProfileChange(record.type) -> {
-          if (record.threadId == noteToSelfThreadId) {
-            Log.w(TAG, ExportSkips.profileChangeInNoteToSelf(record.dateSent))
-            continue
-          }
+      MessageTypes.isPaymentsRequestToActivate(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.PAYMENT_ACTIVATION_REQUEST)
+        timer?.emit("simple-update")
+      }
 
-          builder.updateMessage = record.toRemoteProfileChangeUpdate() ?: continue
-          transformTimer.emit("profile-change")
-        }
+      MessageTypes.isUnsupportedMessageType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNSUPPORTED_PROTOCOL_MESSAGE)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isSessionSwitchoverType(record.type) -> {
-          builder.updateMessage = record.toRemoteSessionSwitchoverUpdate()
-          transformTimer.emit("sse")
-        }
+      MessageTypes.isReportedSpam(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.REPORTED_SPAM)
+        timer?.emit("simple-update")
+      }
+
+      MessageTypes.isMessageRequestAccepted(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.MESSAGE_REQUEST_ACCEPTED)
+        timer?.emit("simple-update")
+      }
+
+      MessageTypes.isBlocked(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BLOCKED)
+        timer?.emit("simple-update")
+      }
 
-        MessageTypes.isThreadMergeType(record.type) -> {
-          builder.updateMessage = record.toRemoteThreadMergeUpdate() ?: continue
-          transformTimer.emit("thread-merge")
+      MessageTypes.isUnblocked(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNBLOCKED)
+        timer?.emit("simple-update")
+      }
+
+      MessageTypes.isExpirationTimerUpdate(record.type) -> {
+        if (exportState.threadIdToRecipientId[record.threadId] in exportState.groupRecipientIds) {
+          builder.updateMessage = record.toRemoteGroupExpireTimerUpdateFromGv1(exportState) ?: return null
+        } else {
+          builder.updateMessage = ChatUpdateMessage(expirationTimerChange = ExpirationTimerChatUpdate(record.expiresIn))
         }
 
-        MessageTypes.isGroupV2(record.type) && MessageTypes.isGroupUpdate(record.type) -> {
-          val update = record.toRemoteGroupUpdate() ?: continue
-          if (update.groupChange!!.updates.isEmpty()) {
-            Log.w(TAG, ExportSkips.groupUpdateHasNoUpdates(record.dateSent))
-            continue
-          }
-          builder.updateMessage = update
-          transformTimer.emit("group-update-v2")
+        builder.expireStartDate = null
+        builder.expiresInMs = null
+        timer?.emit("expire-update")
+      }
+
+      MessageTypes.isProfileChange(record.type) -> {
+        if (record.threadId == noteToSelfThreadId) {
+          Log.w(TAG, ExportSkips.profileChangeInNoteToSelf(record.dateSent))
+          return null
         }
 
-        MessageTypes.isGroupUpdate(record.type) || MessageTypes.isGroupQuit(record.type) -> {
-          builder.updateMessage = record.toRemoteGroupUpdateFromGv1(exportState) ?: continue
-          transformTimer.emit("group-update-v1")
+        builder.updateMessage = record.toRemoteProfileChangeUpdate() ?: return null
+        timer?.emit("profile-change")
+      }
+
+      MessageTypes.isSessionSwitchoverType(record.type) -> {
+        builder.updateMessage = record.toRemoteSessionSwitchoverUpdate()
+        timer?.emit("sse")
+      }
+
+      MessageTypes.isThreadMergeType(record.type) -> {
+        builder.updateMessage = record.toRemoteThreadMergeUpdate() ?: return null
+        timer?.emit("thread-merge")
+      }
+
+      MessageTypes.isGroupV2(record.type) && MessageTypes.isGroupUpdate(record.type) -> {
+        val update = record.toRemoteGroupUpdate() ?: return null
+        if (update.groupChange!!.updates.isEmpty()) {
+          Log.w(TAG, ExportSkips.groupUpdateHasNoUpdates(record.dateSent))
+          return null
         }
+        builder.updateMessage = update
+        timer?.emit("group-update-v2")
+      }
+
+      MessageTypes.isGroupUpdate(record.type) || MessageTypes.isGroupQuit(record.type) -> {
+        builder.updateMessage = record.toRemoteGroupUpdateFromGv1(exportState) ?: return null
+        timer?.emit("group-update-v1")
+      }
 
-        MessageTypes.isGroupV1MigrationEvent(record.type) -> {
-          builder.updateMessage = ChatUpdateMessage(
-            groupChange = GroupChangeChatUpdate(
-              updates = listOf(GroupChangeChatUpdate.Update(groupV2MigrationUpdate = GroupV2MigrationUpdate()))
-            )
+      MessageTypes.isGroupV1MigrationEvent(record.type) -> {
+        builder.updateMessage = ChatUpdateMessage(
+          groupChange = GroupChangeChatUpdate(
+            updates = listOf(GroupChangeChatUpdate.Update(groupV2MigrationUpdate = GroupV2MigrationUpdate()))
           )
-          transformTimer.emit("gv1-migration")
-        }
+        )
+        timer?.emit("gv1-migration")
+      }
 
-        MessageTypes.isCallLog(record.type) -> {
-          val call = db.callTable.getCallByMessageId(record.id)
-          builder.updateMessage = call?.toRemoteCallUpdate(exportState, record) ?: continue
-          transformTimer.emit("call-log")
-        }
+      MessageTypes.isCallLog(record.type) -> {
+        val call = db.callTable.getCallByMessageId(record.id)
+        builder.updateMessage = call?.toRemoteCallUpdate(exportState, record) ?: return null
+        timer?.emit("call-log")
+      }
 
-        MessageTypes.isPaymentsNotification(record.type) -> {
-          if (record.threadId == noteToSelfThreadId) {
-            Log.w(TAG, ExportSkips.paymentNotificationInNoteToSelf(record.dateSent))
-            continue
-          }
-          builder.paymentNotification = record.toRemotePaymentNotificationUpdate(db)
-          transformTimer.emit("payment")
+      MessageTypes.isPaymentsNotification(record.type) -> {
+        if (record.threadId == noteToSelfThreadId) {
+          Log.w(TAG, ExportSkips.paymentNotificationInNoteToSelf(record.dateSent))
+          return null
         }
+        builder.paymentNotification = record.toRemotePaymentNotificationUpdate(db)
+        timer?.emit("payment")
+      }
 
-        MessageTypes.isGiftBadge(record.type) -> {
-          builder.giftBadge = record.toRemoteGiftBadgeUpdate() ?: continue
-          transformTimer.emit("gift-badge")
-        }
+      MessageTypes.isGiftBadge(record.type) -> {
+        builder.giftBadge = record.toRemoteGiftBadgeUpdate() ?: return null
+        timer?.emit("gift-badge")
+      }
 
-        !record.sharedContacts.isNullOrEmpty() -> {
-          builder.contactMessage = record.toRemoteContactMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id]) ?: continue
-          transformTimer.emit("contact")
-        }
+      !record.sharedContacts.isNullOrEmpty() -> {
+        builder.contactMessage = record.toRemoteContactMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id]) ?: return null
+        timer?.emit("contact")
+      }
+
+      record.viewOnce -> {
+        builder.viewOnceMessage = record.toRemoteViewOnceMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id])
+        timer?.emit("voice")
+      }
 
-        record.viewOnce -> {
-          builder.viewOnceMessage = record.toRemoteViewOnceMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id])
-          transformTimer.emit("voice")
+      record.parentStoryId != 0L -> {
+        if (record.threadId == noteToSelfThreadId) {
+          Log.w(TAG, ExportSkips.directStoryReplyInNoteToSelf(record.dateSent))
+          return null
         }
+        builder.directStoryReplyMessage = record.toRemoteDirectStoryReplyMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[record.id]) ?: return null
+        timer?.emit("story")
+      }
 
-        record.parentStoryId != 0L -> {
-          if (record.threadId == noteToSelfThreadId) {
-            Log.w(TAG, ExportSkips.directStoryReplyInNoteToSelf(record.dateSent))
-            continue
-          }
-          builder.directStoryReplyMessage = record.toRemoteDirectStoryReplyMessage(mediaArchiveEnabled = mediaArchiveEnabled, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[record.id]) ?: continue
-          transformTimer.emit("story")
+      else -> {
+        val attachments = extraData.attachmentsById[record.id]
+        if (attachments?.isNotEmpty() == true && attachments.all { it.contentType == MediaUtil.LONG_TEXT } && record.body.isNullOrEmpty()) {
+          Log.w(TAG, ExportSkips.invalidLongTextChatItem(record.dateSent))
+          return null
         }
 
-        else -> {
-          val attachments = extraData.attachmentsById[record.id]
-          if (attachments?.isNotEmpty() == true && attachments.all { it.contentType == MediaUtil.LONG_TEXT } && record.body.isNullOrEmpty()) {
-            Log.w(TAG, ExportSkips.invalidLongTextChatItem(record.dateSent))
-            continue
-          }
+        val sticker = attachments?.firstOrNull { dbAttachment -> dbAttachment.isSticker }
 
-          val sticker = attachments?.firstOrNull { dbAttachment -> dbAttachment.isSticker }
-
-          if (sticker?.stickerLocator != null) {
-            builder.stickerMessage = sticker.toRemoteStickerMessage(sentTimestamp = record.dateSent, mediaArchiveEnabled = mediaArchiveEnabled, reactions = extraData.reactionsById[id])
-          } else {
-            val standardMessage = record.toRemoteStandardMessage(
-              exportState = exportState,
-              mediaArchiveEnabled = mediaArchiveEnabled,
-              reactionRecords = extraData.reactionsById[id],
-              mentions = extraData.mentionsById[id],
-              attachments = extraData.attachmentsById[record.id]
-            )
-
-            if (standardMessage.text.isNullOrBlank() && standardMessage.attachments.isEmpty()) {
-              Log.w(TAG, ExportSkips.emptyStandardMessage(record.dateSent))
-              continue
-            }
+        if (sticker?.stickerLocator != null) {
+          builder.stickerMessage = sticker.toRemoteStickerMessage(sentTimestamp = record.dateSent, mediaArchiveEnabled = mediaArchiveEnabled, reactions = extraData.reactionsById[id])
+        } else {
+          val standardMessage = record.toRemoteStandardMessage(
+            exportState = exportState,
+            mediaArchiveEnabled = mediaArchiveEnabled,
+            reactionRecords = extraData.reactionsById[id],
+            mentions = extraData.mentionsById[id],
+            attachments = extraData.attachmentsById[record.id]
+          )
 
-            builder.standardMessage = standardMessage
-            transformTimer.emit("standard")
+          if (standardMessage.text.isNullOrBlank() && standardMessage.attachments.isEmpty()) {
+            Log.w(TAG, ExportSkips.emptyStandardMessage(record.dateSent))
+            return null
           }
-        }
-      }
 
-      if (record.latestRevisionId == null) {
-        builder.revisions = revisionMap.remove(record.id)?.repairRevisions(builder) ?: emptyList()
-        val chatItem = builder.build().validateChatItem() ?: continue
-        buffer += chatItem
-      } else {
-        var previousEdits = revisionMap[record.latestRevisionId]
-        if (previousEdits == null) {
-          previousEdits = ArrayList()
-          revisionMap[record.latestRevisionId] = previousEdits
+          builder.standardMessage = standardMessage
+          timer?.emit("standard")
         }
-        previousEdits += builder.build()
       }
-      transformTimer.emit("revisions")
     }
-    eventTimer.emit("transform")
 
-    val recordIds = HashSet(records.keys)
-    records.clear()
+    return builder
+  }
 
-    records = readNextMessageRecordBatch(recordIds)
-    eventTimer.emit("messages")
+  /**
+   * Adds the converted record to the output buffer, or stashes it away if it's an old revision of a message we haven't reached yet.
+   * Must be called in record order.
+   */
+  private fun addToBuffer(record: BackupMessageRecord, builder: ChatItem.Builder?) {
+    if (builder == null) {
+      return
+    }
 
-    return if (buffer.isNotEmpty()) {
-      buffer.remove()
+    if (record.latestRevisionId == null) {
+      builder.revisions = revisionMap.remove(record.id)?.repairRevisions(builder) ?: emptyList()
+      val chatItem = builder.build().validateChatItem() ?: return
+      buffer += chatItem
     } else {
-      null
+      var previousEdits = revisionMap[record.latestRevisionId]
+      if (previousEdits == null) {
+        previousEdits = ArrayList()
+        revisionMap[record.latestRevisionId] = previousEdits
+      }
+      previousEdits += builder.build()
     }
   }
 
-  override fun close() {
-    Log.d(TAG, "[ChatItemArchiveExporter][batchSize = $batchSize] ${eventTimer.stop().summary}")
-    Log.d(TAG, "[ChatItemArchiveExporterTransform][batchSize = $batchSize] ${transformTimer.stop().summary}")
-    Log.d(TAG, "[ChatItemArchiveExporterExtraData][batchSize = $batchSize] ${extraDataTimer.stop().summary}")
-  }
-
   private fun readNextMessageRecordBatch(pastIds: Set<Long>): LinkedHashMap<Long, BackupMessageRecord> {
     return cursorGenerator(lastSeenReceivedTime, batchSize).use { cursor ->
       val records: LinkedHashMap<Long, BackupMessageRecord> = LinkedHashMap(batchSize)
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Wraps another [BackupExportWriter] and moves all of its work (serializing, compressing, encrypting, and MACing) onto a dedicated writer thread,
+ * so that the thread producing frames can move on to reading the next ones.
+ *
+ * Frames are handed to the writer thread through a bounded queue. If the writer falls behind, [write] will block until there's room, which keeps
+ * memory usage flat no matter how large the backup is. Frames are written to the delegate in exactly the order they were given to us, so the
+ * output is byte-for-byte identical to writing to the delegate directly.
+ *
+ * Any error hit by the writer thread is rethrown on the producing thread, either on the next call to [write] or on [close].
+ */
+class PipelinedBackupExportWriter @JvmOverloads constructor(
+  private val delegate: BackupExportWriter,
+  queueSize: Int = DEFAULT_QUEUE_SIZE
+) : BackupExportWriter {
+
+  companion object {
+    private val TAG = Log.tag(PipelinedBackupExportWriter::class.java)
+
+    const val DEFAULT_QUEUE_SIZE = 1000
+
+    private val END_OF_STREAM = Any()
+  }
+
+  private val queue: BlockingQueue<Any> = ArrayBlockingQueue(queueSize)
+
+  @Volatile
+  private var failure: Throwable? = null
+
+  private var closed = false
+
+  private val writerThread = Thread({ drain() }, "backup-export-writer").apply { start() }
+
+  @Throws(IOException::class)
+  override fun write(header: BackupInfo) {
+    enqueue(header)
+  }
+
+  @Throws(IOException::class)
+  override fun write(frame: Frame) {
+    enqueue(frame)
+  }
+
+  @Throws(IOException::class)
+  override fun close() {
+    if (closed) {
+      return
+    }
+    closed = true
+
+    try {
+      enqueue(END_OF_STREAM)
+      writerThread.join()
+      rethrowFailure()
+    } finally {
+      delegate.close()
+    }
+  }
+
+  private fun enqueue(item: Any) {
+    rethrowFailure()
+
+    while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+      // The writer thread may have died while we were waiting, in which case nothing will ever make room in the queue
+      rethrowFailure()
+    }
+  }
+
+  private fun drain() {
+    try {
+      while (true) {
+        when (val item = queue.take()) {
+          END_OF_STREAM -> return
+          is Frame -> delegate.write(item)
+          is BackupInfo -> delegate.write(item)
+        }
+      }
+    } catch (e: Throwable) {
+      Log.w(TAG, "Failed to write to the backup!", e)
+      failure = e
+      queue.clear()
+    }
+  }
+
+  private fun rethrowFailure() {
+    when (val e = failure) {
+      null -> return
+      is IOException -> throw e
+      else -> throw IOException(e)
+    }
+  }
+}
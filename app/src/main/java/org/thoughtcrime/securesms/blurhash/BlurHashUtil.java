@@ -22,6 +22,73 @@ package org.thoughtcrime.securesms.blurhash;
 
 final class BlurHashUtil {
 
+  private static final int LINEAR_BUCKETS = 4096;
+
+  /** {@link #sRGBToLinear(long)} for every channel value. */
+  private static final double[] SRGB_TO_LINEAR = new double[256];
+
+  /** The smallest linear value that {@link #linearTosRGB(double)} maps to each channel value. */
+  private static final double[] SRGB_THRESHOLDS = new double[256];
+
+  /** {@link #linearTosRGB(double)} at the start of each of {@link #LINEAR_BUCKETS} equal slices of [0, 1]. */
+  private static final int[] LINEAR_BUCKET_START = new int[LINEAR_BUCKETS];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      SRGB_TO_LINEAR[i]  = sRGBToLinear(i);
+      SRGB_THRESHOLDS[i] = findThreshold(i);
+    }
+
+    for (int i = 0; i < LINEAR_BUCKETS; i++) {
+      LINEAR_BUCKET_START[i] = (int) linearTosRGB(i / (double) LINEAR_BUCKETS);
+    }
+  }
+
+  /**
+   * Table-driven version of {@link #sRGBToLinear(long)}.
+   */
+  static double sRGBToLinearFast(int value) {
+    return SRGB_TO_LINEAR[value & 0xff];
+  }
+
+  /**
+   * Table-driven version of {@link #linearTosRGB(double)}. Gives exactly the same results, but without calling {@link Math#pow(double, double)}.
+   */
+  static int linearTosRGBFast(double value) {
+    if (!(value > 0)) {
+      return 0;
+    } else if (value >= 1) {
+      return 255;
+    }
+
+    int result = LINEAR_BUCKET_START[(int) (value * LINEAR_BUCKETS)];
+    while (result < 255 && value >= SRGB_THRESHOLDS[result + 1]) {
+      result++;
+    }
+
+    return result;
+  }
+
+  /**
+   * Binary searches the bits of non-negative doubles (which sort the same way as the doubles themselves) for the smallest value that
+   * {@link #linearTosRGB(double)} maps to at least the given channel value.
+   */
+  private static double findThreshold(int channel) {
+    long low  = Double.doubleToLongBits(0);
+    long high = Double.doubleToLongBits(1);
+
+    while (low < high) {
+      long middle = (low + high) >>> 1;
+      if (linearTosRGB(Double.longBitsToDouble(middle)) >= channel) {
+        high = middle;
+      } else {
+        low = middle + 1;
+      }
+    }
+
+    return Double.longBitsToDouble(low);
+  }
+
   static double sRGBToLinear(long value) {
     double v = value / 255.0;
     if (v <= 0.04045) {
@@ -44,19 +111,6 @@ final class BlurHashUtil {
     return Math.copySign(Math.pow(Math.abs(val), exp), val);
   }
 
-  static double max(double[][] values, int from, int endExclusive) {
-    double result = Double.NEGATIVE_INFINITY;
-    for (int i = from; i < endExclusive; i++) {
-      for (int j = 0; j < values[i].length; j++) {
-        double value = values[i][j];
-        if (value > result) {
-          result = value;
-        }
-      }
-    }
-    return result;
-  }
-
   private BlurHashUtil() {
   }
 }
@@ -32,6 +32,9 @@ import java.util.List;
 
 /**
  * Based in part on code from emoji-java
+ * <p>
+ * Finds emoji with one walk down the {@link EmojiTree} per candidate start position, so parsing is linear in the length of the text (times the
+ * length of the longest emoji).
  */
 public class EmojiParser {
 
@@ -48,21 +51,18 @@ public class EmojiParser {
       return new CandidateList(results, false);
     }
 
-    boolean allEmojis = text.length() > 0;
+    boolean         allEmojis = text.length() > 0;
+    EmojiTree.Match match     = new EmojiTree.Match();
 
     for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+      if (emojiTree.findLongestEmoji(text, i, match)) {
+        int emojiEnd = match.endPosition;
 
-      if (emojiEnd != -1) {
-        EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
-
-        if (emojiEnd + 2 <= text.length()) {
-          if (Fitzpatrick.fitzpatrickFromUnicode(text, emojiEnd) != null) {
-            emojiEnd += 2;
-          }
+        if (isFitzpatrickModifier(text, emojiEnd)) {
+          emojiEnd += 2;
         }
 
-        results.add(new Candidate(i, emojiEnd, drawInfo));
+        results.add(new Candidate(i, emojiEnd, match.drawInfo));
 
         i = emojiEnd - 1;
       } else if (text.charAt(i) != ' '){
@@ -75,20 +75,16 @@ public class EmojiParser {
     return new CandidateList(results, allEmojis);
   }
 
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
-
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
-
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
+  /**
+   * Same as {@link Fitzpatrick#fitzpatrickFromUnicode} != null, without iterating over the enum. All of the modifiers are U+1F3FB to U+1F3FF.
+   */
+  private static boolean isFitzpatrickModifier(CharSequence text, int index) {
+    if (index + 2 > text.length() || text.charAt(index) != '\uD83C') {
+      return false;
     }
 
-    return best;
+    char low = text.charAt(index + 1);
+    return low >= '\uDFFB' && low <= '\uDFFF';
   }
 
   public static class Candidate {
@@ -20,13 +20,20 @@
 
 package org.thoughtcrime.securesms.components.emoji.parsing;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
 
 /**
  * Based in part on code from emoji-java
+ * <p>
+ * Emoji are added to a tree of nodes, which is compiled into a {@link CompactTree} the first time it's searched. All lookups walk the compact
+ * tree, so they don't box characters or touch a hash map.
  */
 public class EmojiTree {
 
@@ -34,7 +41,9 @@ public class EmojiTree {
 
   private static final char TERMINATOR = '\ufe0f';
 
-  public void add(String emojiEncoding, EmojiDrawInfo emoji) {
+  private volatile CompactTree compactTree;
+
+  public synchronized void add(String emojiEncoding, EmojiDrawInfo emoji) {
     EmojiTreeNode tree = root;
 
     for (char c: emojiEncoding.toCharArray()) {
@@ -46,6 +55,7 @@ public class EmojiTree {
     }
 
     tree.setEmoji(emoji);
+    compactTree = null;
   }
 
   public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
@@ -53,21 +63,14 @@ public class EmojiTree {
       return Matches.POSSIBLY;
     }
 
-    EmojiTreeNode tree = root;
-
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
-
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
-      }
-
-      tree = tree.getChild(character);
-    }
+    CompactTree tree = getCompactTree();
+    int         node = tree.walk(sequence, startPosition, endPosition);
 
-    if (tree.isEndOfEmoji()) {
+    if (node == -1) {
+      return Matches.IMPOSSIBLE;
+    } else if (tree.emoji[node] != null) {
       return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
+    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.terminatedEmoji(node) != null) {
       return Matches.EXACTLY;
     } else {
       return Matches.POSSIBLY;
@@ -75,23 +78,159 @@ public class EmojiTree {
   }
 
   public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
-    EmojiTreeNode tree = root;
+    CompactTree tree = getCompactTree();
+    int         node = tree.walk(unicode, startPosition, endPostiion);
+
+    if      (node == -1)                                     return null;
+    else if (tree.emoji[node] != null)                       return tree.emoji[node];
+    else if (unicode.charAt(endPostiion-1) != TERMINATOR)    return tree.terminatedEmoji(node);
+    else    return null;
+  }
 
-    for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+  /**
+   * Finds the longest emoji that starts at {@code startPosition}, in a single walk down the tree. Same as calling {@link #isEmoji} with a
+   * growing end position until it's impossible, and then {@link #getEmoji} on the longest exact match.
+   *
+   * @return True if an emoji was found, in which case {@code match} holds its end position and draw info.
+   */
+  boolean findLongestEmoji(@NonNull CharSequence text, int startPosition, @NonNull Match match) {
+    CompactTree tree = getCompactTree();
+    int         node = 0;
+    boolean     found = false;
 
-      if (!tree.hasChild(character)) {
-        return null;
+    for (int i = startPosition; i < text.length(); i++) {
+      char character = text.charAt(i);
+
+      node = tree.getChild(node, character);
+
+      if (node == -1) {
+        break;
       }
 
-      tree = tree.getChild(character);
+      EmojiDrawInfo emoji = tree.emoji[node];
+
+      if (emoji == null && character != TERMINATOR) {
+        emoji = tree.terminatedEmoji(node);
+      }
+
+      if (emoji != null) {
+        match.endPosition = i + 1;
+        match.drawInfo    = emoji;
+        found             = true;
+      }
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPostiion-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
-    else    return null;
+    return found;
   }
 
+  private @NonNull CompactTree getCompactTree() {
+    CompactTree tree = compactTree;
+
+    if (tree == null) {
+      synchronized (this) {
+        tree = compactTree;
+        if (tree == null) {
+          tree        = new CompactTree(root);
+          compactTree = tree;
+        }
+      }
+    }
+
+    return tree;
+  }
+
+  static final class Match {
+    int           endPosition;
+    EmojiDrawInfo drawInfo;
+  }
+
+  /**
+   * The tree laid out breadth first in flat arrays. The children of node {@code n} are the nodes {@code childStart[n]} up to
+   * {@code childStart[n + 1]}, sorted by the character that leads to them, so finding a child is a binary search over a few chars.
+   */
+  private static final class CompactTree {
+
+    private final char[]          character;
+    private final int[]           childStart;
+    private final EmojiDrawInfo[] emoji;
+
+    CompactTree(@NonNull EmojiTreeNode root) {
+      int size = root.size();
+
+      character  = new char[size];
+      childStart = new int[size + 1];
+      emoji      = new EmojiDrawInfo[size];
+
+      Queue<EmojiTreeNode> queue = new ArrayDeque<>();
+      queue.add(root);
+
+      int node = 0;
+      int next = 1;
+
+      while (!queue.isEmpty()) {
+        EmojiTreeNode current = queue.remove();
+
+        emoji[node]      = current.getEmoji();
+        childStart[node] = next;
+
+        char[] children = new char[current.children.size()];
+        int    count    = 0;
+        for (char child : current.children.keySet()) {
+          children[count++] = child;
+        }
+        Arrays.sort(children);
+
+        for (char child : children) {
+          character[next++] = child;
+          queue.add(current.getChild(child));
+        }
+
+        node++;
+      }
+
+      childStart[size] = next;
+    }
+
+    /**
+     * @return The child of {@code node} reached by {@code c}, or -1 if there isn't one.
+     */
+    int getChild(int node, char c) {
+      int low  = childStart[node];
+      int high = childStart[node + 1] - 1;
+
+      while (low <= high) {
+        int  mid      = (low + high) >>> 1;
+        char midValue = character[mid];
+
+        if      (midValue < c) low  = mid + 1;
+        else if (midValue > c) high = mid - 1;
+        else                   return mid;
+      }
+
+      return -1;
+    }
+
+    /**
+     * @return The node reached by walking {@code sequence} from the root, or -1 if it leaves the tree.
+     */
+    int walk(@NonNull CharSequence sequence, int startPosition, int endPosition) {
+      int node = 0;
+
+      for (int i = startPosition; i < endPosition && node != -1; i++) {
+        node = getChild(node, sequence.charAt(i));
+      }
+
+      return node;
+    }
+
+    /**
+     * Emoji are often written without their trailing variation selector, so a node also matches the emoji one {@link #TERMINATOR} below it.
+     */
+    @Nullable EmojiDrawInfo terminatedEmoji(int node) {
+      int child = getChild(node, TERMINATOR);
+      return child != -1 ? emoji[child] : null;
+    }
+  }
 
   private static class EmojiTreeNode {
 
@@ -118,8 +257,12 @@ public class EmojiTree {
       return children.get(child);
     }
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
+    int size() {
+      int size = 1;
+      for (EmojiTreeNode child : children.values()) {
+        size += child.size();
+      }
+      return size;
     }
   }
 
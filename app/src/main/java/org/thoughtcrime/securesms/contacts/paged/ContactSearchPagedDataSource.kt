@@ -19,6 +19,7 @@ import org.thoughtcrime.securesms.phonenumbers.NumberUtil
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.search.MessageResult
+import org.thoughtcrime.securesms.search.MessageSearchHit
 import org.thoughtcrime.securesms.search.MessageSearchResult
 import org.thoughtcrime.securesms.search.SearchRepository
 import org.thoughtcrime.securesms.search.ThreadSearchResult
@@ -449,32 +450,50 @@ class ContactSearchPagedDataSource(
     }
   }
 
-  private fun getMessageData(query: String?): ContactSearchIterator<MessageResult> {
+  private fun getMessageData(query: String?): ContactSearchIterator<MessageSearchHit> {
+    return ListSearchIterator(getMessageHits(query))
+  }
+
+  /**
+   * A search that was superseded by a newer one isn't cached, so that asking for the same query again actually runs it.
+   */
+  private fun getMessageHits(query: String?): List<MessageSearchHit> {
     check(searchRepository != null)
 
-    if (searchCache.messageSearchResult == null && query != null) {
-      searchCache = searchCache.copy(messageSearchResult = searchRepository.queryMessagesSync(query))
+    if (query == null) {
+      return emptyList()
     }
 
-    return if (query != null) {
-      ListSearchIterator(searchCache.messageSearchResult!!.results)
-    } else {
-      ListSearchIterator(emptyList())
+    searchCache.messageSearchResult?.let { return it.results }
+
+    val result = searchRepository.queryMessagesSync(query)
+    if (!result.isSuperseded) {
+      searchCache = searchCache.copy(messageSearchResult = result)
     }
+
+    return result.results
   }
 
+  /**
+   * Message hits are only turned into full results (body, snippet, etc) for the window that's being loaded, since that's the expensive part of the search.
+   */
   private fun getMessageContactData(section: ContactSearchConfiguration.Section.Messages, query: String?, startIndex: Int, endIndex: Int): List<ContactSearchData> {
-    return getMessageData(query).use { records ->
-      readContactData(
-        records = records,
-        recordsPredicate = null,
-        section = section,
-        startIndex = startIndex,
-        endIndex = endIndex,
-        recordMapper = {
-          ContactSearchData.Message(query ?: "", it)
-        }
-      )
+    check(searchRepository != null)
+
+    val hits: List<MessageSearchHit> = getMessageHits(query)
+    var results: Map<Long, MessageResult> = emptyMap()
+
+    return ListSearchIterator(hits).use { records ->
+      val collection = createResultsCollection(section, records, null, emptyList()) { hit ->
+        ContactSearchData.Message(query ?: "", results.getValue(hit.messageId))
+      }
+
+      val window: List<MessageSearchHit> = collection.getRecordRange(startIndex, endIndex).map { hits[it] }
+      if (query != null && window.isNotEmpty()) {
+        results = searchRepository.loadMessageResults(query, window).associateBy { it.messageId }
+      }
+
+      collection.getSublist(startIndex, endIndex)
     }
   }
 
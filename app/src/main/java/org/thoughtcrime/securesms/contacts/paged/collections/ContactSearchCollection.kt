@@ -63,8 +63,7 @@ open class ContactSearchCollection<ContactRecord>(
 
     fillDataWindow(windowOffset, windowLimit)
 
-    for (i in (start + startOffset) until (end - endOffset)) {
-      val correctedIndex = if (section.includeHeader) i - 1 else i
+    for (correctedIndex in getRecordRange(start, end)) {
       results.add(getItemAtCorrectedIndex(correctedIndex))
     }
 
@@ -75,6 +74,22 @@ open class ContactSearchCollection<ContactRecord>(
     return results
   }
 
+  /**
+   * The record positions that [getSublist] reads for the same [start] and [end], leaving out the header and expand rows. Lets a caller load anything
+   * expensive for exactly those records up front.
+   */
+  fun getRecordRange(start: Int, end: Int): IntRange {
+    if (start == end) {
+      return IntRange.EMPTY
+    }
+
+    val headerOffset = if (section.includeHeader) 1 else 0
+    val startOffset = if (start == 0 && section.includeHeader) 1 else 0
+    val endOffset = if (end == getSize() && shouldDisplayExpandRow()) 1 else 0
+
+    return (start + startOffset - headerOffset) until (end - endOffset - headerOffset)
+  }
+
   open fun getItemAtCorrectedIndex(correctedIndex: Int): ContactSearchData {
     return if (recordPredicate == null) {
       records.moveToPosition(correctedIndex - 1)
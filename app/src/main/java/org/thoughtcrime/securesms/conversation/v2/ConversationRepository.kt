@@ -44,6 +44,7 @@ import org.thoughtcrime.securesms.conversation.mutiselect.MultiselectPart
 import org.thoughtcrime.securesms.conversation.v2.RequestReviewState.GroupReviewState
 import org.thoughtcrime.securesms.conversation.v2.RequestReviewState.IndividualReviewState
 import org.thoughtcrime.securesms.conversation.v2.data.ConversationDataSource
+import org.thoughtcrime.securesms.conversation.v2.data.MessageExtrasCache
 import org.thoughtcrime.securesms.crypto.ReentrantSessionLock
 import org.thoughtcrime.securesms.database.GroupTable
 import org.thoughtcrime.securesms.database.IdentityTable.VerifiedStatus
@@ -127,12 +128,14 @@ class ConversationRepository(
       SignalLocalMetrics.ConversationOpen.onMetadataLoaded()
 
       val messageRequestData = metadata.messageRequestData
+      val extrasCache = MessageExtrasCache()
       val dataSource = ConversationDataSource(
         localContext,
         threadId,
         messageRequestData,
         metadata.showUniversalExpireTimerMessage,
-        metadata.threadSize
+        metadata.threadSize,
+        extrasCache
       )
       val config = PagingConfig.Builder().setPageSize(25)
         .setBufferPages(2)
@@ -141,7 +144,8 @@ class ConversationRepository(
 
       ConversationThreadState(
         items = PagedData.createForObservable(dataSource, config),
-        meta = metadata
+        meta = metadata,
+        extrasCache = extrasCache
       )
     }.subscribeOn(Schedulers.io())
   }
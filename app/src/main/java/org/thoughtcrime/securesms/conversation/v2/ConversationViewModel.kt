@@ -221,24 +221,44 @@ class ConversationViewModel(
     disposables += conversationThreadState.flatMapObservable { threadState ->
       Observable.create<Unit> { emitter ->
         val controller = threadState.items.controller
-        val messageUpdateObserver = DatabaseObserver.MessageObserver {
-          controller.onDataItemChanged(ConversationElementKey.forMessage(it.id))
+        val extrasCache = threadState.extrasCache
+        val messageUpdateObserver = object : DatabaseObserver.MessageObserver {
+          override fun onMessageChanged(messageId: MessageId) {
+            onMessagesChanged(listOf(messageId))
+          }
+
+          override fun onMessagesChanged(messageIds: Collection<MessageId>) {
+            messageIds.forEach { extrasCache.onMessageChanged(it.id) }
+            controller.onDataItemsChanged(messageIds.map { ConversationElementKey.forMessage(it.id) })
+          }
         }
         val messageInsertObserver = DatabaseObserver.MessageObserver {
           controller.onDataItemInserted(ConversationElementKey.forMessage(it.id), 0)
         }
         val conversationObserver = DatabaseObserver.Observer {
+          extrasCache.onConversationChanged()
           controller.onDataInvalidated()
         }
+        val attachmentObserver = DatabaseObserver.Observer {
+          extrasCache.onAttachmentsChanged()
+        }
+        val callObserver = DatabaseObserver.Observer {
+          extrasCache.onCallsChanged()
+        }
 
         AppDependencies.databaseObserver.registerMessageUpdateObserver(messageUpdateObserver)
         AppDependencies.databaseObserver.registerMessageInsertObserver(threadId, messageInsertObserver)
         AppDependencies.databaseObserver.registerConversationObserver(threadId, conversationObserver)
+        AppDependencies.databaseObserver.registerAttachmentUpdatedObserver(attachmentObserver)
+        AppDependencies.databaseObserver.registerAttachmentDeletedObserver(attachmentObserver)
+        AppDependencies.databaseObserver.registerCallUpdateObserver(callObserver)
 
         emitter.setCancellable {
           AppDependencies.databaseObserver.unregisterObserver(messageUpdateObserver)
           AppDependencies.databaseObserver.unregisterObserver(messageInsertObserver)
           AppDependencies.databaseObserver.unregisterObserver(conversationObserver)
+          AppDependencies.databaseObserver.unregisterObserver(attachmentObserver)
+          AppDependencies.databaseObserver.unregisterObserver(callObserver)
         }
       }
     }.subscribeOn(Schedulers.io()).subscribe()
@@ -54,6 +54,7 @@ class ConversationDataSource(
   private val messageRequestData: ConversationData.MessageRequestData,
   private val showUniversalExpireTimerUpdate: Boolean,
   private var baseSize: Int,
+  private val extrasCache: MessageExtrasCache? = null,
   private val messageRequestRepository: MessageRequestRepository = MessageRequestRepository(localContext)
 ) : PagedDataSource<ConversationElementKey, ConversationElement> {
 
@@ -119,7 +120,7 @@ class ConversationDataSource(
 
     stopwatch.split("messages")
 
-    val extraData = MessageDataFetcher.fetch(records)
+    val extraData = MessageDataFetcher.fetch(records, extrasCache)
     stopwatch.split("extra-data")
 
     records = MessageDataFetcher.updateModelsWithData(records, extraData).toMutableList()
@@ -187,7 +188,9 @@ class ConversationDataSource(
       if (record == null) {
         return null
       } else {
-        extraData = MessageDataFetcher.fetch(record)
+        // Single items are only loaded when they've changed, so anything we have cached for them is out of date
+        extrasCache?.onMessageChanged(record.id)
+        extraData = MessageDataFetcher.fetch(record, extrasCache)
         stopwatch.split("extra-data")
 
         record = MessageDataFetcher.updateModelWithData(record, extraData)
@@ -208,6 +211,50 @@ class ConversationDataSource(
     }
   }
 
+  override fun load(keys: Collection<ConversationElementKey>): List<ConversationElement> {
+    val messageIds: List<Long> = keys.filterIsInstance<MessageBackedKey>().map { it.id }
+    val threadHeaders: List<ConversationElement> = if (keys.contains(ThreadHeaderKey)) listOf(loadThreadHeader()) else emptyList()
+
+    if (messageIds.isEmpty()) {
+      return threadHeaders
+    }
+
+    val stopwatch = Stopwatch(title = "load(${messageIds.size} keys), thread $threadId", decimalPlaces = 2)
+
+    var records: List<MessageRecord> = SignalDatabase.messages.getMessages(messageIds).use { reader ->
+      reader.filterNot { record ->
+        val mmsRecord = record as? MmsMessageRecord
+        mmsRecord?.parentStoryId?.isGroupReply() == true || (mmsRecord?.scheduledDate ?: -1L) != -1L
+      }
+    }
+    stopwatch.split("messages")
+
+    // Items are only reloaded by key when they've changed, so anything we have cached for them is out of date
+    records.forEach { extrasCache?.onMessageChanged(it.id) }
+    val extraData = MessageDataFetcher.fetch(records, extrasCache)
+    stopwatch.split("extra-data")
+
+    records = MessageDataFetcher.updateModelsWithData(records, extraData)
+    stopwatch.split("models")
+
+    val messages = records.map { record ->
+      ConversationMessageFactory.createWithUnresolvedData(
+        localContext,
+        record,
+        record.getDisplayBody(localContext),
+        extraData.mentionsById[record.id],
+        extraData.hasBeenQuoted.contains(record.id),
+        threadRecipient
+      ).toMappingModel()
+    }
+    stopwatch.split("conversion")
+
+    val log = stopwatch.stopAndGetLogString()
+    Log.d(TAG, "$log || ${extraData.timeLog}")
+
+    return messages + threadHeaders
+  }
+
   override fun getKey(conversationMessage: ConversationElement): ConversationElementKey {
     return when (conversationMessage) {
       is ConversationMessageElement -> MessageBackedKey(conversationMessage.conversationMessage.messageRecord.id)
@@ -22,9 +22,11 @@ import org.thoughtcrime.securesms.dependencies.AppDependencies
 import org.thoughtcrime.securesms.payments.Payment
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.util.SignalLocalMetrics
 import org.whispersystems.signalservice.api.util.UuidUtil
 import java.util.UUID
 import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Future
 import kotlin.time.Duration.Companion.nanoseconds
@@ -38,44 +40,50 @@ object MessageDataFetcher {
   /**
    * Singular version of [fetch].
    */
-  fun fetch(messageRecord: MessageRecord): ExtraMessageData {
-    return fetch(listOf(messageRecord))
+  fun fetch(messageRecord: MessageRecord, cache: MessageExtrasCache? = null): ExtraMessageData {
+    return fetch(listOf(messageRecord), cache)
   }
 
   /**
    * Fetches all associated message data in parallel.
    * It also performs a side-effect of resolving recipients referenced in group update messages.
    *
+   * If a [cache] is provided, only the messages that aren't already in it are queried, and a table is skipped entirely if every message is cached.
+   *
    * While work is spun off on various threads, the calling thread is blocked until they all complete,
    * so this should be called on a background thread.
    */
   @WorkerThread
-  fun fetch(messageRecords: List<MessageRecord>): ExtraMessageData {
+  fun fetch(messageRecords: List<MessageRecord>, cache: MessageExtrasCache? = null): ExtraMessageData {
     val startTimeNanos = System.nanoTime()
     val context = AppDependencies.application
 
     val messageIds: List<Long> = messageRecords.map { it.id }
     val executor = SignalExecutors.BOUNDED
 
-    val mentionsFuture = executor.submitTimed {
-      SignalDatabase.mentions.getMentionsForMessages(messageIds)
+    val mentionsFuture = executor.submitCached(cache?.mentions, messageIds) { ids ->
+      SignalDatabase.mentions.getMentionsForMessages(ids)
     }
 
     val hasBeenQuotedFuture = executor.submitTimed {
       SignalDatabase.messages.isQuoted(messageRecords)
     }
 
-    val reactionsFuture = executor.submitTimed {
-      SignalDatabase.reactions.getReactionsForMessages(messageIds)
+    val reactionsFuture = executor.submitCached(cache?.reactions, messageIds) { ids ->
+      SignalDatabase.reactions.getReactionsForMessages(ids)
     }
 
-    val attachmentsFuture = executor.submitTimed {
-      SignalDatabase.attachments.getAttachmentsForMessages(messageIds)
+    val attachmentsFuture = executor.submitCached(cache?.attachments, messageIds) { ids ->
+      SignalDatabase.attachments.getAttachmentsForMessages(ids)
     }
 
-    val paymentsFuture = executor.submitTimed {
+    val paymentMessageIds: List<Long> = messageRecords
+      .filter { it.isMms && it.isPaymentNotification }
+      .map { it.id }
+
+    val paymentsFuture = executor.submitCached(cache?.payments, paymentMessageIds) { ids ->
       val paymentUuidToMessageId: Map<UUID, Long> = messageRecords
-        .filter { it.isMms && it.isPaymentNotification }
+        .filter { it.id in ids }
         .map { UuidUtil.parseOrNull(it.body) to it.id }
         .filter { it.first != null }
         .associate { it.first to it.second }
@@ -86,8 +94,8 @@ object MessageDataFetcher {
         .associateBy { paymentUuidToMessageId[it.uuid]!! }
     }
 
-    val callsFuture = executor.submitTimed {
-      SignalDatabase.calls.getCallsForCache(messageIds)
+    val callsFuture = executor.submitCached(cache?.calls, messageIds) { ids ->
+      SignalDatabase.calls.getCallsForCache(ids)
     }
 
     val recipientsFuture = executor.submitTimed {
@@ -112,6 +120,8 @@ object MessageDataFetcher {
     val cpuTimeNanos = arrayOf(mentionsResult, hasBeenQuotedResult, reactionsResult, attachmentsResult, paymentsResult, callsResult, recipientsResult).sumOf { it.durationNanos }
     val cpuTimeMs = cpuTimeNanos.nanoseconds.toDouble(DurationUnit.MILLISECONDS)
 
+    SignalLocalMetrics.MessageExtrasFetch.onFetched(System.nanoTime() - startTimeNanos, cpuTimeNanos)
+
     return ExtraMessageData(
       mentionsById = mentionsResult.result,
       hasBeenQuoted = hasBeenQuotedResult.result,
@@ -172,6 +182,32 @@ object MessageDataFetcher {
     )
   }
 
+  /**
+   * Like [submitTimed], but only queries for the ids that aren't in the [cache], and adds the results to it. If everything is cached, nothing is submitted.
+   */
+  private fun <T : Any> ExecutorService.submitCached(
+    cache: MessageExtrasCache.TableCache<T>?,
+    messageIds: List<Long>,
+    query: (List<Long>) -> Map<Long, T>
+  ): Future<TimedResult<Map<Long, T>>> {
+    if (cache == null) {
+      return submitTimed { query(messageIds) }
+    }
+
+    val lookup = cache.lookup(messageIds)
+
+    if (lookup.missing.isEmpty()) {
+      return CompletableFuture.completedFuture(TimedResult(result = lookup.found, durationNanos = 0))
+    }
+
+    return submitTimed {
+      val loaded = query(lookup.missing)
+      cache.store(lookup, loaded)
+
+      if (lookup.found.isEmpty()) loaded else lookup.found + loaded
+    }
+  }
+
   data class TimedResult<T>(
     val result: T,
     val durationNanos: Long
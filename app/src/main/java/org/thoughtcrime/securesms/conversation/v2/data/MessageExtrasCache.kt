@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.conversation.v2.data
+
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment
+import org.thoughtcrime.securesms.database.CallTable
+import org.thoughtcrime.securesms.database.model.Mention
+import org.thoughtcrime.securesms.database.model.ReactionRecord
+import org.thoughtcrime.securesms.payments.Payment
+import org.thoughtcrime.securesms.util.LRUCache
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Caches the extra data that [MessageDataFetcher] loads for the messages in a single conversation, keyed by message id. The paging controller frequently
+ * re-loads pages around the current position, and without this we'd go back to the database for data we loaded moments earlier.
+ *
+ * The cache doesn't observe the database itself. Whoever owns it is expected to forward changes (see ConversationViewModel) *before* asking the paging
+ * controller to reload, so a reload never sees stale data:
+ *  - [onMessageChanged] for message updates, which covers mentions, reactions and payments, as well as attachment changes that are tied to a message.
+ *  - [onConversationChanged] and [onAttachmentsChanged] for attachment changes, which are generally only reported per-thread.
+ *  - [onCallsChanged] for call updates, which aren't reported per-message at all.
+ *
+ * If an invalidation happens while a fetch is in flight, the result of that fetch isn't cached.
+ */
+class MessageExtrasCache(maxSize: Int = DEFAULT_MAX_SIZE) {
+
+  companion object {
+    private const val DEFAULT_MAX_SIZE = 500
+
+    private val mentionsHitRate = HitRate()
+    private val reactionsHitRate = HitRate()
+    private val attachmentsHitRate = HitRate()
+    private val paymentsHitRate = HitRate()
+    private val callsHitRate = HitRate()
+
+    /**
+     * Hit rates for each table, aggregated across every conversation opened since the process started.
+     */
+    @JvmStatic
+    val hitRates: Map<String, HitRate>
+      get() = mapOf(
+        "mentions" to mentionsHitRate,
+        "reactions" to reactionsHitRate,
+        "attachments" to attachmentsHitRate,
+        "payments" to paymentsHitRate,
+        "calls" to callsHitRate
+      )
+  }
+
+  val mentions = TableCache<List<Mention>>(maxSize, mentionsHitRate)
+  val reactions = TableCache<List<ReactionRecord>>(maxSize, reactionsHitRate)
+  val attachments = TableCache<List<DatabaseAttachment>>(maxSize, attachmentsHitRate)
+  val payments = TableCache<Payment>(maxSize, paymentsHitRate)
+  val calls = TableCache<CallTable.Call>(maxSize, callsHitRate)
+
+  fun onMessageChanged(messageId: Long) {
+    mentions.invalidate(messageId)
+    reactions.invalidate(messageId)
+    attachments.invalidate(messageId)
+    payments.invalidate(messageId)
+    calls.invalidate(messageId)
+  }
+
+  fun onConversationChanged() {
+    attachments.clear()
+  }
+
+  fun onAttachmentsChanged() {
+    attachments.clear()
+  }
+
+  fun onCallsChanged() {
+    calls.clear()
+  }
+
+  /**
+   * The cached data for a single table. Messages that have no data in the table (e.g. no reactions) are cached as well, since that's the common case.
+   */
+  class TableCache<T : Any> internal constructor(maxSize: Int, private val hitRate: HitRate) {
+
+    private val entries: MutableMap<Long, T?> = LRUCache(maxSize)
+    private var version = 0L
+
+    /**
+     * Splits the provided ids into those that are cached and those that need to be loaded. Pass the result to [store] along with the loaded data.
+     */
+    @Synchronized
+    fun lookup(messageIds: Collection<Long>): Lookup<T> {
+      val found: MutableMap<Long, T> = HashMap()
+      val missing: MutableList<Long> = ArrayList()
+
+      for (id in messageIds) {
+        if (entries.containsKey(id)) {
+          entries[id]?.let { found[id] = it }
+        } else {
+          missing += id
+        }
+      }
+
+      hitRate.hits.add((messageIds.size - missing.size).toLong())
+      hitRate.misses.add(missing.size.toLong())
+
+      return Lookup(found, missing, version)
+    }
+
+    /**
+     * Caches the data loaded for [Lookup.missing], unless something was invalidated since the lookup was made.
+     */
+    @Synchronized
+    fun store(lookup: Lookup<T>, loaded: Map<Long, T>) {
+      if (lookup.version != version) {
+        return
+      }
+
+      for (id in lookup.missing) {
+        entries[id] = loaded[id]
+      }
+    }
+
+    @Synchronized
+    fun invalidate(messageId: Long) {
+      entries.remove(messageId)
+      version++
+    }
+
+    @Synchronized
+    fun clear() {
+      entries.clear()
+      version++
+    }
+  }
+
+  class Lookup<T>(
+    val found: Map<Long, T>,
+    val missing: List<Long>,
+    internal val version: Long
+  )
+
+  class HitRate {
+    internal val hits = LongAdder()
+    internal val misses = LongAdder()
+
+    val hitCount: Long
+      get() = hits.sum()
+
+    val missCount: Long
+      get() = misses.sum()
+
+    val rate: Float
+      get() {
+        val hits = hitCount
+        val total = hits + missCount
+        return if (total == 0L) 0f else hits / total.toFloat()
+      }
+  }
+}
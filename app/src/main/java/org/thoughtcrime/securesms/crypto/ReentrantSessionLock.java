@@ -1,25 +1,48 @@
 package org.thoughtcrime.securesms.crypto;
 
+import org.signal.libsignal.protocol.SignalProtocolAddress;
 import org.whispersystems.signalservice.api.SignalSessionLock;
+import org.whispersystems.signalservice.api.StripedSessionLock;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Collection;
 
 /**
- * An implementation of {@link SignalSessionLock} that is backed by a {@link ReentrantLock}.
+ * The app-wide {@link SignalSessionLock}. Backed by a {@link StripedSessionLock}, so when striping is enabled, operations on a single
+ * address (like encrypting a message to someone) only lock that address. Everything else locks globally, like it always has.
  */
 public enum ReentrantSessionLock implements SignalSessionLock {
 
   INSTANCE;
 
-  private static final ReentrantLock LOCK = new ReentrantLock();
+  private static final StripedSessionLock LOCK = new StripedSessionLock();
 
   @Override
   public Lock acquire() {
-    LOCK.lock();
-    return LOCK::unlock;
+    return LOCK.acquire();
   }
 
+  @Override
+  public Lock acquire(SignalProtocolAddress address) {
+    return LOCK.acquire(address);
+  }
+
+  @Override
+  public Lock acquire(Collection<SignalProtocolAddress> addresses) {
+    return LOCK.acquire(addresses);
+  }
+
+  /**
+   * @return True if the current thread holds the global lock or the lock for any address.
+   */
   public boolean isHeldByCurrentThread() {
     return LOCK.isHeldByCurrentThread();
   }
+
+  public void setStripingEnabled(boolean enabled) {
+    LOCK.setStripingEnabled(enabled);
+  }
+
+  public boolean isStripingEnabled() {
+    return LOCK.isStripingEnabled();
+  }
 }
@@ -28,4 +28,24 @@ object DatabaseMonitor {
   fun onUpdate(table: String, values: ContentValues, selection: String?, args: Array<Any>?) {
     queryMonitor?.onUpdate(table, values, selection, args)
   }
+
+  /**
+   * Whether anything is listening to [onStatementComplete] or [onTransactionLockAcquired]. If not, callers can skip timing statements.
+   */
+  @JvmStatic
+  fun isTimingEnabled(): Boolean {
+    return QueryProfiler.enabled || queryMonitor != null
+  }
+
+  @JvmStatic
+  fun onStatementComplete(operation: String, table: String?, sql: String?, durationNanos: Long, rows: Int, mainThread: Boolean) {
+    QueryProfiler.onStatementComplete(operation, table, sql, durationNanos, rows, mainThread)
+    queryMonitor?.onStatementComplete(operation, table, sql, durationNanos, rows, mainThread)
+  }
+
+  @JvmStatic
+  fun onTransactionLockAcquired(waitNanos: Long, mainThread: Boolean) {
+    QueryProfiler.onTransactionLockAcquired(waitNanos, mainThread)
+    queryMonitor?.onTransactionLockAcquired(waitNanos, mainThread)
+  }
 }
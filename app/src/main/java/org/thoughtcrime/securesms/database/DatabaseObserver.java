@@ -1,32 +1,63 @@
 package org.thoughtcrime.securesms.database;
 
+import android.os.Handler;
+import android.os.HandlerThread;
+
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import org.jetbrains.annotations.NotNull;
+import org.signal.core.util.ThreadUtil;
 import org.signal.core.util.concurrent.SignalExecutors;
+import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.service.webrtc.links.CallLinkRoomId;
 import org.thoughtcrime.securesms.util.concurrent.SerialExecutor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Allows listening to database changes to varying degrees of specificity.
  * <p>
  * A replacement for the observer system in {@link DatabaseTable}. We should move to this over time.
+ * <p>
+ * Observers are grouped into {@link Shard}s. Each shard's registrations and notifications run in order on a serial executor. When sharding is
+ * enabled, every shard gets its own executor, so a slow observer only holds up the observers in its own shard. Otherwise, they all share one.
+ * Notifications in different shards may run out of order relative to each other, so anything that needs to be seen in order (like a conversation
+ * and the conversation list) has to live in the same shard.
+ * <p>
+ * Also when sharding is enabled, a notification that comes in while an identical one is still waiting to run is dropped, since the waiting one
+ * will see the same data. Notifications wait out a short window first, so bursts of changes (like a batch of incoming messages, each in their own
+ * transaction) collapse into a single callback per key, and message updates are delivered in batches.
  */
 public class DatabaseObserver {
 
+  private static final String TAG = Log.tag(DatabaseObserver.class);
+
+  /** How long a notification waits for duplicates to coalesce with when sharding is enabled. Roughly one frame. */
+  private static final long COALESCE_WINDOW_MS = 16;
+
+  /** Dispatches that wait longer than this to start are logged. */
+  private static final long SLOW_DISPATCH_MS = 250;
+
   private static final String KEY_CONVERSATION          = "Conversation:";
   private static final String KEY_VERBOSE_CONVERSATION  = "VerboseConversation:";
   private static final String KEY_CONVERSATION_LIST     = "ConversationList";
@@ -36,6 +67,7 @@ public class DatabaseObserver {
   private static final String KEY_STICKERS              = "Stickers";
   private static final String KEY_STICKER_PACKS         = "StickerPacks";
   private static final String KEY_ATTACHMENTS           = "Attachments";
+  private static final String KEY_ATTACHMENTS_DELETED   = "AttachmentsDeleted";
   private static final String KEY_MESSAGE_UPDATE        = "MessageUpdate:";
   private static final String KEY_MESSAGE_INSERT        = "MessageInsert:";
   private static final String KEY_NOTIFICATION_PROFILES = "NotificationProfiles";
@@ -49,7 +81,21 @@ public class DatabaseObserver {
   private static final String KEY_IN_APP_PAYMENTS   = "InAppPayments";
   private static final String KEY_CHAT_FOLDER       = "ChatFolder";
 
-  private final Executor    executor;
+  private enum Shard {
+    /** Conversations, the conversation list and chat folders. Kept together so the list never sees a change before the conversation does. */
+    CONVERSATIONS,
+    MESSAGES,
+    ATTACHMENTS,
+    OTHER
+  }
+
+  private final boolean           sharded;
+  private final Dispatcher[]      dispatchers;
+  private final Set<String>       pendingKeys;
+  private final Set<MessageId>    pendingMessageUpdates;
+  private final AtomicInteger     inFlight;
+  private final AtomicLong        coalesced;
+  private final @Nullable Handler windowHandler;
 
   private final Set<Observer>                      conversationListObservers;
   private final Map<Long, Set<Observer>>           conversationObservers;
@@ -73,7 +119,34 @@ public class DatabaseObserver {
   private final Set<Observer>                      chatFolderObservers;
 
   public DatabaseObserver() {
-    this.executor                     = new SerialExecutor(SignalExecutors.BOUNDED);
+    this(false);
+  }
+
+  /**
+   * @param sharded If true, each {@link Shard} gets its own executor and notifications are coalesced over a short window. Otherwise, everything
+   *                runs on a single serial executor as soon as it's notified, and every notification is delivered.
+   */
+  public DatabaseObserver(boolean sharded) {
+    this.sharded               = sharded;
+    this.dispatchers           = new Dispatcher[Shard.values().length];
+    this.pendingKeys           = ConcurrentHashMap.newKeySet();
+    this.pendingMessageUpdates = new LinkedHashSet<>();
+    this.inFlight              = new AtomicInteger(0);
+    this.coalesced             = new AtomicLong(0);
+
+    if (sharded) {
+      for (Shard shard : Shard.values()) {
+        dispatchers[shard.ordinal()] = new Dispatcher(shard.name());
+      }
+
+      HandlerThread windowThread = new HandlerThread("db-observer-window", ThreadUtil.PRIORITY_IMPORTANT_BACKGROUND_THREAD);
+      windowThread.start();
+      this.windowHandler = new Handler(windowThread.getLooper());
+    } else {
+      Arrays.fill(dispatchers, new Dispatcher("ALL"));
+      this.windowHandler = null;
+    }
+
     this.conversationListObservers    = new HashSet<>();
     this.conversationObservers        = new HashMap<>();
     this.verboseConversationObservers = new HashMap<>();
@@ -97,85 +170,85 @@ public class DatabaseObserver {
   }
 
   public void registerConversationListObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.CONVERSATIONS, () -> {
       conversationListObservers.add(listener);
     });
   }
 
   public void registerConversationObserver(long threadId, @NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.CONVERSATIONS, () -> {
       registerMapped(conversationObservers, threadId, listener);
     });
   }
 
   public void registerVerboseConversationObserver(long threadId, @NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.CONVERSATIONS, () -> {
       registerMapped(verboseConversationObservers, threadId, listener);
     });
   }
 
   public void registerConversationDeleteObserver(long threadId, @NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.CONVERSATIONS, () -> {
       registerMapped(conversationDeleteObservers, threadId, listener);
     });
   }
 
   public void registerPaymentObserver(@NonNull UUID paymentId, @NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.OTHER, () -> {
       registerMapped(paymentObservers, paymentId, listener);
     });
   }
 
   public void registerAllPaymentsObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.OTHER, () -> {
       allPaymentsObservers.add(listener);
     });
   }
 
   public void registerChatColorsObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.OTHER, () -> {
       chatColorsObservers.add(listener);
     });
   }
 
   public void registerStickerObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.ATTACHMENTS, () -> {
       stickerObservers.add(listener);
     });
   }
 
   public void registerStickerPackObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.ATTACHMENTS, () -> {
       stickerPackObservers.add(listener);
     });
   }
 
   public void registerAttachmentUpdatedObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.ATTACHMENTS, () -> {
       attachmentUpdatedObservers.add(listener);
     });
   }
 
   public void registerAttachmentDeletedObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.ATTACHMENTS, () -> {
       attachmentDeletedObservers.add(listener);
     });
   }
 
   public void registerMessageUpdateObserver(@NonNull MessageObserver listener) {
-    executor.execute(() -> {
+    execute(Shard.MESSAGES, () -> {
       messageUpdateObservers.add(listener);
     });
   }
 
   public void registerMessageInsertObserver(long threadId, @NonNull MessageObserver listener) {
-    executor.execute(() -> {
+    execute(Shard.MESSAGES, () -> {
       registerMapped(messageInsertObservers, threadId, listener);
     });
   }
 
   public void registerNotificationProfileObserver(@NotNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.OTHER, () -> {
       notificationProfileObservers.add(listener);
     });
   }
@@ -184,65 +257,72 @@ public class DatabaseObserver {
    * Adds an observer which will be notified whenever a new Story message is inserted into the database.
    */
   public void registerStoryObserver(@NonNull RecipientId recipientId, @NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.OTHER, () -> {
       registerMapped(storyObservers, recipientId, listener);
     });
   }
 
   public void registerScheduledMessageObserver(long threadId, @NonNull Observer listener) {
-    executor.execute(() -> {
+    execute(Shard.CONVERSATIONS, () -> {
       registerMapped(scheduledMessageObservers, threadId, listener);
     });
   }
 
   public void registerCallUpdateObserver(@NonNull Observer observer) {
-    executor.execute(() -> callUpdateObservers.add(observer));
+    execute(Shard.OTHER, () -> callUpdateObservers.add(observer));
   }
 
   public void registerCallLinkObserver(@NonNull CallLinkRoomId callLinkRoomId, @NonNull Observer observer) {
-    executor.execute(() -> {
+    execute(Shard.OTHER, () -> {
       registerMapped(callLinkObservers, callLinkRoomId, observer);
     });
   }
 
   public void registerInAppPaymentObserver(@NonNull InAppPaymentObserver observer) {
-    executor.execute(() -> inAppPaymentObservers.add(observer));
+    execute(Shard.OTHER, () -> inAppPaymentObservers.add(observer));
   }
 
   public void registerChatFolderObserver(@NonNull Observer observer) {
-    executor.execute(() -> chatFolderObservers.add(observer));
+    execute(Shard.CONVERSATIONS, () -> chatFolderObservers.add(observer));
   }
 
   public void unregisterObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
-      conversationListObservers.remove(listener);
+    execute(Shard.CONVERSATIONS, () -> {
       unregisterMapped(conversationObservers, listener);
       unregisterMapped(verboseConversationObservers, listener);
-      unregisterMapped(paymentObservers, listener);
-      chatColorsObservers.remove(listener);
+      unregisterMapped(scheduledMessageObservers, listener);
+      unregisterMapped(conversationDeleteObservers, listener);
+      conversationListObservers.remove(listener);
+      chatFolderObservers.remove(listener);
+    });
+
+    execute(Shard.ATTACHMENTS, () -> {
       stickerObservers.remove(listener);
       stickerPackObservers.remove(listener);
       attachmentUpdatedObservers.remove(listener);
       attachmentDeletedObservers.remove(listener);
+    });
+
+    execute(Shard.OTHER, () -> {
+      unregisterMapped(paymentObservers, listener);
+      allPaymentsObservers.remove(listener);
+      chatColorsObservers.remove(listener);
       notificationProfileObservers.remove(listener);
       unregisterMapped(storyObservers, listener);
-      unregisterMapped(scheduledMessageObservers, listener);
-      unregisterMapped(conversationDeleteObservers, listener);
       callUpdateObservers.remove(listener);
       unregisterMapped(callLinkObservers, listener);
-      chatFolderObservers.remove(listener);
     });
   }
 
   public void unregisterObserver(@NonNull MessageObserver listener) {
-    executor.execute(() -> {
+    execute(Shard.MESSAGES, () -> {
       messageUpdateObservers.remove(listener);
       unregisterMapped(messageInsertObservers, listener);
     });
   }
 
   public void unregisterObserver(@NonNull InAppPaymentObserver listener) {
-    executor.execute(() -> {
+    execute(Shard.OTHER, () -> {
       inAppPaymentObservers.remove(listener);
     });
   }
@@ -254,7 +334,7 @@ public class DatabaseObserver {
   }
 
   public void notifyConversationListeners(long threadId) {
-    runPostSuccessfulTransaction(KEY_CONVERSATION + threadId, () -> {
+    runPostSuccessfulTransaction(Shard.CONVERSATIONS, KEY_CONVERSATION + threadId, () -> {
       notifyMapped(conversationObservers, threadId);
       notifyMapped(verboseConversationObservers, threadId);
     });
@@ -262,7 +342,7 @@ public class DatabaseObserver {
 
   public void notifyVerboseConversationListeners(Set<Long> threadIds) {
     for (long threadId : threadIds) {
-      runPostSuccessfulTransaction(KEY_VERBOSE_CONVERSATION + threadId, () -> {
+      runPostSuccessfulTransaction(Shard.CONVERSATIONS, KEY_VERBOSE_CONVERSATION + threadId, () -> {
         notifyMapped(verboseConversationObservers, threadId);
       });
     }
@@ -275,13 +355,13 @@ public class DatabaseObserver {
   }
 
   public void notifyConversationDeleteListeners(long threadId) {
-    runPostSuccessfulTransaction(KEY_CONVERSATION_DELETES + threadId, () -> {
+    runPostSuccessfulTransaction(Shard.CONVERSATIONS, KEY_CONVERSATION_DELETES + threadId, () -> {
       notifyMapped(conversationDeleteObservers, threadId);
     });
   }
 
   public void notifyConversationListListeners() {
-    runPostSuccessfulTransaction(KEY_CONVERSATION_LIST, () -> {
+    runPostSuccessfulTransaction(Shard.CONVERSATIONS, KEY_CONVERSATION_LIST, () -> {
       for (Observer listener : conversationListObservers) {
         listener.onChanged();
       }
@@ -289,19 +369,19 @@ public class DatabaseObserver {
   }
 
   public void notifyPaymentListeners(@NonNull UUID paymentId) {
-    runPostSuccessfulTransaction(KEY_PAYMENT + paymentId.toString(), () -> {
+    runPostSuccessfulTransaction(Shard.OTHER, KEY_PAYMENT + paymentId.toString(), () -> {
       notifyMapped(paymentObservers, paymentId);
     });
   }
 
   public void notifyAllPaymentsListeners() {
-    runPostSuccessfulTransaction(KEY_ALL_PAYMENTS, () -> {
+    runPostSuccessfulTransaction(Shard.OTHER, KEY_ALL_PAYMENTS, () -> {
       notifySet(allPaymentsObservers);
     });
   }
 
   public void notifyChatColorsListeners() {
-    runPostSuccessfulTransaction(KEY_CHAT_COLORS, () -> {
+    runPostSuccessfulTransaction(Shard.OTHER, KEY_CHAT_COLORS, () -> {
       for (Observer chatColorsObserver : chatColorsObservers) {
         chatColorsObserver.onChanged();
       }
@@ -309,38 +389,53 @@ public class DatabaseObserver {
   }
 
   public void notifyStickerObservers() {
-    runPostSuccessfulTransaction(KEY_STICKERS, () -> {
+    runPostSuccessfulTransaction(Shard.ATTACHMENTS, KEY_STICKERS, () -> {
       notifySet(stickerObservers);
     });
   }
 
   public void notifyStickerPackObservers() {
-    runPostSuccessfulTransaction(KEY_STICKER_PACKS, () -> {
+    runPostSuccessfulTransaction(Shard.ATTACHMENTS, KEY_STICKER_PACKS, () -> {
       notifySet(stickerPackObservers);
     });
   }
 
   public void notifyAttachmentUpdatedObservers() {
-    runPostSuccessfulTransaction(KEY_ATTACHMENTS, () -> {
+    runPostSuccessfulTransaction(Shard.ATTACHMENTS, KEY_ATTACHMENTS, () -> {
       notifySet(attachmentUpdatedObservers);
     });
   }
 
   public void notifyAttachmentDeletedObservers() {
-    runPostSuccessfulTransaction(KEY_ATTACHMENTS, () -> {
+    runPostSuccessfulTransaction(Shard.ATTACHMENTS, KEY_ATTACHMENTS, KEY_ATTACHMENTS_DELETED, () -> {
       notifySet(attachmentDeletedObservers);
       notifySet(attachmentUpdatedObservers);
     });
   }
 
+  /**
+   * When sharding is enabled, updates to different messages are collected and delivered together via
+   * {@link MessageObserver#onMessagesChanged(Collection)}.
+   */
   public void notifyMessageUpdateObservers(@NonNull MessageId messageId) {
-    runPostSuccessfulTransaction(KEY_MESSAGE_UPDATE + messageId.toString(), () -> {
-      messageUpdateObservers.stream().forEach(l -> l.onMessageChanged(messageId));
+    if (!sharded) {
+      runPostSuccessfulTransaction(Shard.MESSAGES, KEY_MESSAGE_UPDATE + messageId, () -> {
+        messageUpdateObservers.forEach(l -> l.onMessageChanged(messageId));
+      });
+      return;
+    }
+
+    SignalDatabase.runPostSuccessfulTransaction(KEY_MESSAGE_UPDATE + messageId.toString(), () -> {
+      synchronized (pendingMessageUpdates) {
+        pendingMessageUpdates.add(messageId);
+      }
+
+      dispatch(Shard.MESSAGES, KEY_MESSAGE_UPDATE, this::dispatchMessageUpdates);
     });
   }
 
   public void notifyMessageInsertObservers(long threadId, @NonNull MessageId messageId) {
-    runPostSuccessfulTransaction(KEY_MESSAGE_INSERT + messageId, () -> {
+    runPostSuccessfulTransaction(Shard.MESSAGES, KEY_MESSAGE_INSERT + messageId, () -> {
       Set<MessageObserver> listeners = messageInsertObservers.get(threadId);
 
       if (listeners != null) {
@@ -350,7 +445,7 @@ public class DatabaseObserver {
   }
 
   public void notifyNotificationProfileObservers() {
-    runPostSuccessfulTransaction(KEY_NOTIFICATION_PROFILES, () -> {
+    runPostSuccessfulTransaction(Shard.OTHER, KEY_NOTIFICATION_PROFILES, () -> {
       notifySet(notificationProfileObservers);
     });
   }
@@ -362,49 +457,136 @@ public class DatabaseObserver {
   }
 
   public void notifyStoryObservers(@NonNull RecipientId recipientId) {
-    runPostSuccessfulTransaction(KEY_STORY_OBSERVER, () -> {
+    runPostSuccessfulTransaction(Shard.OTHER, KEY_STORY_OBSERVER, KEY_STORY_OBSERVER + ":" + recipientId.serialize(), () -> {
       notifyMapped(storyObservers, recipientId);
     });
   }
 
   public void notifyStoryObservers(@NonNull Collection<RecipientId> recipientIds) {
     for (RecipientId recipientId : recipientIds) {
-      runPostSuccessfulTransaction(KEY_STORY_OBSERVER, () -> {
-        notifyMapped(storyObservers, recipientId);
-      });
+      notifyStoryObservers(recipientId);
     }
   }
 
   public void notifyScheduledMessageObservers(long threadId) {
-    runPostSuccessfulTransaction(KEY_SCHEDULED_MESSAGES + threadId, () -> {
+    runPostSuccessfulTransaction(Shard.CONVERSATIONS, KEY_SCHEDULED_MESSAGES + threadId, () -> {
       notifyMapped(scheduledMessageObservers, threadId);
     });
   }
 
   public void notifyCallUpdateObservers() {
-    runPostSuccessfulTransaction(KEY_CALL_UPDATES, () -> notifySet(callUpdateObservers));
+    runPostSuccessfulTransaction(Shard.OTHER, KEY_CALL_UPDATES, () -> notifySet(callUpdateObservers));
   }
 
   public void notifyCallLinkObservers(@NonNull CallLinkRoomId callLinkRoomId) {
-    runPostSuccessfulTransaction(KEY_CALL_LINK_UPDATES, () -> notifyMapped(callLinkObservers, callLinkRoomId));
+    runPostSuccessfulTransaction(Shard.OTHER, KEY_CALL_LINK_UPDATES, KEY_CALL_LINK_UPDATES + ":" + callLinkRoomId.serialize(), () -> notifyMapped(callLinkObservers, callLinkRoomId));
   }
 
   public void notifyInAppPaymentsObservers(@NonNull InAppPaymentTable.InAppPayment inAppPayment) {
-    runPostSuccessfulTransaction(KEY_IN_APP_PAYMENTS, () -> {
-      inAppPaymentObservers.forEach(item -> item.onInAppPaymentChanged(inAppPayment));
+    // Not coalesced, since observers are handed the payment itself and need to see every state it goes through
+    SignalDatabase.runPostSuccessfulTransaction(KEY_IN_APP_PAYMENTS, () -> {
+      dispatch(Shard.OTHER, null, () -> inAppPaymentObservers.forEach(item -> item.onInAppPaymentChanged(inAppPayment)));
     });
   }
 
   public void notifyChatFolderObservers() {
-    runPostSuccessfulTransaction(KEY_CHAT_FOLDER, () -> notifySet(chatFolderObservers));
+    runPostSuccessfulTransaction(Shard.CONVERSATIONS, KEY_CHAT_FOLDER, () -> notifySet(chatFolderObservers));
+  }
+
+  /**
+   * @return Dispatch stats for each executor, for debugging.
+   */
+  public @NonNull List<DispatchStats> getDispatchStats() {
+    List<DispatchStats> stats = new ArrayList<>();
+
+    for (Dispatcher dispatcher : new LinkedHashSet<>(Arrays.asList(dispatchers))) {
+      stats.add(dispatcher.getStats());
+    }
+
+    return stats;
+  }
+
+  /**
+   * @return How many notifications were dropped because an identical one was already waiting to run.
+   */
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  private void dispatchMessageUpdates() {
+    Set<MessageId> messageIds;
+
+    synchronized (pendingMessageUpdates) {
+      if (pendingMessageUpdates.isEmpty()) {
+        return;
+      }
+
+      messageIds = Collections.unmodifiableSet(new LinkedHashSet<>(pendingMessageUpdates));
+      pendingMessageUpdates.clear();
+    }
+
+    for (MessageObserver observer : messageUpdateObservers) {
+      observer.onMessagesChanged(messageIds);
+    }
   }
 
-  private void runPostSuccessfulTransaction(@NonNull String dedupeKey, @NonNull Runnable runnable) {
+  private void execute(@NonNull Shard shard, @NonNull Runnable runnable) {
+    dispatchers[shard.ordinal()].executor.execute(runnable);
+  }
+
+  private void runPostSuccessfulTransaction(@NonNull Shard shard, @NonNull String dedupeKey, @NonNull Runnable runnable) {
+    runPostSuccessfulTransaction(shard, dedupeKey, dedupeKey, runnable);
+  }
+
+  /**
+   * @param dedupeKey   Only one notification per key is run for a transaction.
+   * @param coalesceKey Used to coalesce with notifications from other transactions when sharding is enabled. Needs to be at least as specific
+   *                    as the data the notification is for, since any notification it's coalesced with is dropped.
+   */
+  private void runPostSuccessfulTransaction(@NonNull Shard shard, @NonNull String dedupeKey, @NonNull String coalesceKey, @NonNull Runnable runnable) {
     SignalDatabase.runPostSuccessfulTransaction(dedupeKey, () -> {
-      executor.execute(runnable);
+      dispatch(shard, sharded ? coalesceKey : null, runnable);
     });
   }
 
+  /**
+   * @param coalesceKey If present, the notification is dropped if another one with the same key is already waiting to run. Only used when sharding
+   *                    is enabled.
+   */
+  private void dispatch(@NonNull Shard shard, @Nullable String coalesceKey, @NonNull Runnable runnable) {
+    if (coalesceKey != null && !pendingKeys.add(coalesceKey)) {
+      coalesced.incrementAndGet();
+      return;
+    }
+
+    Dispatcher dispatcher = dispatchers[shard.ordinal()];
+    long       queuedAt   = System.currentTimeMillis();
+
+    inFlight.incrementAndGet();
+    dispatcher.onQueued();
+
+    Runnable task = () -> {
+      // Removed before running so that anything that changes while we run gets its own notification
+      if (coalesceKey != null) {
+        pendingKeys.remove(coalesceKey);
+      }
+
+      dispatcher.onStarted(coalesceKey, System.currentTimeMillis() - queuedAt);
+
+      try {
+        runnable.run();
+      } finally {
+        inFlight.decrementAndGet();
+      }
+    };
+
+    if (windowHandler != null) {
+      windowHandler.postDelayed(() -> dispatcher.executor.execute(task), COALESCE_WINDOW_MS);
+    } else {
+      dispatcher.executor.execute(task);
+    }
+  }
+
   private <K, V> void registerMapped(@NonNull Map<K, Set<V>> map, @NonNull K key, @NonNull V listener) {
     Set<V> listeners = map.get(key);
 
@@ -439,17 +621,23 @@ public class DatabaseObserver {
   }
 
   /**
-   * Blocks until the executor is empty. Only intended to be used for testing.
+   * Blocks until all pending notifications have run and the executors are empty. Only intended to be used for testing.
    */
   @VisibleForTesting
   void flush() {
-    CountDownLatch latch = new CountDownLatch(1);
-    executor.execute(latch::countDown);
+    while (inFlight.get() > 0) {
+      ThreadUtil.sleep(5);
+    }
 
-    try {
-      latch.await();
-    } catch (InterruptedException e) {
-      throw new AssertionError();
+    for (Dispatcher dispatcher : new LinkedHashSet<>(Arrays.asList(dispatchers))) {
+      CountDownLatch latch = new CountDownLatch(1);
+      dispatcher.executor.execute(latch::countDown);
+
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        throw new AssertionError();
+      }
     }
   }
 
@@ -463,9 +651,82 @@ public class DatabaseObserver {
 
   public interface MessageObserver {
     void onMessageChanged(@NonNull MessageId messageId);
+
+    /**
+     * Called with every message that changed since the last call. Override this if you can handle a batch of changes more efficiently than one
+     * at a time. Only used for updates, not inserts.
+     */
+    default void onMessagesChanged(@NonNull Collection<MessageId> messageIds) {
+      for (MessageId messageId : messageIds) {
+        onMessageChanged(messageId);
+      }
+    }
   }
 
   public interface InAppPaymentObserver {
     void onInAppPaymentChanged(@NonNull InAppPaymentTable.InAppPayment inAppPayment);
   }
+
+  public static final class DispatchStats {
+    public final String name;
+    public final long   dispatched;
+    public final long   averageLatencyMs;
+    public final long   maxLatencyMs;
+    public final int    queueDepth;
+    public final int    maxQueueDepth;
+
+    private DispatchStats(@NonNull String name, long dispatched, long averageLatencyMs, long maxLatencyMs, int queueDepth, int maxQueueDepth) {
+      this.name             = name;
+      this.dispatched       = dispatched;
+      this.averageLatencyMs = averageLatencyMs;
+      this.maxLatencyMs     = maxLatencyMs;
+      this.queueDepth       = queueDepth;
+      this.maxQueueDepth    = maxQueueDepth;
+    }
+  }
+
+  /**
+   * A serial executor for one or more shards, along with some stats on how long notifications wait to run on it.
+   */
+  private static final class Dispatcher {
+    private final String        name;
+    private final Executor      executor;
+    private final AtomicInteger queueDepth;
+    private final AtomicInteger maxQueueDepth;
+    private final AtomicLong    dispatched;
+    private final AtomicLong    totalLatencyMs;
+    private final AtomicLong    maxLatencyMs;
+
+    private Dispatcher(@NonNull String name) {
+      this.name           = name;
+      this.executor       = new SerialExecutor(SignalExecutors.BOUNDED);
+      this.queueDepth     = new AtomicInteger(0);
+      this.maxQueueDepth  = new AtomicInteger(0);
+      this.dispatched     = new AtomicLong(0);
+      this.totalLatencyMs = new AtomicLong(0);
+      this.maxLatencyMs   = new AtomicLong(0);
+    }
+
+    void onQueued() {
+      int depth = queueDepth.incrementAndGet();
+      maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    void onStarted(@Nullable String key, long latencyMs) {
+      int depth = queueDepth.decrementAndGet();
+
+      dispatched.incrementAndGet();
+      totalLatencyMs.addAndGet(latencyMs);
+      maxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+
+      if (latencyMs > SLOW_DISPATCH_MS) {
+        Log.w(TAG, "[" + name + "] Notification for " + key + " waited " + latencyMs + " ms to run. Queue depth: " + depth);
+      }
+    }
+
+    @NonNull DispatchStats getStats() {
+      long count = dispatched.get();
+      return new DispatchStats(name, count, count > 0 ? totalLatencyMs.get() / count : 0, maxLatencyMs.get(), queueDepth.get(), maxQueueDepth.get());
+    }
+  }
 }
@@ -0,0 +1,176 @@
+package org.thoughtcrime.securesms.database
+
+/**
+ * An in-memory copy of [EmojiSearchTable], so searching as the user types doesn't have to query the database.
+ *
+ * Entries are kept in the same order the table query reads them in (by rank, then label, then emoji), and every trigram of every label points to
+ * the entries that contain it. A query only checks the entries of its rarest trigram, and stops once it has as many matches as the table query
+ * would have read. Queries shorter than a trigram check every entry in order, but those match so often that they stop early anyway.
+ *
+ * Matching is case-insensitive for ASCII only, like SQLite's LIKE.
+ */
+class EmojiSearchIndex private constructor(
+  private val labels: Array<String>,
+  private val foldedLabels: Array<String>,
+  private val emoji: Array<String>,
+  private val scaledRanks: FloatArray,
+  private val trigrams: Map<Long, IntArray>
+) {
+
+  companion object {
+    /** How many matches the table query reads before scoring them. */
+    const val MIN_CANDIDATES = 200
+
+    private const val PREFIX_RANK_WEIGHT = 1.75f
+    private const val SUFFIX_RANK_WEIGHT = 0.75f
+    private const val NOT_EXACT_MATCH_PENALTY = 2f
+    private const val UNRANKED = 2f
+
+    fun build(entries: List<Entry>): EmojiSearchIndex {
+      val sorted = entries.sortedWith(compareBy<Entry> { it.rank }.thenBy { it.label }.thenBy { it.emoji })
+      val maxRank = sorted.lastOrNull { it.rank != Int.MAX_VALUE }?.rank ?: 0
+
+      val labels = Array(sorted.size) { sorted[it].label }
+      val foldedLabels = Array(sorted.size) { foldAscii(labels[it]) }
+      val emoji = Array(sorted.size) { sorted[it].emoji }
+      val scaledRanks = FloatArray(sorted.size) { scaledRank(sorted[it].rank, maxRank) }
+
+      val postings = HashMap<Long, IntList>()
+      for (id in foldedLabels.indices) {
+        val label = foldedLabels[id]
+        for (i in 0..label.length - 3) {
+          postings.getOrPut(trigram(label, i)) { IntList() }.addIfNotLast(id)
+        }
+      }
+
+      return EmojiSearchIndex(labels, foldedLabels, emoji, scaledRanks, postings.mapValues { it.value.toArray() })
+    }
+
+    /**
+     * Ranks how "similar" a match is to the original search term.
+     * A lower score means more similar, with 0 being a perfect match.
+     *
+     * We know that the `searchTerm` must be a substring of the `match`.
+     * We determine similarity by how many letters appear before or after the `searchTerm` in the `match`.
+     * We give letters that come before the term a bigger weight than those that come after as a way to prefer matches that are prefixed by the `searchTerm`.
+     */
+    fun similarityScore(searchTerm: String, match: String, scaledRank: Float): Float {
+      if (searchTerm == match) {
+        return scaledRank
+      }
+
+      val startIndex = match.indexOf(searchTerm)
+
+      val prefixCount = startIndex
+      val suffixCount = match.length - (startIndex + searchTerm.length)
+
+      return NOT_EXACT_MATCH_PENALTY +
+        (prefixCount * PREFIX_RANK_WEIGHT) +
+        (suffixCount * SUFFIX_RANK_WEIGHT) +
+        scaledRank
+    }
+
+    fun scaledRank(rank: Int, maxRank: Int): Float {
+      val scaleFactor: Float = UNRANKED / maxRank
+      return if (rank == Int.MAX_VALUE) {
+        UNRANKED
+      } else {
+        rank * scaleFactor
+      }
+    }
+
+    private fun foldAscii(value: String): String {
+      for (c in value) {
+        if (c in 'A'..'Z') {
+          val chars = value.toCharArray()
+          for (i in chars.indices) {
+            if (chars[i] in 'A'..'Z') {
+              chars[i] = chars[i] + ('a' - 'A')
+            }
+          }
+          return String(chars)
+        }
+      }
+      return value
+    }
+
+    private fun trigram(value: String, start: Int): Long {
+      return (value[start].code.toLong() shl 32) or (value[start + 1].code.toLong() shl 16) or value[start + 2].code.toLong()
+    }
+  }
+
+  val size: Int
+    get() = labels.size
+
+  /**
+   * @return The emoji for [query] (which must already be trimmed), best match first, or null if the query can't be answered from the index
+   * and should go to the database instead.
+   */
+  fun query(query: String, limit: Int): List<String>? {
+    if (query.contains('%') || query.contains('_')) {
+      return null
+    }
+
+    val folded = foldAscii(query)
+    val candidateLimit = maxOf(limit, MIN_CANDIDATES)
+    val matches = ArrayList<Int>(minOf(candidateLimit, labels.size))
+
+    if (folded.length >= 3) {
+      var rarest: IntArray? = null
+      for (i in 0..folded.length - 3) {
+        val posting = trigrams[trigram(folded, i)] ?: return emptyList()
+        if (rarest == null || posting.size < rarest.size) {
+          rarest = posting
+        }
+      }
+
+      for (id in rarest!!) {
+        if (foldedLabels[id].contains(folded)) {
+          matches += id
+          if (matches.size >= candidateLimit) break
+        }
+      }
+    } else {
+      for (id in foldedLabels.indices) {
+        if (foldedLabels[id].contains(folded)) {
+          matches += id
+          if (matches.size >= candidateLimit) break
+        }
+      }
+    }
+
+    return matches
+      .sortedWith { lhs, rhs ->
+        val result = similarityScore(query, labels[lhs], scaledRanks[lhs]) - similarityScore(query, labels[rhs], scaledRanks[rhs])
+        when {
+          result < 0 -> -1
+          result > 0 -> 1
+          else -> 0
+        }
+      }
+      .asSequence()
+      .map { emoji[it] }
+      .distinct()
+      .take(limit)
+      .toList()
+  }
+
+  data class Entry(val label: String, val emoji: String, val rank: Int)
+
+  private class IntList {
+    private var values = IntArray(4)
+    private var size = 0
+
+    fun addIfNotLast(value: Int) {
+      if (size > 0 && values[size - 1] == value) {
+        return
+      }
+      if (size == values.size) {
+        values = values.copyOf(size * 2)
+      }
+      values[size++] = value
+    }
+
+    fun toArray(): IntArray = values.copyOf(size)
+  }
+}
@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.database
 import android.content.Context
 import android.text.TextUtils
 import androidx.core.content.contentValuesOf
+import org.signal.core.util.logging.Log
 import org.signal.core.util.readToSingleInt
 import org.signal.core.util.requireInt
 import org.signal.core.util.requireNonNullString
@@ -13,10 +14,15 @@ import kotlin.math.max
 
 /**
  * Contains all info necessary for full-text search of emoji tags.
+ *
+ * Queries are answered from an [EmojiSearchIndex] kept in memory, which is built when the search index is set, or from the table on the first
+ * query. The table is only queried directly if there's no index to use.
  */
 class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTable(context, databaseHelper) {
 
   companion object {
+    private val TAG = Log.tag(EmojiSearchTable::class.java)
+
     const val TABLE_NAME = "emoji_search"
     const val ID = "_id"
     const val LABEL = "label"
@@ -38,6 +44,12 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
     )
   }
 
+  @Volatile
+  private var searchIndex: EmojiSearchIndex? = null
+
+  /** Bumped every time the index is set, so a lazy build that read the table before then knows not to overwrite it. Guarded by this. */
+  private var searchIndexVersion = 0
+
   /**
    * @param query A search query. Doesn't need any special formatted -- it'll be sanitized.
    * @return A list of emoji that are related to the search term, ordered by relevance.
@@ -49,8 +61,10 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
       return emptyList()
     }
 
-    val limit: Int = max(originalLimit, 200)
-    val entries = mutableListOf<Entry>()
+    getOrBuildSearchIndex()?.query(query, originalLimit)?.let { return it }
+
+    val limit: Int = max(originalLimit, EmojiSearchIndex.MIN_CANDIDATES)
+    val entries = mutableListOf<EmojiSearchIndex.Entry>()
 
     val maxRank = readableDatabase
       .select("MAX($RANK) AS max")
@@ -63,12 +77,12 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
       .select(LABEL, EMOJI, RANK)
       .from(TABLE_NAME)
       .where("$LABEL LIKE ?", "%$query%")
-      .orderBy("$RANK ASC")
+      .orderBy("$RANK ASC, $LABEL ASC, $EMOJI ASC")
       .limit(limit)
       .run()
       .use { cursor ->
         while (cursor.moveToNext()) {
-          entries += Entry(
+          entries += EmojiSearchIndex.Entry(
             label = cursor.requireNonNullString(LABEL),
             emoji = cursor.requireNonNullString(EMOJI),
             rank = cursor.requireInt(RANK)
@@ -78,7 +92,8 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
 
     return entries
       .sortedWith { lhs, rhs ->
-        val result = similarityScore(query, lhs, maxRank) - similarityScore(query, rhs, maxRank)
+        val result = EmojiSearchIndex.similarityScore(query, lhs.label, EmojiSearchIndex.scaledRank(lhs.rank, maxRank)) -
+          EmojiSearchIndex.similarityScore(query, rhs.label, EmojiSearchIndex.scaledRank(rhs.rank, maxRank))
         when {
           result < 0 -> -1
           result > 0 -> 1
@@ -95,62 +110,80 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
    */
   fun setSearchIndex(searchIndex: List<EmojiSearchData>) {
     val db = databaseHelper.signalReadableDatabase
+    val entries = mutableListOf<EmojiSearchIndex.Entry>()
 
     db.withinTransaction {
       db.delete(TABLE_NAME, null, null)
 
       for (searchData in searchIndex) {
         for (label in searchData.tags) {
+          val rank = if (searchData.rank == 0) Int.MAX_VALUE else searchData.rank
           val values = contentValuesOf(
             LABEL to label,
             EMOJI to searchData.emoji,
-            RANK to if (searchData.rank == 0) Int.MAX_VALUE else searchData.rank
+            RANK to rank
           )
           db.insert(TABLE_NAME, null, values)
+          entries += EmojiSearchIndex.Entry(label, searchData.emoji, rank)
         }
       }
     }
+
+    val index = EmojiSearchIndex.build(entries)
+
+    synchronized(this) {
+      this.searchIndex = index
+      searchIndexVersion++
+    }
   }
 
   /**
-   * Ranks how "similar" a match is to the original search term.
-   * A lower score means more similar, with 0 being a perfect match.
+   * Returns the in-memory index, reading it from the table if this is the first query. Returns null if the table is empty, so we check again
+   * on the next query.
    *
-   * We know that the `searchTerm` must be a substring of the `match`.
-   * We determine similarity by how many letters appear before or after the `searchTerm` in the `match`.
-   * We give letters that come before the term a bigger weight than those that come after as a way to prefer matches that are prefixed by the `searchTerm`.
+   * The table is read outside of the lock so [setSearchIndex] never waits on it. If an index was set while we were reading, ours may be
+   * stale, so it's thrown away in favor of the one that was set.
    */
-  private fun similarityScore(searchTerm: String, entry: Entry, maxRank: Int): Float {
-    val match: String = entry.label
+  private fun getOrBuildSearchIndex(): EmojiSearchIndex? {
+    searchIndex?.let { return it }
 
-    if (searchTerm == match) {
-      return entry.scaledRank(maxRank)
+    val version = synchronized(this) {
+      searchIndex?.let { return it }
+      searchIndexVersion
     }
 
-    val startIndex = match.indexOf(searchTerm)
+    val start = System.currentTimeMillis()
+    val entries = mutableListOf<EmojiSearchIndex.Entry>()
 
-    val prefixCount = startIndex
-    val suffixCount = match.length - (startIndex + searchTerm.length)
+    readableDatabase
+      .select(LABEL, EMOJI, RANK)
+      .from(TABLE_NAME)
+      .run()
+      .use { cursor ->
+        while (cursor.moveToNext()) {
+          entries += EmojiSearchIndex.Entry(
+            label = cursor.requireNonNullString(LABEL),
+            emoji = cursor.requireNonNullString(EMOJI),
+            rank = cursor.requireInt(RANK)
+          )
+        }
+      }
 
-    val prefixRankWeight = 1.75f
-    val suffixRankWeight = 0.75f
-    val notExactMatchPenalty = 2f
+    if (entries.isEmpty()) {
+      return null
+    }
 
-    return notExactMatchPenalty +
-      (prefixCount * prefixRankWeight) +
-      (suffixCount * suffixRankWeight) +
-      entry.scaledRank(maxRank)
-  }
+    val index = EmojiSearchIndex.build(entries)
+    Log.d(TAG, "Built search index of ${index.size} labels in ${System.currentTimeMillis() - start} ms")
 
-  private data class Entry(val label: String, val emoji: String, val rank: Int) {
-    fun scaledRank(maxRank: Int): Float {
-      val unranked = 2f
-      val scaleFactor: Float = unranked / maxRank
-      return if (rank == Int.MAX_VALUE) {
-        unranked
-      } else {
-        rank * scaleFactor
+    synchronized(this) {
+      if (searchIndexVersion != version) {
+        Log.d(TAG, "Search index was set while building, discarding ours.")
+        return searchIndex
       }
+
+      searchIndex = index
+      return index
     }
   }
 }
@@ -186,18 +186,6 @@ class JobDatabase(
       .readToList { it.toJobSpec() }
   }
 
-  @Synchronized
-  fun getMostEligibleJobInQueue(queue: String): JobSpec? {
-    return readableDatabase
-      .select()
-      .from(Jobs.TABLE_NAME)
-      .where("${Jobs.QUEUE_KEY} = ?", queue)
-      .orderBy("${Jobs.GLOBAL_PRIORITY} DESC, ${Jobs.QUEUE_PRIORITY} DESC, ${Jobs.CREATE_TIME} ASC, ${Jobs.ID} ASC")
-      .limit(1)
-      .run()
-      .readToSingleObject { it.toJobSpec() }
-  }
-
   @Synchronized
   fun getAllMatchingFilter(predicate: Predicate<JobSpec>): List<JobSpec> {
     val output: MutableList<JobSpec> = mutableListOf()
@@ -5,7 +5,6 @@ import android.app.Application
 import android.database.Cursor
 import net.zetetic.database.sqlcipher.SQLiteDatabase
 import net.zetetic.database.sqlcipher.SQLiteOpenHelper
-import org.signal.core.util.CursorUtil
 import org.signal.core.util.SqlUtil
 import org.signal.core.util.Stopwatch
 import org.signal.core.util.delete
@@ -14,11 +13,14 @@ import org.signal.core.util.exists
 import org.signal.core.util.getTableRowCount
 import org.signal.core.util.insertInto
 import org.signal.core.util.logging.Log
+import org.signal.core.util.logging.LogRecord
 import org.signal.core.util.mebiBytes
 import org.signal.core.util.readToList
 import org.signal.core.util.readToSingleInt
+import org.signal.core.util.requireBlob
 import org.signal.core.util.requireLong
 import org.signal.core.util.requireNonNullString
+import org.signal.core.util.requireString
 import org.signal.core.util.select
 import org.signal.core.util.update
 import org.signal.core.util.withinTransaction
@@ -58,7 +60,7 @@ class LogDatabase private constructor(
   companion object {
     private val TAG = Log.tag(LogDatabase::class.java)
 
-    private const val DATABASE_VERSION = 4
+    private const val DATABASE_VERSION = 5
     private const val DATABASE_NAME = "signal-logs.db"
 
     @SuppressLint("StaticFieldLeak") // We hold an Application context, not a view context
@@ -118,6 +120,10 @@ class LogDatabase private constructor(
     if (oldVersion < 4) {
       db.execSQL("CREATE TABLE anr (_id INTEGER PRIMARY KEY, created_at INTEGER NOT NULL, thread_dump TEXT NOT NULL)")
     }
+
+    if (oldVersion < 5) {
+      db.execSQL("ALTER TABLE log ADD COLUMN record BLOB DEFAULT NULL")
+    }
   }
 
   override fun onOpen(db: SQLiteDatabase) {
@@ -136,6 +142,7 @@ class LogDatabase private constructor(
       const val KEEP_LONGER = "keep_longer"
       const val BODY = "body"
       const val SIZE = "size"
+      const val RECORD = "record"
 
       const val CREATE_TABLE = """
         CREATE TABLE $TABLE_NAME (
@@ -143,7 +150,8 @@ class LogDatabase private constructor(
           $CREATED_AT INTEGER, 
           $KEEP_LONGER INTEGER DEFAULT 0,
           $BODY TEXT,
-          $SIZE INTEGER
+          $SIZE INTEGER,
+          $RECORD BLOB DEFAULT NULL
         )
       """
 
@@ -155,22 +163,38 @@ class LogDatabase private constructor(
       val MAX_FILE_SIZE = 20L.mebiBytes.inWholeBytes
       val DEFAULT_LIFESPAN = 3.days.inWholeMilliseconds
       val LONGER_LIFESPAN = 21.days.inWholeMilliseconds
+
+      /**
+       * Rows written before [RECORD] was introduced only have a pre-formatted [BODY].
+       */
+      private fun Cursor.readLogLine(formatter: LogRecord.Formatter): String {
+        val record: ByteArray = this.requireBlob(RECORD) ?: return this.requireString(BODY) ?: ""
+
+        return try {
+          formatter.format(this.requireLong(CREATED_AT), record)
+        } catch (e: IllegalArgumentException) {
+          "[Unreadable log record: ${e.message}]"
+        }
+      }
     }
 
     private val readableDatabase: SQLiteDatabase get() = openHelper.readableDatabase
     private val writableDatabase: SQLiteDatabase get() = openHelper.writableDatabase
 
+    /**
+     * Inserts the logs in a single transaction. Logs are stored as [LogRecord]s, and are only formatted into human-readable lines when they're read.
+     */
     fun insert(logs: List<LogEntry>, currentTime: Long) {
       writableDatabase.withinTransaction { db ->
-        logs.forEach { log ->
-          db.insertInto(TABLE_NAME)
-            .values(
-              CREATED_AT to log.createdAt,
-              KEEP_LONGER to if (log.keepLonger) 1 else 0,
-              BODY to log.body,
-              SIZE to log.body.length
-            )
-            .run()
+        db.compileStatement("INSERT INTO $TABLE_NAME ($CREATED_AT, $KEEP_LONGER, $RECORD, $SIZE) VALUES (?, ?, ?, ?)").use { statement ->
+          for (log in logs) {
+            statement.clearBindings()
+            statement.bindLong(1, log.createdAt)
+            statement.bindLong(2, if (log.keepLonger) 1 else 0)
+            statement.bindBlob(3, log.record)
+            statement.bindLong(4, log.record.size.toLong())
+            statement.executeInsert()
+          }
         }
 
         db.delete(TABLE_NAME)
@@ -181,7 +205,7 @@ class LogDatabase private constructor(
 
     fun getAllBeforeTime(time: Long): Reader {
       return readableDatabase
-        .select(BODY)
+        .select(CREATED_AT, BODY, RECORD)
         .from(TABLE_NAME)
         .where("$CREATED_AT < $time")
         .run()
@@ -189,13 +213,15 @@ class LogDatabase private constructor(
     }
 
     fun getRangeBeforeTime(start: Int, length: Int, time: Long): List<String> {
+      val formatter = LogRecord.Formatter()
+
       return readableDatabase
-        .select(BODY)
+        .select(CREATED_AT, BODY, RECORD)
         .from(TABLE_NAME)
         .where("$CREATED_AT < $time")
         .limit(limit = length, offset = start)
         .run()
-        .readToList { it.requireNonNullString(BODY) }
+        .readToList { it.readLogLine(formatter) }
     }
 
     fun trimToSize() {
@@ -289,13 +315,15 @@ class LogDatabase private constructor(
     interface Reader : Iterator<String>, Closeable
 
     class CursorReader(private val cursor: Cursor) : Reader {
+      private val formatter = LogRecord.Formatter()
+
       override fun hasNext(): Boolean {
         return !cursor.isLast && cursor.count > 0
       }
 
       override fun next(): String {
         cursor.moveToNext()
-        return CursorUtil.requireString(cursor, LogTable.BODY)
+        return cursor.readLogLine(formatter)
       }
 
       override fun close() {
@@ -4753,6 +4753,97 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   }
 
   fun getMessagesForNotificationState(stickyThreads: Collection<StickyThread>): Cursor {
+    return readableDatabase
+      .select(*MMS_PROJECTION)
+      .from(TABLE_NAME)
+      .where(getNotificationStateWhere(stickyThreads))
+      .orderBy("$DATE_RECEIVED ASC")
+      .run()
+  }
+
+  /**
+   * Returns the same messages as [getMessagesForNotificationState], in the same order, but only the columns that can change while a message is
+   * waiting to be notified. Lets the caller reuse anything it already loaded for messages that haven't changed.
+   */
+  fun getNotificationStateRows(stickyThreads: Collection<StickyThread>): List<NotificationStateRow> {
+    return readableDatabase
+      .select(ID, THREAD_ID, TYPE, READ, REACTIONS_UNREAD, REACTIONS_LAST_SEEN, REMOTE_DELETED, NOTIFIED_TIMESTAMP)
+      .from(TABLE_NAME)
+      .where(getNotificationStateWhere(stickyThreads))
+      .orderBy("$DATE_RECEIVED ASC")
+      .run()
+      .readToList { cursor ->
+        NotificationStateRow(
+          id = cursor.requireLong(ID),
+          threadId = cursor.requireLong(THREAD_ID),
+          type = cursor.requireLong(TYPE),
+          read = cursor.requireBoolean(READ),
+          reactionsUnread = cursor.requireBoolean(REACTIONS_UNREAD),
+          reactionsLastSeen = cursor.requireLong(REACTIONS_LAST_SEEN),
+          remoteDeleted = cursor.requireBoolean(REMOTE_DELETED),
+          notifiedTimestamp = cursor.requireLong(NOTIFIED_TIMESTAMP)
+        )
+      }
+  }
+
+  /**
+   * Loads the given messages with the same projection as [getMessagesForNotificationState]. Attachments are not included.
+   */
+  fun getNotificationStateMessages(messageIds: Collection<Long>): MmsReader {
+    val query = SqlUtil.buildFastCollectionQuery(ID, messageIds)
+
+    return mmsReaderFor(
+      readableDatabase
+        .select(*MMS_PROJECTION)
+        .from(TABLE_NAME)
+        .where(query.where, query.whereArgs)
+        .run()
+    )
+  }
+
+  /**
+   * Batch version of [hasGroupReplyOrReactionInStory].
+   *
+   * @return The subset of [parentStoryIds] that we have replied to or reacted to.
+   */
+  fun getStoriesWithGroupReplyOrReactionFromSelf(parentStoryIds: Collection<Long>): Set<Long> {
+    if (parentStoryIds.isEmpty()) {
+      return emptySet()
+    }
+
+    val query = SqlUtil.buildFastCollectionQuery(PARENT_STORY_ID, parentStoryIds)
+
+    return readableDatabase
+      .select("DISTINCT $PARENT_STORY_ID")
+      .from(TABLE_NAME)
+      .where("${query.where} AND ($outgoingTypeClause)", query.whereArgs)
+      .run()
+      .readToList { it.requireLong(PARENT_STORY_ID) }
+      .toSet()
+  }
+
+  /**
+   * @return The subset of [messageIds] that are outgoing messages.
+   */
+  fun getOutgoingMessageIds(messageIds: Collection<Long>): Set<Long> {
+    if (messageIds.isEmpty()) {
+      return emptySet()
+    }
+
+    val query = SqlUtil.buildFastCollectionQuery(ID, messageIds)
+
+    return readableDatabase
+      .select(ID, TYPE)
+      .from(TABLE_NAME)
+      .where(query.where, query.whereArgs)
+      .run()
+      .readToList { cursor -> cursor.requireLong(ID) to cursor.requireLong(TYPE) }
+      .filter { (_, type) -> MessageTypes.isOutgoingMessageType(type) }
+      .map { (id, _) -> id }
+      .toSet()
+  }
+
+  private fun getNotificationStateWhere(stickyThreads: Collection<StickyThread>): String {
     val stickyQuery = StringBuilder()
 
     for ((conversationId, _, earliestTimestamp) in stickyThreads) {
@@ -4771,24 +4862,17 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         .append(")")
     }
 
-    return readableDatabase
-      .select(*MMS_PROJECTION)
-      .from(TABLE_NAME)
-      .where(
-        """
-        $NOTIFIED = 0 
-        AND $STORY_TYPE = 0 
-        AND $LATEST_REVISION_ID IS NULL 
-        AND (
-          $READ = 0 
-          OR $REACTIONS_UNREAD = 1 
-          ${if (stickyQuery.isNotEmpty()) "OR ($stickyQuery)" else ""}
-          OR ($IS_MISSED_CALL_TYPE_CLAUSE AND EXISTS (SELECT 1 FROM ${CallTable.TABLE_NAME} WHERE ${CallTable.MESSAGE_ID} = $TABLE_NAME.$ID AND ${CallTable.EVENT} = ${CallTable.Event.serialize(CallTable.Event.MISSED)} AND ${CallTable.READ} = 0)) 
-        )
-        """.trimIndent()
+    return """
+      $NOTIFIED = 0 
+      AND $STORY_TYPE = 0 
+      AND $LATEST_REVISION_ID IS NULL 
+      AND (
+        $READ = 0 
+        OR $REACTIONS_UNREAD = 1 
+        ${if (stickyQuery.isNotEmpty()) "OR ($stickyQuery)" else ""}
+        OR ($IS_MISSED_CALL_TYPE_CLAUSE AND EXISTS (SELECT 1 FROM ${CallTable.TABLE_NAME} WHERE ${CallTable.MESSAGE_ID} = $TABLE_NAME.$ID AND ${CallTable.EVENT} = ${CallTable.Event.serialize(CallTable.Event.MISSED)} AND ${CallTable.READ} = 0)) 
       )
-      .orderBy("$DATE_RECEIVED ASC")
-      .run()
+    """.trimIndent()
   }
 
   fun updatePendingSelfData(placeholder: RecipientId, self: RecipientId) {
@@ -5166,6 +5250,20 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     val dateReceived: Long
   )
 
+  /**
+   * The parts of a message that can change while it's waiting to be notified. See [getNotificationStateRows].
+   */
+  data class NotificationStateRow(
+    val id: Long,
+    val threadId: Long,
+    val type: Long,
+    val read: Boolean,
+    val reactionsUnread: Boolean,
+    val reactionsLastSeen: Long,
+    val remoteDeleted: Boolean,
+    val notifiedTimestamp: Long
+  )
+
   private data class QuoteDescriptor(
     private val timestamp: Long,
     private val author: RecipientId
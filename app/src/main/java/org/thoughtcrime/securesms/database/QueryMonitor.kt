@@ -7,4 +7,17 @@ interface QueryMonitor {
   fun onQuery(distinct: Boolean, table: String, projection: Array<String>?, selection: String?, args: Array<Any>?, groupBy: String?, having: String?, orderBy: String?, limit: String?)
   fun onDelete(table: String, selection: String?, args: Array<Any>?)
   fun onUpdate(table: String, values: ContentValues, selection: String?, args: Array<Any>?)
+
+  /**
+   * Called after a statement has run.
+   *
+   * @param operation The [SQLiteDatabase] method that ran the statement.
+   * @param rows Rows returned or changed, or -1 if unknown.
+   */
+  fun onStatementComplete(operation: String, table: String?, sql: String?, durationNanos: Long, rows: Int, mainThread: Boolean) = Unit
+
+  /**
+   * Called after a thread has started an outermost transaction, with how long it waited for the lock.
+   */
+  fun onTransactionLockAcquired(waitNanos: Long, mainThread: Boolean) = Unit
 }
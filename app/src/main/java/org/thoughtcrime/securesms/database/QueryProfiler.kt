@@ -0,0 +1,275 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.annotation.VisibleForTesting
+import org.thoughtcrime.securesms.util.LRUCache
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.ceil
+
+/**
+ * Keeps latency histograms for database statements, grouped by statement shape: the operation, the table, and the SQL with its literals and
+ * argument lists collapsed, so `_id IN (?, ?, ?)` and `_id IN (?, ?)` are counted together.
+ *
+ * Also keeps a histogram of how long threads waited to begin a transaction, which is where contention for the write lock shows up.
+ *
+ * Fed by [DatabaseMonitor], and printed in the debug log. Off unless enabled at startup, since it times every statement.
+ */
+object QueryProfiler {
+
+  private const val MAX_SHAPES = 1_000
+  private const val MAX_CACHED_NORMALIZATIONS = 2_000
+  private const val OVERFLOW_OPERATION = "(other)"
+
+  @Volatile
+  var enabled: Boolean = false
+
+  private val shapes: MutableMap<Shape, Histogram> = ConcurrentHashMap()
+  private val normalizations: LRUCache<String, String> = LRUCache(MAX_CACHED_NORMALIZATIONS)
+  private val transactionLock = Histogram()
+
+  fun onStatementComplete(operation: String, table: String?, sql: String?, durationNanos: Long, rows: Int, mainThread: Boolean) {
+    if (!enabled) {
+      return
+    }
+
+    val shape = Shape(operation, table, sql?.let { normalizeCached(it) })
+    val histogram = shapes[shape] ?: if (shapes.size < MAX_SHAPES) {
+      shapes.computeIfAbsent(shape) { Histogram() }
+    } else {
+      shapes.computeIfAbsent(Shape(OVERFLOW_OPERATION, null, null)) { Histogram() }
+    }
+
+    histogram.record(durationNanos, rows, mainThread)
+  }
+
+  fun onTransactionLockAcquired(waitNanos: Long, mainThread: Boolean) {
+    if (enabled) {
+      transactionLock.record(waitNanos, -1, mainThread)
+    }
+  }
+
+  /**
+   * @return Stats for every statement shape seen so far, slowest in total first.
+   */
+  fun getStatementStats(): List<Stats> {
+    return shapes.map { (shape, histogram) -> histogram.snapshot(shape.describe()) }.sortedByDescending { it.totalMs }
+  }
+
+  fun getTransactionLockStats(): Stats {
+    return transactionLock.snapshot("beginTransaction() lock wait")
+  }
+
+  fun clear() {
+    shapes.clear()
+    synchronized(normalizations) {
+      normalizations.clear()
+    }
+    transactionLock.clear()
+  }
+
+  private fun normalizeCached(sql: String): String {
+    synchronized(normalizations) {
+      normalizations[sql]?.let { return it }
+    }
+
+    val normalized = normalize(sql)
+
+    synchronized(normalizations) {
+      normalizations[sql] = normalized
+    }
+
+    return normalized
+  }
+
+  /**
+   * Replaces string and number literals with `?`, collapses lists of placeholders into a single `?...`, and collapses whitespace.
+   */
+  @VisibleForTesting
+  fun normalize(sql: String): String {
+    val out = StringBuilder(sql.length)
+    var i = 0
+
+    while (i < sql.length) {
+      val c = sql[i]
+
+      when {
+        c == '\'' -> {
+          i++
+          while (i < sql.length) {
+            if (sql[i] == '\'') {
+              if (i + 1 < sql.length && sql[i + 1] == '\'') {
+                i++
+              } else {
+                break
+              }
+            }
+            i++
+          }
+          i++
+          appendPlaceholder(out)
+        }
+
+        c.isDigit() && (out.isEmpty() || !isIdentifierPart(out[out.length - 1])) -> {
+          while (i < sql.length && (sql[i].isLetterOrDigit() || sql[i] == '.')) {
+            i++
+          }
+          appendPlaceholder(out)
+        }
+
+        c == '?' -> {
+          i++
+          while (i < sql.length && sql[i].isDigit()) {
+            i++
+          }
+          appendPlaceholder(out)
+        }
+
+        c.isWhitespace() -> {
+          while (i < sql.length && sql[i].isWhitespace()) {
+            i++
+          }
+          if (out.isNotEmpty() && out[out.length - 1] != ' ') {
+            out.append(' ')
+          }
+        }
+
+        else -> {
+          out.append(c)
+          i++
+        }
+      }
+    }
+
+    return out.trim().toString()
+  }
+
+  /**
+   * Appends a `?`, collapsing it into the previous one if it continues a list, so `?, ?` and `?..., ?` become `?...`.
+   */
+  private fun appendPlaceholder(out: StringBuilder) {
+    var i = out.length - 1
+    while (i >= 0 && out[i] == ' ') {
+      i--
+    }
+
+    if (i >= 0 && out[i] == ',') {
+      i--
+      while (i >= 0 && out[i] == ' ') {
+        i--
+      }
+
+      if (i >= 0 && out[i] == '?') {
+        out.setLength(i + 1)
+        out.append("...")
+        return
+      } else if (i >= 3 && out[i] == '.' && out[i - 1] == '.' && out[i - 2] == '.' && out[i - 3] == '?') {
+        out.setLength(i + 1)
+        return
+      }
+    }
+
+    out.append('?')
+  }
+
+  private fun isIdentifierPart(c: Char): Boolean {
+    return c.isLetterOrDigit() || c == '_'
+  }
+
+  private data class Shape(val operation: String, val table: String?, val sql: String?) {
+    fun describe(): String {
+      return listOfNotNull(operation, table, sql).joinToString(" ")
+    }
+  }
+
+  /**
+   * Counts durations in power of two microsecond buckets. Percentiles are reported as the upper bound of the bucket they fall in.
+   */
+  @VisibleForTesting
+  class Histogram {
+    private val buckets = LongArray(BUCKET_COUNT)
+    private var count = 0L
+    private var totalNanos = 0L
+    private var maxNanos = 0L
+    private var rows = 0L
+    private var mainThreadCount = 0L
+
+    @Synchronized
+    fun record(durationNanos: Long, rowCount: Int, mainThread: Boolean) {
+      buckets[bucketFor(durationNanos)]++
+      count++
+      totalNanos += durationNanos
+      maxNanos = maxOf(maxNanos, durationNanos)
+      if (rowCount > 0) {
+        rows += rowCount
+      }
+      if (mainThread) {
+        mainThreadCount++
+      }
+    }
+
+    @Synchronized
+    fun snapshot(name: String): Stats {
+      return Stats(
+        name = name,
+        count = count,
+        totalMs = totalNanos / 1_000_000.0,
+        maxMs = maxNanos / 1_000_000.0,
+        p50Ms = percentileMs(0.5),
+        p90Ms = percentileMs(0.9),
+        p99Ms = percentileMs(0.99),
+        rows = rows,
+        mainThreadCount = mainThreadCount
+      )
+    }
+
+    @Synchronized
+    fun clear() {
+      buckets.fill(0)
+      count = 0
+      totalNanos = 0
+      maxNanos = 0
+      rows = 0
+      mainThreadCount = 0
+    }
+
+    private fun percentileMs(percentile: Double): Double {
+      if (count == 0L) {
+        return 0.0
+      }
+
+      val target = ceil(count * percentile).toLong()
+      var seen = 0L
+      for (i in buckets.indices) {
+        seen += buckets[i]
+        if (seen >= target) {
+          return minOf((1L shl (i + 1)) * 1_000L, maxNanos) / 1_000_000.0
+        }
+      }
+
+      return maxNanos / 1_000_000.0
+    }
+
+    companion object {
+      private const val BUCKET_COUNT = 26
+
+      private fun bucketFor(durationNanos: Long): Int {
+        val micros = durationNanos / 1_000
+        if (micros <= 1) {
+          return 0
+        }
+        return minOf(63 - micros.countLeadingZeroBits(), BUCKET_COUNT - 1)
+      }
+    }
+  }
+
+  data class Stats(
+    val name: String,
+    val count: Long,
+    val totalMs: Double,
+    val maxMs: Double,
+    val p50Ms: Double,
+    val p90Ms: Double,
+    val p99Ms: Double,
+    val rows: Long,
+    val mainThreadCount: Long
+  )
+}
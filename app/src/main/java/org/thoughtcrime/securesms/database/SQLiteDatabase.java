@@ -14,6 +14,7 @@ import androidx.sqlite.db.SupportSQLiteQuery;
 import net.zetetic.database.sqlcipher.SQLiteStatement;
 import net.zetetic.database.sqlcipher.SQLiteTransactionListener;
 
+import org.signal.core.util.ThreadUtil;
 import org.signal.core.util.logging.Log;
 import org.signal.core.util.tracing.Tracer;
 
@@ -84,7 +85,12 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     }
 
     tracer.start(methodName, KEY_QUERY, query);
+    boolean timed      = DatabaseMonitor.isTimingEnabled();
+    long    startNanos = timed ? System.nanoTime() : 0;
     returnable.run();
+    if (timed) {
+      DatabaseMonitor.onStatementComplete(methodName, null, query, System.nanoTime() - startNanos, -1, ThreadUtil.isMainThread());
+    }
     tracer.end(methodName);
 
     if (locked) {
@@ -110,10 +116,20 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     }
 
     tracer.start(methodName, params);
-    E result = returnable.run();
+    boolean timed      = DatabaseMonitor.isTimingEnabled();
+    long    startNanos = timed ? System.nanoTime() : 0;
+    E       result     = returnable.run();
+    int     rows       = -1;
     if (result instanceof Cursor) {
       // Triggers filling the window (which is about to be done anyway), but lets us capture that time inside the trace
-      ((Cursor) result).getCount();
+      rows = ((Cursor) result).getCount();
+    } else if (result instanceof Integer) {
+      rows = (Integer) result;
+    } else if (result instanceof Long) {
+      rows = (Long) result != -1 ? 1 : 0;
+    }
+    if (timed) {
+      DatabaseMonitor.onStatementComplete(methodName, table, query, System.nanoTime() - startNanos, rows, ThreadUtil.isMainThread());
     }
     tracer.end(methodName);
 
@@ -292,6 +308,8 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     if (wrapped.inTransaction()) {
       trace("beginTransaction()", wrapped::beginTransaction);
     } else {
+      boolean timed      = DatabaseMonitor.isTimingEnabled();
+      long    startNanos = timed ? System.nanoTime() : 0;
       trace("beginTransaction()", () -> {
         wrapped.beginTransactionWithListener(new SQLiteTransactionListener() {
           @Override
@@ -312,6 +330,9 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
           }
         });
       });
+      if (timed) {
+        DatabaseMonitor.onTransactionLockAcquired(System.nanoTime() - startNanos, ThreadUtil.isMainThread());
+      }
     }
   }
 
@@ -5,7 +5,9 @@ import android.app.Application
 import android.content.Context
 import android.database.Cursor
 import android.database.sqlite.SQLiteException
+import android.os.CancellationSignal
 import android.text.TextUtils
+import androidx.sqlite.db.SimpleSQLiteQuery
 import net.zetetic.database.sqlcipher.SQLiteDatabase
 import org.intellij.lang.annotations.Language
 import org.signal.core.util.SqlUtil
@@ -69,15 +71,15 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     )
 
     @Language("sql")
-    private const val MESSAGES_QUERY = """
+    private const val MESSAGES_FOR_THREAD_QUERY = """
       SELECT 
         ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} AS $CONVERSATION_RECIPIENT, 
-        ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT, 
-        snippet($FTS_TABLE_NAME, -1, '', '', '$SNIPPET_WRAP', 7) AS $SNIPPET, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT,
+        snippet($FTS_TABLE_NAME, -1, '', '', '$SNIPPET_WRAP', 7) AS $SNIPPET,
         ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED}, 
         $FTS_TABLE_NAME.$THREAD_ID, 
         $FTS_TABLE_NAME.$BODY, 
-        $FTS_TABLE_NAME.$ID AS $MESSAGE_ID, 
+        $FTS_TABLE_NAME.$ID AS $MESSAGE_ID,
         1 AS $IS_MMS 
       FROM 
         ${MessageTable.TABLE_NAME} 
@@ -85,6 +87,7 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
           INNER JOIN ${ThreadTable.TABLE_NAME} ON $FTS_TABLE_NAME.$THREAD_ID = ${ThreadTable.TABLE_NAME}.${ThreadTable.ID} 
       WHERE 
         $FTS_TABLE_NAME MATCH ? AND 
+        ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} = ? AND
         ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.GROUP_V2_BIT} = 0 AND 
         ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} = 0 AND
         ${MessageTable.TABLE_NAME}.${MessageTable.SCHEDULED_DATE} < 0 AND
@@ -93,48 +96,87 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       LIMIT 500
     """
 
+    /**
+     * Finds matches across all threads, ordered by relevance. Unlike [MESSAGES_FOR_THREAD_QUERY], this doesn't include the body or snippet. Generating
+     * a snippet means re-tokenizing the body of every match, which dominates the cost of the query when a common term matches a large number of
+     * messages. Snippets are instead generated for just the visible results with [SNIPPETS_QUERY].
+     */
     @Language("sql")
-    private const val MESSAGES_FOR_THREAD_QUERY = """
+    private const val RANKED_MESSAGES_QUERY = """
       SELECT 
         ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} AS $CONVERSATION_RECIPIENT, 
-        ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT,
-        snippet($FTS_TABLE_NAME, -1, '', '', '$SNIPPET_WRAP', 7) AS $SNIPPET,
+        ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT, 
         ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED}, 
         $FTS_TABLE_NAME.$THREAD_ID, 
-        $FTS_TABLE_NAME.$BODY, 
-        $FTS_TABLE_NAME.$ID AS $MESSAGE_ID,
+        $FTS_TABLE_NAME.$ID AS $MESSAGE_ID, 
         1 AS $IS_MMS 
       FROM 
-        ${MessageTable.TABLE_NAME} 
-          INNER JOIN $FTS_TABLE_NAME ON $FTS_TABLE_NAME.$ID = ${MessageTable.TABLE_NAME}.${MessageTable.ID} 
+        $FTS_TABLE_NAME 
+          INNER JOIN ${MessageTable.TABLE_NAME} ON $FTS_TABLE_NAME.$ID = ${MessageTable.TABLE_NAME}.${MessageTable.ID} 
           INNER JOIN ${ThreadTable.TABLE_NAME} ON $FTS_TABLE_NAME.$THREAD_ID = ${ThreadTable.TABLE_NAME}.${ThreadTable.ID} 
       WHERE 
         $FTS_TABLE_NAME MATCH ? AND 
-        ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} = ? AND
         ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.GROUP_V2_BIT} = 0 AND 
         ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} = 0 AND
         ${MessageTable.TABLE_NAME}.${MessageTable.SCHEDULED_DATE} < 0 AND
         ${MessageTable.TABLE_NAME}.${MessageTable.LATEST_REVISION_ID} IS NULL
-      ORDER BY ${MessageTable.DATE_RECEIVED} DESC 
-      LIMIT 500
+      ORDER BY bm25($FTS_TABLE_NAME), ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED} DESC 
+      LIMIT ?
+    """
+
+    /**
+     * Generates snippets for a specific set of matches. The ID list is appended by the caller.
+     */
+    @Language("sql")
+    private const val SNIPPETS_QUERY = """
+      SELECT 
+        $FTS_TABLE_NAME.$ID AS $MESSAGE_ID, 
+        $FTS_TABLE_NAME.$BODY, 
+        snippet($FTS_TABLE_NAME, -1, '', '', '$SNIPPET_WRAP', 7) AS $SNIPPET 
+      FROM 
+        $FTS_TABLE_NAME 
+      WHERE 
+        $FTS_TABLE_NAME MATCH ? AND 
+        $FTS_TABLE_NAME.$ID IN 
     """
   }
 
-  fun queryMessages(query: String): Cursor? {
+  /**
+   * If the [cancellationSignal] is canceled while the query is running, reading the cursor will throw an [android.os.OperationCanceledException].
+   */
+  fun queryMessages(query: String, threadId: Long, cancellationSignal: CancellationSignal?): Cursor? {
+    val fullTextSearchQuery = createFullTextSearchQuery(query)
+    return if (TextUtils.isEmpty(fullTextSearchQuery)) {
+      null
+    } else {
+      readableDatabase.query(SimpleSQLiteQuery(MESSAGES_FOR_THREAD_QUERY, arrayOf<Any>(fullTextSearchQuery, threadId)), cancellationSignal)
+    }
+  }
+
+  /**
+   * Finds up to [limit] messages matching the query, most relevant first (as ranked by bm25). Only the columns needed to identify, order, and group
+   * the results are returned -- use [queryMessageSnippets] to get the body and snippet for the results that are actually going to be shown.
+   *
+   * If the [cancellationSignal] is canceled while the query is running, reading the cursor will throw an [android.os.OperationCanceledException].
+   */
+  fun queryRankedMessages(query: String, limit: Int, cancellationSignal: CancellationSignal?): Cursor? {
     val fullTextSearchQuery = createFullTextSearchQuery(query)
     return if (fullTextSearchQuery.isEmpty()) {
       null
     } else {
-      readableDatabase.rawQuery(MESSAGES_QUERY, SqlUtil.buildArgs(fullTextSearchQuery))
+      readableDatabase.query(SimpleSQLiteQuery(RANKED_MESSAGES_QUERY, arrayOf<Any>(fullTextSearchQuery, limit)), cancellationSignal)
     }
   }
 
-  fun queryMessages(query: String, threadId: Long): Cursor? {
+  /**
+   * Returns the [MESSAGE_ID], [BODY], and [SNIPPET] for each of the provided messages that match the query. Order is not guaranteed.
+   */
+  fun queryMessageSnippets(query: String, messageIds: Collection<Long>): Cursor? {
     val fullTextSearchQuery = createFullTextSearchQuery(query)
-    return if (TextUtils.isEmpty(fullTextSearchQuery)) {
+    return if (fullTextSearchQuery.isEmpty() || messageIds.isEmpty()) {
       null
     } else {
-      readableDatabase.rawQuery(MESSAGES_FOR_THREAD_QUERY, SqlUtil.buildArgs(fullTextSearchQuery, threadId))
+      readableDatabase.rawQuery(SNIPPETS_QUERY + messageIds.joinToString(prefix = "(", postfix = ")"), SqlUtil.buildArgs(fullTextSearchQuery))
     }
   }
 
@@ -18,6 +18,7 @@ import org.signal.core.util.exists
 import org.signal.core.util.logging.Log
 import org.signal.core.util.or
 import org.signal.core.util.readToList
+import org.signal.core.util.readToMap
 import org.signal.core.util.readToSingleBoolean
 import org.signal.core.util.readToSingleInt
 import org.signal.core.util.readToSingleLong
@@ -198,6 +199,9 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
 
   private val threadIdCache = LRUCache<RecipientId, Long>(MAX_CACHE_SIZE)
 
+  /** Threads that have been marked dirty by [update] inside of [withDeferredUpdates] on this thread, or null if updates aren't being deferred. */
+  private val deferredUpdates = ThreadLocal<LinkedHashMap<Long, DeferredUpdate>?>()
+
   private fun createThreadForRecipient(recipientId: RecipientId, group: Boolean, distributionType: Int): Long {
     if (recipientId.isUnknown) {
       throw AssertionError("Cannot create a thread for an unknown recipient!")
@@ -1477,6 +1481,23 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       }
   }
 
+  fun getRecipientIdsByThreadId(threadIds: Collection<Long>): Map<Long, RecipientId> {
+    if (threadIds.isEmpty()) {
+      return emptyMap()
+    }
+
+    val query = SqlUtil.buildFastCollectionQuery(ID, threadIds)
+
+    return readableDatabase
+      .select(ID, RECIPIENT_ID)
+      .from(TABLE_NAME)
+      .where(query.where, query.whereArgs)
+      .run()
+      .readToMap { cursor ->
+        cursor.requireLong(ID) to RecipientId.from(cursor.requireLong(RECIPIENT_ID))
+      }
+  }
+
   fun hasThread(recipientId: RecipientId): Boolean {
     return getThreadIdIfExistsFor(recipientId) > -1
   }
@@ -1626,6 +1647,57 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       .run()
   }
 
+  /**
+   * Runs [block] in a transaction, with every [update] made inside of it deferred until [block] finishes. Instead of being recomputed on
+   * every call, a thread is only marked as dirty, and each dirty thread is recomputed once before the transaction ends. This is meant for
+   * processing many messages at once, where the same thread would otherwise be recomputed for every message.
+   *
+   * While deferred, [update] returns false, since whether the thread will be deleted isn't known yet. Anything that needs to know that
+   * shouldn't be run in here.
+   */
+  fun <T> withDeferredUpdates(block: () -> T): T {
+    if (deferredUpdates.get() != null) {
+      return block()
+    }
+
+    return writableDatabase.withinTransaction {
+      val pending = LinkedHashMap<Long, DeferredUpdate>()
+
+      deferredUpdates.set(pending)
+      val result = try {
+        block()
+      } finally {
+        deferredUpdates.set(null)
+      }
+
+      var notifyListeners = false
+      for ((threadId, deferred) in pending) {
+        if (!containsId(threadId)) {
+          continue
+        }
+
+        update(
+          threadId = threadId,
+          unarchive = deferred.unarchive,
+          allowDeletion = deferred.allowDeletion,
+          notifyListeners = false,
+          syncThreadDelete = deferred.syncThreadDelete
+        )
+        notifyListeners = notifyListeners || deferred.notifyListeners
+      }
+
+      if (pending.isNotEmpty()) {
+        Log.d(TAG, "Applied deferred updates to ${pending.size} thread(s).")
+      }
+
+      if (notifyListeners) {
+        notifyConversationListListeners()
+      }
+
+      result
+    }
+  }
+
   fun update(threadId: Long, unarchive: Boolean, syncThreadDelete: Boolean = true): Boolean {
     return update(
       threadId = threadId,
@@ -1693,6 +1765,20 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       return false
     }
 
+    val deferred = deferredUpdates.get()
+    if (deferred != null) {
+      val existing = deferred[threadId]
+      if (existing == null) {
+        deferred[threadId] = DeferredUpdate(unarchive, allowDeletion, notifyListeners, syncThreadDelete)
+      } else {
+        existing.unarchive = existing.unarchive || unarchive
+        existing.allowDeletion = existing.allowDeletion && allowDeletion
+        existing.notifyListeners = existing.notifyListeners || notifyListeners
+        existing.syncThreadDelete = existing.syncThreadDelete && syncThreadDelete
+      }
+      return false
+    }
+
     return writableDatabase.withinTransaction {
       val meaningfulMessages = messages.hasMeaningfulMessage(threadId)
 
@@ -2390,6 +2476,17 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
 
   data class MergeResult(val threadId: Long, val previousThreadId: Long, val neededMerge: Boolean)
 
+  /**
+   * The combined arguments of every [update] made to a thread while deferred. A thread is unarchived if any of them asked for it, but is only
+   * allowed to be deleted (or have that deletion synced) if all of them allowed it.
+   */
+  private class DeferredUpdate(
+    var unarchive: Boolean,
+    var allowDeletion: Boolean,
+    var notifyListeners: Boolean,
+    var syncThreadDelete: Boolean
+  )
+
   data class ThreadIdResult(
     val threadId: Long,
     val newlyCreated: Boolean
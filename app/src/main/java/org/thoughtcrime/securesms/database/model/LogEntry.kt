@@ -1,7 +1,12 @@
 package org.thoughtcrime.securesms.database.model
 
-data class LogEntry(
+import org.signal.core.util.logging.LogRecord
+
+/**
+ * @param record A log line encoded with [LogRecord.Encoder].
+ */
+class LogEntry(
   val createdAt: Long,
   val keepLonger: Boolean,
-  val body: String
+  val record: ByteArray
 )
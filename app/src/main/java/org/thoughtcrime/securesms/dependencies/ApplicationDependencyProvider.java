@@ -109,6 +109,7 @@ import org.whispersystems.signalservice.internal.websocket.WebSocketConnection;
 import org.whispersystems.signalservice.internal.websocket.WebSocketShadowingBridge;
 
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
@@ -148,12 +149,19 @@ public class ApplicationDependencyProvider implements AppDependencies.Provider {
 
   @Override
   public @NonNull SignalServiceMessageSender provideSignalServiceMessageSender(@NonNull SignalWebSocket signalWebSocket, @NonNull SignalServiceDataStore protocolStore, @NonNull PushServiceSocket pushServiceSocket) {
+      ExecutorService encryptionExecutor = null;
+      if (RemoteConfig.parallelSendEncryption()) {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+        encryptionExecutor = SignalExecutors.newCachedBoundedExecutor("signal-encrypt", ThreadUtil.PRIORITY_IMPORTANT_BACKGROUND_THREAD, 1, threads, 30);
+      }
+
       return new SignalServiceMessageSender(pushServiceSocket,
                                             protocolStore,
                                             ReentrantSessionLock.INSTANCE,
                                             signalWebSocket,
                                             Optional.of(new SecurityEventListener(context)),
                                             SignalExecutors.newCachedBoundedExecutor("signal-messages", ThreadUtil.PRIORITY_IMPORTANT_BACKGROUND_THREAD, 1, 16, 30),
+                                            encryptionExecutor,
                                             ByteUnit.KILOBYTES.toBytes(256));
   }
 
@@ -261,7 +269,7 @@ public class ApplicationDependencyProvider implements AppDependencies.Provider {
 
   @Override
   public @NonNull DatabaseObserver provideDatabaseObserver() {
-    return new DatabaseObserver();
+    return new DatabaseObserver(RemoteConfig.shardedDatabaseObserver());
   }
 
   @SuppressWarnings("ConstantConditions")
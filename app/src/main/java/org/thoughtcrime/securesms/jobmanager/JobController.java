@@ -23,10 +23,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.function.Predicate;
 
 /**
@@ -47,6 +49,12 @@ class JobController {
   private final Callback               callback;
   private final Map<String, Job>       runningJobs;
 
+  /**
+   * Runners that share the same predicate are grouped together, so that when something changes we only need to wake up a single idle runner per group,
+   * rather than every runner. See {@link #pullNextEligibleJobForExecution(Predicate)}.
+   */
+  private final Map<Predicate<MinimalJobSpec>, RunnerGroup> runnerGroups = new IdentityHashMap<>();
+
   JobController(@NonNull Application application,
                 @NonNull JobStorage jobStorage,
                 @NonNull JobInstantiator jobInstantiator,
@@ -70,11 +78,11 @@ class JobController {
   @WorkerThread
   synchronized void init() {
     jobStorage.updateAllJobsToBePending();
-    notifyAll();
+    wakeRunners();
   }
 
   synchronized void wakeUp() {
-    notifyAll();
+    wakeRunners();
   }
 
   @WorkerThread
@@ -111,7 +119,7 @@ class JobController {
     triggerOnSubmit(chain);
 
     synchronized (this) {
-      notifyAll();
+      wakeRunners();
     }
   }
 
@@ -159,7 +167,7 @@ class JobController {
     triggerOnSubmit(chain);
 
     synchronized (this) {
-      notifyAll();
+      wakeRunners();
     }
   }
 
@@ -194,7 +202,7 @@ class JobController {
     }
 
     synchronized (this) {
-      notifyAll();
+      wakeRunners();
     }
   }
 
@@ -233,7 +241,7 @@ class JobController {
   @WorkerThread
   synchronized void update(@NonNull JobUpdater updater) {
     jobStorage.transformJobs(updater::update);
-    notifyAll();
+    wakeRunners();
   }
 
   @WorkerThread
@@ -262,7 +270,7 @@ class JobController {
     Log.i(TAG, JobLogger.format(job, "Scheduling a retry in " + backoffInterval + " ms."));
     scheduler.schedule(backoffInterval, constraints);
 
-    notifyAll();
+    wakeRunners();
   }
 
   synchronized void onJobFinished(@NonNull Job job) {
@@ -283,7 +291,7 @@ class JobController {
 
     jobStorage.deleteJob(job.getId());
     jobTracker.onStateChange(job, JobTracker.JobState.SUCCESS);
-    notifyAll();
+    wakeRunners();
   }
 
   /**
@@ -318,25 +326,52 @@ class JobController {
    *
    * This method will block until a job is available.
    * When the job returned from this method has been run, you must call {@link #onJobFinished(Job)}.
+   *
+   * Idle runners don't wait on this object's monitor. Instead, each group of runners with the same predicate has a semaphore, and whenever the state of the
+   * job queue changes we release at most one permit per group. A runner that successfully pulls a job passes the wakeup along to another idle runner in its
+   * group, in case there is more work to be done. This avoids waking every runner (and having each of them scan the job queue) for every change.
    */
   @WorkerThread
-  synchronized @NonNull Job pullNextEligibleJobForExecution(@NonNull Predicate<MinimalJobSpec> predicate) {
+  @NonNull Job pullNextEligibleJobForExecution(@NonNull Predicate<MinimalJobSpec> predicate) {
+    RunnerGroup group;
+
+    synchronized (this) {
+      group = runnerGroups.get(predicate);
+      if (group == null) {
+        group = new RunnerGroup();
+        runnerGroups.put(predicate, group);
+      }
+    }
+
     try {
-      Job job;
+      while (true) {
+        synchronized (this) {
+          Job job = getNextEligibleJobForExecution(predicate);
 
-      while ((job = getNextEligibleJobForExecution(predicate)) == null) {
-        if (runningJobs.isEmpty()) {
-          debouncer.publish(callback::onEmpty);
-        }
+          if (job != null) {
+            jobStorage.markJobAsRunning(job.getId(), System.currentTimeMillis());
+            runningJobs.put(job.getId(), job);
+            jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
 
-        wait();
-      }
+            wakeRunner(group);
 
-      jobStorage.markJobAsRunning(job.getId(), System.currentTimeMillis());
-      runningJobs.put(job.getId(), job);
-      jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
+            return job;
+          }
 
-      return job;
+          if (runningJobs.isEmpty()) {
+            debouncer.publish(callback::onEmpty);
+          }
+
+          group.idleRunners++;
+        }
+
+        group.wakeups.acquire();
+
+        synchronized (this) {
+          group.idleRunners--;
+          group.wakeupPending = false;
+        }
+      }
     } catch (InterruptedException e) {
       Log.e(TAG, "Interrupted.");
       throw new AssertionError(e);
@@ -481,20 +516,49 @@ class JobController {
     }
   }
 
+  /**
+   * Wakes up a single idle runner in every group. Must be called while holding the lock.
+   */
+  private void wakeRunners() {
+    for (RunnerGroup group : runnerGroups.values()) {
+      wakeRunner(group);
+    }
+  }
+
+  /**
+   * Wakes up a single idle runner in the group, if there is one and it hasn't already been woken. Must be called while holding the lock.
+   */
+  private void wakeRunner(@NonNull RunnerGroup group) {
+    if (group.idleRunners > 0 && !group.wakeupPending) {
+      group.wakeupPending = true;
+      group.wakeups.release();
+    }
+  }
+
   @WorkerThread
   private @Nullable Job getNextEligibleJobForExecution(@NonNull Predicate<MinimalJobSpec> predicate) {
+    // Many jobs share the same constraints, and checking them can be expensive, so we only check each one once per pass
+    Map<String, Boolean> constraintResults = new HashMap<>();
+
     JobSpec jobSpec = jobStorage.getNextEligibleJob(System.currentTimeMillis(), minimalJobSpec -> {
       if (!predicate.test(minimalJobSpec)) {
         return false;
       }
 
-      List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(minimalJobSpec.getId());
-      List<Constraint>     constraints     = Stream.of(constraintSpecs)
-                                                   .map(ConstraintSpec::getFactoryKey)
-                                                   .map(constraintInstantiator::instantiate)
-                                                   .toList();
+      for (ConstraintSpec constraintSpec : jobStorage.getConstraintSpecs(minimalJobSpec.getId())) {
+        Boolean isMet = constraintResults.get(constraintSpec.getFactoryKey());
 
-      return Stream.of(constraints).allMatch(Constraint::isMet);
+        if (isMet == null) {
+          isMet = constraintInstantiator.instantiate(constraintSpec.getFactoryKey()).isMet();
+          constraintResults.put(constraintSpec.getFactoryKey(), isMet);
+        }
+
+        if (!isMet) {
+          return false;
+        }
+      }
+
+      return true;
     });
 
     if (jobSpec == null) {
@@ -563,6 +627,16 @@ class JobController {
                        jobSpec.getInitialDelay());
   }
 
+  private static final class RunnerGroup {
+    private final Semaphore wakeups = new Semaphore(0);
+
+    /** The number of runners that failed to find a job and are (or are about to be) waiting on {@link #wakeups}. Guarded by the controller's lock. */
+    private int idleRunners;
+
+    /** Whether a permit has been released that no runner has consumed yet. Guarded by the controller's lock. */
+    private boolean wakeupPending;
+  }
+
   interface Callback {
     void onEmpty();
   }
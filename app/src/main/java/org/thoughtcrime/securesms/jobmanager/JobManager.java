@@ -58,6 +58,9 @@ public class JobManager implements ConstraintObserver.Notifier {
   @GuardedBy("emptyQueueListeners")
   private final Set<EmptyQueueListener> emptyQueueListeners = new CopyOnWriteArraySet<>();
 
+  /** Enqueues held back by {@link #deferEnqueues(Runnable)} on the current thread, or null if this thread isn't deferring. */
+  private final ThreadLocal<List<Runnable>> deferredEnqueues = new ThreadLocal<>();
+
   private volatile boolean initialized = false;
   private volatile boolean shutdown    = false;
 
@@ -176,11 +179,13 @@ public class JobManager implements ConstraintObserver.Notifier {
    * Enqueues a single job that depends on a collection of job ID's.
    */
   public void add(@NonNull Job job, @NonNull Collection<String> dependsOn) {
-    jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+    enqueueOrDefer(() -> {
+      jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
 
-    runOnExecutor(() -> {
-      jobController.submitJobWithExistingDependencies(job, dependsOn, null);
-      jobController.wakeUp();
+      runOnExecutor(() -> {
+        jobController.submitJobWithExistingDependencies(job, dependsOn, null);
+        jobController.wakeUp();
+      });
     });
   }
 
@@ -189,10 +194,12 @@ public class JobManager implements ConstraintObserver.Notifier {
    * items in the specified queue.
    */
   public void add(@NonNull Job job, @Nullable String dependsOnQueue) {
-    jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+    enqueueOrDefer(() -> {
+      jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
 
-    runOnExecutor(() -> {
-      jobController.submitJobWithExistingDependencies(job, Collections.emptyList(), dependsOnQueue);
+      runOnExecutor(() -> {
+        jobController.submitJobWithExistingDependencies(job, Collections.emptyList(), dependsOnQueue);
+      });
     });
   }
 
@@ -201,10 +208,12 @@ public class JobManager implements ConstraintObserver.Notifier {
    * items in the specified queue.
    */
   public void add(@NonNull Job job, @NonNull Collection<String> dependsOn, @Nullable String dependsOnQueue) {
-    jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+    enqueueOrDefer(() -> {
+      jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
 
-    runOnExecutor(() -> {
-      jobController.submitJobWithExistingDependencies(job, dependsOn, dependsOnQueue);
+      runOnExecutor(() -> {
+        jobController.submitJobWithExistingDependencies(job, dependsOn, dependsOnQueue);
+      });
     });
   }
 
@@ -213,12 +222,14 @@ public class JobManager implements ConstraintObserver.Notifier {
       return;
     }
 
-    for (Job job : jobs) {
-      jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
-    }
+    enqueueOrDefer(() -> {
+      for (Job job : jobs) {
+        jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+      }
 
-    runOnExecutor(() -> {
-      jobController.submitJobs(jobs);
+      runOnExecutor(() -> {
+        jobController.submitJobs(jobs);
+      });
     });
   }
 
@@ -227,16 +238,18 @@ public class JobManager implements ConstraintObserver.Notifier {
       return;
     }
 
-    for (Chain chain : chains) {
-      for (List<Job> jobList : chain.getJobListChain()) {
-        for (Job job : jobList) {
-          jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+    enqueueOrDefer(() -> {
+      for (Chain chain : chains) {
+        for (List<Job> jobList : chain.getJobListChain()) {
+          for (Job job : jobList) {
+            jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+          }
         }
       }
-    }
 
-    runOnExecutor(() -> {
-      jobController.submitNewJobChains(chains.stream().map(Chain::getJobListChain).collect(Collectors.toList()));
+      runOnExecutor(() -> {
+        jobController.submitNewJobChains(chains.stream().map(Chain::getJobListChain).collect(Collectors.toList()));
+      });
     });
   }
 
@@ -316,7 +329,7 @@ public class JobManager implements ConstraintObserver.Notifier {
       }
     });
 
-    add(job);
+    submitChain(new Chain(this, Collections.singletonList(job)));
 
     try {
       if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
@@ -438,7 +451,46 @@ public class JobManager implements ConstraintObserver.Notifier {
     runOnExecutor(jobController::wakeUp);
   }
 
+  /**
+   * Runs the block, holding back every job it enqueues on this thread rather than enqueueing it. Jobs that are run synchronously (like with
+   * {@link #runSynchronously(Job, long)}) are still enqueued right away, since the caller is waiting on them.
+   *
+   * This is for work that may be rolled back, like message processing inside of a database transaction that can fail. Call
+   * {@link DeferredEnqueues#enqueue()} once the work has been committed, or drop the result to forget the jobs.
+   */
+  public @NonNull DeferredEnqueues deferEnqueues(@NonNull Runnable block) {
+    List<Runnable> previous = deferredEnqueues.get();
+    List<Runnable> deferred = new ArrayList<>();
+
+    deferredEnqueues.set(deferred);
+    try {
+      block.run();
+    } finally {
+      if (previous != null) {
+        deferredEnqueues.set(previous);
+      } else {
+        deferredEnqueues.remove();
+      }
+    }
+
+    return new DeferredEnqueues(deferred);
+  }
+
+  private void enqueueOrDefer(@NonNull Runnable enqueue) {
+    List<Runnable> deferred = deferredEnqueues.get();
+
+    if (deferred != null) {
+      deferred.add(enqueue);
+    } else {
+      enqueue.run();
+    }
+  }
+
   private void enqueueChain(@NonNull Chain chain) {
+    enqueueOrDefer(() -> submitChain(chain));
+  }
+
+  private void submitChain(@NonNull Chain chain) {
     for (List<Job> jobList : chain.getJobListChain()) {
       for (Job job : jobList) {
         jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
@@ -489,6 +541,30 @@ public class JobManager implements ConstraintObserver.Notifier {
   }
 
 
+  /**
+   * Jobs that were held back by {@link #deferEnqueues(Runnable)}.
+   */
+  public static final class DeferredEnqueues {
+    private final List<Runnable> enqueues;
+
+    private DeferredEnqueues(@NonNull List<Runnable> enqueues) {
+      this.enqueues = enqueues;
+    }
+
+    /**
+     * Enqueues the held back jobs, in the order they were originally enqueued.
+     */
+    public void enqueue() {
+      for (Runnable enqueue : enqueues) {
+        enqueue.run();
+      }
+    }
+
+    public int size() {
+      return enqueues.size();
+    }
+  }
+
   public interface EmptyQueueListener {
     void onQueueEmpty();
   }
@@ -573,7 +649,11 @@ public class JobManager implements ConstraintObserver.Notifier {
         }
       };
 
-      enqueue(listener);
+      List<Job> lastChain          = jobs.get(jobs.size() - 1);
+      Job       lastJobInLastChain = lastChain.get(lastChain.size() - 1);
+
+      jobManager.addListener(lastJobInLastChain.getId(), listener);
+      jobManager.submitChain(this);
 
       try {
         if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
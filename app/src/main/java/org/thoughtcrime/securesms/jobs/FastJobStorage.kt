@@ -22,8 +22,15 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     private const val DEBUG = false
   }
 
-  /** We keep a trimmed down version of every job in memory. */
-  private val minimalJobs: MutableList<MinimalJobSpec> = mutableListOf()
+  /** We keep a trimmed down version of every job in memory, indexed by ID. Iteration order matches insertion order. */
+  private val minimalJobs: LinkedHashMap<String, MinimalJobSpec> = LinkedHashMap()
+
+  /** Every non-migration job that has a queue, grouped by queue and sorted so that the first job is the most eligible one in that queue. */
+  private val jobsByQueue: MutableMap<String, TreeSet<MinimalJobSpec>> = hashMapOf()
+
+  /** Used to break ties between jobs in the same queue that would otherwise sort identically, so that the first-inserted job wins. */
+  private val insertionOrder: MutableMap<String, Long> = hashMapOf()
+  private var nextInsertionOrder: Long = 0
 
   /**
    * We keep a set of job specs in memory to facilitate fast retrieval. This is important because the most common job storage pattern is
@@ -41,27 +48,33 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   /** We keep every dependency in memory, since there aren't that many, and managing a limited subset would be very complicated. */
   private val dependenciesByJobId: MutableMap<String, MutableList<DependencySpec>> = hashMapOf()
 
-  /** The list of jobs eligible to be returned from [getNextEligibleJob], kept sorted in the appropriate order. */
+  /**
+   * The list of jobs eligible to be returned from [getNextEligibleJob], kept sorted in the appropriate order. This is the most eligible job in each queue,
+   * plus every job without a queue. Jobs that are waiting on an initial delay or backoff are parked in [waitingJobs] until they're ready.
+   */
   private val eligibleJobs: TreeSet<MinimalJobSpec> = TreeSet(EligibleMinJobComparator)
 
+  /**
+   * Jobs that would otherwise be in [eligibleJobs], but were found to be waiting on their initial delay or backoff interval, sorted by the time they become
+   * runnable. This lets [getNextEligibleJob] skip over them entirely until their time comes, rather than re-checking them on every call.
+   */
+  private val waitingJobs: TreeSet<MinimalJobSpec> = TreeSet(WaitingMinJobComparator)
+
+  /** The most recent time passed to [getNextEligibleJob]. Used to detect the clock going backwards, which can make waiting jobs eligible again. */
+  private var lastEligibilityCheckTime: Long = Long.MIN_VALUE
+
   /** All migration-related jobs, kept in the appropriate order. */
   private val migrationJobs: TreeSet<MinimalJobSpec> = TreeSet(compareBy { it.createTime })
 
-  /** We need a fast way to know what the "most eligible job" is for a given queue. This serves as a lookup table that speeds up the maintenance of [eligibleJobs]. */
-  private val mostEligibleJobForQueue: MutableMap<String, MinimalJobSpec> = hashMapOf()
 
   @Synchronized
   override fun init() {
     val stopwatch = Stopwatch("init", decimalPlaces = 2)
-    minimalJobs += jobDatabase.getAllMinimalJobSpecs()
+    val allMinimalJobs = jobDatabase.getAllMinimalJobSpecs()
     stopwatch.split("fetch-min-jobs")
 
-    for (job in minimalJobs) {
-      if (job.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) {
-        migrationJobs += job
-      } else {
-        placeJobInEligibleList(job)
-      }
+    for (job in allMinimalJobs) {
+      addMinimalJob(job)
     }
     stopwatch.split("sort-min-jobs")
 
@@ -96,15 +109,8 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     stopwatch?.split("db")
 
     for (fullSpec in fullSpecs) {
-      val minimalJobSpec = fullSpec.jobSpec.toMinimalJobSpec()
-      minimalJobs += minimalJobSpec
       jobSpecCache[fullSpec.jobSpec.id] = fullSpec.jobSpec
-
-      if (fullSpec.jobSpec.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) {
-        migrationJobs += minimalJobSpec
-      } else {
-        placeJobInEligibleList(minimalJobSpec)
-      }
+      addMinimalJob(fullSpec.jobSpec.toMinimalJobSpec())
 
       constraintsByJobId[fullSpec.jobSpec.id] = fullSpec.constraintSpecs.toMutableList()
       dependenciesByJobId[fullSpec.jobSpec.id] = fullSpec.dependencySpecs.toMutableList()
@@ -115,7 +121,7 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun getJobSpec(id: String): JobSpec? {
-    return minimalJobs.firstOrNull { it.id == id }?.toJobSpec()
+    return minimalJobs[id]?.toJobSpec()
   }
 
   @Synchronized
@@ -133,16 +139,37 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     } else if (migrationJob != null) {
       null
     } else {
-      eligibleJobs
-        .asSequence()
-        .filter { job ->
-          // Filter out all jobs with unmet dependencies
-          dependenciesByJobId[job.id].isNullOrEmpty()
+      promoteWaitingJobs(currentTime)
+
+      var found: MinimalJobSpec? = null
+      var notYetRunnable: MutableList<MinimalJobSpec>? = null
+
+      for (job in eligibleJobs) {
+        // Filter out all jobs with unmet dependencies
+        if (!dependenciesByJobId[job.id].isNullOrEmpty() || job.isRunning) {
+          continue
         }
-        .filterNot { it.isRunning }
-        .filter { job -> job.hasEligibleRunTime(currentTime) }
-        .firstOrNull(filter)
-        ?.toJobSpec()
+
+        if (!job.hasEligibleRunTime(currentTime)) {
+          if (notYetRunnable == null) {
+            notYetRunnable = mutableListOf()
+          }
+          notYetRunnable += job
+          continue
+        }
+
+        if (filter(job)) {
+          found = job
+          break
+        }
+      }
+
+      notYetRunnable?.forEach { job ->
+        eligibleJobs.remove(job)
+        waitingJobs += job
+      }
+
+      found?.toJobSpec()
     }.also {
       stopwatch?.stop(TAG)
     }
@@ -150,28 +177,31 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun getJobsInQueue(queue: String): List<JobSpec> {
-    return minimalJobs
+    return minimalJobs.values
       .filter { it.queueKey == queue }
       .mapNotNull { it.toJobSpec() }
   }
 
   @Synchronized
   override fun getJobCountForFactory(factoryKey: String): Int {
-    return minimalJobs
-      .filter { it.factoryKey == factoryKey }
-      .size
+    return minimalJobs.values.count { it.factoryKey == factoryKey }
   }
 
   @Synchronized
   override fun getJobCountForFactoryAndQueue(factoryKey: String, queueKey: String): Int {
-    return minimalJobs
-      .filter { it.factoryKey == factoryKey && it.queueKey == queueKey }
-      .size
+    val jobsInQueue: Collection<MinimalJobSpec> = if (queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) migrationJobs else jobsByQueue[queueKey] ?: return 0
+    return jobsInQueue.count { it.factoryKey == factoryKey }
   }
 
   @Synchronized
   override fun areQueuesEmpty(queueKeys: Set<String>): Boolean {
-    return minimalJobs.none { it.queueKey != null && queueKeys.contains(it.queueKey) }
+    return queueKeys.none { queueKey ->
+      if (queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) {
+        migrationJobs.isNotEmpty()
+      } else {
+        jobsByQueue[queueKey]?.isNotEmpty() == true
+      }
+    }
   }
 
   @Synchronized
@@ -182,16 +212,12 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       // Don't need to update jobSpecCache because all changed fields are in the min spec
     }
 
-    updateCachedJobSpecs(
-      filter = { it.id == id },
-      transformer = { jobSpec ->
-        jobSpec.copy(
-          isRunning = true,
-          lastRunAttemptTime = currentTime
-        )
-      },
-      singleUpdate = true
-    )
+    updateCachedJobSpec(id) { jobSpec ->
+      jobSpec.copy(
+        isRunning = true,
+        lastRunAttemptTime = currentTime
+      )
+    }
   }
 
   @Synchronized
@@ -211,17 +237,13 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       }
     }
 
-    updateCachedJobSpecs(
-      filter = { it.id == id },
-      transformer = { jobSpec ->
-        jobSpec.copy(
-          isRunning = false,
-          lastRunAttemptTime = currentTime,
-          nextBackoffInterval = nextBackoffInterval
-        )
-      },
-      singleUpdate = true
-    )
+    updateCachedJobSpec(id) { jobSpec ->
+      jobSpec.copy(
+        isRunning = false,
+        lastRunAttemptTime = currentTime,
+        nextBackoffInterval = nextBackoffInterval
+      )
+    }
   }
 
   @Synchronized
@@ -251,14 +273,9 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       jobDatabase.updateJobs(durable)
     }
 
-    val updatesById: Map<String, MinimalJobSpec> = jobSpecs
-      .map { it.toMinimalJobSpec() }
-      .associateBy { it.id }
-
-    updateCachedJobSpecs(
-      filter = { updatesById.containsKey(it.id) },
-      transformer = { updatesById.getValue(it.id) }
-    )
+    for (update in jobSpecs) {
+      updateCachedJobSpec(update.id) { update.toMinimalJobSpec() }
+    }
 
     for (update in jobSpecs) {
       jobSpecCache[update.id] = update
@@ -272,15 +289,9 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       jobSpecCache[update.id] = update
     }
 
-    val iterator = minimalJobs.listIterator()
-    while (iterator.hasNext()) {
-      val current = iterator.next()
-      val updatedJob = updated.firstOrNull { it.id == current.id }
-
-      if (updatedJob != null) {
-        iterator.set(updatedJob.toMinimalJobSpec())
-        replaceJobInEligibleList(current, updatedJob.toMinimalJobSpec())
-      }
+    for (updatedJob in updated) {
+      val current = minimalJobs[updatedJob.id] ?: continue
+      replaceMinimalJob(current, updatedJob.toMinimalJobSpec())
     }
   }
 
@@ -292,36 +303,23 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   @Synchronized
   override fun deleteJobs(ids: List<String>) {
     val jobsToDelete: Set<MinimalJobSpec> = ids
-      .mapNotNull { id ->
-        minimalJobs.firstOrNull { it.id == id }
-      }
+      .mapNotNull { id -> minimalJobs[id] }
       .toSet()
 
     val durableJobIdsToDelete: List<String> = jobsToDelete
       .filterNot { it.isMemoryOnly }
       .map { it.id }
 
-    val affectedQueues: Set<String> = jobsToDelete.mapNotNull { it.queueKey }.toSet()
-
     if (durableJobIdsToDelete.isNotEmpty()) {
       jobDatabase.deleteJobs(durableJobIdsToDelete)
     }
 
-    val deleteIds: Set<String> = ids.toSet()
-    minimalJobs.removeIf { deleteIds.contains(it.id) }
-    jobSpecCache.keys.removeAll(deleteIds)
-    eligibleJobs.removeIf { deleteIds.contains(it.id) }
-    migrationJobs.removeIf { deleteIds.contains(it.id) }
-
-    mostEligibleJobForQueue.keys.removeAll(affectedQueues)
-
-    for (queue in affectedQueues) {
-      jobDatabase.getMostEligibleJobInQueue(queue)?.let {
-        jobSpecCache[it.id] = it
-        placeJobInEligibleList(it.toMinimalJobSpec())
-      }
+    for (job in jobsToDelete) {
+      removeMinimalJob(job)
     }
 
+    jobSpecCache.keys.removeAll(ids.toSet())
+
     for (jobId in ids) {
       constraintsByJobId.remove(jobId)
       dependenciesByJobId.remove(jobId)
@@ -377,94 +375,146 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     return dependenciesByJobId.values.flatten()
   }
 
-  private fun updateCachedJobSpecs(filter: (MinimalJobSpec) -> Boolean, transformer: (MinimalJobSpec) -> MinimalJobSpec, singleUpdate: Boolean = false) {
-    val iterator = minimalJobs.listIterator()
-
-    while (iterator.hasNext()) {
-      val current = iterator.next()
-
-      if (filter(current)) {
-        val updated = transformer(current)
-        iterator.set(updated)
-        replaceJobInEligibleList(current, updated)
-
-        jobSpecCache.remove(current.id)?.let { currentJobSpec ->
-          val updatedJobSpec = currentJobSpec.copy(
-            id = updated.id,
-            factoryKey = updated.factoryKey,
-            queueKey = updated.queueKey,
-            createTime = updated.createTime,
-            lastRunAttemptTime = updated.lastRunAttemptTime,
-            nextBackoffInterval = updated.nextBackoffInterval,
-            globalPriority = updated.globalPriority,
-            isRunning = updated.isRunning,
-            isMemoryOnly = updated.isMemoryOnly
-          )
-          jobSpecCache[updatedJobSpec.id] = updatedJobSpec
-
-          if (singleUpdate) {
-            return
-          }
-        }
-      }
+  private fun updateCachedJobSpecs(filter: (MinimalJobSpec) -> Boolean, transformer: (MinimalJobSpec) -> MinimalJobSpec) {
+    val matching: List<MinimalJobSpec> = minimalJobs.values.filter(filter)
+
+    for (current in matching) {
+      updateCachedJobSpec(current.id, transformer)
+    }
+  }
+
+  private fun updateCachedJobSpec(id: String, transformer: (MinimalJobSpec) -> MinimalJobSpec) {
+    val current: MinimalJobSpec = minimalJobs[id] ?: return
+    val updated: MinimalJobSpec = transformer(current)
+
+    replaceMinimalJob(current, updated)
+
+    jobSpecCache.remove(current.id)?.let { currentJobSpec ->
+      val updatedJobSpec = currentJobSpec.copy(
+        id = updated.id,
+        factoryKey = updated.factoryKey,
+        queueKey = updated.queueKey,
+        createTime = updated.createTime,
+        lastRunAttemptTime = updated.lastRunAttemptTime,
+        nextBackoffInterval = updated.nextBackoffInterval,
+        globalPriority = updated.globalPriority,
+        isRunning = updated.isRunning,
+        isMemoryOnly = updated.isMemoryOnly
+      )
+      jobSpecCache[updatedJobSpec.id] = updatedJobSpec
     }
   }
 
   /**
-   * Heart of a lot of the in-memory job management. Will ensure that we have an up-to-date list of eligible jobs in sorted order.
+   * Heart of a lot of the in-memory job management. Adds a job to all of the relevant in-memory indexes, and ensures that we have an up-to-date list of
+   * eligible jobs in sorted order.
    */
-  private fun placeJobInEligibleList(jobCandidate: MinimalJobSpec) {
-    val existingJobInQueue = jobCandidate.queueKey?.let { mostEligibleJobForQueue[it] }
-    if (existingJobInQueue != null) {
-      if (jobCandidate.globalPriority < existingJobInQueue.globalPriority) {
-        return
-      }
+  private fun addMinimalJob(job: MinimalJobSpec) {
+    val existing: MinimalJobSpec? = minimalJobs[job.id]
+    if (existing != null) {
+      replaceMinimalJob(existing, job)
+      return
+    }
 
-      if (jobCandidate.globalPriority == existingJobInQueue.globalPriority) {
-        if (jobCandidate.queuePriority < existingJobInQueue.queuePriority) {
-          return
-        }
+    minimalJobs[job.id] = job
+    insertionOrder[job.id] = nextInsertionOrder++
+    indexJob(job)
+  }
 
-        if (jobCandidate.queuePriority == existingJobInQueue.queuePriority && jobCandidate.createTime >= existingJobInQueue.createTime) {
-          return
-        }
-      }
-    }
+  /**
+   * Removes a job from all of the in-memory indexes. If it was the most eligible job in its queue, the next job in that queue takes its place.
+   */
+  private fun removeMinimalJob(job: MinimalJobSpec) {
+    minimalJobs.remove(job.id)
+    unindexJob(job)
+    insertionOrder.remove(job.id)
+  }
 
-    // At this point, we know that the job candidate has a higher global priority, higher queue priority, or their priorities are the same but with an older creation time.
-    // That means we know it's now the most eligible job in its queue.
+  /**
+   * Replaces a job in the in-memory indexes with an updated version of the job. The job keeps its original insertion order.
+   */
+  private fun replaceMinimalJob(current: MinimalJobSpec, updated: MinimalJobSpec) {
+    unindexJob(current)
+    minimalJobs[updated.id] = updated
+    indexJob(updated)
+  }
 
-    jobCandidate.queueKey?.let { queueKey ->
-      eligibleJobs.removeIf { it.id == existingJobInQueue?.id }
-      mostEligibleJobForQueue[queueKey] = jobCandidate
+  private fun indexJob(job: MinimalJobSpec) {
+    if (job.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) {
+      migrationJobs += job
+      return
     }
 
-    // At this point, anything queue-related has been handled. We just need to insert this job in the correct spot in the list.
-    // Thankfully, we're using a TreeSet, so sorting is automatic.
+    val queueKey = job.queueKey
+    if (queueKey == null) {
+      eligibleJobs += job
+      return
+    }
 
-    eligibleJobs += jobCandidate
+    val queue = jobsByQueue.getOrPut(queueKey) { TreeSet(queueComparator) }
+    val previousHead: MinimalJobSpec? = queue.firstOrNull()
+
+    queue += job
+
+    // Only the most eligible job in each queue belongs in the eligible list
+    if (queue.first() === job) {
+      if (previousHead != null) {
+        removeFromEligibleList(previousHead)
+      }
+      eligibleJobs += job
+    }
   }
 
   /**
-   * Replaces a job in the eligible list with an updated version of the job.
+   * Must be called while the job's entry in [insertionOrder] is still present, since the queue comparator relies on it.
    */
-  private fun replaceJobInEligibleList(current: MinimalJobSpec?, updated: MinimalJobSpec?) {
-    if (current == null || updated == null) {
+  private fun unindexJob(job: MinimalJobSpec) {
+    if (job.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) {
+      migrationJobs.removeIf { it.id == job.id }
+      return
+    }
+
+    val queueKey = job.queueKey
+    if (queueKey == null) {
+      removeFromEligibleList(job)
       return
     }
 
-    if (updated.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) {
-      migrationJobs.removeIf { it.id == current.id }
-      migrationJobs += updated
+    val queue = jobsByQueue[queueKey] ?: return
+    val wasHead = queue.firstOrNull() === job
+    queue.remove(job)
+
+    if (wasHead) {
+      removeFromEligibleList(job)
+      queue.firstOrNull()?.let { eligibleJobs += it }
+    }
+
+    if (queue.isEmpty()) {
+      jobsByQueue.remove(queueKey)
+    }
+  }
+
+  private fun removeFromEligibleList(job: MinimalJobSpec) {
+    if (!eligibleJobs.remove(job)) {
+      waitingJobs.remove(job)
+    }
+  }
+
+  /**
+   * Moves any jobs in [waitingJobs] whose time has come back into [eligibleJobs]. If the clock has gone backwards, everything is moved back, since
+   * [hasEligibleRunTime] treats jobs from the "future" as eligible.
+   */
+  private fun promoteWaitingJobs(currentTime: Long) {
+    if (currentTime < lastEligibilityCheckTime) {
+      eligibleJobs += waitingJobs
+      waitingJobs.clear()
     } else {
-      eligibleJobs.removeIf { current.id == it.id }
-      current.queueKey?.let { queueKey ->
-        if (mostEligibleJobForQueue[queueKey] == current) {
-          mostEligibleJobForQueue.remove(queueKey)
-        }
+      while (waitingJobs.isNotEmpty() && waitingJobs.first().runnableTime() <= currentTime) {
+        eligibleJobs += waitingJobs.pollFirst()!!
       }
-      placeJobInEligibleList(updated)
     }
+
+    lastEligibilityCheckTime = currentTime
   }
 
   /**
@@ -548,6 +598,38 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     }
   }
 
+  /**
+   * Sorts jobs within a single queue, such that the first job is the most eligible: highest global priority, then highest queue priority, then oldest
+   * creation time. Remaining ties go to whichever job was inserted first.
+   */
+  private val queueComparator: Comparator<MinimalJobSpec> = Comparator { o1, o2 ->
+    when {
+      o1.globalPriority > o2.globalPriority -> -1
+      o1.globalPriority < o2.globalPriority -> 1
+      o1.queuePriority > o2.queuePriority -> -1
+      o1.queuePriority < o2.queuePriority -> 1
+      o1.createTime < o2.createTime -> -1
+      o1.createTime > o2.createTime -> 1
+      else -> compareValues(insertionOrder[o1.id], insertionOrder[o2.id]).takeIf { it != 0 } ?: o1.id.compareTo(o2.id)
+    }
+  }
+
+  /**
+   * Sorts jobs by the time at which they'll become runnable. Consistent with equals, like [EligibleMinJobComparator].
+   */
+  private object WaitingMinJobComparator : Comparator<MinimalJobSpec> {
+    override fun compare(o1: MinimalJobSpec, o2: MinimalJobSpec): Int {
+      val time1 = o1.runnableTime()
+      val time2 = o2.runnableTime()
+
+      return when {
+        time1 < time2 -> -1
+        time1 > time2 -> 1
+        else -> EligibleMinJobComparator.compare(o1, o2)
+      }
+    }
+  }
+
   /**
    * Identical to [EligibleMinJobComparator], but for full jobs.
    */
@@ -587,3 +669,10 @@ fun JobSpec.toMinimalJobSpec(): MinimalJobSpec {
     initialDelay = this.initialDelay
   )
 }
+
+/**
+ * The earliest time at which a job will have an eligible run time, assuming the clock doesn't go backwards.
+ */
+private fun MinimalJobSpec.runnableTime(): Long {
+  return maxOf(this.createTime + this.initialDelay, this.lastRunAttemptTime + this.nextBackoffInterval) + 1
+}
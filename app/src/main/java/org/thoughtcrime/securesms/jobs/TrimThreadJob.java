@@ -40,9 +40,12 @@ public class TrimThreadJob extends BaseJob {
 
   private final long threadId;
 
+  /**
+   * Enqueues a trim once the current transaction (if any) commits, so a rolled back message doesn't leave one behind.
+   */
   public static void enqueueAsync(long threadId) {
     if (SignalStore.settings().getKeepMessagesDuration() != KeepMessagesDuration.FOREVER || SignalStore.settings().isTrimByLengthEnabled()) {
-      SignalExecutors.BOUNDED.execute(() -> AppDependencies.getJobManager().add(new TrimThreadJob(threadId)));
+      SignalDatabase.runPostSuccessfulTransaction(() -> SignalExecutors.BOUNDED.execute(() -> AppDependencies.getJobManager().add(new TrimThreadJob(threadId))));
     }
   }
 
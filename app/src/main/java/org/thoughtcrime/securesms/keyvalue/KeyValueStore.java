@@ -25,6 +25,10 @@ import java.util.concurrent.ExecutorService;
  * Writes are enqueued on a separate executor, but writes are finished up in
  * {@link SignalUncaughtExceptionHandler}, meaning all write should finish barring a native crash
  * or the system killing us unexpectedly (i.e. a force-stop).
+ *
+ * Writes that are applied while a previous write is still waiting to be committed are merged into
+ * it (last writer wins for each key), so a burst of writes results in a handful of transactions
+ * rather than one per write.
  */
 public final class KeyValueStore implements KeyValueReader {
 
@@ -35,6 +39,14 @@ public final class KeyValueStore implements KeyValueReader {
 
   private KeyValueDataSet dataSet;
 
+  /** Writes that have been applied to {@link #dataSet}, but not yet committed to {@link #storage}. Guarded by this. */
+  private KeyValueDataSet pendingDataSet = new KeyValueDataSet();
+  private Set<String>     pendingRemoves = new HashSet<>();
+  private boolean         flushScheduled;
+
+  private long appliedWriteCount;
+  private long committedWriteCount;
+
   public KeyValueStore(@NonNull KeyValuePersistentStorage storage) {
     this.executor = SignalExecutors.newCachedSingleThreadExecutor("signal-KeyValueStore", ThreadUtil.PRIORITY_BACKGROUND_THREAD);
     this.storage  = storage;
@@ -115,9 +127,11 @@ public final class KeyValueStore implements KeyValueReader {
 
   /**
    * Ensures that any pending writes (such as those made via {@link Writer#apply()}) are finished.
+   *
+   * Must not hold the lock while waiting, since a flush queued ahead of us needs it to pick up the pending writes.
    */
   @AnyThread
-  synchronized void blockUntilAllWritesFinished() {
+  void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
     executor.execute(latch::countDown);
@@ -137,13 +151,54 @@ public final class KeyValueStore implements KeyValueReader {
     initializeIfNecessary();
   }
 
+  /**
+   * @return A summary of how many writes have been applied, and how many transactions it took to commit them. Intended for debugging.
+   */
+  @AnyThread
+  synchronized @NonNull String getWriteStats() {
+    return "Applied: " + appliedWriteCount + ", Committed: " + committedWriteCount + ", Saved: " + (appliedWriteCount - committedWriteCount);
+  }
+
   private synchronized void write(@NonNull KeyValueDataSet newDataSet, @NonNull Collection<String> removes) {
     initializeIfNecessary();
 
     dataSet.putAll(newDataSet);
     dataSet.removeAll(removes);
 
-    executor.execute(() -> storage.writeDataSet(newDataSet, removes));
+    pendingRemoves.removeAll(newDataSet.getValues().keySet());
+    pendingDataSet.putAll(newDataSet);
+
+    pendingDataSet.removeAll(removes);
+    pendingRemoves.addAll(removes);
+
+    appliedWriteCount++;
+
+    if (!flushScheduled) {
+      flushScheduled = true;
+      executor.execute(this::flushPendingWrites);
+    }
+  }
+
+  /**
+   * Commits everything that has been written since the last flush in a single transaction. Any writes that come in while this is running will be picked up
+   * by the next flush.
+   */
+  private void flushPendingWrites() {
+    KeyValueDataSet toWrite;
+    Set<String>     toRemove;
+
+    synchronized (this) {
+      toWrite  = pendingDataSet;
+      toRemove = pendingRemoves;
+
+      pendingDataSet = new KeyValueDataSet();
+      pendingRemoves = new HashSet<>();
+      flushScheduled = false;
+
+      committedWriteCount++;
+    }
+
+    storage.writeDataSet(toWrite, toRemove);
   }
 
   private void initializeIfNecessary() {
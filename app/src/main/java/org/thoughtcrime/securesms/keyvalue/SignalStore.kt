@@ -123,6 +123,13 @@ class SignalStore(context: Application, private val store: KeyValueStore) {
       instance!!.store.resetCache()
     }
 
+    /**
+     * A summary of how many writes have been made to the store, and how many transactions it took to commit them. Intended for debugging.
+     */
+    @JvmStatic
+    val writeStats: String
+      get() = instance!!.store.writeStats
+
     /**
      * Restoring a backup changes the underlying disk values, so the cache needs to be reset.
      */
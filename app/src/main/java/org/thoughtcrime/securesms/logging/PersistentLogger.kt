@@ -3,17 +3,15 @@ package org.thoughtcrime.securesms.logging
 import android.app.Application
 import android.os.Looper
 import org.signal.core.util.logging.Log
+import org.signal.core.util.logging.LogRecord
 import org.signal.core.util.logging.Scrubber
 import org.thoughtcrime.securesms.BuildConfig
 import org.thoughtcrime.securesms.database.LogDatabase
 import org.thoughtcrime.securesms.database.model.LogEntry
 import org.thoughtcrime.securesms.logging.PersistentLogger.LogRequest
 import org.thoughtcrime.securesms.logging.PersistentLogger.WriteThread
-import java.io.ByteArrayOutputStream
-import java.io.PrintStream
-import java.text.SimpleDateFormat
-import java.util.Date
-import java.util.Locale
+import java.io.PrintWriter
+import java.io.StringWriter
 
 /**
  * A logger that will persist log entries in [LogDatabase].
@@ -23,18 +21,19 @@ import java.util.Locale
  *
  * The process looks something like:
  * - Main thread creates a [LogRequest] object and puts it in a queue
- * - The [WriteThread] constantly pulls from that queue, formats the logs, and writes them to the database.
+ * - The [WriteThread] constantly pulls from that queue, encodes the logs as compact [LogRecord]s, and writes them to the database in size-bounded batches.
+ * - Logs are only formatted into human-readable lines when they're read back out of the database.
  */
 class PersistentLogger(
   application: Application
 ) : Log.Logger() {
 
   companion object {
-    private const val LOG_V = "V"
-    private const val LOG_D = "D"
-    private const val LOG_I = "I"
-    private const val LOG_W = "W"
-    private const val LOG_E = "E"
+    private const val LOG_V = 'V'
+    private const val LOG_D = 'D'
+    private const val LOG_I = 'I'
+    private const val LOG_W = 'W'
+    private const val LOG_E = 'E'
   }
 
   private val logEntries = LogRequests()
@@ -71,7 +70,7 @@ class PersistentLogger(
     logEntries.blockForFlushed()
   }
 
-  private fun write(level: String, tag: String?, message: String?, t: Throwable?, keepLonger: Boolean) {
+  private fun write(level: Char, tag: String?, message: String?, t: Throwable?, keepLonger: Boolean) {
     logEntries.add(LogRequest(level, tag ?: "null", message, System.currentTimeMillis(), getThreadString(), t, keepLonger))
   }
 
@@ -92,7 +91,7 @@ class PersistentLogger(
   }
 
   private data class LogRequest(
-    val level: String,
+    val level: Char,
     val tag: String,
     val message: String?,
     val createTime: Long,
@@ -106,54 +105,77 @@ class PersistentLogger(
     private val db: LogDatabase
   ) : Thread("signal-logger") {
 
-    private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US)
+    companion object {
+      /** Once this many bytes of records are pending, we commit them, so that a huge backlog doesn't turn into one giant transaction. */
+      private const val MAX_BATCH_BYTES = 256 * 1024
+    }
+
     private val buffer = mutableListOf<LogRequest>()
+    private val pending = mutableListOf<LogEntry>()
+    private val encoder = LogRecord.Encoder()
+    private val traceWriter = StringWriter()
+    private val tracePrinter = PrintWriter(traceWriter)
+
+    private var pendingBytes = 0
 
     override fun run() {
       while (true) {
         requests.blockForRequests(buffer)
-        db.logs.insert(buffer.flatMap { requestToEntries(it) }, System.currentTimeMillis())
+
+        for (request in buffer) {
+          addEntries(request)
+
+          if (pendingBytes >= MAX_BATCH_BYTES) {
+            commitPending()
+          }
+        }
+
+        commitPending()
         buffer.clear()
         requests.notifyFlushed()
       }
     }
 
-    fun requestToEntries(request: LogRequest): List<LogEntry> {
-      val out = mutableListOf<LogEntry>()
+    private fun commitPending() {
+      if (pending.isNotEmpty()) {
+        db.logs.insert(pending, System.currentTimeMillis())
+        pending.clear()
+        pendingBytes = 0
+      }
+    }
 
-      val createDate = Date(request.createTime)
-
-      out.add(
-        LogEntry(
-          createdAt = request.createTime,
-          keepLonger = request.keepLonger,
-          body = formatBody(request.threadString, createDate, request.level, request.tag, request.message)
-        )
-      )
+    private fun addEntries(request: LogRequest) {
+      val message: CharSequence = Scrubber.scrub(request.message ?: "")
+      addEntry(request, message, 0, message.length)
 
       if (request.throwable != null) {
-        val outputStream = ByteArrayOutputStream()
-        request.throwable.printStackTrace(PrintStream(outputStream))
-
-        val trace = String(outputStream.toByteArray())
-        val lines = trace.split("\\n".toRegex()).toTypedArray()
-
-        val entries = lines.map { line ->
-          LogEntry(
-            createdAt = request.createTime,
-            keepLonger = request.keepLonger,
-            body = formatBody(request.threadString, createDate, request.level, request.tag, line)
-          )
-        }
+        traceWriter.buffer.setLength(0)
+        request.throwable.printStackTrace(tracePrinter)
+        tracePrinter.flush()
 
-        out.addAll(entries)
-      }
+        val trace: CharSequence = Scrubber.scrub(traceWriter.buffer)
+        var lineStart = 0
 
-      return out
+        while (lineStart < trace.length) {
+          val lineEnd = trace.indexOf('\n', lineStart).let { if (it < 0) trace.length else it }
+          addEntry(request, trace, lineStart, lineEnd)
+          lineStart = lineEnd + 1
+        }
+      }
     }
 
-    fun formatBody(threadString: String, date: Date, level: String, tag: String, message: String?): String {
-      return "[${BuildConfig.VERSION_NAME}] [$threadString] ${dateFormat.format(date)} $level $tag: ${Scrubber.scrub(message ?: "")}"
+    /**
+     * Adds an entry for the range [start, end) of the message.
+     */
+    private fun addEntry(request: LogRequest, message: CharSequence, start: Int, end: Int) {
+      val record = encoder.encode(request.level, BuildConfig.VERSION_NAME, request.threadString, request.tag, message, start, end)
+
+      pending += LogEntry(
+        createdAt = request.createTime,
+        keepLonger = request.keepLonger,
+        record = record
+      )
+      pendingBytes += record.size
     }
   }
 
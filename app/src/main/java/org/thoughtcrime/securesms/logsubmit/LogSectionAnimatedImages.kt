@@ -0,0 +1,34 @@
+package org.thoughtcrime.securesms.logsubmit
+
+import android.content.Context
+import org.signal.core.util.bytes
+import org.signal.glide.common.decode.FrameBitmapPool
+import org.signal.glide.common.executor.FrameScheduler
+
+/**
+ * Prints off the shared frame bitmap pool and frame scheduler stats for animated images (like APNG stickers).
+ */
+class LogSectionAnimatedImages : LogSection {
+  override fun getTitle(): String = "ANIMATED IMAGES"
+
+  override fun getContent(context: Context): CharSequence {
+    val pool = FrameBitmapPool.getInstance().stats
+    val scheduler = FrameScheduler.getInstance().stats
+    val output = StringBuilder()
+
+    output.append("Frame pool budget          : ${pool.maxBytes.bytes.toUnitString()}\n")
+    output.append("Frame pool size            : ${pool.pooledBytes.bytes.toUnitString()} in ${pool.pooledBitmaps} bitmaps\n")
+    output.append("Frame pool hits            : ${pool.hits}\n")
+    output.append("Frame pool misses          : ${pool.misses}\n")
+    output.append("Frame pool hit rate        : ${"%.1f".format(pool.hitRate * 100)}%\n")
+    output.append("Frame pool evictions       : ${pool.evictions}\n")
+    output.append("Frame pool total allocated : ${pool.allocatedBytes.bytes.toUnitString()}\n\n")
+
+    output.append("Frames rendered            : ${scheduler.rendered}\n")
+    output.append("Frames coalesced           : ${scheduler.coalesced}\n")
+    output.append("Timeline resyncs           : ${scheduler.resynced}\n")
+    output.append("Offscreen checks           : ${scheduler.offscreen}\n")
+
+    return output
+  }
+}
@@ -0,0 +1,28 @@
+package org.thoughtcrime.securesms.logsubmit
+
+import android.content.Context
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+
+/**
+ * Prints off how long database notifications have been waiting to run, and how deep the queues have gotten.
+ */
+class LogSectionDatabaseObserver : LogSection {
+  override fun getTitle(): String = "DATABASE OBSERVER"
+
+  override fun getContent(context: Context): CharSequence {
+    val observer = AppDependencies.databaseObserver
+    val output = StringBuilder()
+
+    output.append("Coalesced notifications: ${observer.coalescedCount}\n\n")
+
+    observer.dispatchStats.forEach { stats ->
+      output.append("${stats.name}\n")
+      output.append("  dispatched: ${stats.dispatched}\n")
+      output.append("  average latency: ${stats.averageLatencyMs} ms\n")
+      output.append("  max latency: ${stats.maxLatencyMs} ms\n")
+      output.append("  queue depth: ${stats.queueDepth} (max ${stats.maxQueueDepth})\n")
+    }
+
+    return output
+  }
+}
@@ -6,6 +6,8 @@ import org.signal.core.util.MemoryTracker
 import org.signal.core.util.bytes
 import org.signal.core.util.kibiBytes
 import org.signal.core.util.roundedString
+import org.thoughtcrime.securesms.conversation.v2.data.MessageExtrasCache
+import org.thoughtcrime.securesms.dependencies.AppDependencies
 
 class LogSectionMemory : LogSection {
   override fun getTitle(): String = "MEMORY"
@@ -43,6 +45,24 @@ class LogSectionMemory : LogSection {
       """.trimIndent()
     }
 
+    val recipientCacheStats = AppDependencies.recipientCache.stats
+
+    base += "\n\n"
+    base += """
+      -- Recipient Cache
+      Size     : ${recipientCacheStats.size}
+      Hits     : ${recipientCacheStats.hits}
+      Misses   : ${recipientCacheStats.misses}
+      Evictions: ${recipientCacheStats.evictions}
+      Hit Rate : ${(recipientCacheStats.hitRate * 100).roundedString(2)}%
+    """.trimIndent()
+
+    base += "\n\n"
+    base += "-- Message Extras Cache (hits / misses / hit rate)"
+    MessageExtrasCache.hitRates.forEach { (table, hitRate) ->
+      base += "\n${table.padEnd(11)}: ${hitRate.hitCount} / ${hitRate.missCount} / ${(hitRate.rate * 100).roundedString(2)}%"
+    }
+
     return base
   }
 
@@ -0,0 +1,53 @@
+package org.thoughtcrime.securesms.logsubmit
+
+import android.content.Context
+import org.thoughtcrime.securesms.database.QueryProfiler
+import java.util.Locale
+
+/**
+ * Prints off the database statements we've spent the most time on since the app started, along with how long threads have waited to begin
+ * transactions.
+ */
+class LogSectionQueryProfiler : LogSection {
+
+  companion object {
+    private const val MAX_STATEMENTS = 50
+  }
+
+  override fun getTitle(): String = "QUERY PROFILER"
+
+  override fun getContent(context: Context): CharSequence {
+    if (!QueryProfiler.enabled) {
+      return "Disabled"
+    }
+
+    val output = StringBuilder()
+
+    output.append(format(QueryProfiler.getTransactionLockStats())).append("\n")
+
+    val statements = QueryProfiler.getStatementStats()
+    output.append("Slowest ${minOf(MAX_STATEMENTS, statements.size)} of ${statements.size} statement shapes, by total time:\n\n")
+
+    statements.take(MAX_STATEMENTS).forEach { stats ->
+      output.append(format(stats)).append("\n")
+    }
+
+    return output
+  }
+
+  private fun format(stats: QueryProfiler.Stats): String {
+    return String.format(
+      Locale.US,
+      "%s\n  count: %d (main thread: %d)\n  total: %.1f ms\n  p50: %.2f ms, p90: %.2f ms, p99: %.2f ms, max: %.2f ms\n  rows: %d\n",
+      stats.name,
+      stats.count,
+      stats.mainThreadCount,
+      stats.totalMs,
+      stats.p50Ms,
+      stats.p90Ms,
+      stats.p99Ms,
+      stats.maxMs,
+      stats.rows
+    )
+  }
+}
@@ -85,6 +85,9 @@ public class SubmitDebugLogRepository {
     add(new LogSectionNotifications());
     add(new LogSectionNotificationProfiles());
     add(new LogSectionExoPlayerPool());
+    add(new LogSectionAnimatedImages());
+    add(new LogSectionDatabaseObserver());
+    add(new LogSectionQueryProfiler());
     add(new LogSectionKeyPreferences());
     add(new LogSectionStories());
     add(new LogSectionBadges());
@@ -94,8 +94,10 @@ object EditMessageProcessor {
     }
 
     if (insertResult != null) {
-      SignalExecutors.BOUNDED.execute {
-        AppDependencies.jobManager.add(SendDeliveryReceiptJob(senderRecipient.id, message.timestamp!!, MessageId(insertResult.messageId)))
+      SignalDatabase.runPostSuccessfulTransaction {
+        SignalExecutors.BOUNDED.execute {
+          AppDependencies.jobManager.add(SendDeliveryReceiptJob(senderRecipient.id, message.timestamp!!, MessageId(insertResult.messageId)))
+        }
       }
 
       if (targetMessage.expireStarted > 0) {
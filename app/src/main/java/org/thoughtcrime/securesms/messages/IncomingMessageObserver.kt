@@ -15,6 +15,7 @@ import org.thoughtcrime.securesms.crypto.ReentrantSessionLock
 import org.thoughtcrime.securesms.database.SignalDatabase
 import org.thoughtcrime.securesms.dependencies.AppDependencies
 import org.thoughtcrime.securesms.groups.GroupsV2ProcessingLock
+import org.thoughtcrime.securesms.jobmanager.JobManager
 import org.thoughtcrime.securesms.jobmanager.impl.BackoffUtil
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint
 import org.thoughtcrime.securesms.jobs.ForegroundServiceUtil
@@ -29,9 +30,12 @@ import org.thoughtcrime.securesms.notifications.NotificationChannels
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.util.AlarmSleepTimer
 import org.thoughtcrime.securesms.util.AppForegroundObserver
+import org.thoughtcrime.securesms.util.RemoteConfig
 import org.thoughtcrime.securesms.util.SignalLocalMetrics
 import org.thoughtcrime.securesms.util.asChain
+import org.whispersystems.signalservice.api.SignalSessionLock
 import org.whispersystems.signalservice.api.SignalWebSocket
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
 import org.whispersystems.signalservice.api.push.ServiceId
 import org.whispersystems.signalservice.api.util.SleepTimer
 import org.whispersystems.signalservice.api.util.UptimeSleepTimer
@@ -401,33 +405,24 @@ class IncomingMessageObserver(private val context: Application, private val sign
 
               val hasMore = signalWebSocket.readMessageBatch(websocketReadTimeout, 30) { batch ->
                 Log.i(TAG, "Retrieved ${batch.size} envelopes!")
-                val bufferedStore = BufferedProtocolStore.create()
+
+                val groupCommitSize = RemoteConfig.incomingMessageGroupCommitSize
 
                 val startTime = System.currentTimeMillis()
-                GroupsV2ProcessingLock.acquireGroupProcessingLock().use {
-                  ReentrantSessionLock.INSTANCE.acquire().use {
-                    batch.forEach { response ->
-                      Log.d(TAG, "Beginning database transaction...")
-                      val followUpOperations = SignalDatabase.runInTransaction { db ->
-                        val followUps: List<FollowUpOperation>? = processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp)
-                        bufferedStore.flushToDisk()
-                        followUps
-                      }
-                      Log.d(TAG, "Ended database transaction.")
-
-                      if (followUpOperations != null) {
-                        Log.d(TAG, "Running ${followUpOperations.size} follow-up operations...")
-                        val jobs = followUpOperations.mapNotNull { it.run() }
-                        AppDependencies.jobManager.addAllChains(jobs)
-                      }
-
-                      signalWebSocket.sendAck(response)
+                val commits = GroupsV2ProcessingLock.acquireGroupProcessingLock().use {
+                  acquireBatchSessionLock().use {
+                    if (groupCommitSize > 1) {
+                      processBatchWithGroupCommits(batch, groupCommitSize)
+                    } else {
+                      val bufferedStore = BufferedProtocolStore.create()
+                      batch.forEach { response -> processWithSingleCommit(bufferedStore, response) }
+                      batch.size
                     }
                   }
                 }
                 val duration = System.currentTimeMillis() - startTime
                 val timePerMessage: Float = duration / batch.size.toFloat()
-                Log.d(TAG, "Decrypted ${batch.size} envelopes in $duration ms (~${round(timePerMessage * 100) / 100} ms per message)")
+                Log.d(TAG, "Decrypted ${batch.size} envelopes in $duration ms (~${round(timePerMessage * 100) / 100} ms per message) using $commits commits")
               }
               attempts = 0
               SignalLocalMetrics.PushWebsocketFetch.onProcessedBatch()
@@ -467,11 +462,155 @@ class IncomingMessageObserver(private val context: Application, private val sign
       Log.w(TAG, "Terminated! (${this.hashCode()})")
     }
 
+    /**
+     * Processes a single envelope in its own transaction, then runs its follow-up operations and acks it.
+     */
+    private fun processWithSingleCommit(bufferedStore: BufferedProtocolStore, response: EnvelopeResponse) {
+      Log.d(TAG, "Beginning database transaction...")
+      val followUpOperations = withCommitSessionLock(bufferedStore) { store ->
+        SignalDatabase.runInTransaction { db ->
+          val followUps: List<FollowUpOperation>? = processEnvelope(store, response.envelope, response.serverDeliveredTimestamp)
+          store.flushToDisk()
+          followUps
+        }
+      }
+      Log.d(TAG, "Ended database transaction.")
+
+      runFollowUpOperations(followUpOperations)
+      signalWebSocket.sendAck(response)
+    }
+
+    /**
+     * Processes the batch in groups of up to [groupSize] envelopes, where each group shares a single transaction and a single
+     * [BufferedProtocolStore] flush. Acks are only sent after the group has been committed. Thread updates are deferred until the end of the
+     * group (see [org.thoughtcrime.securesms.database.ThreadTable.withDeferredUpdates]), so a busy thread is only recomputed once per group.
+     *
+     * A group is ended early as soon as an envelope produces follow-up operations, so that any jobs it defers are enqueued before
+     * later envelopes check their queues. Jobs that envelopes enqueue directly are held back until the group commits (see
+     * [org.thoughtcrime.securesms.jobmanager.JobManager.deferEnqueues]). If a group fails to commit, everything it did is rolled back, its
+     * held back jobs are dropped, and it is re-run one envelope per transaction, which preserves the original failure semantics.
+     *
+     * @return The number of transactions that were committed.
+     */
+    private fun processBatchWithGroupCommits(batch: List<EnvelopeResponse>, groupSize: Int): Int {
+      var commits = 0
+      var position = 0
+
+      while (position < batch.size) {
+        val end = minOf(position + groupSize, batch.size)
+        val result: GroupCommitResult? = try {
+          processGroup(BufferedProtocolStore.create(), batch, position, end)
+        } catch (e: Exception) {
+          Log.w(TAG, "Failed to process envelopes [$position, $end) as a group. Falling back to individual commits.", e)
+          null
+        }
+
+        if (result != null) {
+          result.deferredJobs.enqueue()
+          runFollowUpOperations(result.followUpOperations)
+          for (i in position until position + result.processedCount) {
+            signalWebSocket.sendAck(batch[i])
+          }
+          position += result.processedCount
+          commits++
+        } else {
+          val bufferedStore = BufferedProtocolStore.create()
+          for (i in position until end) {
+            processWithSingleCommit(bufferedStore, batch[i])
+            commits++
+          }
+          position = end
+        }
+      }
+
+      return commits
+    }
+
+    /**
+     * Processes envelopes in the range [[start], [end]) inside of a single transaction.
+     *
+     * @return The result of the group, or null if the transaction was rolled back without an exception (e.g. a nested transaction failed).
+     */
+    private fun processGroup(bufferedStore: BufferedProtocolStore, batch: List<EnvelopeResponse>, start: Int, end: Int): GroupCommitResult? {
+      var committed = false
+
+      Log.d(TAG, "Beginning group database transaction...")
+      val result = withCommitSessionLock(bufferedStore) { store ->
+        SignalDatabase.runInTransaction { db ->
+          var processedCount = 0
+          var followUps: List<FollowUpOperation>? = null
+
+          val deferredJobs = AppDependencies.jobManager.deferEnqueues {
+            SignalDatabase.threads.withDeferredUpdates {
+              for (i in start until end) {
+                val response = batch[i]
+                followUps = processEnvelope(store, response.envelope, response.serverDeliveredTimestamp)
+                processedCount++
+
+                if (!followUps.isNullOrEmpty()) {
+                  break
+                }
+              }
+            }
+          }
+
+          store.flushToDisk()
+          db.runPostSuccessfulTransaction { committed = true }
+
+          GroupCommitResult(processedCount, followUps, deferredJobs)
+        }
+      }
+      Log.d(TAG, "Ended group database transaction. Processed: ${result.processedCount}, Committed: $committed")
+
+      if (!committed && result.deferredJobs.size() > 0) {
+        Log.w(TAG, "Dropping ${result.deferredJobs.size()} jobs from a group that was rolled back.")
+      }
+
+      return if (committed) result else null
+    }
+
+    /**
+     * Normally we hold the session lock for the entire batch. With striped session locking, we instead only hold it while each commit is
+     * open (see [withCommitSessionLock]), so that sends to unrelated recipients can slip in between commits rather than waiting out the whole
+     * drain.
+     */
+    private fun acquireBatchSessionLock(): SignalSessionLock.Lock {
+      return if (ReentrantSessionLock.INSTANCE.isStripingEnabled) {
+        SignalSessionLock.Lock { }
+      } else {
+        ReentrantSessionLock.INSTANCE.acquire()
+      }
+    }
+
+    /**
+     * Runs a single commit while holding the session lock. If striped session locking is enabled, the lock may have been released since the
+     * last commit, so anything [bufferedStore] has cached could be stale. In that case we hand [block] a fresh store instead.
+     */
+    private fun <T> withCommitSessionLock(bufferedStore: BufferedProtocolStore, block: (BufferedProtocolStore) -> T): T {
+      return ReentrantSessionLock.INSTANCE.acquire().use {
+        block(if (ReentrantSessionLock.INSTANCE.isStripingEnabled) BufferedProtocolStore.create() else bufferedStore)
+      }
+    }
+
+    private fun runFollowUpOperations(followUpOperations: List<FollowUpOperation>?) {
+      if (followUpOperations != null) {
+        Log.d(TAG, "Running ${followUpOperations.size} follow-up operations...")
+        val jobs = followUpOperations.mapNotNull { it.run() }
+        AppDependencies.jobManager.addAllChains(jobs)
+      }
+    }
+
     override fun uncaughtException(t: Thread, e: Throwable) {
       Log.w(TAG, "Uncaught exception in message thread!", e)
     }
   }
 
+  private class GroupCommitResult(
+    val processedCount: Int,
+    val followUpOperations: List<FollowUpOperation>?,
+    val deferredJobs: JobManager.DeferredEnqueues
+  )
+
   class ForegroundService : Service() {
     override fun onBind(intent: Intent?): IBinder? {
       return null
@@ -1,13 +1,10 @@
 package org.thoughtcrime.securesms.notifications.v2
 
 import androidx.annotation.WorkerThread
-import org.signal.core.util.CursorUtil
 import org.signal.core.util.logging.Log
 import org.thoughtcrime.securesms.database.MessageTable
-import org.thoughtcrime.securesms.database.NoSuchMessageException
 import org.thoughtcrime.securesms.database.RecipientTable
 import org.thoughtcrime.securesms.database.SignalDatabase
-import org.thoughtcrime.securesms.database.model.MessageId
 import org.thoughtcrime.securesms.database.model.MessageRecord
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord
 import org.thoughtcrime.securesms.database.model.ReactionRecord
@@ -17,71 +14,86 @@ import org.thoughtcrime.securesms.util.isStoryReaction
 
 /**
  * Queries the message databases to determine messages that should be in notifications.
+ *
+ * The notification is rebuilt every time something about it might have changed, so rather than loading every pending message again, we scan
+ * just the ids and flags of the pending messages and only load the ones that are new or whose flags changed since the last call. Everything
+ * else needed to build the notification is then loaded for all messages at once, rather than one message at a time.
  */
 object NotificationStateProvider {
 
   private val TAG = Log.tag(NotificationStateProvider::class.java)
 
+  /**
+   * Messages loaded by previous calls, keyed by message id. Only holds messages that were still waiting to be notified on the last call, so it
+   * stays about as small as the notification itself.
+   *
+   * The recipients on a cached record are snapshots from when it was loaded, so anything shown about a recipient (like the author's name and
+   * avatar) must be looked up again on every call rather than read off of the record.
+   */
+  private val cache: MutableMap<Long, CachedMessage> = HashMap()
+
+  /** The sticky threads and notification profile the cache was built with. If either changes, everything is loaded again. */
+  private var cachedStickyThreads: Set<ConversationId> = emptySet()
+  private var cachedNotificationProfileId: Long? = null
+
   @WorkerThread
+  @Synchronized
   fun constructNotificationState(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>, notificationProfile: NotificationProfile?): NotificationState {
-    val messages: MutableList<NotificationMessage> = mutableListOf()
+    if (stickyThreads.keys != cachedStickyThreads || notificationProfile?.id != cachedNotificationProfileId) {
+      Log.d(TAG, "[constructNotificationState] Sticky threads or notification profile changed. Rebuilding.")
+      cache.clear()
+      cachedStickyThreads = stickyThreads.keys.toSet()
+      cachedNotificationProfileId = notificationProfile?.id
+    }
 
-    SignalDatabase.messages.getMessagesForNotificationState(stickyThreads.values).use { unreadMessages ->
-      if (unreadMessages.count == 0) {
-        return NotificationState.EMPTY
-      }
+    val rows: List<MessageTable.NotificationStateRow> = SignalDatabase.messages.getNotificationStateRows(stickyThreads.values)
 
-      MessageTable.mmsReaderFor(unreadMessages).use { reader ->
-        var record: MessageRecord? = reader.getNext()
-        while (record != null) {
-          val threadRecipient: Recipient? = SignalDatabase.threads.getRecipientForThreadId(record.threadId)
-          if (threadRecipient != null) {
-            val hasUnreadReactions = CursorUtil.requireInt(unreadMessages, MessageTable.REACTIONS_UNREAD) == 1
-            val conversationId = ConversationId.fromMessageRecord(record)
-
-            val parentRecord = conversationId.groupStoryId?.let {
-              try {
-                SignalDatabase.messages.getMessageRecord(it)
-              } catch (e: NoSuchMessageException) {
-                null
-              }
-            }
+    val rowIds: Set<Long> = rows.mapTo(HashSet(rows.size)) { it.id }
+    cache.keys.retainAll(rowIds)
 
-            val hasSelfRepliedToGroupStory = conversationId.groupStoryId?.let {
-              SignalDatabase.messages.hasGroupReplyOrReactionInStory(it)
-            }
+    if (rows.isEmpty()) {
+      return NotificationState.EMPTY
+    }
 
-            if (record is MmsMessageRecord) {
-              val attachments = SignalDatabase.attachments.getAttachmentsForMessage(record.id)
-              if (attachments.isNotEmpty()) {
-                record = record.withAttachments(attachments)
-              }
-            }
+    val misses: List<MessageTable.NotificationStateRow> = rows.filter { cache[it.id]?.row != it }
+    if (misses.isNotEmpty()) {
+      loadIntoCache(misses)
+    }
 
-            messages += NotificationMessage(
-              messageRecord = record,
-              reactions = if (hasUnreadReactions) SignalDatabase.reactions.getReactions(MessageId(record.id)) else emptyList(),
-              threadRecipient = threadRecipient,
-              thread = conversationId,
-              stickyThread = stickyThreads.containsKey(conversationId),
-              isUnreadMessage = CursorUtil.requireInt(unreadMessages, MessageTable.READ) == 0,
-              hasUnreadReactions = hasUnreadReactions,
-              lastReactionRead = CursorUtil.requireLong(unreadMessages, MessageTable.REACTIONS_LAST_SEEN),
-              isParentStorySentBySelf = parentRecord?.isOutgoing ?: false,
-              hasSelfRepliedToStory = hasSelfRepliedToGroupStory ?: false
-            )
-          }
-          try {
-            record = reader.getNext()
-          } catch (e: IllegalStateException) {
-            // XXX Weird SQLCipher bug that's being investigated
-            record = null
-            Log.w(TAG, "Failed to read next record!", e)
-          }
-        }
-      }
+    val cached: List<CachedMessage> = rows.mapNotNull { cache[it.id] }
+    val records: List<MessageRecord> = cached.map { it.record }
+
+    val attachments = SignalDatabase.attachments.getAttachmentsForMessages(records.filterIsInstance<MmsMessageRecord>().map { it.id })
+    val reactions = SignalDatabase.reactions.getReactionsForMessages(cached.filter { it.row.reactionsUnread }.map { it.row.id })
+    val threadRecipientIds = SignalDatabase.threads.getRecipientIdsByThreadId(records.map { it.threadId }.toSet())
+
+    val groupStoryIds: Set<Long> = cached.mapNotNull { it.conversationId.groupStoryId }.toSet()
+    val storiesSentBySelf: Set<Long> = SignalDatabase.messages.getOutgoingMessageIds(groupStoryIds)
+    val storiesWithSelfReply: Set<Long> = SignalDatabase.messages.getStoriesWithGroupReplyOrReactionFromSelf(groupStoryIds)
+
+    val messages: MutableList<NotificationMessage> = mutableListOf()
+
+    for (entry in cached) {
+      val threadRecipient: Recipient = threadRecipientIds[entry.record.threadId]?.let { Recipient.resolved(it) } ?: continue
+      val messageAttachments = attachments[entry.record.id]
+      val record = if (entry.record is MmsMessageRecord && !messageAttachments.isNullOrEmpty()) entry.record.withAttachments(messageAttachments) else entry.record
+
+      messages += NotificationMessage(
+        messageRecord = record,
+        reactions = if (entry.row.reactionsUnread) reactions[entry.record.id] ?: emptyList() else emptyList(),
+        threadRecipient = threadRecipient,
+        thread = entry.conversationId,
+        stickyThread = stickyThreads.containsKey(entry.conversationId),
+        isUnreadMessage = !entry.row.read,
+        hasUnreadReactions = entry.row.reactionsUnread,
+        lastReactionRead = entry.row.reactionsLastSeen,
+        isParentStorySentBySelf = entry.conversationId.groupStoryId?.let { it in storiesSentBySelf } ?: false,
+        hasSelfRepliedToStory = entry.conversationId.groupStoryId?.let { it in storiesWithSelfReply } ?: false
+      )
     }
 
+    Log.d(TAG, "[constructNotificationState] rows: ${rows.size}, loaded: ${misses.size}")
+
     val conversations: MutableList<NotificationConversation> = mutableListOf()
     val muteFilteredMessages: MutableList<NotificationState.FilteredMessage> = mutableListOf()
     val profileFilteredMessages: MutableList<NotificationState.FilteredMessage> = mutableListOf()
@@ -124,6 +136,46 @@ object NotificationStateProvider {
     return NotificationState(conversations, muteFilteredMessages, profileFilteredMessages)
   }
 
+  /**
+   * Clears everything loaded by previous calls, so the next call loads every message from scratch.
+   */
+  @Synchronized
+  fun clearCache() {
+    cache.clear()
+  }
+
+  /**
+   * Loads the messages for the given rows and stores them in the cache. Attachments, reactions, and anything else that can change without
+   * touching the message row itself are not cached, and are instead loaded in bulk on every call.
+   */
+  private fun loadIntoCache(rows: List<MessageTable.NotificationStateRow>) {
+    val rowsById: Map<Long, MessageTable.NotificationStateRow> = rows.associateBy { it.id }
+
+    SignalDatabase.messages.getNotificationStateMessages(rowsById.keys).use { reader ->
+      var record: MessageRecord? = reader.getNext()
+      while (record != null) {
+        val row = rowsById[record.id]
+        if (row != null) {
+          cache[record.id] = CachedMessage(row, record, ConversationId.fromMessageRecord(record))
+        }
+
+        try {
+          record = reader.getNext()
+        } catch (e: IllegalStateException) {
+          // XXX Weird SQLCipher bug that's being investigated
+          record = null
+          Log.w(TAG, "Failed to read next record!", e)
+        }
+      }
+    }
+  }
+
+  private class CachedMessage(
+    val row: MessageTable.NotificationStateRow,
+    val record: MessageRecord,
+    val conversationId: ConversationId
+  )
+
   private data class NotificationMessage(
     val messageRecord: MessageRecord,
     val reactions: List<ReactionRecord>,
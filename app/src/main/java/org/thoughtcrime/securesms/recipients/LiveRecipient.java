@@ -209,6 +209,21 @@ public final class LiveRecipient {
     this.subject.onNext(recipient);
   }
 
+  /**
+   * Sets the recipient, unless that would replace a resolved recipient with an unresolved one. The check and the set happen under the same
+   * lock as {@link #set(Recipient)}, so a resolve that finishes in between can't be overwritten.
+   *
+   * @return True if the recipient was set.
+   */
+  synchronized boolean setIfNotLessResolved(@NonNull Recipient recipient) {
+    if (this.recipient.get().isResolving() || !recipient.isResolving()) {
+      set(recipient);
+      return true;
+    }
+
+    return false;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
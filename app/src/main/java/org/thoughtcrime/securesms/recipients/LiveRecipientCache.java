@@ -9,6 +9,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import org.signal.core.util.ThreadUtil;
+import org.signal.core.util.concurrent.LongClockCache;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.RecipientTable;
@@ -18,7 +19,6 @@ import org.thoughtcrime.securesms.database.ThreadTable;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.signal.core.util.CursorUtil;
-import org.thoughtcrime.securesms.util.LRUCache;
 import org.signal.core.util.Stopwatch;
 import org.thoughtcrime.securesms.util.concurrent.FilteredExecutor;
 import org.whispersystems.signalservice.api.push.ServiceId.ACI;
@@ -26,7 +26,6 @@ import org.whispersystems.signalservice.api.push.ServiceId.ACI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -39,11 +38,11 @@ public final class LiveRecipientCache {
   private static final int THREAD_CACHE_WARM_MAX  = 500;
   private static final int CONTACT_CACHE_WARM_MAX = 50;
 
-  private final Context                         context;
-  private final RecipientTable                  recipientTable;
-  private final Map<RecipientId, LiveRecipient> recipients;
-  private final LiveRecipient                   unknown;
-  private final Executor                        resolveExecutor;
+  private final Context                       context;
+  private final RecipientTable                recipientTable;
+  private final LongClockCache<LiveRecipient> recipients;
+  private final LiveRecipient                 unknown;
+  private final Executor                      resolveExecutor;
 
   private final AtomicReference<RecipientId> localRecipientId;
   private final AtomicBoolean                warmedUp;
@@ -56,7 +55,7 @@ public final class LiveRecipientCache {
   public LiveRecipientCache(@NonNull Context context, @NonNull Executor executor) {
     this.context        = context.getApplicationContext();
     this.recipientTable = SignalDatabase.recipients();
-    this.recipients     = new LRUCache<>(CACHE_MAX);
+    this.recipients     = new LongClockCache<>(CACHE_MAX);
     this.warmedUp          = new AtomicBoolean(false);
     this.localRecipientId  = new AtomicReference<>(null);
     this.unknown           = new LiveRecipient(context, Recipient.UNKNOWN);
@@ -67,39 +66,17 @@ public final class LiveRecipientCache {
   @NonNull LiveRecipient getLive(@NonNull RecipientId id) {
     if (id.isUnknown()) return unknown;
 
-    LiveRecipient live;
-    boolean       needsResolve;
-
-    synchronized (recipients) {
-      live = recipients.get(id);
-
-      if (live == null) {
-        live = new LiveRecipient(context, RecipientCreator.forId(id));
-        recipients.put(id, live);
-        needsResolve = true;
-      } else {
-        needsResolve = false;
-      }
-    }
-
-    if (needsResolve) {
-      resolveExecutor.execute(live::resolve);
-    }
-
-    return live;
+    // The resolve is scheduled after the cache lock is released, since the executor runs it inline while we're in a transaction
+    return recipients.computeIfAbsent(id.toLong(),
+                                      unused -> new LiveRecipient(context, RecipientCreator.forId(id)),
+                                      live -> resolveExecutor.execute(live::resolve));
   }
 
   /**
    * Handles remapping cache entries when recipients are merged.
    */
   public void remap(@NonNull RecipientId oldId, @NonNull RecipientId newId) {
-    synchronized (recipients) {
-      if (recipients.containsKey(newId)) {
-        recipients.put(oldId, recipients.get(newId));
-      } else {
-        recipients.remove(oldId);
-      }
-    }
+    recipients.copy(newId.toLong(), oldId.toLong());
   }
 
   /**
@@ -111,22 +88,19 @@ public final class LiveRecipientCache {
   @AnyThread
   public void addToCache(@NonNull Collection<Recipient> newRecipients) {
     newRecipients.stream().filter(this::isValidForCache).forEach(recipient -> {
-      LiveRecipient live;
+      boolean[]     created = { false };
+      LiveRecipient live    = recipients.computeIfAbsent(recipient.getId().toLong(), unused -> {
+        created[0] = true;
+        return new LiveRecipient(context, recipient);
+      });
       boolean       needsResolve;
 
-      synchronized (recipients) {
-        live = recipients.get(recipient.getId());
-
-        if (live == null) {
-          live = new LiveRecipient(context, recipient);
-          recipients.put(recipient.getId(), live);
-          needsResolve = recipient.isResolving();
-        } else if (live.get().isResolving() || !recipient.isResolving()) {
-          live.set(recipient);
-          needsResolve = recipient.isResolving();
-        } else {
-          needsResolve = false;
-        }
+      if (created[0]) {
+        needsResolve = recipient.isResolving();
+      } else if (live.setIfNotLessResolved(recipient)) {
+        needsResolve = recipient.isResolving();
+      } else {
+        needsResolve = false;
       }
 
       if (needsResolve) {
@@ -260,9 +234,15 @@ public final class LiveRecipientCache {
 
   @AnyThread
   public void clear() {
-    synchronized (recipients) {
-      recipients.clear();
-    }
+    recipients.clear();
+  }
+
+  /**
+   * @return Hit, miss, and eviction counts for the cache since process start.
+   */
+  @AnyThread
+  public @NonNull LongClockCache.Stats getStats() {
+    return recipients.getStats();
   }
 
   private boolean isValidForCache(@NonNull Recipient recipient) {
@@ -0,0 +1,19 @@
+package org.thoughtcrime.securesms.search
+
+import org.thoughtcrime.securesms.recipients.RecipientId
+
+/**
+ * A message that matched a search, without its body or snippet. Hits are cheap to find and hold in large numbers, and are turned into a
+ * [MessageResult] via [SearchRepository.loadMessageResults] only once they're about to be displayed.
+ *
+ * @param result The fully-loaded result, if it was already available when the hit was found (e.g. when matched via a mention).
+ */
+data class MessageSearchHit(
+  val conversationRecipientId: RecipientId,
+  val messageRecipientId: RecipientId,
+  val threadId: Long,
+  val messageId: Long,
+  val receivedTimestampMs: Long,
+  val isMms: Boolean,
+  val result: MessageResult? = null
+)
@@ -1,3 +1,6 @@
 package org.thoughtcrime.securesms.search
 
-data class MessageSearchResult(val results: List<MessageResult>, val query: String)
+/**
+ * @param isSuperseded True if a newer search canceled this one before it finished, in which case [results] is empty and shouldn't be cached.
+ */
+data class MessageSearchResult(val results: List<MessageSearchHit>, val query: String, val isSuperseded: Boolean = false)
@@ -2,6 +2,8 @@ package org.thoughtcrime.securesms.search;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
@@ -42,6 +44,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -50,6 +53,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.thoughtcrime.securesms.database.SearchTable.SNIPPET_WRAP;
 
@@ -60,6 +64,8 @@ public class SearchRepository {
 
   private static final String TAG = Log.tag(SearchRepository.class);
 
+  private static final int MAX_MESSAGE_HITS = 500;
+
   private final Context           context;
   private final String            noteToSelfTitle;
   private final SearchTable       searchDatabase;
@@ -71,6 +77,9 @@ public class SearchRepository {
 
   private final Executor serialExecutor;
 
+  private final AtomicReference<CancellationSignal> activeMessageQuery      = new AtomicReference<>();
+  private final AtomicReference<CancellationSignal> activeConversationQuery = new AtomicReference<>();
+
   public SearchRepository(@NonNull String noteToSelfTitle) {
     this.context           = AppDependencies.getApplication().getApplicationContext();
     this.noteToSelfTitle   = noteToSelfTitle;
@@ -93,36 +102,146 @@ public class SearchRepository {
     return new ThreadSearchResult(result, query);
   }
 
+  /**
+   * Finds the messages matching the query, most relevant first. Matches are returned as {@link MessageSearchHit}s, which don't include a body or
+   * snippet. Use {@link #loadMessageResults(String, List)} to load the hits that are actually going to be displayed.
+   *
+   * Starting a new message search cancels any that are still running, since the user has moved on to a different query. A superseded search
+   * returns an empty result that is marked as {@link MessageSearchResult#isSuperseded()}.
+   */
   @WorkerThread
   public @NonNull MessageSearchResult queryMessagesSync(@NonNull String query) {
-    long start = System.currentTimeMillis();
+    long               start  = System.currentTimeMillis();
+    CancellationSignal signal = supersede(activeMessageQuery);
+
+    try {
+      List<MessageSearchHit> messages = queryMessageHits(query, signal);
+
+      signal.throwIfCanceled();
 
-    List<MessageResult> messages        = queryMessages(query);
-    List<MessageResult> mentionMessages = queryMentions(convertMentionsQueryToTokens(query));
-    List<MessageResult> combined        = mergeMessagesAndMentions(messages, mentionMessages);
+      List<MessageResult>    mentionMessages = queryMentions(convertMentionsQueryToTokens(query));
+      List<MessageSearchHit> combined        = mergeHitsAndMentions(messages, mentionMessages);
 
-    Log.d(TAG, "[messages] Search took " + (System.currentTimeMillis() - start) + " ms");
+      Log.d(TAG, "[messages] Search took " + (System.currentTimeMillis() - start) + " ms");
 
-    return new MessageSearchResult(combined, query);
+      return new MessageSearchResult(combined, query, false);
+    } catch (OperationCanceledException e) {
+      Log.d(TAG, "[messages] Search was superseded after " + (System.currentTimeMillis() - start) + " ms");
+      return new MessageSearchResult(Collections.emptyList(), query, true);
+    } finally {
+      activeMessageQuery.compareAndSet(signal, null);
+    }
   }
 
+  /**
+   * Loads the body and snippet for each of the provided hits, returning results in the same order. Generating snippets is the most expensive part of a
+   * search, so this should only be called with the hits that are about to be displayed.
+   */
+  @WorkerThread
+  public @NonNull List<MessageResult> loadMessageResults(@NonNull String query, @NonNull List<MessageSearchHit> hits) {
+    Map<Long, MessageSearchHit> unloadedHits = new HashMap<>();
+    for (MessageSearchHit hit : hits) {
+      if (hit.getResult() == null) {
+        unloadedHits.put(hit.getMessageId(), hit);
+      }
+    }
+
+    Map<Long, MessageResult> loadedResults = new HashMap<>(unloadedHits.size());
+
+    if (!unloadedHits.isEmpty()) {
+      List<MessageResult> results = new ArrayList<>(unloadedHits.size());
+
+      try (Cursor cursor = searchDatabase.queryMessageSnippets(query, unloadedHits.keySet())) {
+        while (cursor != null && cursor.moveToNext()) {
+          MessageSearchHit hit         = Objects.requireNonNull(unloadedHits.get(CursorUtil.requireLong(cursor, SearchTable.MESSAGE_ID)));
+          String           body        = CursorUtil.requireString(cursor, SearchTable.BODY);
+          String           bodySnippet = CursorUtil.requireString(cursor, SearchTable.SNIPPET);
+
+          results.add(toMessageResult(hit, body != null ? body : "", bodySnippet != null ? bodySnippet : ""));
+        }
+      }
+
+      for (MessageResult result : applyMentionsAndStyles(results)) {
+        loadedResults.put(result.getMessageId(), result);
+      }
+    }
+
+    List<MessageResult> ordered = new ArrayList<>(hits.size());
+    for (MessageSearchHit hit : hits) {
+      if (hit.getResult() != null) {
+        ordered.add(hit.getResult());
+      } else if (loadedResults.containsKey(hit.getMessageId())) {
+        ordered.add(loadedResults.get(hit.getMessageId()));
+      } else {
+        // The message was deleted or edited after the search ran. Keep a placeholder so the positions of the other results don't shift.
+        ordered.add(toMessageResult(hit, "", ""));
+      }
+    }
+
+    return ordered;
+  }
+
+  /**
+   * Searches within a single conversation. Results are delivered in chronological order. Starting a new query cancels any previous one that is
+   * still queued or running.
+   *
+   * @param callback Invoked with the results, unless a newer query supersedes this one first. A superseded query's callback is dropped without
+   *                 being invoked, since its results would be replaced right away anyway. Callers should not wait on it.
+   */
   public void query(@NonNull String query, long threadId, @NonNull Callback<List<MessageResult>> callback) {
     if (TextUtils.isEmpty(query)) {
+      CancellationSignal previous = activeConversationQuery.getAndSet(null);
+      if (previous != null) {
+        previous.cancel();
+      }
+
       callback.onResult(Collections.emptyList());
       return;
     }
 
+    CancellationSignal signal = supersede(activeConversationQuery);
+
     serialExecutor.execute(() -> {
-      long                startTime       = System.currentTimeMillis();
-      List<MessageResult> messages        = queryMessages(query, threadId);
-      List<MessageResult> mentionMessages = queryMentions(convertMentionsQueryToTokens(query), threadId);
+      if (signal.isCanceled()) {
+        return;
+      }
+
+      long startTime = System.currentTimeMillis();
+
+      try {
+        List<MessageResult> messages = queryMessages(query, threadId, signal);
 
-      Log.d(TAG, "[ConversationQuery] " + (System.currentTimeMillis() - startTime) + " ms");
+        signal.throwIfCanceled();
 
-      callback.onResult(mergeMessagesAndMentions(messages, mentionMessages));
+        List<MessageResult> mentionMessages = queryMentions(convertMentionsQueryToTokens(query), threadId);
+
+        Log.d(TAG, "[ConversationQuery] " + (System.currentTimeMillis() - startTime) + " ms");
+
+        if (!signal.isCanceled()) {
+          callback.onResult(mergeMessagesAndMentions(messages, mentionMessages));
+        }
+      } catch (OperationCanceledException e) {
+        Log.d(TAG, "[ConversationQuery] Superseded after " + (System.currentTimeMillis() - startTime) + " ms");
+      } finally {
+        activeConversationQuery.compareAndSet(signal, null);
+      }
     });
   }
 
+  /**
+   * Registers a new query as the active one, canceling whichever query it replaced.
+   */
+  private static @NonNull CancellationSignal supersede(@NonNull AtomicReference<CancellationSignal> activeQuery) {
+    CancellationSignal signal   = new CancellationSignal();
+    CancellationSignal previous = activeQuery.getAndSet(signal);
+
+    if (previous != null) {
+      previous.cancel();
+    }
+
+    return signal;
+  }
+
   private @NonNull List<ThreadRecord> queryConversations(@NonNull String query, boolean unreadOnly) {
     if (Util.isEmpty(query)) {
       return Collections.emptyList();
@@ -164,16 +283,31 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query) {
+  private @NonNull List<MessageSearchHit> queryMessageHits(@NonNull String query, @NonNull CancellationSignal signal) {
     if (Util.isEmpty(query)) {
       return Collections.emptyList();
     }
 
-    List<MessageResult> results;
-    try (Cursor cursor = searchDatabase.queryMessages(query)) {
-      results = readToList(cursor, new MessageModelBuilder());
+    try (Cursor cursor = searchDatabase.queryRankedMessages(query, MAX_MESSAGE_HITS, signal)) {
+      return readToList(cursor, new MessageHitModelBuilder());
     }
+  }
+
+  private static @NonNull MessageResult toMessageResult(@NonNull MessageSearchHit hit, @NonNull CharSequence body, @NonNull CharSequence bodySnippet) {
+    return new MessageResult(Recipient.live(hit.getConversationRecipientId()).get(),
+                             Recipient.live(hit.getMessageRecipientId()).get(),
+                             body,
+                             bodySnippet,
+                             hit.getThreadId(),
+                             hit.getMessageId(),
+                             hit.getReceivedTimestampMs(),
+                             hit.isMms());
+  }
 
+  /**
+   * Replaces mentions in the body and snippet of each result with display names, and applies any text styling.
+   */
+  private @NonNull List<MessageResult> applyMentionsAndStyles(@NonNull List<MessageResult> results) {
     List<Long> messageIds = new LinkedList<>();
     for (MessageResult result : results) {
       if (result.isMms()) {
@@ -293,8 +427,8 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query, long threadId) {
-    try (Cursor cursor = searchDatabase.queryMessages(query, threadId)) {
+  private @NonNull List<MessageResult> queryMessages(@NonNull String query, long threadId, @NonNull CancellationSignal signal) {
+    try (Cursor cursor = searchDatabase.queryMessages(query, threadId, signal)) {
       return readToList(cursor, new MessageModelBuilder());
     }
   }
@@ -436,6 +570,43 @@ public class SearchRepository {
     return combined;
   }
 
+  /**
+   * Mention matches have already been fully loaded, so they're carried along with their hit. They're placed after the full-text matches, most recent
+   * first, since they have no relevance score of their own.
+   */
+  private static @NonNull List<MessageSearchHit> mergeHitsAndMentions(@NonNull List<MessageSearchHit> hits, @NonNull List<MessageResult> mentionMessages) {
+    Set<Long> includedMmsMessages = new HashSet<>();
+
+    List<MessageSearchHit> combined = new ArrayList<>(hits.size() + mentionMessages.size());
+    for (MessageSearchHit hit : hits) {
+      combined.add(hit);
+      if (hit.isMms()) {
+        includedMmsMessages.add(hit.getMessageId());
+      }
+    }
+
+    List<MessageResult> mentionOnly = new ArrayList<>(mentionMessages.size());
+    for (MessageResult result : mentionMessages) {
+      if (!includedMmsMessages.contains(result.getMessageId())) {
+        mentionOnly.add(result);
+      }
+    }
+
+    Collections.sort(mentionOnly, Collections.reverseOrder((left, right) -> Long.compare(left.getReceivedTimestampMs(), right.getReceivedTimestampMs())));
+
+    for (MessageResult result : mentionOnly) {
+      combined.add(new MessageSearchHit(result.getConversationRecipient().getId(),
+                                        result.getMessageRecipient().getId(),
+                                        result.getThreadId(),
+                                        result.getMessageId(),
+                                        result.getReceivedTimestampMs(),
+                                        result.isMms(),
+                                        result));
+    }
+
+    return combined;
+  }
+
   private static class RecipientModelBuilder implements ModelBuilder<Recipient> {
 
     @Override
@@ -486,6 +657,21 @@ public class SearchRepository {
     }
   }
 
+  private static class MessageHitModelBuilder implements ModelBuilder<MessageSearchHit> {
+
+    @Override
+    public MessageSearchHit build(@NonNull Cursor cursor) {
+      RecipientId conversationRecipientId = RecipientId.from(CursorUtil.requireLong(cursor, SearchTable.CONVERSATION_RECIPIENT));
+      RecipientId messageRecipientId      = RecipientId.from(CursorUtil.requireLong(cursor, SearchTable.MESSAGE_RECIPIENT));
+      long        receivedMs              = CursorUtil.requireLong(cursor, MessageTable.DATE_RECEIVED);
+      long        threadId                = CursorUtil.requireLong(cursor, MessageTable.THREAD_ID);
+      long        messageId               = CursorUtil.requireLong(cursor, SearchTable.MESSAGE_ID);
+      boolean     isMms                   = CursorUtil.requireInt(cursor, SearchTable.IS_MMS) == 1;
+
+      return new MessageSearchHit(conversationRecipientId, messageRecipientId, threadId, messageId, receivedMs, isMms, null);
+    }
+  }
+
   public interface Callback<E> {
     void onResult(@NonNull E result);
   }
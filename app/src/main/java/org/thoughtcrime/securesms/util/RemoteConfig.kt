@@ -1067,6 +1067,17 @@ object RemoteConfig {
     hotSwappable = true
   )
 
+  /**
+   * The maximum number of websocket envelopes that will be processed inside of a single database transaction.
+   * A value of 1 (or less) means every envelope gets its own transaction.
+   */
+  @JvmStatic
+  val incomingMessageGroupCommitSize: Int by remoteInt(
+    key = "android.messageProcessor.groupCommitSize",
+    defaultValue = 1,
+    hotSwappable = true
+  )
+
   /** Which phase we're in for the SVR3 migration  */
   val svr3MigrationPhase: Int by remoteInt(
     key = "global.svr3.phase",
@@ -1127,5 +1138,57 @@ object RemoteConfig {
     hotSwappable = true
   )
 
+  /** Whether or not operations on a single address should only lock that address's sessions, rather than locking globally. */
+  @JvmStatic
+  @get:JvmName("stripedSessionLock")
+  val stripedSessionLock: Boolean by remoteBoolean(
+    key = "android.stripedSessionLock",
+    defaultValue = false,
+    hotSwappable = false
+  )
+
+  /** Whether or not sends to many individual recipients should encrypt for several of them at once. Only helps with [stripedSessionLock]. */
+  @JvmStatic
+  @get:JvmName("parallelSendEncryption")
+  val parallelSendEncryption: Boolean by remoteBoolean(
+    key = "android.parallelSendEncryption",
+    defaultValue = false,
+    hotSwappable = false
+  )
+
+  /** Whether or not database observers should be split across several executors, with notifications coalesced over a short window. */
+  @JvmStatic
+  @get:JvmName("shardedDatabaseObserver")
+  val shardedDatabaseObserver: Boolean by remoteBoolean(
+    key = "android.shardedDatabaseObserver",
+    defaultValue = false,
+    hotSwappable = false
+  )
+
+  /** Whether or not to export message backups using a separate writer thread and a pool for converting messages. */
+  val backupPipelinedExport: Boolean by remoteBoolean(
+    key = "android.backupPipelinedExport",
+    defaultValue = false,
+    hotSwappable = true
+  )
+
+  /** Whether or not local backup restores should defer indexes and triggers until the end and write attachments in the background. */
+  @JvmStatic
+  @get:JvmName("fastBackupRestore")
+  val fastBackupRestore: Boolean by remoteBoolean(
+    key = "android.fastBackupRestore",
+    defaultValue = false,
+    hotSwappable = true
+  )
+
+  /** Whether or not to keep latency histograms for every database statement, for the debug log. */
+  @JvmStatic
+  @get:JvmName("queryProfiler")
+  val queryProfiler: Boolean by remoteBoolean(
+    key = "android.queryProfiler",
+    defaultValue = false,
+    hotSwappable = false
+  )
+
   // endregion
 }
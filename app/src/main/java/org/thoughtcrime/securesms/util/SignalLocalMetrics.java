@@ -232,6 +232,25 @@ public final class SignalLocalMetrics {
     }
   }
 
+  /**
+   * Time spent loading the extra data (reactions, attachments, etc) for a page of conversation messages. Wall time is how long the page load was blocked,
+   * while CPU time is the sum of the time spent on each query, which run in parallel.
+   */
+  public static final class MessageExtrasFetch {
+    public static final String NAME = "message-extras-fetch";
+
+    private static final String SPLIT_WALL_TIME = "wall-time";
+    private static final String SPLIT_CPU_TIME  = "cpu-time";
+
+    public static void onFetched(long wallTimeNanos, long cpuTimeNanos) {
+      String id = NAME + System.nanoTime();
+      LocalMetrics.getInstance().start(id, NAME, TimeUnit.MICROSECONDS);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_WALL_TIME, wallTimeNanos, TimeUnit.NANOSECONDS);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_CPU_TIME, cpuTimeNanos, TimeUnit.NANOSECONDS);
+      LocalMetrics.getInstance().end(id);
+    }
+  }
+
   public static final class FcmServiceStartFailure {
     public static final String NAME = "fcm-service-start-failure";
 
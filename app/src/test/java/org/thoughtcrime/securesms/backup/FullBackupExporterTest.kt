@@ -1,7 +1,11 @@
 package org.thoughtcrime.securesms.backup
 
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
 import org.junit.Test
+import kotlin.time.Duration.Companion.days
+import kotlin.time.Duration.Companion.hours
 
 class FullBackupExporterTest {
 
@@ -138,4 +142,66 @@ class FullBackupExporterTest {
 
     assertEquals(listOf("A", "B", "C", "D", "E"), order)
   }
+
+  @Test
+  fun `NonExpiringMessages - excludes messages expiring within a day`() {
+    val messages = FullBackupExporter.NonExpiringMessages(NOW).apply {
+      add(1, 0, 0, 0)
+      add(2, NOW, 1.hours.inWholeMilliseconds, 0)
+      add(3, NOW, 7.days.inWholeMilliseconds, 0)
+      add(4, 0, 1.hours.inWholeMilliseconds, 0)
+    }
+
+    assertTrue(messages.contains(1))
+    assertFalse(messages.contains(2))
+    assertTrue(messages.contains(3))
+    assertTrue(messages.contains(4))
+  }
+
+  @Test
+  fun `NonExpiringMessages - excludes messages that do not exist`() {
+    val messages = FullBackupExporter.NonExpiringMessages(NOW).apply {
+      add(1, 0, 0, 0)
+      add(Long.MAX_VALUE, 0, 0, 0)
+    }
+
+    assertFalse(messages.contains(-1))
+    assertFalse(messages.contains(2))
+    assertTrue(messages.contains(Long.MAX_VALUE))
+    assertFalse(messages.contains(Long.MAX_VALUE - 1))
+  }
+
+  @Test
+  fun `NonExpiringMessages - revisions follow their latest revision`() {
+    val messages = FullBackupExporter.NonExpiringMessages(NOW).apply {
+      add(1, 0, 0, 3)
+      add(2, 0, 0, 3)
+      add(3, NOW, 1.hours.inWholeMilliseconds, 0)
+      add(4, NOW, 1.hours.inWholeMilliseconds, 5)
+      add(5, 0, 0, 0)
+      add(6, 0, 0, 7)
+    }
+
+    assertFalse(messages.contains(1))
+    assertFalse(messages.contains(2))
+    assertFalse(messages.contains(3))
+    assertTrue(messages.contains(4))
+    assertTrue(messages.contains(5))
+    assertFalse(messages.contains(6))
+  }
+
+  @Test
+  fun `NonExpiringMessages - revision cycles are excluded`() {
+    val messages = FullBackupExporter.NonExpiringMessages(NOW).apply {
+      add(1, 0, 0, 2)
+      add(2, 0, 0, 1)
+    }
+
+    assertFalse(messages.contains(1))
+    assertFalse(messages.contains(2))
+  }
+
+  companion object {
+    private const val NOW = 1_700_000_000_000L
+  }
 }
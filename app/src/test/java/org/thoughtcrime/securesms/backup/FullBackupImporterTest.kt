@@ -1,6 +1,8 @@
 package org.thoughtcrime.securesms.backup
 
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
 import org.junit.Test
 
 class FullBackupImporterTest {
@@ -159,4 +161,26 @@ class FullBackupImporterTest {
 
     assertEquals(listOf("A", "B", "C", "D"), order)
   }
+
+  @Test
+  fun `isIndexOrTrigger - matches deferrable schema statements only`() {
+    assertTrue(FullBackupImporter.isIndexOrTrigger("CREATE INDEX message_thread_index ON message (thread_id)"))
+    assertTrue(FullBackupImporter.isIndexOrTrigger("create unique index if not exists a ON b (c)"))
+    assertTrue(FullBackupImporter.isIndexOrTrigger("CREATE TRIGGER message_ai AFTER INSERT ON message BEGIN SELECT 1; END"))
+    assertTrue(FullBackupImporter.isIndexOrTrigger("  CREATE\n  INDEX a ON b (c)"))
+
+    assertFalse(FullBackupImporter.isIndexOrTrigger("CREATE TABLE index_info (_id INTEGER PRIMARY KEY)"))
+    assertFalse(FullBackupImporter.isIndexOrTrigger("CREATE VIRTUAL TABLE message_fts USING fts5(body)"))
+    assertFalse(FullBackupImporter.isIndexOrTrigger("CREATE VIEW v AS SELECT 1"))
+    assertFalse(FullBackupImporter.isIndexOrTrigger("INSERT INTO message VALUES (?,?)"))
+  }
+
+  @Test
+  fun `isInsert - matches row inserts`() {
+    assertTrue(FullBackupImporter.isInsert("INSERT INTO message VALUES (?,?)"))
+    assertTrue(FullBackupImporter.isInsert("insert into message VALUES (?,?)"))
+
+    assertFalse(FullBackupImporter.isInsert("CREATE TABLE insert_log (_id INTEGER PRIMARY KEY)"))
+    assertFalse(FullBackupImporter.isInsert("INSERT OR REPLACE INTO message VALUES (?,?)"))
+  }
 }
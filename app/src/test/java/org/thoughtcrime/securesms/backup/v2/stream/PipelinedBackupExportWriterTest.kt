@@ -0,0 +1,74 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import org.thoughtcrime.securesms.backup.v2.proto.AccountData
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+
+class PipelinedBackupExportWriterTest {
+
+  @Test
+  fun `output is identical to writing directly`() {
+    val direct = ByteArrayOutputStream()
+    PlainTextBackupWriter(direct).use { writeFrames(it) }
+
+    val pipelined = ByteArrayOutputStream()
+    PipelinedBackupExportWriter(PlainTextBackupWriter(pipelined), queueSize = 8).use { writeFrames(it) }
+
+    assertArrayEquals(direct.toByteArray(), pipelined.toByteArray())
+  }
+
+  @Test
+  fun `closes the delegate`() {
+    var closed = false
+    val outputStream = object : ByteArrayOutputStream() {
+      override fun close() {
+        closed = true
+      }
+    }
+
+    PipelinedBackupExportWriter(PlainTextBackupWriter(outputStream)).use { writeFrames(it) }
+
+    assertTrue(closed)
+  }
+
+  @Test
+  fun `errors from the writer thread are rethrown to the caller`() {
+    var closed = false
+    val outputStream = object : OutputStream() {
+      override fun write(b: Int) = throw IOException("Disk full")
+      override fun close() {
+        closed = true
+      }
+    }
+
+    try {
+      PipelinedBackupExportWriter(PlainTextBackupWriter(outputStream), queueSize = 2).use { writeFrames(it) }
+      fail("Expected an exception!")
+    } catch (e: IOException) {
+      assertEquals("Disk full", e.message)
+    }
+
+    assertTrue(closed)
+  }
+
+  private fun writeFrames(writer: BackupExportWriter) {
+    writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+
+    for (i in 0 until 10_000) {
+      writer.write(Frame(account = AccountData(username = "username-$i")))
+    }
+  }
+}
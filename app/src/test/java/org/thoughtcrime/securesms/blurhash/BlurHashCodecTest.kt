@@ -0,0 +1,277 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.blurhash
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.util.concurrent.Executors
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToLong
+import kotlin.random.Random
+
+/**
+ * The codec sums in a different order than the reference implementation, so it's only expected to match to within rounding:
+ * - decoded channels within [DECODE_TOLERANCE]
+ * - encoded factors within [FACTOR_TOLERANCE], and quantized exactly the same
+ */
+class BlurHashCodecTest {
+
+  companion object {
+    private const val DECODE_TOLERANCE = 1
+    private const val FACTOR_TOLERANCE = 1e-9
+  }
+
+  @Test
+  fun `linearTosRGBFast matches linearTosRGB`() {
+    val random = Random(1234)
+
+    repeat(1_000_000) {
+      val value = random.nextDouble(-0.1, 1.1)
+      assertEquals("Mismatch for $value", BlurHashUtil.linearTosRGB(value).toInt(), BlurHashUtil.linearTosRGBFast(value))
+    }
+  }
+
+  @Test
+  fun `encode computes the same factors as the reference implementation`() {
+    val random = Random(1234)
+
+    repeat(100) {
+      val width = random.nextInt(8, 128)
+      val height = random.nextInt(8, 128)
+      val pixels = randomImage(random, width, height)
+      val componentX = random.nextInt(1, 10)
+      val componentY = random.nextInt(1, 10)
+
+      val expected = Reference.factors(pixels, width, height, componentX, componentY)
+      val actual = BlurHashCodec.computeFactors(pixels, width, height, componentX, componentY)
+
+      assertArrayEquals(expected, actual, FACTOR_TOLERANCE)
+    }
+  }
+
+  @Test
+  fun `encode quantizes factors the same as the reference implementation`() {
+    val random = Random(1234)
+
+    repeat(100) {
+      val width = random.nextInt(8, 128)
+      val height = random.nextInt(8, 128)
+      val componentX = random.nextInt(1, 10)
+      val componentY = random.nextInt(1, 10)
+      val factors = Reference.factors(randomImage(random, width, height), width, height, componentX, componentY)
+
+      assertEquals(Reference.encode(factors, componentX, componentY), BlurHashCodec.encodeFactors(factors, componentX, componentY))
+    }
+  }
+
+  @Test
+  fun `decode matches reference implementation to within rounding`() {
+    val random = Random(1234)
+
+    repeat(100) {
+      val hash = randomHash(random)
+      val width = random.nextInt(1, 64)
+      val height = random.nextInt(1, 64)
+
+      assertChannelsWithin(Reference.decode(hash, width, height), BlurHashCodec.decode(hash, width, height, 1.0, null)!!, DECODE_TOLERANCE)
+    }
+  }
+
+  @Test
+  fun `parallel decode matches sequential decode`() {
+    val random = Random(1234)
+    val executor = Executors.newFixedThreadPool(4)
+
+    try {
+      repeat(20) {
+        val hash = randomHash(random)
+        assertArrayEquals(BlurHashCodec.decode(hash, 256, 256, 1.0, null), BlurHashCodec.decode(hash, 256, 256, 1.0, executor))
+      }
+    } finally {
+      executor.shutdown()
+    }
+  }
+
+  @Test
+  fun `decode returns null for invalid hashes`() {
+    assertNull(BlurHashCodec.decode(null, 20, 20, 1.0, null))
+    assertNull(BlurHashCodec.decode("LEHV6", 20, 20, 1.0, null))
+    assertNull(BlurHashCodec.decode("LEHV6nWB2yk8pyo0adR*.7kCMdnjx", 20, 20, 1.0, null))
+  }
+
+  /**
+   * Compares the codec against the reference implementation it replaced, at the sizes we actually use: 20px placeholders for decoding, and
+   * 16x-subsampled camera photos for encoding.
+   */
+  @Ignore("Benchmark. Run manually.")
+  @Test
+  fun benchmark() {
+    val random = Random(1234)
+    val hash = randomHash(random)
+    val image = randomImage(random, 250, 190)
+
+    repeat(3) {
+      val referenceDecodeUs = timeNanos(10_000) { Reference.decode(hash, 20, 20) } / 1000.0
+      val codecDecodeUs = timeNanos(10_000) { BlurHashCodec.decode(hash, 20, 20, 1.0, null) } / 1000.0
+      val referenceEncodeMs = timeNanos(20) { Reference.encode(Reference.factors(image, 250, 190, 4, 3), 4, 3) } / 1_000_000.0
+      val codecEncodeMs = timeNanos(20) { BlurHashCodec.encode(image, 250, 190, 4, 3) } / 1_000_000.0
+
+      println("[BlurHashCodecTest] decode 20x20: reference $referenceDecodeUs us, codec $codecDecodeUs us. encode 250x190: reference $referenceEncodeMs ms, codec $codecEncodeMs ms")
+    }
+  }
+
+  private fun assertChannelsWithin(expected: IntArray, actual: IntArray, tolerance: Int) {
+    assertEquals(expected.size, actual.size)
+
+    for (i in expected.indices) {
+      for (shift in intArrayOf(24, 16, 8, 0)) {
+        val difference = abs(((expected[i] shr shift) and 0xff) - ((actual[i] shr shift) and 0xff))
+        assertTrue("Pixel $i differs by $difference in channel at bit $shift", difference <= tolerance)
+      }
+    }
+  }
+
+  private fun timeNanos(iterations: Int, block: () -> Unit): Long {
+    val start = System.nanoTime()
+    repeat(iterations) { block() }
+    return (System.nanoTime() - start) / iterations
+  }
+
+  private fun randomImage(random: Random, width: Int, height: Int): IntArray {
+    val red = random.nextInt(256)
+    val green = random.nextInt(256)
+    val blue = random.nextInt(256)
+
+    return IntArray(width * height) { i ->
+      val x = i % width
+      val y = i / width
+      val r = (red + x * 3 + random.nextInt(20)) and 0xff
+      val g = (green + y * 2 + random.nextInt(20)) and 0xff
+      val b = (blue + x + y + random.nextInt(20)) and 0xff
+      (0xff shl 24) or (r shl 16) or (g shl 8) or b
+    }
+  }
+
+  private fun randomHash(random: Random): String {
+    val width = random.nextInt(8, 64)
+    val height = random.nextInt(8, 64)
+    return BlurHashCodec.encode(randomImage(random, width, height), width, height, random.nextInt(1, 10), random.nextInt(1, 10))
+  }
+
+  /**
+   * The straightforward implementation from the original sources, computing the cosine basis and color space conversions for every pixel.
+   */
+  private object Reference {
+
+    fun decode(blurHash: String, width: Int, height: Int): IntArray {
+      val numCompEnc = Base83.decode(blurHash, 0, 1)
+      val numCompX = (numCompEnc % 9) + 1
+      val numCompY = (numCompEnc / 9) + 1
+      val maxAc = (Base83.decode(blurHash, 1, 2) + 1) / 166f
+
+      val colors = Array(numCompX * numCompY) { i ->
+        if (i == 0) {
+          val colorEnc = Base83.decode(blurHash, 2, 6)
+          doubleArrayOf(BlurHashUtil.sRGBToLinear((colorEnc shr 16).toLong()), BlurHashUtil.sRGBToLinear(((colorEnc shr 8) and 255).toLong()), BlurHashUtil.sRGBToLinear((colorEnc and 255).toLong()))
+        } else {
+          val value = Base83.decode(blurHash, 4 + i * 2, 6 + i * 2)
+          doubleArrayOf(
+            BlurHashUtil.signPow((((value / (19 * 19)) - 9) / 9.0f).toDouble(), 2.0) * maxAc,
+            BlurHashUtil.signPow(((((value / 19) % 19) - 9) / 9.0f).toDouble(), 2.0) * maxAc,
+            BlurHashUtil.signPow((((value % 19) - 9) / 9.0f).toDouble(), 2.0) * maxAc
+          )
+        }
+      }
+
+      return IntArray(width * height) { index ->
+        val x = index % width
+        val y = index / width
+        var r = 0.0
+        var g = 0.0
+        var b = 0.0
+
+        for (j in 0 until numCompY) {
+          for (i in 0 until numCompX) {
+            val basis = cos(PI * x * i / width) * cos(PI * y * j / height)
+            val color = colors[j * numCompX + i]
+            r += color[0] * basis
+            g += color[1] * basis
+            b += color[2] * basis
+          }
+        }
+
+        (0xff shl 24) or (BlurHashUtil.linearTosRGB(r).toInt() shl 16) or (BlurHashUtil.linearTosRGB(g).toInt() shl 8) or BlurHashUtil.linearTosRGB(b).toInt()
+      }
+    }
+
+    /**
+     * @return The factors in the same layout as [BlurHashCodec.computeFactors]: r, g, b for each component.
+     */
+    fun factors(pixels: IntArray, width: Int, height: Int, componentX: Int, componentY: Int): DoubleArray {
+      val factors = Array(componentX * componentY) { DoubleArray(3) }
+
+      for (j in 0 until componentY) {
+        for (i in 0 until componentX) {
+          val normalisation = if (i == 0 && j == 0) 1.0 else 2.0
+          var r = 0.0
+          var g = 0.0
+          var b = 0.0
+
+          for (x in 0 until width) {
+            for (y in 0 until height) {
+              val basis = normalisation * cos((PI * i * x) / width) * cos((PI * j * y) / height)
+              val pixel = pixels[y * width + x]
+              r += basis * BlurHashUtil.sRGBToLinear(((pixel shr 16) and 0xff).toLong())
+              g += basis * BlurHashUtil.sRGBToLinear(((pixel shr 8) and 0xff).toLong())
+              b += basis * BlurHashUtil.sRGBToLinear((pixel and 0xff).toLong())
+            }
+          }
+
+          val scale = 1.0 / (width * height)
+          factors[j * componentX + i] = doubleArrayOf(r * scale, g * scale, b * scale)
+        }
+      }
+
+      return factors.flatMap { it.asList() }.toDoubleArray()
+    }
+
+    fun encode(flatFactors: DoubleArray, componentX: Int, componentY: Int): String {
+      val factors = Array(componentX * componentY) { flatFactors.copyOfRange(it * 3, it * 3 + 3) }
+      val hash = CharArray(1 + 1 + 4 + 2 * (factors.size - 1))
+      Base83.encode((componentX - 1 + (componentY - 1) * 9).toLong(), 1, hash, 0)
+
+      val maximumValue: Double
+      if (factors.size > 1) {
+        val actualMaximumValue = (1 until factors.size).maxOf { factors[it].max() }
+        val quantisedMaximumValue = floor(max(0.0, min(82.0, floor(actualMaximumValue * 166 - 0.5))))
+        maximumValue = (quantisedMaximumValue + 1) / 166
+        Base83.encode(quantisedMaximumValue.roundToLong(), 1, hash, 1)
+      } else {
+        maximumValue = 1.0
+        Base83.encode(0, 1, hash, 1)
+      }
+
+      val dc = factors[0]
+      Base83.encode((BlurHashUtil.linearTosRGB(dc[0]) shl 16) + (BlurHashUtil.linearTosRGB(dc[1]) shl 8) + BlurHashUtil.linearTosRGB(dc[2]), 4, hash, 2)
+
+      for (i in 1 until factors.size) {
+        val quantised = factors[i].map { floor(max(0.0, min(18.0, floor(BlurHashUtil.signPow(it / maximumValue, 0.5) * 9 + 9.5)))) }
+        Base83.encode((quantised[0] * 19 * 19 + quantised[1] * 19 + quantised[2]).roundToLong(), 2, hash, 6 + 2 * (i - 1))
+      }
+
+      return String(hash)
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package org.thoughtcrime.securesms.components.emoji.parsing
+
+import android.app.Application
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.emoji.EmojiSource
+import org.thoughtcrime.securesms.testutil.MockAppDependenciesRule
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class EmojiParserTest {
+
+  @get:Rule
+  val appDependencies = MockAppDependenciesRule()
+
+  private lateinit var emojiTree: EmojiTree
+  private lateinit var emoji: List<String>
+
+  @Before
+  fun setUp() {
+    val source = EmojiSource.loadAssetBasedEmojis()
+
+    emojiTree = source.emojiTree
+    emoji = source.variationsToCanonical.keys.toList()
+  }
+
+  @Test
+  fun `findCandidates matches the legacy parser`() {
+    val random = Random(1234)
+
+    repeat(2_000) {
+      val text = randomText(random, random.nextInt(0, 40))
+
+      val expected = legacyFindCandidates(text)
+      val actual = EmojiParser(emojiTree).findCandidates(text)
+
+      assertEquals(text, expected.allEmojis, actual.allEmojis)
+      assertEquals(text, expected.size(), actual.size())
+
+      expected.list.zip(actual.list).forEach { (e, a) ->
+        assertEquals(text, e.startIndex, a.startIndex)
+        assertEquals(text, e.endIndex, a.endIndex)
+        assertSame(text, e.drawInfo, a.drawInfo)
+      }
+    }
+  }
+
+  @Test
+  fun `findCandidates includes a trailing skin tone`() {
+    val candidates = EmojiParser(emojiTree).findCandidates("hi 👋🏽!")
+
+    assertEquals(1, candidates.size())
+    assertEquals(3, candidates.list[0].startIndex)
+    assertEquals(7, candidates.list[0].endIndex)
+  }
+
+  /**
+   * Compares the legacy parser, which re-walks the tree from the root for every possible end position, against the single pass parser, on long
+   * emoji-heavy messages.
+   */
+  @Ignore("Benchmark. Run manually.")
+  @Test
+  fun benchmark() {
+    val texts = (0 until 200).map { randomText(Random(it), 2_000) }
+    val parser = EmojiParser(emojiTree)
+
+    repeat(10) {
+      val legacyStart = System.nanoTime()
+      texts.forEach { legacyFindCandidates(it) }
+      val legacyNs = System.nanoTime() - legacyStart
+
+      val start = System.nanoTime()
+      texts.forEach { parser.findCandidates(it) }
+      val ns = System.nanoTime() - start
+
+      println("[EmojiParserTest] per message: legacy ${legacyNs / texts.size / 1000} us, single pass ${ns / texts.size / 1000} us")
+    }
+  }
+
+  /**
+   * A mix of emoji (with and without their variation selector, sometimes followed by a skin tone), text, and spaces.
+   */
+  private fun randomText(random: Random, tokens: Int): String {
+    val builder = StringBuilder()
+
+    repeat(tokens) {
+      when (random.nextInt(6)) {
+        0 -> builder.append(' ')
+        1 -> builder.append(('a' + random.nextInt(26)))
+        2 -> builder.append(emoji[random.nextInt(emoji.size)].replace("\uFE0F", ""))
+        3 -> builder.append(emoji[random.nextInt(emoji.size)]).append(Fitzpatrick.values()[random.nextInt(Fitzpatrick.values().size)].unicode)
+        else -> builder.append(emoji[random.nextInt(emoji.size)])
+      }
+    }
+
+    return builder.toString()
+  }
+
+  private fun legacyFindCandidates(text: CharSequence): EmojiParser.CandidateList {
+    val results = mutableListOf<EmojiParser.Candidate>()
+    var allEmojis = text.isNotEmpty()
+
+    var i = 0
+    while (i < text.length) {
+      var emojiEnd = legacyGetEmojiEndPos(text, i)
+
+      if (emojiEnd != -1) {
+        val drawInfo = emojiTree.getEmoji(text, i, emojiEnd)
+
+        if (emojiEnd + 2 <= text.length && Fitzpatrick.fitzpatrickFromUnicode(text, emojiEnd) != null) {
+          emojiEnd += 2
+        }
+
+        results += EmojiParser.Candidate(i, emojiEnd, drawInfo)
+        i = emojiEnd
+      } else {
+        if (text[i] != ' ') {
+          allEmojis = false
+        }
+        i++
+      }
+    }
+
+    return EmojiParser.CandidateList(results, allEmojis && results.isNotEmpty())
+  }
+
+  private fun legacyGetEmojiEndPos(text: CharSequence, startPos: Int): Int {
+    var best = -1
+
+    for (j in startPos + 1..text.length) {
+      val status = emojiTree.isEmoji(text, startPos, j)
+
+      if (status.exactMatch()) {
+        best = j
+      } else if (status.impossibleMatch()) {
+        return best
+      }
+    }
+
+    return best
+  }
+}
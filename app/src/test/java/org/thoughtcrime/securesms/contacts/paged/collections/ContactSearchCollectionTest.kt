@@ -90,6 +90,25 @@ class ContactSearchCollectionTest {
     assertEquals(listOf(0, 1, 2, 3, 4, 6, 7, 8, 9), result.filterIsInstance(ContactSearchData.TestRow::class.java).map { it.value })
   }
 
+  @Test
+  fun `Given a header and an expand row, when I get every record range, then I expect the records getSublist returns`() {
+    // GIVEN
+    val section = ContactSearchConfiguration.Section.Groups(includeHeader = true, expandConfig = ContactSearchConfiguration.ExpandConfig(isExpanded = false))
+    val testSubject = ContactSearchCollection(section, FakeContactSearchIterator((0 until 10).toList()), null, { i -> ContactSearchData.TestRow(i) }, 0)
+    val size = testSubject.getSize()
+
+    for (start in 0..size) {
+      for (end in start..size) {
+        // WHEN
+        val range = testSubject.getRecordRange(start, end)
+        val sublist = testSubject.getSublist(start, end)
+
+        // THEN
+        assertEquals("[$start, $end)", sublist.filterIsInstance(ContactSearchData.TestRow::class.java).map { it.value }, range.toList())
+      }
+    }
+  }
+
   private fun createTestSubject(
     size: Int = 10,
     includeHeader: Boolean = false,
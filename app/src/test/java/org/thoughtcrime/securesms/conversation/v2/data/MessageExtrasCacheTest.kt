@@ -0,0 +1,80 @@
+package org.thoughtcrime.securesms.conversation.v2.data
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.thoughtcrime.securesms.database.model.Mention
+import org.thoughtcrime.securesms.recipients.RecipientId
+
+class MessageExtrasCacheTest {
+
+  private val mention = listOf(Mention(RecipientId.from(1), 0, 1))
+
+  @Test
+  fun `only missing ids need to be loaded`() {
+    val cache = MessageExtrasCache()
+
+    val first = cache.mentions.lookup(listOf(1L, 2L))
+    assertEquals(listOf(1L, 2L), first.missing)
+    cache.mentions.store(first, mapOf(1L to mention))
+
+    val second = cache.mentions.lookup(listOf(1L, 2L, 3L))
+    assertEquals(listOf(3L), second.missing)
+    assertEquals(mapOf(1L to mention), second.found)
+  }
+
+  @Test
+  fun `messages without data are cached too`() {
+    val cache = MessageExtrasCache()
+
+    cache.mentions.store(cache.mentions.lookup(listOf(1L)), emptyMap())
+
+    val lookup = cache.mentions.lookup(listOf(1L))
+    assertTrue(lookup.missing.isEmpty())
+    assertTrue(lookup.found.isEmpty())
+  }
+
+  @Test
+  fun `a message change only invalidates that message`() {
+    val cache = MessageExtrasCache()
+
+    cache.mentions.store(cache.mentions.lookup(listOf(1L, 2L)), mapOf(1L to mention, 2L to mention))
+    cache.onMessageChanged(1L)
+
+    assertEquals(listOf(1L), cache.mentions.lookup(listOf(1L, 2L)).missing)
+  }
+
+  @Test
+  fun `attachment changes do not invalidate other tables`() {
+    val cache = MessageExtrasCache()
+
+    cache.mentions.store(cache.mentions.lookup(listOf(1L)), mapOf(1L to mention))
+    cache.attachments.store(cache.attachments.lookup(listOf(1L)), emptyMap())
+    cache.onAttachmentsChanged()
+
+    assertTrue(cache.mentions.lookup(listOf(1L)).missing.isEmpty())
+    assertEquals(listOf(1L), cache.attachments.lookup(listOf(1L)).missing)
+  }
+
+  @Test
+  fun `results are not cached if something was invalidated while they were loading`() {
+    val cache = MessageExtrasCache()
+
+    val lookup = cache.mentions.lookup(listOf(1L, 2L))
+    cache.onMessageChanged(2L)
+    cache.mentions.store(lookup, mapOf(1L to mention, 2L to mention))
+
+    assertEquals(listOf(1L, 2L), cache.mentions.lookup(listOf(1L, 2L)).missing)
+  }
+
+  @Test
+  fun `least recently used entries are evicted`() {
+    val cache = MessageExtrasCache(maxSize = 2)
+
+    cache.mentions.store(cache.mentions.lookup(listOf(1L, 2L)), emptyMap())
+    cache.mentions.lookup(listOf(1L))
+    cache.mentions.store(cache.mentions.lookup(listOf(3L)), emptyMap())
+
+    assertEquals(listOf(2L), cache.mentions.lookup(listOf(1L, 2L, 3L)).missing)
+  }
+}
@@ -0,0 +1,130 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+
+class EmojiSearchIndexTest {
+
+  @Test
+  fun `query prefers exact matches, then prefixes, then rank`() {
+    val index = EmojiSearchIndex.build(
+      listOf(
+        EmojiSearchIndex.Entry("heart", "❤️", 1),
+        EmojiSearchIndex.Entry("broken heart", "💔", 2),
+        EmojiSearchIndex.Entry("heart eyes", "😍", 3),
+        EmojiSearchIndex.Entry("cat", "🐱", Int.MAX_VALUE)
+      )
+    )
+
+    assertEquals(listOf("❤️", "😍", "💔"), index.query("heart", 10))
+    assertEquals(listOf("❤️", "😍"), index.query("heart", 2))
+    assertEquals(listOf("😍"), index.query("eyes", 10))
+    assertEquals(listOf("🐱"), index.query("CaT", 10))
+    assertEquals(emptyList<String>(), index.query("dog", 10))
+  }
+
+  @Test
+  fun `query falls back for LIKE wildcards`() {
+    val index = EmojiSearchIndex.build(listOf(EmojiSearchIndex.Entry("heart", "❤️", 1)))
+
+    assertNull(index.query("he%t", 10))
+    assertNull(index.query("he_rt", 10))
+  }
+
+  @Test
+  fun `query matches a full scan of every label`() {
+    val random = Random(1234)
+    val entries = randomEntries(random, 5_000)
+    val index = EmojiSearchIndex.build(entries)
+
+    repeat(2_000) {
+      val query = randomQuery(random, entries)
+      val limit = random.nextInt(1, 300)
+
+      assertEquals(query, fullScan(entries, query, limit), index.query(query, limit))
+    }
+  }
+
+  /**
+   * Compares a query against the index with the same query done as a full scan of every label, which is what `LABEL LIKE '%query%'` does.
+   * There's no copy of the real label set in the repo, so this uses a synthetic one of similar size.
+   */
+  @Ignore("Benchmark. Run manually.")
+  @Test
+  fun benchmark() {
+    val random = Random(1234)
+    val entries = randomEntries(random, 30_000)
+
+    val buildStart = System.nanoTime()
+    val index = EmojiSearchIndex.build(entries)
+    println("[EmojiSearchIndexTest] build: ${(System.nanoTime() - buildStart) / 1_000_000} ms")
+
+    val queries = (0 until 1_000).map { randomQuery(random, entries) }
+
+    repeat(5) {
+      val scanStart = System.nanoTime()
+      queries.forEach { fullScan(entries, it, 20) }
+      val scanNs = System.nanoTime() - scanStart
+
+      val indexStart = System.nanoTime()
+      queries.forEach { index.query(it, 20) }
+      val indexNs = System.nanoTime() - indexStart
+
+      println("[EmojiSearchIndexTest] per query: full scan ${scanNs / queries.size / 1000} us, index ${indexNs / queries.size / 1000} us")
+    }
+  }
+
+  private fun fullScan(entries: List<EmojiSearchIndex.Entry>, query: String, limit: Int): List<String> {
+    val maxRank = entries.filter { it.rank != Int.MAX_VALUE }.maxOf { it.rank }
+
+    return entries
+      .filter { it.label.lowercase().contains(query.lowercase()) }
+      .sortedWith(compareBy<EmojiSearchIndex.Entry> { it.rank }.thenBy { it.label }.thenBy { it.emoji })
+      .take(maxOf(limit, EmojiSearchIndex.MIN_CANDIDATES))
+      .sortedWith { lhs, rhs ->
+        val result = EmojiSearchIndex.similarityScore(query, lhs.label, EmojiSearchIndex.scaledRank(lhs.rank, maxRank)) -
+          EmojiSearchIndex.similarityScore(query, rhs.label, EmojiSearchIndex.scaledRank(rhs.rank, maxRank))
+        when {
+          result < 0 -> -1
+          result > 0 -> 1
+          else -> 0
+        }
+      }
+      .distinctBy { it.emoji }
+      .take(limit)
+      .map { it.emoji }
+  }
+
+  /**
+   * Labels are one to three words from a small vocabulary, so queries match a realistic number of them. Several labels share an emoji.
+   */
+  private fun randomEntries(random: Random, count: Int): List<EmojiSearchIndex.Entry> {
+    val words = (0 until 2_000).map { randomWord(random) }
+
+    return (0 until count).map {
+      val label = (0 until random.nextInt(1, 4)).joinToString(" ") { words[random.nextInt(words.size)] }
+      val emojiId = random.nextInt(count / 8)
+      val rank = if (random.nextInt(4) == 0) Int.MAX_VALUE else emojiId + 1
+
+      EmojiSearchIndex.Entry(label, "emoji$emojiId", rank)
+    }
+  }
+
+  private fun randomWord(random: Random): String {
+    return String(CharArray(random.nextInt(2, 9)) { 'a' + random.nextInt(12) })
+  }
+
+  /**
+   * A piece of a real label, sometimes upper cased, as if it were being typed.
+   */
+  private fun randomQuery(random: Random, entries: List<EmojiSearchIndex.Entry>): String {
+    val label = entries[random.nextInt(entries.size)].label
+    val start = random.nextInt(label.length)
+    val query = label.substring(start, random.nextInt(start + 1, label.length + 1)).trim().ifEmpty { label }
+
+    return if (random.nextInt(5) == 0) query.uppercase() else query
+  }
+}
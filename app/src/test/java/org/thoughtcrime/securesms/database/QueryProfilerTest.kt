@@ -0,0 +1,60 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class QueryProfilerTest {
+
+  @After
+  fun tearDown() {
+    QueryProfiler.enabled = false
+    QueryProfiler.clear()
+  }
+
+  @Test
+  fun `statements are only recorded once enabled`() {
+    assertFalse(QueryProfiler.enabled)
+
+    QueryProfiler.onStatementComplete("query()", "message", "SELECT * FROM message WHERE _id = 1", 1_000, 1, false)
+    assertTrue(QueryProfiler.getStatementStats().isEmpty())
+
+    QueryProfiler.enabled = true
+    QueryProfiler.onStatementComplete("query()", "message", "SELECT * FROM message WHERE _id = 1", 1_000, 1, false)
+    QueryProfiler.onStatementComplete("query()", "message", "SELECT * FROM message WHERE _id = 2", 1_000, 1, false)
+
+    val stats = QueryProfiler.getStatementStats().single()
+    assertEquals("query() message SELECT * FROM message WHERE _id = ?", stats.name)
+    assertEquals(2L, stats.count)
+  }
+
+  @Test
+  fun `normalize replaces literals and collapses argument lists`() {
+    assertEquals("SELECT * FROM message WHERE _id = ?", QueryProfiler.normalize("SELECT * FROM message WHERE _id = 5"))
+    assertEquals("SELECT * FROM message WHERE _id IN (?...)", QueryProfiler.normalize("SELECT * FROM message WHERE _id IN (?, ?, ?)"))
+    assertEquals("SELECT * FROM message WHERE _id IN (?...)", QueryProfiler.normalize("SELECT * FROM message WHERE _id IN (1,2,3,4)"))
+    assertEquals("SELECT * FROM message WHERE body = ? AND type = ?", QueryProfiler.normalize("SELECT * FROM message WHERE body = 'it''s' AND type = ?1"))
+    assertEquals("SELECT * FROM message_fts5 LIMIT ?", QueryProfiler.normalize("SELECT *\n  FROM   message_fts5\n  LIMIT 100"))
+    assertEquals("UPDATE message SET read = ? WHERE _id = ? AND thread_id = ?", QueryProfiler.normalize("UPDATE message SET read = 1 WHERE _id = ? AND thread_id = 0x1F"))
+  }
+
+  @Test
+  fun `histogram reports bucketed percentiles`() {
+    val histogram = QueryProfiler.Histogram()
+
+    repeat(90) { histogram.record(3_000, 1, false) } // 3 us, in the 2-4 us bucket
+    repeat(9) { histogram.record(1_500_000, 10, true) } // 1.5 ms, in the 1024-2048 us bucket
+    histogram.record(100_000_000, 0, false) // 100 ms
+
+    val stats = histogram.snapshot("test")
+
+    assertEquals(100L, stats.count)
+    assertEquals(9L, stats.mainThreadCount)
+    assertEquals(180L, stats.rows)
+    assertEquals(0.004, stats.p50Ms, 0.0)
+    assertEquals(2.048, stats.p99Ms, 0.0)
+    assertEquals(100.0, stats.maxMs, 0.0)
+  }
+}
@@ -813,6 +813,86 @@ class FastJobStorageTest {
     assertThat(subject.getNextEligibleJob(20, NO_PREDICATE)).isEqualTo(fullSpec1.jobSpec)
   }
 
+  @Test
+  fun `getNextEligibleJob - job waiting on backoff becomes eligible once backoff passes`() {
+    val fullSpec1 = FullSpec(jobSpec(id = "1", factoryKey = "f1", queueKey = "q1", createTime = 1, lastRunAttemptTime = 5, nextBackoffInterval = 10), emptyList(), emptyList())
+    val fullSpec2 = FullSpec(jobSpec(id = "2", factoryKey = "f2", queueKey = "q2", createTime = 2), emptyList(), emptyList())
+
+    val subject = FastJobStorage(mockDatabase(listOf(fullSpec1, fullSpec2)))
+    subject.init()
+
+    assertThat(subject.getNextEligibleJob(10, NO_PREDICATE)).isEqualTo(fullSpec2.jobSpec)
+    subject.markJobAsRunning(fullSpec2.jobSpec.id, 10)
+
+    assertThat(subject.getNextEligibleJob(15, NO_PREDICATE)).isNull()
+    assertThat(subject.getNextEligibleJob(16, NO_PREDICATE)).isEqualTo(fullSpec1.jobSpec)
+  }
+
+  @Test
+  fun `getNextEligibleJob - job waiting on backoff becomes eligible if the clock goes backwards`() {
+    val fullSpec = FullSpec(jobSpec(id = "1", factoryKey = "f1", queueKey = "q1", createTime = 10, lastRunAttemptTime = 10, nextBackoffInterval = 100), emptyList(), emptyList())
+
+    val subject = FastJobStorage(mockDatabase(listOf(fullSpec)))
+    subject.init()
+
+    assertThat(subject.getNextEligibleJob(20, NO_PREDICATE)).isNull()
+    assertThat(subject.getNextEligibleJob(5, NO_PREDICATE)).isEqualTo(fullSpec.jobSpec)
+  }
+
+  @Test
+  fun `getNextEligibleJob - waiting job is replaced by newly-inserted job in the same queue`() {
+    val waitingJob = jobSpec(id = "1", factoryKey = "f1", queueKey = "q1", createTime = 1, lastRunAttemptTime = 5, nextBackoffInterval = 100)
+    val subject = FastJobStorage(mockDatabase(listOf(FullSpec(waitingJob, emptyList(), emptyList()))))
+    subject.init()
+
+    assertThat(subject.getNextEligibleJob(10, NO_PREDICATE)).isNull()
+
+    val higherPriorityJob = jobSpec(id = "2", factoryKey = "f1", queueKey = "q1", createTime = 2, globalPriority = Job.Parameters.PRIORITY_HIGH)
+    subject.insertJobs(listOf(FullSpec(higherPriorityJob, emptyList(), emptyList())))
+
+    assertThat(subject.getNextEligibleJob(10, NO_PREDICATE)).isEqualTo(higherPriorityJob)
+    subject.deleteJob(higherPriorityJob.id)
+
+    assertThat(subject.getNextEligibleJob(10, NO_PREDICATE)).isNull()
+    assertThat(subject.getNextEligibleJob(106, NO_PREDICATE)).isEqualTo(waitingJob)
+  }
+
+  @Test
+  fun `getNextEligibleJob - many jobs across many queues are run in queue order`() {
+    val queueCount = 1_000
+    val jobCount = 50_000
+
+    val jobs: List<JobSpec> = (0 until jobCount).map { i ->
+      jobSpec(
+        id = "id-$i",
+        factoryKey = "f1",
+        queueKey = "q${i % queueCount}",
+        createTime = i.toLong(),
+        lastRunAttemptTime = 0,
+        queuePriority = if (i % 7 == 0) Job.Parameters.PRIORITY_HIGH else Job.Parameters.PRIORITY_DEFAULT
+      )
+    }
+
+    val subject = FastJobStorage(mockDatabase(jobs.map { FullSpec(it, emptyList(), emptyList()) }, indexById = true))
+    subject.init()
+
+    val expectedByQueue: Map<String, MutableList<String>> = jobs
+      .groupBy { it.queueKey!! }
+      .mapValues { (_, queueJobs) -> queueJobs.sortedWith(compareByDescending<JobSpec> { it.queuePriority }.thenBy { it.createTime }).map { it.id }.toMutableList() }
+
+    var ran = 0
+
+    while (true) {
+      val next = subject.getNextEligibleJob(jobCount.toLong(), NO_PREDICATE) ?: break
+
+      assertThat(next.id).isEqualTo(expectedByQueue.getValue(next.queueKey!!).removeAt(0))
+      subject.deleteJob(next.id)
+      ran++
+    }
+
+    assertThat(ran).isEqualTo(jobCount)
+  }
+
   @Test
   fun `deleteJobs - writes to database`() {
     val database = mockDatabase(DataSet1.FULL_SPECS)
@@ -953,7 +1033,7 @@ class FastJobStorageTest {
     assertThat(subject.areQueuesEmpty(TestHelpers.setOf("q4", "q5"))).isEqualTo(true)
   }
 
-  private fun mockDatabase(fullSpecs: List<FullSpec> = emptyList()): JobDatabase {
+  private fun mockDatabase(fullSpecs: List<FullSpec> = emptyList(), indexById: Boolean = false): JobDatabase {
     val jobs = fullSpecs.map { it.jobSpec }.toMutableList()
     val constraints = fullSpecs.map { it.constraintSpecs }.flatten().toMutableList()
     val dependencies = fullSpecs.map { it.dependencySpecs }.flatten().toMutableList()
@@ -1030,13 +1110,12 @@ class FastJobStorageTest {
         }
       }
     }
-    every { mock.getMostEligibleJobInQueue(any()) } answers {
-      jobs
-        .asSequence()
-        .filter { it.queueKey == firstArg() }
-        .sortedBy { it.createTime }
-        .sortedByDescending { it.queuePriority }
-        .maxByOrNull { it.globalPriority }
+
+    if (indexById) {
+      // Large data sets are too slow to scan for every lookup
+      val jobsById: Map<String, JobSpec> = jobs.associateBy { it.id }
+      every { mock.getJobSpec(any()) } answers { jobsById.getValue(firstArg()) }
+      every { mock.deleteJobs(any()) } returns Unit
     }
 
     return mock
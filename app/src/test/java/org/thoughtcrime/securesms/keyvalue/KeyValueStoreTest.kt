@@ -0,0 +1,102 @@
+package org.thoughtcrime.securesms.keyvalue
+
+import android.app.Application
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.concurrent.CountDownLatch
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class KeyValueStoreTest {
+
+  @Test
+  fun `writes made while a commit is pending are merged into a single commit`() {
+    val storage = BlockingStorage()
+    val store = KeyValueStore(storage)
+
+    store.beginWrite().putString("first", "1").apply()
+    storage.firstWriteStarted.await()
+
+    store.beginWrite().putString("a", "1").apply()
+    store.beginWrite().putString("a", "2").apply()
+    store.beginWrite().putLong("b", 3).apply()
+
+    storage.releaseFirstWrite.countDown()
+    store.blockUntilAllWritesFinished()
+
+    assertEquals(2, storage.commits)
+    assertEquals("2", storage.persisted.getString("a", null))
+    assertEquals(3L, storage.persisted.getLong("b", 0))
+    assertEquals("1", storage.persisted.getString("first", null))
+  }
+
+  @Test
+  fun `last writer wins between puts and removes`() {
+    val storage = BlockingStorage()
+    val store = KeyValueStore(storage)
+
+    store.beginWrite().putString("first", "1").putString("removed", "x").putString("restored", "x").apply()
+    storage.firstWriteStarted.await()
+
+    store.beginWrite().remove("removed").remove("restored").apply()
+    store.beginWrite().putString("restored", "y").apply()
+
+    storage.releaseFirstWrite.countDown()
+    store.blockUntilAllWritesFinished()
+
+    assertFalse(storage.persisted.containsKey("removed"))
+    assertEquals("y", storage.persisted.getString("restored", null))
+    assertFalse(store.containsKey("removed"))
+    assertTrue(store.containsKey("restored"))
+  }
+
+  @Test
+  fun `commit returns while an applied write is still waiting to be flushed`() {
+    val storage = BlockingStorage()
+    val store = KeyValueStore(storage)
+
+    store.beginWrite().putString("first", "1").apply()
+    storage.firstWriteStarted.await()
+
+    store.beginWrite().putString("a", "1").apply()
+
+    val committer = Thread { store.beginWrite().putString("b", "2").commit() }
+    committer.start()
+
+    storage.releaseFirstWrite.countDown()
+    committer.join(5_000)
+
+    assertFalse(committer.isAlive)
+    assertEquals("1", storage.persisted.getString("a", null))
+    assertEquals("2", storage.persisted.getString("b", null))
+  }
+
+  private class BlockingStorage : KeyValuePersistentStorage {
+    val firstWriteStarted = CountDownLatch(1)
+    val releaseFirstWrite = CountDownLatch(1)
+    val persisted = KeyValueDataSet()
+
+    @Volatile
+    var commits = 0
+
+    override fun writeDataSet(dataSet: KeyValueDataSet, removes: Collection<String>) {
+      if (commits == 0) {
+        firstWriteStarted.countDown()
+        releaseFirstWrite.await()
+      }
+
+      persisted.removeAll(removes)
+      persisted.putAll(dataSet)
+      commits++
+    }
+
+    override fun getDataSet(): KeyValueDataSet {
+      return KeyValueDataSet()
+    }
+  }
+}
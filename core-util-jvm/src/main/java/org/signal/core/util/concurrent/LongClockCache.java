@@ -0,0 +1,496 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.core.util.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * A bounded, thread-safe cache keyed by primitive longs.
+ *
+ * The cache is split into a fixed number of segments, each guarded by its own {@link StampedLock}. Reads are optimistic and never block
+ * unless they race with a write to the same segment. Eviction uses the CLOCK algorithm (an approximation of LRU): every hit sets a
+ * "referenced" bit on the entry, and when a segment is full, the clock hand sweeps forward clearing bits until it finds an entry that hasn't
+ * been referenced since the last sweep.
+ *
+ * All storage is allocated up front, so neither reads nor writes allocate (aside from whatever the caller allocates for values).
+ */
+public final class LongClockCache<V> {
+
+  private static final int DEFAULT_SEGMENT_COUNT = 16;
+
+  private final Segment<V>[] segments;
+  private final int          segmentMask;
+  private final int          segmentShift;
+
+  private final LongAdder hits      = new LongAdder();
+  private final LongAdder misses    = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public LongClockCache(int maxSize) {
+    this(maxSize, DEFAULT_SEGMENT_COUNT);
+  }
+
+  /**
+   * @param maxSize      The maximum number of entries the cache will hold. Capacity is divided evenly between segments.
+   * @param segmentCount The number of independently-locked segments. Rounded up to a power of two.
+   */
+  @SuppressWarnings("unchecked")
+  public LongClockCache(int maxSize, int segmentCount) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive!");
+    }
+
+    int count      = Integer.highestOneBit(Math.max(1, Math.min(segmentCount, maxSize)) * 2 - 1);
+    int perSegment = (maxSize + count - 1) / count;
+
+    this.segments     = new Segment[count];
+    this.segmentMask  = count - 1;
+    this.segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment<>(perSegment);
+    }
+  }
+
+  /**
+   * @return The value for the key, or null if it is not present.
+   */
+  public V get(long key) {
+    int hash  = hash(key);
+    V   value = segmentFor(hash).get(key, hash);
+
+    if (value != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+
+    return value;
+  }
+
+  public boolean containsKey(long key) {
+    int hash = hash(key);
+    return segmentFor(hash).get(key, hash) != null;
+  }
+
+  /**
+   * Inserts or replaces the value for the key, possibly evicting another entry.
+   */
+  public void put(long key, V value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+
+    int hash = hash(key);
+    if (segmentFor(hash).put(key, hash, value)) {
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Returns the existing value for the key, or creates one with the provided factory and inserts it. The factory is invoked at most once per
+   * call, while holding the lock for the key's segment, so it should be cheap and must not call back into this cache.
+   */
+  public V computeIfAbsent(long key, LongFunction<V> factory) {
+    return computeIfAbsent(key, factory, null);
+  }
+
+  /**
+   * Like {@link #computeIfAbsent(long, LongFunction)}, but if this call created the value, {@code onCreated} is then invoked with it once the
+   * segment lock has been released. Unlike the factory, it's free to do expensive work or call back into this cache.
+   */
+  public V computeIfAbsent(long key, LongFunction<V> factory, Consumer<V> onCreated) {
+    int        hash    = hash(key);
+    Segment<V> segment = segmentFor(hash);
+    V          value   = segment.get(key, hash);
+
+    if (value != null) {
+      hits.increment();
+      return value;
+    }
+
+    misses.increment();
+
+    long stamp = segment.lock.writeLock();
+    try {
+      int slot = segment.find(key, hash);
+      if (slot >= 0) {
+        return segment.values[slot];
+      }
+
+      value = factory.apply(key);
+      if (segment.insert(key, hash, value)) {
+        evictions.increment();
+      }
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+
+    if (onCreated != null) {
+      onCreated.accept(value);
+    }
+
+    return value;
+  }
+
+  /**
+   * Maps {@code key} to the current value of {@code sourceKey}, or removes {@code key} if {@code sourceKey} isn't present, as a single atomic
+   * step. Nothing can insert, replace, or evict {@code sourceKey} in between.
+   */
+  public void copy(long sourceKey, long key) {
+    int        sourceHash    = hash(sourceKey);
+    int        hash          = hash(key);
+    int        sourceIndex   = segmentIndex(sourceHash);
+    int        index         = segmentIndex(hash);
+    Segment<V> sourceSegment = segments[sourceIndex];
+    Segment<V> segment       = segments[index];
+
+    // Segments are always locked in index order, so two concurrent copies can't deadlock
+    Segment<V> first  = sourceIndex <= index ? sourceSegment : segment;
+    Segment<V> second = sourceIndex <= index ? segment : sourceSegment;
+
+    long firstStamp  = first.lock.writeLock();
+    long secondStamp = first != second ? second.lock.writeLock() : 0;
+    try {
+      int slot = sourceSegment.find(sourceKey, sourceHash);
+
+      if (slot >= 0) {
+        if (segment.putLocked(key, hash, sourceSegment.values[slot])) {
+          evictions.increment();
+        }
+      } else {
+        segment.removeLocked(key, hash);
+      }
+    } finally {
+      if (first != second) {
+        second.lock.unlockWrite(secondStamp);
+      }
+      first.lock.unlockWrite(firstStamp);
+    }
+  }
+
+  public void remove(long key) {
+    int hash = hash(key);
+    segmentFor(hash).remove(key, hash);
+  }
+
+  public void clear() {
+    for (Segment<V> segment : segments) {
+      segment.clear();
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment<V> segment : segments) {
+      long stamp = segment.lock.readLock();
+      try {
+        size += segment.size;
+      } finally {
+        segment.lock.unlockRead(stamp);
+      }
+    }
+    return size;
+  }
+
+  public Stats getStats() {
+    return new Stats(hits.sum(), misses.sum(), evictions.sum(), size());
+  }
+
+  private Segment<V> segmentFor(int hash) {
+    return segments[segmentIndex(hash)];
+  }
+
+  private int segmentIndex(int hash) {
+    // Segments are chosen with the high bits of the hash, while each segment's index uses the low bits
+    return (hash >>> segmentShift) & segmentMask;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  public static final class Stats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int  size;
+
+    private Stats(long hits, long misses, long evictions, int size) {
+      this.hits      = hits;
+      this.misses    = misses;
+      this.evictions = evictions;
+      this.size      = size;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    public float getHitRate() {
+      long total = hits + misses;
+      return total == 0 ? 0 : hits / (float) total;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size + ", hitRate=" + getHitRate() + "}";
+    }
+  }
+
+  /**
+   * A fixed-capacity table of entries, plus an open-addressed (linear probing) index from key to entry slot.
+   * The index is kept at most half full so that probe sequences stay short.
+   */
+  private static final class Segment<V> {
+
+    private final StampedLock lock = new StampedLock();
+
+    private final long[] keys;
+    private final V[]    values;
+    private final byte[] referenced;
+    private final int[]  index;
+    private final int    indexMask;
+
+    private int size;
+    private int hand;
+
+    @SuppressWarnings("unchecked")
+    Segment(int capacity) {
+      this.keys       = new long[capacity];
+      this.values     = (V[]) new Object[capacity];
+      this.referenced = new byte[capacity];
+      this.index      = new int[Integer.highestOneBit(capacity * 4 - 1)];
+      this.indexMask  = index.length - 1;
+    }
+
+    V get(long key, int hash) {
+      long stamp = lock.tryOptimisticRead();
+      int  slot  = find(key, hash);
+      V    value = slot >= 0 ? values[slot] : null;
+
+      if (!lock.validate(stamp)) {
+        stamp = lock.readLock();
+        try {
+          slot  = find(key, hash);
+          value = slot >= 0 ? values[slot] : null;
+        } finally {
+          lock.unlockRead(stamp);
+        }
+      }
+
+      if (slot >= 0) {
+        // This is intentionally racy. Losing an update just makes an entry slightly more likely to be evicted.
+        referenced[slot] = 1;
+      }
+
+      return value;
+    }
+
+    /**
+     * @return True if an existing entry was evicted to make room.
+     */
+    boolean put(long key, int hash, V value) {
+      long stamp = lock.writeLock();
+      try {
+        return putLocked(key, hash, value);
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    /**
+     * Must be called with the write lock held.
+     *
+     * @return True if an existing entry was evicted to make room.
+     */
+    boolean putLocked(long key, int hash, V value) {
+      int slot = find(key, hash);
+      if (slot >= 0) {
+        values[slot]     = value;
+        referenced[slot] = 1;
+        return false;
+      }
+
+      return insert(key, hash, value);
+    }
+
+    void remove(long key, int hash) {
+      long stamp = lock.writeLock();
+      try {
+        removeLocked(key, hash);
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    /**
+     * Must be called with the write lock held.
+     */
+    void removeLocked(long key, int hash) {
+      int slot = find(key, hash);
+      if (slot < 0) {
+        return;
+      }
+
+      removeFromIndex(key, hash);
+
+      int last = size - 1;
+      if (slot != last) {
+        moveSlot(last, slot);
+      }
+
+      keys[last]       = 0;
+      values[last]     = null;
+      referenced[last] = 0;
+      size--;
+
+      if (hand >= size) {
+        hand = 0;
+      }
+    }
+
+    void clear() {
+      long stamp = lock.writeLock();
+      try {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        Arrays.fill(referenced, (byte) 0);
+        Arrays.fill(index, 0);
+        size = 0;
+        hand = 0;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    /**
+     * Must be called with the write lock held, for a key that is not present.
+     *
+     * @return True if an existing entry was evicted to make room.
+     */
+    boolean insert(long key, int hash, V value) {
+      int     slot;
+      boolean evicted;
+
+      if (size < keys.length) {
+        slot    = size++;
+        evicted = false;
+      } else {
+        while (referenced[hand] != 0) {
+          referenced[hand] = 0;
+          hand = (hand + 1) % keys.length;
+        }
+
+        slot    = hand;
+        hand    = (hand + 1) % keys.length;
+        evicted = true;
+
+        removeFromIndex(keys[slot], hash(keys[slot]));
+      }
+
+      keys[slot]       = key;
+      values[slot]     = value;
+      referenced[slot] = 0;
+
+      int i = hash & indexMask;
+      while (index[i] != 0) {
+        i = (i + 1) & indexMask;
+      }
+      index[i] = slot + 1;
+
+      return evicted;
+    }
+
+    /**
+     * Safe to call without a lock, as long as the result is validated afterwards. Every array access is within bounds regardless of what
+     * a concurrent writer is doing, and the probe is bounded by the index length.
+     *
+     * @return The slot for the key, or -1 if not present.
+     */
+    int find(long key, int hash) {
+      int i = hash & indexMask;
+
+      for (int probes = 0; probes <= indexMask; probes++) {
+        int entry = index[i];
+        if (entry == 0) {
+          return -1;
+        }
+
+        int slot = entry - 1;
+        if (slot < keys.length && keys[slot] == key && slot < size) {
+          return slot;
+        }
+
+        i = (i + 1) & indexMask;
+      }
+
+      return -1;
+    }
+
+    /**
+     * Removes the index entry for the key using backward-shift deletion, so no tombstones are needed.
+     */
+    private void removeFromIndex(long key, int hash) {
+      int i = hash & indexMask;
+      while (index[i] == 0 || keys[index[i] - 1] != key) {
+        i = (i + 1) & indexMask;
+      }
+
+      int hole = i;
+      int next = (hole + 1) & indexMask;
+
+      while (index[next] != 0) {
+        int home = hash(keys[index[next] - 1]) & indexMask;
+
+        // Move the entry back into the hole if its home position is not cyclically within (hole, next]
+        boolean canMove = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+        if (canMove) {
+          index[hole] = index[next];
+          hole        = next;
+        }
+
+        next = (next + 1) & indexMask;
+      }
+
+      index[hole] = 0;
+    }
+
+    /**
+     * Moves the entry at slot {@code from} into slot {@code to}, updating its index entry.
+     */
+    private void moveSlot(int from, int to) {
+      long key = keys[from];
+      int  i   = hash(key) & indexMask;
+
+      while (index[i] != from + 1) {
+        i = (i + 1) & indexMask;
+      }
+
+      keys[to]       = key;
+      values[to]     = values[from];
+      referenced[to] = referenced[from];
+      index[i]       = to + 1;
+    }
+  }
+}
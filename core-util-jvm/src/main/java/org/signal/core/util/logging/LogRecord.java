@@ -0,0 +1,254 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.core.util.logging;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * A compact binary encoding for a single persisted log line.
+ *
+ * Formatting a log line (dates, string concatenation, etc.) is comparatively expensive, and the vast majority of persisted log lines are never read. So
+ * rather than format lines as they're written, we store the raw pieces and only format them when they're actually read back.
+ *
+ * The layout is:
+ * <pre>
+ * [format version: 1 byte] [level: 1 byte] [app version] [thread] [tag] [message]
+ * </pre>
+ * where each string is a varint of its length in UTF-16 chars, followed by the string encoded as UTF-8. The creation time is not included, since it is
+ * stored alongside the record.
+ *
+ * Neither {@link Encoder} nor {@link Formatter} are thread-safe. Each is meant to be owned by a single thread and reused.
+ */
+public final class LogRecord {
+
+  public static final byte FORMAT_VERSION = 1;
+
+  private LogRecord() {}
+
+  /**
+   * Encodes log lines into records. Aside from the returned array, encoding does not allocate.
+   */
+  public static final class Encoder {
+
+    private byte[] buffer = new byte[256];
+    private int    position;
+
+    public byte[] encode(char level, String appVersion, String thread, String tag, CharSequence message) {
+      return encode(level, appVersion, thread, tag, message, 0, message.length());
+    }
+
+    /**
+     * Encodes a record whose message is the range [messageStart, messageEnd) of the provided message. Useful for splitting up multi-line messages without
+     * creating substrings.
+     */
+    public byte[] encode(char level, String appVersion, String thread, String tag, CharSequence message, int messageStart, int messageEnd) {
+      position = 0;
+
+      ensureCapacity(2);
+      buffer[position++] = FORMAT_VERSION;
+      buffer[position++] = (byte) level;
+
+      writeString(appVersion, 0, appVersion.length());
+      writeString(thread, 0, thread.length());
+      writeString(tag, 0, tag.length());
+      writeString(message, messageStart, messageEnd);
+
+      return Arrays.copyOf(buffer, position);
+    }
+
+    private void writeString(CharSequence value, int start, int end) {
+      writeVarint(end - start);
+
+      // Worst case, every char takes three bytes. Surrogate pairs take four bytes for two chars.
+      ensureCapacity((end - start) * 3);
+
+      byte[] out = buffer;
+      int    pos = position;
+
+      for (int i = start; i < end; i++) {
+        char c = value.charAt(i);
+
+        if (c < 0x80) {
+          out[pos++] = (byte) c;
+        } else if (c < 0x800) {
+          out[pos++] = (byte) (0xC0 | (c >> 6));
+          out[pos++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(++i));
+          out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+          out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+          // Unpaired surrogates can't be represented in UTF-8. Substitute a single char so the length stays accurate.
+          out[pos++] = (byte) '?';
+        } else {
+          out[pos++] = (byte) (0xE0 | (c >> 12));
+          out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          out[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+
+      position = pos;
+    }
+
+    private void writeVarint(int value) {
+      ensureCapacity(5);
+
+      while ((value & ~0x7F) != 0) {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+
+      buffer[position++] = (byte) value;
+    }
+
+    private void ensureCapacity(int additional) {
+      if (position + additional > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additional));
+      }
+    }
+  }
+
+  /**
+   * Formats records into the same human-readable lines we've always shown in debug logs, e.g.
+   * <pre>
+   * [7.0.0] [main ] 2024-01-01 12:00:00.000 PST I MyTag: My message
+   * </pre>
+   *
+   * The date portion is cached per-second, and the builder is reused, so formatting a line only allocates the resulting string.
+   */
+  public static final class Formatter {
+
+    private final SimpleDateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+    private final SimpleDateFormat zoneFormat   = new SimpleDateFormat("zzz", Locale.US);
+    private final Date             date         = new Date();
+    private final StringBuilder    builder      = new StringBuilder(256);
+
+    private long   cachedSecond = Long.MIN_VALUE;
+    private String cachedSecondString;
+    private String cachedZoneString;
+
+    private int position;
+
+    public Formatter() {
+      this(TimeZone.getDefault());
+    }
+
+    public Formatter(TimeZone timeZone) {
+      secondFormat.setTimeZone(timeZone);
+      zoneFormat.setTimeZone(timeZone);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the record is malformed or from an unknown format version.
+     */
+    public String format(long createdAt, byte[] record) {
+      builder.setLength(0);
+      formatTo(builder, createdAt, record);
+      return builder.toString();
+    }
+
+    /**
+     * Appends the formatted line to the provided builder.
+     *
+     * @throws IllegalArgumentException If the record is malformed or from an unknown format version.
+     */
+    public void formatTo(StringBuilder out, long createdAt, byte[] record) {
+      if (record.length < 2 || record[0] != FORMAT_VERSION) {
+        throw new IllegalArgumentException("Unknown log record format!");
+      }
+
+      char level = (char) record[1];
+      position = 2;
+
+      try {
+        out.append('[');
+        readString(out, record);
+        out.append("] [");
+        readString(out, record);
+        out.append("] ");
+        appendDate(out, createdAt);
+        out.append(' ').append(level).append(' ');
+        readString(out, record);
+        out.append(": ");
+        readString(out, record);
+      } catch (ArrayIndexOutOfBoundsException e) {
+        throw new IllegalArgumentException("Truncated log record!", e);
+      }
+    }
+
+    private void appendDate(StringBuilder out, long time) {
+      long second = Math.floorDiv(time, 1000);
+      int  millis = (int) Math.floorMod(time, 1000);
+
+      if (second != cachedSecond) {
+        date.setTime(second * 1000);
+        cachedSecondString = secondFormat.format(date);
+        cachedZoneString   = zoneFormat.format(date);
+        cachedSecond       = second;
+      }
+
+      out.append(cachedSecondString).append('.');
+
+      if (millis < 100) out.append('0');
+      if (millis < 10) out.append('0');
+      out.append(millis);
+
+      out.append(' ').append(cachedZoneString);
+    }
+
+    private void readString(StringBuilder out, byte[] in) {
+      int length = readVarint(in);
+      int read   = 0;
+      int pos    = position;
+
+      while (read < length) {
+        int b = in[pos++] & 0xFF;
+
+        if (b < 0x80) {
+          out.append((char) b);
+          read++;
+        } else if (b < 0xE0) {
+          out.append((char) (((b & 0x1F) << 6) | (in[pos++] & 0x3F)));
+          read++;
+        } else if (b < 0xF0) {
+          out.append((char) (((b & 0x0F) << 12) | ((in[pos++] & 0x3F) << 6) | (in[pos++] & 0x3F)));
+          read++;
+        } else {
+          int codePoint = ((b & 0x07) << 18) | ((in[pos++] & 0x3F) << 12) | ((in[pos++] & 0x3F) << 6) | (in[pos++] & 0x3F);
+          out.append(Character.highSurrogate(codePoint)).append(Character.lowSurrogate(codePoint));
+          read += 2;
+        }
+      }
+
+      position = pos;
+    }
+
+    private int readVarint(byte[] in) {
+      int value = 0;
+      int shift = 0;
+
+      while (true) {
+        byte b = in[position++];
+        value |= (b & 0x7F) << shift;
+
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+
+        shift += 7;
+        if (shift > 28) {
+          throw new IllegalArgumentException("Malformed varint!");
+        }
+      }
+    }
+  }
+}
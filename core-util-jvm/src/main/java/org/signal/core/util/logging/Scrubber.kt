@@ -15,6 +15,11 @@ private typealias MatchProcessor = (Matcher, StringBuilder) -> Unit
 
 /**
  * Scrub data for possibly sensitive information.
+ *
+ * Each kind of sensitive data is scrubbed by its own pattern, one after another, with later patterns seeing the output of earlier ones. Most
+ * log lines don't contain anything sensitive though, so before running any pattern we walk the text once and note which patterns could possibly
+ * match it (e.g. an email needs an '@', an IPv4 address needs three '.'s). Only those patterns are run, in the usual order, and the walk is redone
+ * whenever a pattern changes the text. The output is the same as running every pattern.
  */
 object Scrubber {
   /**
@@ -77,6 +82,33 @@ object Scrubber {
 
   private val CALL_LINK_ROOM_ID_PATTERN = Pattern.compile("[0-9a-f]{61}([0-9a-f]{3})")
 
+  private const val CANDIDATE_E164 = 1 shl 0
+  private const val CANDIDATE_E164_ZERO = 1 shl 1
+  private const val CANDIDATE_EMAIL = 1 shl 2
+  private const val CANDIDATE_GROUP_ID = 1 shl 3
+  private const val CANDIDATE_UUID = 1 shl 4
+  private const val CANDIDATE_DOMAIN = 1 shl 5
+  private const val CANDIDATE_IPV4 = 1 shl 6
+  private const val CANDIDATE_IPV6 = 1 shl 7
+  private const val CANDIDATE_CALL_LINK = 1 shl 8
+  private const val CANDIDATE_CALL_LINK_ROOM_ID = 1 shl 9
+
+  /** Every pattern, in the order they're applied, along with the candidate bit that must be set for it to possibly match. */
+  private val PASSES: Array<Pass> = arrayOf(
+    Pass(CANDIDATE_E164) { it.scrubE164() },
+    Pass(CANDIDATE_E164_ZERO) { it.scrubE164Zero() },
+    Pass(CANDIDATE_EMAIL) { it.scrubEmail() },
+    Pass(CANDIDATE_GROUP_ID) { it.scrubGroupsV1() },
+    Pass(CANDIDATE_GROUP_ID) { it.scrubGroupsV2() },
+    Pass(CANDIDATE_UUID) { it.scrubPnis() },
+    Pass(CANDIDATE_UUID) { it.scrubUuids() },
+    Pass(CANDIDATE_DOMAIN) { it.scrubDomains() },
+    Pass(CANDIDATE_IPV4) { it.scrubIpv4() },
+    Pass(CANDIDATE_IPV6) { it.scrubIpv6() },
+    Pass(CANDIDATE_CALL_LINK) { it.scrubCallLinkKeys() },
+    Pass(CANDIDATE_CALL_LINK_ROOM_ID) { it.scrubCallLinkRoomIds() }
+  )
+
   @JvmStatic
   @Volatile
   var identifierHmacKeyProvider: () -> ByteArray? = { null }
@@ -87,6 +119,29 @@ object Scrubber {
 
   @JvmStatic
   fun scrub(input: CharSequence): CharSequence {
+    var candidates = findCandidates(input)
+    if (candidates == 0) {
+      return input
+    }
+
+    var output = input
+    for (pass in PASSES) {
+      if (candidates and pass.candidate != 0) {
+        val scrubbed = pass.scrub(output)
+        if (scrubbed !== output) {
+          output = scrubbed
+          candidates = findCandidates(output)
+        }
+      }
+    }
+
+    return output
+  }
+
+  /**
+   * Runs every pattern, whether or not it could match. [scrub] must always give the same output.
+   */
+  internal fun scrubWithEveryPattern(input: CharSequence): CharSequence {
     return input
       .scrubE164()
       .scrubE164Zero()
@@ -102,6 +157,73 @@ object Scrubber {
       .scrubCallLinkRoomIds()
   }
 
+  /**
+   * Walks the text once and returns a bit for each pattern that could possibly match it. A bit may be set when its pattern doesn't match, but
+   * must never be unset when it does.
+   */
+  private fun findCandidates(text: CharSequence): Int {
+    var plusOrPercent = false
+    var at = false
+    var exclamation = false
+    var dashes = 0
+    var dots = 0
+    var colons = 0
+    var digitRun = 0
+    var maxDigitRun = 0
+    var hexRun = 0
+    var maxHexRun = 0
+
+    for (i in 0 until text.length) {
+      val c = text[i]
+
+      if (c in '0'..'9') {
+        digitRun++
+        hexRun++
+        if (digitRun > maxDigitRun) maxDigitRun = digitRun
+        if (hexRun > maxHexRun) maxHexRun = hexRun
+        continue
+      }
+
+      digitRun = 0
+
+      if (c in 'a'..'f' || c in 'A'..'F') {
+        hexRun++
+        if (hexRun > maxHexRun) maxHexRun = hexRun
+        continue
+      }
+
+      hexRun = 0
+
+      when (c) {
+        '+', '%' -> plusOrPercent = true
+        '@' -> at = true
+        '!' -> exclamation = true
+        '-' -> dashes++
+        '.' -> dots++
+        ':' -> colons++
+      }
+    }
+
+    var candidates = 0
+    // +, or %2B, followed by at least 7 digits
+    if (plusOrPercent && maxDigitRun >= 7) candidates = candidates or CANDIDATE_E164
+    // 0 followed by 10 digits
+    if (maxDigitRun >= 11) candidates = candidates or CANDIDATE_E164_ZERO
+    if (at) candidates = candidates or CANDIDATE_EMAIL
+    // __textsecure_group__! and __signal_group__v2__!
+    if (exclamation) candidates = candidates or CANDIDATE_GROUP_ID
+    // 8-4-4-4-12
+    if (dashes >= 4) candidates = candidates or CANDIDATE_UUID
+    if (dots >= 1) candidates = candidates or CANDIDATE_DOMAIN
+    if (dots >= 3) candidates = candidates or CANDIDATE_IPV4
+    if (colons >= 3) candidates = candidates or CANDIDATE_IPV6
+    // 8 groups of 4, joined by -
+    if (dashes >= 7) candidates = candidates or CANDIDATE_CALL_LINK
+    if (maxHexRun >= 64) candidates = candidates or CANDIDATE_CALL_LINK_ROOM_ID
+
+    return candidates
+  }
+
   private fun CharSequence.scrubE164(): CharSequence {
     return scrub(this, E164_PATTERN) { matcher, output ->
       output
@@ -224,6 +346,8 @@ object Scrubber {
     }
   }
 
+  private class Pass(val candidate: Int, val scrub: (CharSequence) -> CharSequence)
+
   private fun hash(value: String): String {
     if (identifierHmacKey == null) {
       identifierHmacKey = identifierHmacKeyProvider()
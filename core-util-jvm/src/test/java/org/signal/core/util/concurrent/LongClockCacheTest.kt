@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.core.util.concurrent
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class LongClockCacheTest {
+
+  @Test
+  fun `get returns what was put`() {
+    val cache = LongClockCache<String>(100)
+
+    for (i in 0L until 50L) {
+      cache.put(i, "value-$i")
+    }
+
+    for (i in 0L until 50L) {
+      assertEquals("value-$i", cache.get(i))
+    }
+
+    assertNull(cache.get(50))
+    assertEquals(50, cache.size())
+  }
+
+  @Test
+  fun `put replaces existing value`() {
+    val cache = LongClockCache<String>(10)
+
+    cache.put(1, "a")
+    cache.put(1, "b")
+
+    assertEquals("b", cache.get(1))
+    assertEquals(1, cache.size())
+  }
+
+  @Test
+  fun `remove drops entry`() {
+    val cache = LongClockCache<String>(10)
+
+    cache.put(1, "a")
+    cache.put(2, "b")
+    cache.remove(1)
+
+    assertNull(cache.get(1))
+    assertEquals("b", cache.get(2))
+    assertEquals(1, cache.size())
+  }
+
+  @Test
+  fun `computeIfAbsent only invokes factory on a miss`() {
+    val cache = LongClockCache<Any>(10)
+    var calls = 0
+
+    val first = cache.computeIfAbsent(5) { calls++; Any() }
+    val second = cache.computeIfAbsent(5) { calls++; Any() }
+
+    assertSame(first, second)
+    assertEquals(1, calls)
+  }
+
+  @Test
+  fun `computeIfAbsent counts one miss per miss and only reports values it created`() {
+    val cache = LongClockCache<Any>(10)
+    val created = mutableListOf<Any>()
+
+    val first = cache.computeIfAbsent(5, { Any() }, { created += it })
+    val second = cache.computeIfAbsent(5, { Any() }, { created += it })
+
+    assertSame(first, second)
+    assertEquals(listOf(first), created)
+    assertEquals(1, cache.stats.hits)
+    assertEquals(1, cache.stats.misses)
+  }
+
+  @Test
+  fun `copy maps a key to the source value, or removes it if the source is missing`() {
+    val cache = LongClockCache<String>(100)
+
+    cache.put(1, "a")
+    cache.put(2, "b")
+
+    cache.copy(1, 2)
+    assertEquals("a", cache.get(2))
+
+    cache.copy(3, 2)
+    assertFalse(cache.containsKey(2))
+    assertEquals("a", cache.get(1))
+
+    cache.copy(1, 4)
+    assertEquals("a", cache.get(4))
+    assertEquals(2, cache.size())
+  }
+
+  @Test
+  fun `size never exceeds capacity and recently used entries survive`() {
+    val cache = LongClockCache<Long>(64, 1)
+
+    cache.put(-1, -1)
+
+    for (i in 0L until 1000L) {
+      cache.put(i, i)
+      cache.get(-1)
+    }
+
+    assertEquals(64, cache.size())
+    assertEquals(-1L, cache.get(-1))
+    assertTrue(cache.stats.evictions > 0)
+  }
+
+  @Test
+  fun `clear empties the cache`() {
+    val cache = LongClockCache<Long>(10)
+
+    cache.put(1, 1)
+    cache.clear()
+
+    assertFalse(cache.containsKey(1))
+    assertEquals(0, cache.size())
+  }
+
+  @Test
+  fun `randomized operations stay consistent`() {
+    val random = Random(1234)
+
+    repeat(50) {
+      val maxSize = random.nextInt(1, 200)
+      val cache = LongClockCache<Long>(maxSize, random.nextInt(1, 20))
+      val present = mutableSetOf<Long>()
+
+      repeat(10_000) {
+        val key = random.nextLong(maxSize * 3L)
+        when (random.nextInt(3)) {
+          0 -> {
+            cache.put(key, key * 7)
+            present += key
+          }
+          1 -> {
+            cache.remove(key)
+            present -= key
+          }
+          else -> {
+            val value = cache.get(key)
+            if (value != null) {
+              assertEquals(key * 7, value)
+            }
+          }
+        }
+      }
+
+      var found = 0
+      for (key in 0L until maxSize * 3L) {
+        if (cache.containsKey(key)) {
+          assertTrue(key in present)
+          found++
+        }
+      }
+      assertEquals(found, cache.size())
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.core.util.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+
+class LogRecordTest {
+
+  private val timeZone = TimeZone.getTimeZone("America/New_York")
+  private val encoder = LogRecord.Encoder()
+  private val formatter = LogRecord.Formatter(timeZone)
+
+  @Test
+  fun `formats the same as the legacy format`() {
+    val time = 1_700_000_000_123L
+    val record = encoder.encode('I', "7.0.0", "main ", "MyTag", "Hello world")
+
+    assertEquals("[7.0.0] [main ] ${legacyDate(time)} I MyTag: Hello world", formatter.format(time, record))
+  }
+
+  @Test
+  fun `pads milliseconds`() {
+    val record = encoder.encode('D', "1", "12   ", "T", "m")
+
+    assertEquals("[1] [12   ] ${legacyDate(1_700_000_000_007L)} D T: m", formatter.format(1_700_000_000_007L, record))
+    assertEquals("[1] [12   ] ${legacyDate(1_700_000_000_070L)} D T: m", formatter.format(1_700_000_000_070L, record))
+  }
+
+  @Test
+  fun `round trips non-ascii text`() {
+    val message = "café 中文 😀 end"
+    val record = encoder.encode('W', "7.0.0", "main ", "Tag", message)
+
+    assertEquals("[7.0.0] [main ] ${legacyDate(0)} W Tag: $message", formatter.format(0, record))
+  }
+
+  @Test
+  fun `unpaired surrogates are replaced`() {
+    val record = encoder.encode('W', "7.0.0", "main ", "Tag", "a\ud83db")
+
+    assertEquals("[7.0.0] [main ] ${legacyDate(0)} W Tag: a?b", formatter.format(0, record))
+  }
+
+  @Test
+  fun `encodes a range of the message`() {
+    val message = "line one\nline two\nline three"
+    val record = encoder.encode('E', "7.0.0", "main ", "Tag", message, 9, 17)
+
+    assertEquals("[7.0.0] [main ] ${legacyDate(0)} E Tag: line two", formatter.format(0, record))
+  }
+
+  @Test
+  fun `long strings round trip`() {
+    val message = "x".repeat(100_000)
+    val record = encoder.encode('V', "7.0.0", "main ", "Tag", message)
+
+    assertEquals("[7.0.0] [main ] ${legacyDate(0)} V Tag: $message", formatter.format(0, record))
+  }
+
+  @Test(expected = IllegalArgumentException::class)
+  fun `unknown version throws`() {
+    val record = encoder.encode('V', "7.0.0", "main ", "Tag", "message")
+    record[0] = 99
+    formatter.format(0, record)
+  }
+
+  @Test(expected = IllegalArgumentException::class)
+  fun `truncated record throws`() {
+    val record = encoder.encode('V', "7.0.0", "main ", "Tag", "message")
+    formatter.format(0, record.copyOf(record.size - 3))
+  }
+
+  private fun legacyDate(time: Long): String {
+    return SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US).apply { this.timeZone = this@LogRecordTest.timeZone }.format(Date(time))
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.core.util.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.BeforeClass
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * [Scrubber.scrub] only runs the patterns that could match, so it's checked here against running every pattern.
+ */
+class ScrubberEquivalenceTest {
+
+  companion object {
+    private val TOKENS = listOf(
+      "+", "%2B", "0", "1", "5", "9", "a", "f", "F", "c", "b", "k", "-", ".", ":", "@", "!", " ", "/",
+      "__textsecure_group__!", "__signal_group__v2__!", "JOB::", "PNI:", "com", "signal.org", "x", "Z",
+      "12345678", "0123456789", "abcdef12", "bcdf", "-bcdf", "::", "192.168.1.1", "fe80::1",
+      "e1b2c3d4-1234-5678-9abc-def012345678", "+15551234567", "08011112222", "user@example.com"
+    )
+
+    @JvmStatic
+    @BeforeClass
+    fun setup() {
+      Scrubber.identifierHmacKeyProvider = { ByteArray(32) }
+    }
+  }
+
+  @Test
+  fun `scrub matches running every pattern on random text`() {
+    val random = Random(1234)
+
+    repeat(200_000) {
+      val input = randomText(random)
+      assertEquals(input, Scrubber.scrubWithEveryPattern(input).toString(), Scrubber.scrub(input).toString())
+    }
+  }
+
+  @Test
+  fun `scrub matches running every pattern on log lines`() {
+    logCorpus(Random(1234), 20_000).forEach { line ->
+      assertEquals(line, Scrubber.scrubWithEveryPattern(line).toString(), Scrubber.scrub(line).toString())
+    }
+  }
+
+  @Ignore("Benchmark. Run manually.")
+  @Test
+  fun benchmark() {
+    val lines = logCorpus(Random(1234), 200_000)
+
+    repeat(5) {
+      val everyStart = System.nanoTime()
+      lines.forEach { Scrubber.scrubWithEveryPattern(it) }
+      val everyNs = System.nanoTime() - everyStart
+
+      val scrubStart = System.nanoTime()
+      lines.forEach { Scrubber.scrub(it) }
+      val scrubNs = System.nanoTime() - scrubStart
+
+      println("[ScrubberEquivalenceTest] per line: every pattern ${everyNs / lines.size} ns, candidates only ${scrubNs / lines.size} ns")
+    }
+  }
+
+  private fun randomText(random: Random): String {
+    val builder = StringBuilder()
+
+    repeat(random.nextInt(30)) {
+      builder.append(TOKENS[random.nextInt(TOKENS.size)])
+    }
+
+    if (random.nextInt(50) == 0) {
+      repeat(64) { builder.append("0123456789abcdef"[random.nextInt(16)]) }
+    }
+
+    return builder.toString()
+  }
+
+  /**
+   * Lines shaped like a debug log: mostly plain status messages, with a few that mention identifiers, numbers, or addresses.
+   */
+  private fun logCorpus(random: Random, count: Int): List<String> {
+    val plain = listOf(
+      "[MessageContentProcessor] Beginning message processing. Sender: RecipientId::%d",
+      "[JobManager] Job finished with result SUCCESS in %d ms. (Time Since Submission: %d ms, Lifespan: Immortal, Run Attempt: 1/Unlimited)",
+      "[IncomingMessageObserver] Reading message... (timeout: %d ms)",
+      "[ConversationFragment] onResume() visible=true threadId=%d",
+      "[SignalWebSocket] WebSocket connected. Keep alive interval: %d",
+      "[ApplicationContext] onCreate() took %d ms",
+      "[DatabaseObserver] Notifying %d observers"
+    )
+    val sensitive = listOf(
+      "[PushProcessMessageJob] Processing envelope from %s",
+      "[RecipientTable] Updating profile for %s",
+      "[WebRtcCallService] Connecting to %s",
+      "[GroupsV2StateProcessor] Updating group %s",
+      "[CallLinkTable] Inserting link %s"
+    )
+    val identifiers = listOf(
+      { "e1b2c3d4-1234-5678-9abc-def0123456%02x".format(random.nextInt(256)) },
+      { "PNI:a1b2c3d4-1234-5678-9abc-def0123456%02x".format(random.nextInt(256)) },
+      { "+1555%07d".format(random.nextInt(10_000_000)) },
+      { "user${random.nextInt(1000)}@example.com" },
+      { "10.0.${random.nextInt(256)}.${random.nextInt(256)}" },
+      { "2001:db8::${random.nextInt(0xffff).toString(16)}" },
+      { "chat.signal.org" },
+      { "__signal_group__v2__!${random.nextInt().toString(16)}abcdef" },
+      { "bcdf-ghkm-npqr-stxz-bcdf-ghkm-npqr-stxz" }
+    )
+
+    return (0 until count).map { i ->
+      val time = "%02d:%02d:%02d.%03d".format(i / 3600 % 24, i / 60 % 60, i % 60, random.nextInt(1000))
+      val message = if (random.nextInt(10) == 0) {
+        sensitive[random.nextInt(sensitive.size)].format(identifiers[random.nextInt(identifiers.size)]())
+      } else {
+        plain[random.nextInt(plain.size)].format(random.nextInt(10_000), random.nextInt(10_000))
+      }
+
+      "$time ${random.nextInt(1000, 30000)} D $message"
+    }
+  }
+}
@@ -39,7 +39,6 @@ import org.whispersystems.signalservice.internal.websocket.ResponseMapper;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.ZonedDateTime;
@@ -206,12 +205,11 @@ public class SignalServiceMessageReceiver {
                                        .orElse(0L);
 
     // There's two layers of encryption -- one from the backup, and one from the attachment. This only strips the outermost backup encryption layer.
-    try (InputStream backupDecrypted = AttachmentCipherInputStream.createForArchivedMedia(archivedMediaKeyMaterial, archiveDestination, originalCipherLength)) {
-      try (FileOutputStream fos = new FileOutputStream(attachmentDestination)) {
-        // TODO [backup] I don't think we should be doing the full copy here. This is basically doing the entire download inline in this single line.
-        StreamUtil.copy(backupDecrypted, fos);
-      }
-    }
+    // TODO [backup] I don't think we should be doing the full copy here. This is basically doing the entire download inline in this single line.
+    AttachmentCipherInputStream.copyVerifiedToFile(
+        AttachmentCipherInputStream.createStreamingForArchivedMedia(archivedMediaKeyMaterial, archiveDestination, originalCipherLength),
+        attachmentDestination
+    );
 
     byte[] iv = new byte[16];
     try (InputStream tempStream = new FileInputStream(attachmentDestination)) {
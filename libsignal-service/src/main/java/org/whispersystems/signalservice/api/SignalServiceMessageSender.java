@@ -169,6 +169,9 @@ public class SignalServiceMessageSender {
 
   private static final int RETRY_COUNT = 4;
 
+  /** Fan-outs smaller than this are encrypted on the calling thread, where handing off to another thread would cost more than it saves. */
+  private static final int PARALLEL_ENCRYPTION_MIN_RECIPIENTS = 4;
+
   private final PushServiceSocket             socket;
   private final SignalWebSocket               webSocket;
   private final SignalServiceAccountDataStore aciStore;
@@ -184,6 +187,7 @@ public class SignalServiceMessageSender {
 
   private final ExecutorService executor;
   private final Scheduler       scheduler;
+  private final Scheduler       encryptionScheduler;
   private final long            maxEnvelopeSize;
 
   public SignalServiceMessageSender(PushServiceSocket pushServiceSocket,
@@ -193,6 +197,23 @@ public class SignalServiceMessageSender {
                                     Optional<EventListener> eventListener,
                                     ExecutorService executor,
                                     long maxEnvelopeSize)
+  {
+    this(pushServiceSocket, store, sessionLock, signalWebSocket, eventListener, executor, null, maxEnvelopeSize);
+  }
+
+  /**
+   * @param encryptionExecutor If present, multi-recipient sends will encrypt for several recipients at once on this executor, rather than one
+   *                           after another on the calling thread. Its thread count bounds how many encryptions can be in flight. Only useful
+   *                           if the session lock allows sessions for different addresses to be used concurrently.
+   */
+  public SignalServiceMessageSender(PushServiceSocket pushServiceSocket,
+                                    SignalServiceDataStore store,
+                                    SignalSessionLock sessionLock,
+                                    SignalWebSocket signalWebSocket,
+                                    Optional<EventListener> eventListener,
+                                    ExecutorService executor,
+                                    @Nullable ExecutorService encryptionExecutor,
+                                    long maxEnvelopeSize)
   {
     CredentialsProvider credentialsProvider = pushServiceSocket.getCredentialsProvider();
 
@@ -210,6 +231,8 @@ public class SignalServiceMessageSender {
     this.maxEnvelopeSize   = maxEnvelopeSize;
     this.localPniIdentity  = store.pni().getIdentityKeyPair();
     this.scheduler         = Schedulers.from(executor, false, false);
+
+    this.encryptionScheduler = encryptionExecutor != null ? Schedulers.from(encryptionExecutor, false, false) : null;
   }
 
   /**
@@ -2028,12 +2051,21 @@ public class SignalServiceMessageSender {
     List<Observable<SendMessageResult>> singleResults              = new LinkedList<>();
     Iterator<SignalServiceAddress>      recipientIterator          = recipients.iterator();
     Iterator<SealedSenderAccess>        sealedSenderAccessIterator = sealedSenderAccesses.iterator();
+    boolean                             encryptInParallel          = encryptionScheduler != null && recipients.size() >= PARALLEL_ENCRYPTION_MIN_RECIPIENTS;
 
     while (recipientIterator.hasNext()) {
       SignalServiceAddress recipient          = recipientIterator.next();
       SealedSenderAccess   sealedSenderAccess = sealedSenderAccessIterator.next();
 
-      singleResults.add(sendMessageRx(recipient, sealedSenderAccess, timestamp, content, online, cancelationSignal, sendEvents, urgent, story, 0).toObservable());
+      Single<SendMessageResult> result = sendMessageRx(recipient, sealedSenderAccess, timestamp, content, online, cancelationSignal, sendEvents, urgent, story, 0);
+
+      if (encryptInParallel) {
+        // Moves the encrypt and the hand-off to the socket onto the encryption executor. Everything after that is unchanged, since sendMessageRx
+        // already observes the response, error handling, and retries on the regular scheduler.
+        result = result.subscribeOn(encryptionScheduler);
+      }
+
+      singleResults.add(result.toObservable());
     }
 
     List<SendMessageResult> results;
@@ -2078,7 +2110,7 @@ public class SignalServiceMessageSender {
       }
     }
 
-    Log.d(TAG, "[" + timestamp + "] Completed send to " + recipients.size() + " recipients in " + (System.currentTimeMillis() - startTime) + " ms, with an average time of " + Math.round(average) + " ms per send via Rx.");
+    Log.d(TAG, "[" + timestamp + "] Completed send to " + recipients.size() + " recipients in " + (System.currentTimeMillis() - startTime) + " ms, with an average time of " + Math.round(average) + " ms per send via Rx." + (encryptInParallel ? " (parallel encryption)" : ""));
     return results;
   }
 
@@ -2094,6 +2126,9 @@ public class SignalServiceMessageSender {
    * handling operators are added after the observe so they will also run on a background thread. Retry logic during error handling
    * is a recursive call, so error handling thread becomes the method "calling and subscribing" thread so all retries will perform the
    * encryption/send/processing on that background thread.
+   * <p>
+   * Large fan-outs may instead subscribe on the encryption scheduler, which moves that initial work onto a bounded pool so that several
+   * recipients can be encrypted at once.
    *
    * @return A single that wraps success and business failures as a {@link SendMessageResult} but will still emit unhandled/unrecoverable
    * errors via {@code onError}
@@ -2677,7 +2712,7 @@ public class SignalServiceMessageSender {
 
           try {
             SignalProtocolAddress preKeyAddress  = new SignalProtocolAddress(recipient.getIdentifier(), preKey.getDeviceId());
-            SignalSessionBuilder  sessionBuilder = new SignalSessionBuilder(sessionLock, new SessionBuilder(aciStore, preKeyAddress));
+            SignalSessionBuilder  sessionBuilder = new SignalSessionBuilder(sessionLock, new SessionBuilder(aciStore, preKeyAddress), preKeyAddress);
             sessionBuilder.process(preKey);
           } catch (org.signal.libsignal.protocol.UntrustedIdentityException e) {
             throw new UntrustedIdentityException("Untrusted identity key!", recipient.getIdentifier(), preKey.getIdentityKey());
@@ -2729,7 +2764,8 @@ public class SignalServiceMessageSender {
         PreKeyBundle preKey = socket.getPreKey(recipient, missingDeviceId);
 
         try {
-          SignalSessionBuilder sessionBuilder = new SignalSessionBuilder(sessionLock, new SessionBuilder(aciStore, new SignalProtocolAddress(recipient.getIdentifier(), missingDeviceId)));
+          SignalProtocolAddress missingAddress = new SignalProtocolAddress(recipient.getIdentifier(), missingDeviceId);
+          SignalSessionBuilder  sessionBuilder = new SignalSessionBuilder(sessionLock, new SessionBuilder(aciStore, missingAddress), missingAddress);
           sessionBuilder.process(preKey);
         } catch (org.signal.libsignal.protocol.UntrustedIdentityException e) {
           throw new UntrustedIdentityException("Untrusted identity key!", recipient.getIdentifier(), preKey.getIdentityKey());
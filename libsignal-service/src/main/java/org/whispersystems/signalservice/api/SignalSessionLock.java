@@ -1,6 +1,9 @@
 package org.whispersystems.signalservice.api;
 
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+
 import java.io.Closeable;
+import java.util.Collection;
 
 /**
  * An interface to allow the injection of a lock that will be used to keep interactions with
@@ -10,6 +13,22 @@ public interface SignalSessionLock {
 
   Lock acquire();
 
+  /**
+   * Acquires a lock that only needs to cover the sessions of the provided address. Implementations that don't support finer-grained locking
+   * can fall back to {@link #acquire()}, which is what the default does.
+   */
+  default Lock acquire(SignalProtocolAddress address) {
+    return acquire();
+  }
+
+  /**
+   * Same as {@link #acquire(SignalProtocolAddress)}, but for several addresses at once. Implementations must lock the addresses in a consistent
+   * order, so that callers with overlapping addresses can't deadlock.
+   */
+  default Lock acquire(Collection<SignalProtocolAddress> addresses) {
+    return acquire();
+  }
+
   interface Lock extends Closeable {
     @Override
     void close();
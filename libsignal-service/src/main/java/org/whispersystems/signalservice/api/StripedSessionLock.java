@@ -0,0 +1,153 @@
+package org.whispersystems.signalservice.api;
+
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link SignalSessionLock} that can hand out locks that only cover the sessions of specific addresses, so that operations on unrelated
+ * sessions (like an outgoing send and an inbound decrypt from someone else) don't have to wait on each other.
+ * <p>
+ * There are two kinds of acquisition:
+ * <ul>
+ *   <li>{@link #acquire()} is exclusive. It waits for every other holder to finish, and blocks everyone else until it's released. This is
+ *   what anything that isn't specific to a single address should use.</li>
+ *   <li>{@link #acquire(SignalProtocolAddress)} and {@link #acquire(Collection)} only exclude other holders of the same addresses. Addresses
+ *   are hashed into a fixed number of stripes by name, so all devices of a recipient share a stripe (identity changes touch all of them).
+ *   When striping is disabled, these just call {@link #acquire()}.</li>
+ * </ul>
+ * Multiple addresses are always locked in ascending stripe order, which is what keeps overlapping multi-address acquisitions (e.g. two group
+ * sends with members in common) from deadlocking. For the same reason, a thread that already holds per-address locks may re-acquire the
+ * addresses it holds, but may not add new ones.
+ * <p>
+ * Calling {@link #acquire()} from a thread that holds per-address locks would mean upgrading from shared to exclusive, which deadlocks as soon
+ * as two threads try it. Instead, it returns without taking anything. In practice this is a protocol store locking itself in the middle of an
+ * encrypt, where the store is only touching the sessions of the address that's already locked.
+ */
+public final class StripedSessionLock implements SignalSessionLock {
+
+  private static final int  DEFAULT_STRIPE_COUNT = 64;
+  private static final Lock NO_OP                = () -> {};
+
+  /** Held exclusively by {@link #acquire()}, and shared by everyone holding a stripe. */
+  private final ReentrantReadWriteLock globalLock = new ReentrantReadWriteLock();
+  private final ReentrantLock[]        stripes;
+  private final ThreadLocal<int[]>     stripeHoldCount = ThreadLocal.withInitial(() -> new int[1]);
+
+  private volatile boolean stripingEnabled;
+
+  public StripedSessionLock() {
+    this(DEFAULT_STRIPE_COUNT);
+  }
+
+  /**
+   * @param stripeCount Rounded up to a power of two.
+   */
+  public StripedSessionLock(int stripeCount) {
+    this.stripes = new ReentrantLock[Integer.highestOneBit(Math.max(1, stripeCount) * 2 - 1)];
+
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Safe to call at any time. Locks that are already held keep working the way they did when they were acquired.
+   */
+  public void setStripingEnabled(boolean enabled) {
+    this.stripingEnabled = enabled;
+  }
+
+  public boolean isStripingEnabled() {
+    return stripingEnabled;
+  }
+
+  @Override
+  public Lock acquire() {
+    if (holdsStripes() && !globalLock.isWriteLockedByCurrentThread()) {
+      return NO_OP;
+    }
+
+    globalLock.writeLock().lock();
+    return globalLock.writeLock()::unlock;
+  }
+
+  @Override
+  public Lock acquire(SignalProtocolAddress address) {
+    return acquire(Collections.singletonList(address));
+  }
+
+  @Override
+  public Lock acquire(Collection<SignalProtocolAddress> addresses) {
+    if (!stripingEnabled || globalLock.isWriteLockedByCurrentThread()) {
+      return acquire();
+    }
+
+    int[] indexes = stripeIndexes(addresses);
+
+    if (holdsStripes()) {
+      for (int index : indexes) {
+        if (!stripes[index].isHeldByCurrentThread()) {
+          throw new IllegalStateException("Tried to lock additional addresses while already holding per-address locks!");
+        }
+      }
+    }
+
+    globalLock.readLock().lock();
+    for (int index : indexes) {
+      stripes[index].lock();
+    }
+    stripeHoldCount.get()[0]++;
+
+    return () -> {
+      stripeHoldCount.get()[0]--;
+      for (int i = indexes.length - 1; i >= 0; i--) {
+        stripes[indexes[i]].unlock();
+      }
+      globalLock.readLock().unlock();
+    };
+  }
+
+  /**
+   * @return True if the current thread holds either the exclusive lock or any per-address lock.
+   */
+  public boolean isHeldByCurrentThread() {
+    return globalLock.isWriteLockedByCurrentThread() || holdsStripes();
+  }
+
+  int stripeIndex(SignalProtocolAddress address) {
+    int hash = address.getName().hashCode();
+    return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+  }
+
+  private boolean holdsStripes() {
+    return stripeHoldCount.get()[0] > 0;
+  }
+
+  /**
+   * @return The distinct stripes for the addresses, sorted.
+   */
+  private int[] stripeIndexes(Collection<SignalProtocolAddress> addresses) {
+    int[] indexes = new int[addresses.size()];
+    int   i       = 0;
+
+    for (SignalProtocolAddress address : addresses) {
+      indexes[i++] = stripeIndex(address);
+    }
+
+    Arrays.sort(indexes);
+
+    int distinct = 0;
+    for (int j = 0; j < indexes.length; j++) {
+      if (j == 0 || indexes[j] != indexes[j - 1]) {
+        indexes[distinct++] = indexes[j];
+      }
+    }
+
+    return distinct == indexes.length ? indexes : Arrays.copyOf(indexes, distinct);
+  }
+}
@@ -6,6 +6,7 @@
 
 package org.whispersystems.signalservice.api.crypto;
 
+import org.signal.core.util.StreamUtil;
 import org.signal.core.util.stream.LimitedInputStream;
 import org.signal.libsignal.protocol.InvalidMessageException;
 import org.signal.libsignal.protocol.incrementalmac.ChunkSizeChoice;
@@ -17,6 +18,7 @@ import org.whispersystems.signalservice.internal.util.Util;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -48,9 +50,11 @@ public class AttachmentCipherInputStream extends FilterInputStream {
   private static final int BLOCK_SIZE      = 16;
   private static final int CIPHER_KEY_SIZE = 32;
   private static final int MAC_KEY_SIZE    = 32;
+  private static final int MAC_SIZE        = 32;
 
-  private final Cipher cipher;
-  private final long   totalDataSize;
+  private final Cipher  cipher;
+  private final long    totalDataSize;
+  private final boolean verifyTrailerBeforeFinal;
 
   private boolean done;
   private long    totalRead;
@@ -123,6 +127,41 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     }
   }
 
+  /**
+   * Like {@link #createForAttachment(StreamSupplier, long, long, byte[], byte[], byte[], int, boolean)} without an incremental MAC, except the
+   * ciphertext is only read once. Rather than verifying the MAC and digest in a separate pass up front, they are computed while decrypting.
+   *
+   * The final plaintext block is withheld until the MAC and digest have been verified at the end of the stream, so a caller that reads to the
+   * end (including {@link LimitedInputStream#leftoverStream()}) will get an {@link InvalidMessageException} rather than the tail of a tampered
+   * file. Everything before that point is unverified, so callers that need all-or-nothing results should use
+   * {@link #copyVerifiedToFile(LimitedInputStream, File)}.
+   *
+   * Passing in true for ignoreDigest DOES NOT VERIFY THE DIGEST
+   */
+  public static LimitedInputStream createStreamingForAttachment(StreamSupplier streamSupplier, long streamLength, long plaintextLength, byte[] combinedKeyMaterial, byte[] digest, boolean ignoreDigest)
+      throws InvalidMessageException, IOException
+  {
+    byte[][] parts = Util.split(combinedKeyMaterial, CIPHER_KEY_SIZE, MAC_KEY_SIZE);
+    Mac      mac   = initMac(parts[1]);
+
+    if (streamLength <= BLOCK_SIZE + mac.getMacLength()) {
+      throw new InvalidMessageException("Message shorter than crypto overhead! length: " + streamLength);
+    }
+
+    if (!ignoreDigest && digest == null) {
+      throw new InvalidMessageException("Missing digest!");
+    }
+
+    InputStream wrappedStream = new IncrementalMacAdditionalValidationsInputStream(streamSupplier.openStream(), streamLength, mac, digest);
+    InputStream inputStream   = new AttachmentCipherInputStream(wrappedStream, parts[0], streamLength - BLOCK_SIZE - mac.getMacLength(), true);
+
+    if (plaintextLength != 0) {
+      return new LimitedInputStream(inputStream, plaintextLength);
+    } else {
+      return LimitedInputStream.withoutLimits(inputStream);
+    }
+  }
+
   /**
    * Decrypt archived media to it's original attachment encrypted blob.
    */
@@ -148,6 +187,64 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     }
   }
 
+  /**
+   * Like {@link #createForArchivedMedia(MediaRootBackupKey.MediaKeyMaterial, File, long)}, except the file is only read once, with the MAC
+   * verified while decrypting. See {@link #createStreamingForAttachment(StreamSupplier, long, long, byte[], byte[], boolean)} for the guarantees
+   * this provides.
+   */
+  public static LimitedInputStream createStreamingForArchivedMedia(MediaRootBackupKey.MediaKeyMaterial archivedMediaKeyMaterial, File file, long originalCipherTextLength)
+      throws InvalidMessageException, IOException
+  {
+    Mac mac = initMac(archivedMediaKeyMaterial.getMacKey());
+
+    if (file.length() <= BLOCK_SIZE + mac.getMacLength()) {
+      throw new InvalidMessageException("Message shorter than crypto overhead!");
+    }
+
+    InputStream wrappedStream = new IncrementalMacAdditionalValidationsInputStream(new FileInputStream(file), file.length(), mac, null);
+    InputStream inputStream   = new AttachmentCipherInputStream(wrappedStream, archivedMediaKeyMaterial.getAesKey(), file.length() - BLOCK_SIZE - mac.getMacLength(), true);
+
+    if (originalCipherTextLength != 0) {
+      return new LimitedInputStream(inputStream, originalCipherTextLength);
+    } else {
+      return LimitedInputStream.withoutLimits(inputStream);
+    }
+  }
+
+  /**
+   * Copies the contents of a stream created by one of the streaming factories into the destination file, but only once the whole stream has
+   * been verified. The plaintext is first written to a temporary file next to the destination, which is then moved into place. If verification
+   * fails, the temporary file is deleted, the destination is left untouched, and an {@link InvalidMessageException} is thrown.
+   *
+   * The stream is always closed.
+   */
+  public static void copyVerifiedToFile(LimitedInputStream streamingInput, File destination)
+      throws InvalidMessageException, IOException
+  {
+    File    tempFile = File.createTempFile(destination.getName(), ".verifying", destination.getParentFile());
+    boolean success  = false;
+
+    try (LimitedInputStream input = streamingInput; FileOutputStream output = new FileOutputStream(tempFile)) {
+      StreamUtil.copy(input, output, false);
+
+      InputStream leftover = input.leftoverStream();
+      byte[]      buffer   = new byte[BLOCK_SIZE * 2];
+
+      //noinspection StatementWithEmptyBody
+      while (leftover.read(buffer) != -1) ;
+
+      if (!tempFile.renameTo(destination)) {
+        throw new IOException("Failed to move verified output into place!");
+      }
+
+      success = true;
+    } finally {
+      if (!success) {
+        tempFile.delete();
+      }
+    }
+  }
+
   public static LimitedInputStream createStreamingForArchivedAttachment(MediaRootBackupKey.MediaKeyMaterial archivedMediaKeyMaterial, File file, long originalCipherTextLength, long plaintextLength, byte[] combinedKeyMaterial, byte[] digest, byte[] incrementalDigest, int incrementalMacChunkSize)
       throws InvalidMessageException, IOException
   {
@@ -206,8 +303,19 @@ public class AttachmentCipherInputStream extends FilterInputStream {
 
   private AttachmentCipherInputStream(InputStream inputStream, byte[] aesKey, long totalDataSize)
       throws IOException
+  {
+    this(inputStream, aesKey, totalDataSize, false);
+  }
+
+  /**
+   * @param verifyTrailerBeforeFinal If true, the remainder of the wrapped stream (i.e. the MAC) is read before the final block is decrypted, giving a
+   *                                 validating wrapped stream the chance to fail before the last of the plaintext is released.
+   */
+  private AttachmentCipherInputStream(InputStream inputStream, byte[] aesKey, long totalDataSize, boolean verifyTrailerBeforeFinal)
+      throws IOException
   {
     super(inputStream);
+    this.verifyTrailerBeforeFinal = verifyTrailerBeforeFinal;
 
     try {
       byte[] iv = new byte[BLOCK_SIZE];
@@ -270,6 +378,10 @@ public class AttachmentCipherInputStream extends FilterInputStream {
   }
 
   private int readFinal(byte[] buffer, int offset, int length) throws IOException {
+    if (verifyTrailerBeforeFinal) {
+      readTrailer();
+    }
+
     try {
       byte[] internal     = new byte[buffer.length];
       int    actualLength = Math.min(length, cipher.doFinal(internal, 0));
@@ -379,6 +491,13 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     }
   }
 
+  private void readTrailer() throws IOException {
+    byte[] trailer = new byte[MAC_SIZE];
+
+    //noinspection StatementWithEmptyBody
+    while (super.read(trailer, 0, trailer.length) != -1) ;
+  }
+
   private void readFully(byte[] buffer) throws IOException {
     int offset = 0;
 
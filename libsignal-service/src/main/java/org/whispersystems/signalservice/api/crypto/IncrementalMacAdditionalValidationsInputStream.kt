@@ -18,12 +18,15 @@ import kotlin.math.max
  * That class does not validate the overall digest, nor the overall MAC. This class does that for us.
  *
  * To use, wrap the IncremtalMacInputStream around this class, and then this class should wrap the lowest-level data stream.
+ *
+ * It is also used on its own by [AttachmentCipherInputStream]'s streaming mode to validate the MAC in the same pass as decryption.
+ * In that case [theirDigest] may be null, in which case only the MAC is validated.
  */
 class IncrementalMacAdditionalValidationsInputStream(
   wrapped: InputStream,
   fileLength: Long,
   private val mac: Mac,
-  private val theirDigest: ByteArray
+  private val theirDigest: ByteArray?
 ) : FilterInputStream(wrapped) {
 
   private val digest: MessageDigest = MessageDigest.getInstance("SHA256")
@@ -115,7 +118,7 @@ class IncrementalMacAdditionalValidationsInputStream(
     }
 
     val ourDigest = digest.digest()
-    if (!MessageDigest.isEqual(ourDigest, theirDigest)) {
+    if (theirDigest != null && !MessageDigest.isEqual(ourDigest, theirDigest)) {
       throw InvalidMessageException("Digest doesn't match!")
     }
   }
@@ -2,25 +2,38 @@ package org.whispersystems.signalservice.api.crypto;
 
 import org.signal.libsignal.protocol.InvalidKeyException;
 import org.signal.libsignal.protocol.SessionBuilder;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
 import org.signal.libsignal.protocol.UntrustedIdentityException;
 import org.signal.libsignal.protocol.state.PreKeyBundle;
 import org.whispersystems.signalservice.api.SignalSessionLock;
 
+import javax.annotation.Nullable;
+
 /**
  * A thread-safe wrapper around {@link SessionBuilder}.
  */
 public class SignalSessionBuilder {
 
-  private final SignalSessionLock lock;
-  private final SessionBuilder    builder;
+  private final SignalSessionLock     lock;
+  private final SessionBuilder        builder;
+  private final SignalProtocolAddress remoteAddress;
 
   public SignalSessionBuilder(SignalSessionLock lock, SessionBuilder builder) {
-    this.lock    = lock;
-    this.builder = builder;
+    this(lock, builder, null);
+  }
+
+  /**
+   * @param remoteAddress The address the {@link SessionBuilder} was created for. If present, only the lock for that address is held while
+   *                      processing, rather than the global lock.
+   */
+  public SignalSessionBuilder(SignalSessionLock lock, SessionBuilder builder, @Nullable SignalProtocolAddress remoteAddress) {
+    this.lock          = lock;
+    this.builder       = builder;
+    this.remoteAddress = remoteAddress;
   }
 
   public void process(PreKeyBundle preKey) throws InvalidKeyException, UntrustedIdentityException {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = remoteAddress != null ? lock.acquire(remoteAddress) : lock.acquire()) {
       builder.process(preKey);
     }
   }
@@ -8,52 +8,69 @@ import org.signal.libsignal.protocol.InvalidVersionException;
 import org.signal.libsignal.protocol.LegacyMessageException;
 import org.signal.libsignal.protocol.NoSessionException;
 import org.signal.libsignal.protocol.SessionCipher;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
 import org.signal.libsignal.protocol.UntrustedIdentityException;
 import org.signal.libsignal.protocol.message.CiphertextMessage;
 import org.signal.libsignal.protocol.message.PreKeySignalMessage;
 import org.signal.libsignal.protocol.message.SignalMessage;
 import org.whispersystems.signalservice.api.SignalSessionLock;
 
+import javax.annotation.Nullable;
+
 /**
  * A thread-safe wrapper around {@link SessionCipher}.
  */
 public class SignalSessionCipher {
 
-  private final SignalSessionLock lock;
-  private final SessionCipher     cipher;
+  private final SignalSessionLock     lock;
+  private final SessionCipher         cipher;
+  private final SignalProtocolAddress remoteAddress;
 
   public SignalSessionCipher(SignalSessionLock lock, SessionCipher cipher) {
-    this.lock   = lock;
-    this.cipher = cipher;
+    this(lock, cipher, null);
+  }
+
+  /**
+   * @param remoteAddress The address the {@link SessionCipher} was created for. If present, only the lock for that address is held while
+   *                      encrypting or decrypting, rather than the global lock.
+   */
+  public SignalSessionCipher(SignalSessionLock lock, SessionCipher cipher, @Nullable SignalProtocolAddress remoteAddress) {
+    this.lock          = lock;
+    this.cipher        = cipher;
+    this.remoteAddress = remoteAddress;
   }
 
   public CiphertextMessage encrypt(byte[] paddedMessage) throws org.signal.libsignal.protocol.UntrustedIdentityException, NoSessionException {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = acquireLock()) {
       return cipher.encrypt(paddedMessage);
     }
   }
 
   public byte[] decrypt(PreKeySignalMessage ciphertext) throws DuplicateMessageException, LegacyMessageException, InvalidMessageException, InvalidKeyIdException, InvalidKeyException, org.signal.libsignal.protocol.UntrustedIdentityException {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = acquireLock()) {
       return cipher.decrypt(ciphertext);
     }
   }
 
   public byte[] decrypt(SignalMessage ciphertext) throws InvalidMessageException, InvalidVersionException, DuplicateMessageException, LegacyMessageException, NoSessionException, UntrustedIdentityException {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = acquireLock()) {
       return cipher.decrypt(ciphertext);
     }
   }
 
   public int getRemoteRegistrationId() {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = acquireLock()) {
       return cipher.getRemoteRegistrationId();
     }
   }
 
   public int getSessionVersion() {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = acquireLock()) {
       return cipher.getSessionVersion();
     }
   }
+
+  private SignalSessionLock.Lock acquireLock() {
+    return remoteAddress != null ? lock.acquire(remoteAddress) : lock.acquire();
+  }
 }
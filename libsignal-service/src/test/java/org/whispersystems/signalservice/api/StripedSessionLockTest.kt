@@ -0,0 +1,276 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.api
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import org.signal.libsignal.protocol.SignalProtocolAddress
+import java.security.MessageDigest
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+
+class StripedSessionLockTest {
+
+  private val lock = StripedSessionLock().apply { setStripingEnabled(true) }
+
+  @Test
+  fun `addresses on different stripes can be locked at the same time`() {
+    val (first, second) = addressesOnDifferentStripes()
+
+    lock.acquire(first).use {
+      assertTrue(acquiresWithinTimeout { lock.acquire(second) })
+    }
+  }
+
+  @Test
+  fun `the same address cannot be locked by two threads`() {
+    val address = randomAddress()
+
+    lock.acquire(address).use {
+      assertFalse(acquiresWithinTimeout { lock.acquire(address) })
+    }
+  }
+
+  @Test
+  fun `every device of a recipient shares a lock`() {
+    val name = UUID.randomUUID().toString()
+
+    lock.acquire(SignalProtocolAddress(name, 1)).use {
+      assertFalse(acquiresWithinTimeout { lock.acquire(SignalProtocolAddress(name, 2)) })
+    }
+  }
+
+  @Test
+  fun `global lock excludes address locks`() {
+    lock.acquire().use {
+      assertFalse(acquiresWithinTimeout { lock.acquire(randomAddress()) })
+    }
+
+    lock.acquire(randomAddress()).use {
+      assertFalse(acquiresWithinTimeout { lock.acquire() })
+    }
+  }
+
+  @Test
+  fun `address locks are global when striping is disabled`() {
+    lock.setStripingEnabled(false)
+    val (first, second) = addressesOnDifferentStripes()
+
+    lock.acquire(first).use {
+      assertFalse(acquiresWithinTimeout { lock.acquire(second) })
+    }
+  }
+
+  @Test
+  fun `isHeldByCurrentThread covers both kinds of locks`() {
+    assertFalse(lock.isHeldByCurrentThread)
+
+    lock.acquire().use {
+      assertTrue(lock.isHeldByCurrentThread)
+    }
+    assertFalse(lock.isHeldByCurrentThread)
+
+    lock.acquire(randomAddress()).use {
+      assertTrue(lock.isHeldByCurrentThread)
+    }
+    assertFalse(lock.isHeldByCurrentThread)
+  }
+
+  @Test
+  fun `nested acquisitions do not deadlock`() {
+    val address = randomAddress()
+
+    lock.acquire(address).use {
+      lock.acquire().use {
+        lock.acquire(address).use {
+          assertTrue(lock.isHeldByCurrentThread)
+        }
+      }
+    }
+
+    lock.acquire().use {
+      lock.acquire(address).use {
+        assertTrue(lock.isHeldByCurrentThread)
+      }
+    }
+
+    assertFalse(lock.isHeldByCurrentThread)
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun `cannot add addresses while holding address locks`() {
+    val (first, second) = addressesOnDifferentStripes()
+
+    lock.acquire(first).use {
+      lock.acquire(second).close()
+    }
+  }
+
+  @Test
+  fun `overlapping multi-address acquisitions do not deadlock`() {
+    val addresses = (0 until 16).map { randomAddress() }
+    val done = CountDownLatch(8)
+
+    repeat(8) { n ->
+      Thread {
+        val random = Random(n)
+        repeat(2_000) {
+          lock.acquire(addresses.shuffled(random).take(1 + random.nextInt(6))).use { }
+        }
+        done.countDown()
+      }.apply { isDaemon = true }.start()
+    }
+
+    assertTrue("Threads failed to finish. Likely deadlocked.", done.await(30, TimeUnit.SECONDS))
+  }
+
+  /**
+   * Runs an outbound fan-out and an inbound drain at the same time for a fixed number of operations, checking that no session is ever touched by
+   * two threads at once.
+   */
+  @Test
+  fun `concurrent sends and receives never touch a session at the same time`() {
+    val result = runSendReceive(striped = true, iterationsPerThread = 500)
+
+    assertEquals(0, result.violations)
+  }
+
+  /**
+   * Compares the throughput of an outbound fan-out and an inbound drain running at the same time, with and without striping.
+   */
+  @Ignore("Benchmark. Run manually.")
+  @Test
+  fun benchmark() {
+    val global = runSendReceive(striped = false, durationMs = BENCHMARK_DURATION_MS)
+    val striped = runSendReceive(striped = true, durationMs = BENCHMARK_DURATION_MS)
+
+    println("[StripedSessionLockTest] global lock: $global")
+    println("[StripedSessionLockTest] striped lock: $striped")
+
+    assertEquals(0, global.violations)
+    assertEquals(0, striped.violations)
+  }
+
+  /**
+   * Each thread stops after [iterationsPerThread] operations, or once [durationMs] has passed if one is given.
+   */
+  private fun runSendReceive(striped: Boolean, iterationsPerThread: Int = Int.MAX_VALUE, durationMs: Long? = null): StressResult {
+    val lock = StripedSessionLock().apply { setStripingEnabled(striped) }
+    val addresses = (0 until 200).map { randomAddress() }
+    val inUse = addresses.associateWith { AtomicInteger(0) }
+    val violations = AtomicInteger(0)
+    val sends = AtomicLong(0)
+    val receives = AtomicLong(0)
+    val running = AtomicBoolean(true)
+
+    fun touch(addresses: Collection<SignalProtocolAddress>) {
+      addresses.forEach { if (inUse[it]!!.incrementAndGet() != 1) violations.incrementAndGet() }
+      simulateCrypto()
+      addresses.forEach { inUse[it]!!.decrementAndGet() }
+    }
+
+    val senders = (0 until 4).map { n ->
+      Thread {
+        val random = Random(n)
+        repeatWhile(running, iterationsPerThread) {
+          val address = addresses[random.nextInt(addresses.size)]
+          lock.acquire(address).use { touch(listOf(address)) }
+          sends.incrementAndGet()
+        }
+      }
+    }
+
+    val groupSender = Thread {
+      val random = Random(100)
+      repeatWhile(running, iterationsPerThread) {
+        val members = addresses.shuffled(random).take(10)
+        lock.acquire(members).use { touch(members) }
+        sends.addAndGet(members.size.toLong())
+      }
+    }
+
+    val receiver = Thread {
+      val random = Random(200)
+      repeatWhile(running, iterationsPerThread) {
+        lock.acquire().use {
+          val batch = (0 until 5).map { addresses[random.nextInt(addresses.size)] }.distinct()
+          batch.forEach { touch(listOf(it)) }
+          receives.addAndGet(batch.size.toLong())
+        }
+      }
+    }
+
+    val threads = senders + groupSender + receiver
+    val start = System.currentTimeMillis()
+    threads.forEach { it.start() }
+    if (durationMs != null) {
+      Thread.sleep(durationMs)
+      running.set(false)
+    }
+    threads.forEach { it.join() }
+    val elapsedMs = (System.currentTimeMillis() - start).coerceAtLeast(1)
+
+    return StressResult(
+      sendsPerSecond = sends.get() * 1000 / elapsedMs,
+      receivesPerSecond = receives.get() * 1000 / elapsedMs,
+      violations = violations.get()
+    )
+  }
+
+  private inline fun repeatWhile(running: AtomicBoolean, times: Int, block: () -> Unit) {
+    var i = 0
+    while (running.get() && i < times) {
+      block()
+      i++
+    }
+  }
+
+  private fun simulateCrypto() {
+    val digest = MessageDigest.getInstance("SHA-256")
+    val data = ByteArray(1024)
+    repeat(16) { digest.update(data) }
+    digest.digest()
+  }
+
+  private fun acquiresWithinTimeout(acquire: () -> SignalSessionLock.Lock): Boolean {
+    val acquired = CountDownLatch(1)
+
+    Thread {
+      acquire().use { acquired.countDown() }
+    }.apply { isDaemon = true }.start()
+
+    return acquired.await(250, TimeUnit.MILLISECONDS)
+  }
+
+  private fun addressesOnDifferentStripes(): Pair<SignalProtocolAddress, SignalProtocolAddress> {
+    val first = randomAddress()
+    var second = randomAddress()
+
+    while (lock.stripeIndex(second) == lock.stripeIndex(first)) {
+      second = randomAddress()
+    }
+
+    return first to second
+  }
+
+  private fun randomAddress(): SignalProtocolAddress {
+    return SignalProtocolAddress(UUID.randomUUID().toString(), 1)
+  }
+
+  private data class StressResult(val sendsPerSecond: Long, val receivesPerSecond: Long, val violations: Int)
+
+  companion object {
+    private const val BENCHMARK_DURATION_MS = 5_000L
+  }
+}
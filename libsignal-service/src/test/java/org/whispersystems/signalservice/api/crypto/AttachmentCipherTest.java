@@ -3,6 +3,7 @@ package org.whispersystems.signalservice.api.crypto;
 import org.conscrypt.Conscrypt;
 import org.junit.Test;
 import org.signal.core.util.StreamUtil;
+import org.signal.core.util.stream.LimitedInputStream;
 import org.signal.libsignal.protocol.InvalidMessageException;
 import org.signal.libsignal.protocol.incrementalmac.ChunkSizeChoice;
 import org.signal.libsignal.protocol.incrementalmac.InvalidMacException;
@@ -15,6 +16,7 @@ import org.whispersystems.signalservice.internal.util.Util;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -24,6 +26,7 @@ import java.util.Arrays;
 import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.whispersystems.signalservice.testutil.LibSignalLibraryUtil.assumeLibSignalSupportedOnOS;
@@ -411,6 +414,129 @@ public final class AttachmentCipherTest {
     assertTrue(hitCorrectException);
   }
 
+  @Test
+  public void attachment_encryptDecrypt_streaming() throws IOException, InvalidMessageException {
+    for (int fileSize : new int[] { 0, 1, 15, 16, 17, MEBIBYTE, MEBIBYTE + new Random().nextInt(1, 64 * 1024) }) {
+      byte[]        key             = Util.getSecretBytes(64);
+      byte[]        plaintextInput  = Util.getSecretBytes(fileSize);
+      EncryptResult encryptResult   = encryptData(plaintextInput, key, false);
+      File          cipherFile      = writeToFile(encryptResult.ciphertext);
+      InputStream   inputStream     = AttachmentCipherInputStream.createStreamingForAttachment(() -> new FileInputStream(cipherFile), cipherFile.length(), plaintextInput.length, key, encryptResult.digest, false);
+      byte[]        plaintextOutput = readInputStreamFully(inputStream);
+
+      assertArrayEquals(plaintextInput, plaintextOutput);
+
+      cipherFile.delete();
+    }
+  }
+
+  @Test
+  public void attachment_decryptFailOnBadMac_streaming() throws IOException {
+    File    cipherFile          = null;
+    boolean hitCorrectException = false;
+
+    try {
+      byte[]        key              = Util.getSecretBytes(64);
+      byte[]        plaintextInput   = Util.getSecretBytes(MEBIBYTE);
+      EncryptResult encryptResult    = encryptData(plaintextInput, key, false);
+      byte[]        badMacCiphertext = Arrays.copyOf(encryptResult.ciphertext, encryptResult.ciphertext.length);
+
+      badMacCiphertext[badMacCiphertext.length - 1] += 1;
+
+      File file = writeToFile(badMacCiphertext);
+      cipherFile = file;
+
+      LimitedInputStream stream = AttachmentCipherInputStream.createStreamingForAttachment(() -> new FileInputStream(file), file.length(), 0, key, encryptResult.digest, false);
+      StreamUtil.readFully(stream);
+      fail();
+    } catch (InvalidMessageException e) {
+      hitCorrectException = true;
+    } finally {
+      if (cipherFile != null) {
+        cipherFile.delete();
+      }
+    }
+
+    assertTrue(hitCorrectException);
+  }
+
+  @Test
+  public void attachment_decryptFailOnBadDigest_streaming() throws IOException {
+    File    cipherFile          = null;
+    boolean hitCorrectException = false;
+
+    try {
+      byte[]        key            = Util.getSecretBytes(64);
+      byte[]        plaintextInput = Util.getSecretBytes(MEBIBYTE);
+      EncryptResult encryptResult  = encryptData(plaintextInput, key, false);
+      byte[]        badDigest      = Util.getSecretBytes(32);
+
+      File file = writeToFile(encryptResult.ciphertext);
+      cipherFile = file;
+
+      LimitedInputStream stream = AttachmentCipherInputStream.createStreamingForAttachment(() -> new FileInputStream(file), file.length(), 0, key, badDigest, false);
+      StreamUtil.readFully(stream);
+      fail();
+    } catch (InvalidMessageException e) {
+      hitCorrectException = true;
+    } finally {
+      if (cipherFile != null) {
+        cipherFile.delete();
+      }
+    }
+
+    assertTrue(hitCorrectException);
+  }
+
+  @Test
+  public void archive_encryptDecrypt_streamingVerifiedCopy() throws IOException, InvalidMessageException {
+    byte[]                              key            = Util.getSecretBytes(64);
+    MediaRootBackupKey.MediaKeyMaterial keyMaterial    = AttachmentCipherTestHelper.createMediaKeyMaterial(key);
+    byte[]                              plaintextInput = Util.getSecretBytes(MEBIBYTE);
+    EncryptResult                       encryptResult  = encryptData(plaintextInput, key, false);
+    File                                cipherFile     = writeToFile(encryptResult.ciphertext);
+    File                                destination    = new File(cipherFile.getParentFile(), cipherFile.getName() + ".out");
+
+    AttachmentCipherInputStream.copyVerifiedToFile(AttachmentCipherInputStream.createStreamingForArchivedMedia(keyMaterial, cipherFile, plaintextInput.length), destination);
+
+    assertArrayEquals(plaintextInput, readInputStreamFully(new FileInputStream(destination)));
+
+    cipherFile.delete();
+    destination.delete();
+  }
+
+  @Test
+  public void archive_decryptFailOnBadMac_streamingVerifiedCopy() throws IOException {
+    File    cipherFile          = null;
+    File    destination         = null;
+    boolean hitCorrectException = false;
+
+    try {
+      byte[]        key              = Util.getSecretBytes(64);
+      byte[]        plaintextInput   = Util.getSecretBytes(MEBIBYTE);
+      EncryptResult encryptResult    = encryptData(plaintextInput, key, false);
+      byte[]        badMacCiphertext = Arrays.copyOf(encryptResult.ciphertext, encryptResult.ciphertext.length);
+
+      badMacCiphertext[badMacCiphertext.length - 1] += 1;
+
+      cipherFile  = writeToFile(badMacCiphertext);
+      destination = new File(cipherFile.getParentFile(), cipherFile.getName() + ".out");
+
+      MediaRootBackupKey.MediaKeyMaterial keyMaterial = AttachmentCipherTestHelper.createMediaKeyMaterial(key);
+      AttachmentCipherInputStream.copyVerifiedToFile(AttachmentCipherInputStream.createStreamingForArchivedMedia(keyMaterial, cipherFile, plaintextInput.length), destination);
+      fail();
+    } catch (InvalidMessageException e) {
+      hitCorrectException = true;
+    } finally {
+      if (cipherFile != null) {
+        cipherFile.delete();
+      }
+    }
+
+    assertTrue(hitCorrectException);
+    assertFalse(destination.exists());
+  }
+
   @Test
   public void sticker_encryptDecrypt() throws IOException, InvalidMessageException {
     assumeLibSignalSupportedOnOS();
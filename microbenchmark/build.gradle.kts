@@ -60,5 +60,7 @@ dependencies {
 
   // Dependencies of modules being tested
   androidTestImplementation(project(":libsignal-service"))
+  androidTestImplementation(project(":paging"))
+  androidTestImplementation(libs.signal.android.database.sqlcipher)
   androidTestImplementation(libs.libsignal.android)
 }
@@ -0,0 +1,115 @@
+package org.signal.microbenchmark
+
+import android.util.Log
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.readFully
+import org.whispersystems.signalservice.api.crypto.AttachmentCipherInputStream
+import org.whispersystems.signalservice.internal.push.http.AttachmentCipherOutputStreamFactory
+import org.whispersystems.signalservice.internal.util.Util
+import java.io.File
+import java.io.FileInputStream
+import java.io.FilterInputStream
+import java.io.InputStream
+
+/**
+ * Benchmarks for decrypting large attachments that do not have an incremental MAC, comparing the two-pass
+ * (verify, then decrypt) path with the single-pass streaming path.
+ *
+ * Each run logs the number of ciphertext bytes that were read from disk, which is the main thing the streaming path is meant to reduce.
+ */
+@RunWith(AndroidJUnit4::class)
+class AttachmentCipherBenchmarks {
+
+  companion object {
+    private const val TAG = "AttachmentCipherBenchmarks"
+    private const val PLAINTEXT_SIZE = 100 * 1024 * 1024
+  }
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private lateinit var cipherFile: File
+  private lateinit var key: ByteArray
+  private lateinit var digest: ByteArray
+
+  @Before
+  fun setup() {
+    val context = InstrumentationRegistry.getInstrumentation().targetContext
+
+    key = Util.getSecretBytes(64)
+    cipherFile = File.createTempFile("attachment", ".cipher", context.cacheDir)
+
+    val plaintextChunk = Util.getSecretBytes(1024 * 1024)
+    val outputStream = AttachmentCipherOutputStreamFactory(key, Util.getSecretBytes(16)).createFor(cipherFile.outputStream())
+    for (i in 0 until PLAINTEXT_SIZE / plaintextChunk.size) {
+      outputStream.write(plaintextChunk)
+    }
+    outputStream.close()
+
+    digest = outputStream.transmittedDigest
+  }
+
+  @After
+  fun tearDown() {
+    cipherFile.delete()
+  }
+
+  @Test
+  fun decrypt_100mb_twoPass() {
+    val counter = ReadCounter()
+
+    benchmarkRule.measureRepeated {
+      counter.decrypts++
+      AttachmentCipherInputStream.createForAttachment({ counter.wrap(FileInputStream(cipherFile)) }, cipherFile.length(), PLAINTEXT_SIZE.toLong(), key, digest, null, 0, false).use {
+        it.readFully()
+      }
+    }
+
+    Log.i(TAG, "[twoPass] ${counter.summary()} File size: ${cipherFile.length()}")
+  }
+
+  @Test
+  fun decrypt_100mb_streaming() {
+    val counter = ReadCounter()
+
+    benchmarkRule.measureRepeated {
+      counter.decrypts++
+      AttachmentCipherInputStream.createStreamingForAttachment({ counter.wrap(FileInputStream(cipherFile)) }, cipherFile.length(), PLAINTEXT_SIZE.toLong(), key, digest, false).use {
+        it.readFully()
+      }
+    }
+
+    Log.i(TAG, "[streaming] ${counter.summary()} File size: ${cipherFile.length()}")
+  }
+
+  private class ReadCounter {
+    var bytesRead = 0L
+    var opens = 0L
+    var decrypts = 0L
+
+    fun summary(): String {
+      return "Read ${bytesRead / decrypts} bytes and opened the file ${opens / decrypts} time(s) per decrypt."
+    }
+
+    fun wrap(inputStream: InputStream): InputStream {
+      opens++
+      return object : FilterInputStream(inputStream) {
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+          val read = super.read(b, off, len)
+          if (read > 0) {
+            bytesRead += read
+          }
+          return read
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package org.signal.microbenchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.paging.CompressedList
+
+/**
+ * Benchmarks for the list backing paged data, comparing a fully-allocated [ArrayList] of nulls (what [CompressedList] used to be) with the chunked,
+ * copy-on-write [CompressedList].
+ *
+ * Each iteration mimics what the paging controller does when a thread is opened and scrolled a little: create the list, then publish a few pages of
+ * loaded data (copying the list each time), then insert a new item at the start. The benchmark library reports allocations alongside timings, which is
+ * the best proxy we have for memory use.
+ */
+@RunWith(AndroidJUnit4::class)
+class CompressedListBenchmarks {
+
+  companion object {
+    private const val PAGE_SIZE = 50
+    private const val PAGES_LOADED = 5
+  }
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  @Test
+  fun arrayList_1k() = runArrayList(1_000)
+
+  @Test
+  fun arrayList_10k() = runArrayList(10_000)
+
+  @Test
+  fun arrayList_100k() = runArrayList(100_000)
+
+  @Test
+  fun arrayList_1m() = runArrayList(1_000_000)
+
+  @Test
+  fun compressedList_1k() = runCompressedList(1_000)
+
+  @Test
+  fun compressedList_10k() = runCompressedList(10_000)
+
+  @Test
+  fun compressedList_100k() = runCompressedList(100_000)
+
+  @Test
+  fun compressedList_1m() = runCompressedList(1_000_000)
+
+  private fun runArrayList(size: Int) {
+    benchmarkRule.measureRepeated {
+      var list: MutableList<Any?> = ArrayList<Any?>(size).apply { repeat(size) { add(null) } }
+      list = simulateLoads(list) { ArrayList(it) }
+      list.add(0, Any())
+    }
+  }
+
+  private fun runCompressedList(size: Int) {
+    benchmarkRule.measureRepeated {
+      var list: MutableList<Any?> = CompressedList(size)
+      list = simulateLoads(list) { CompressedList(it) }
+      list.add(0, Any())
+    }
+  }
+
+  private inline fun simulateLoads(initial: MutableList<Any?>, copy: (MutableList<Any?>) -> MutableList<Any?>): MutableList<Any?> {
+    var list = initial
+
+    for (page in 0 until PAGES_LOADED) {
+      list = copy(list)
+      for (i in page * PAGE_SIZE until minOf(list.size, (page + 1) * PAGE_SIZE)) {
+        list[i] = i
+      }
+    }
+
+    return list
+  }
+}
@@ -0,0 +1,72 @@
+package org.signal.microbenchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.util.SignalClient
+import org.whispersystems.signalservice.api.StripedSessionLock
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Benchmarks for encrypting the same message for many recipients, the way SignalServiceMessageSender does for sends that can't use sender key.
+ *
+ * Compares encrypting one recipient after another on the calling thread against encrypting on a bounded pool, which is what the sender does when
+ * it's given an encryption executor. Both use a striped session lock, since a global lock would serialize the pool anyway.
+ *
+ * All operations are performed in in-memory stores, so this only measures the encryption itself and not the network.
+ */
+@RunWith(AndroidJUnit4::class)
+class FanOutEncryptionBenchmarks {
+
+  companion object {
+    private const val RECIPIENT_COUNT = 50
+  }
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private lateinit var alice: SignalClient
+  private lateinit var recipients: List<SignalClient>
+  private lateinit var executor: ExecutorService
+
+  @Before
+  fun setup() {
+    alice = SignalClient(StripedSessionLock().apply { setStripingEnabled(true) })
+    recipients = (0 until RECIPIENT_COUNT).map { SignalClient() }
+
+    recipients.forEach { bob ->
+      alice.initializeSession(bob)
+      bob.decryptMessage(alice.encryptUnsealedSender(bob))
+      alice.decryptMessage(bob.encryptUnsealedSender(alice))
+    }
+
+    executor = Executors.newFixedThreadPool(maxOf(2, Runtime.getRuntime().availableProcessors() - 1))
+  }
+
+  @After
+  fun tearDown() {
+    executor.shutdown()
+  }
+
+  @Test
+  fun encrypt_sequential() {
+    benchmarkRule.measureRepeated {
+      recipients.forEach { alice.encryptUnsealedSender(it) }
+    }
+  }
+
+  @Test
+  fun encrypt_parallel() {
+    benchmarkRule.measureRepeated {
+      recipients
+        .map { bob -> executor.submit { alice.encryptUnsealedSender(bob) } }
+        .forEach { it.get() }
+    }
+  }
+}
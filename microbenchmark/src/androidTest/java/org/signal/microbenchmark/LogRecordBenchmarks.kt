@@ -0,0 +1,110 @@
+package org.signal.microbenchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.LogRecord
+import org.signal.core.util.logging.Scrubber
+import java.io.ByteArrayOutputStream
+import java.io.PrintStream
+import java.io.PrintWriter
+import java.io.StringWriter
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * Benchmarks for the work the persistent logger does for every log call, comparing the old approach (format every line up front, split stack traces with a
+ * regex) with encoding [LogRecord]s and deferring formatting until the logs are read.
+ *
+ * Each iteration processes [LOG_CALLS] log calls, one in every [THROWABLE_EVERY] of which has a stack trace. The benchmark library reports allocations
+ * alongside timings.
+ */
+@RunWith(AndroidJUnit4::class)
+class LogRecordBenchmarks {
+
+  companion object {
+    private const val LOG_CALLS = 100_000
+    private const val THROWABLE_EVERY = 100
+    private const val VERSION = "7.0.0"
+    private const val THREAD = "main "
+    private const val TAG = "IncomingMessageObserver"
+    private const val MESSAGE = "[processMessage] Processed envelope 1700000000000 from a device in 12 ms. Batch size: 30"
+  }
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private val throwable = RuntimeException("Something went wrong")
+
+  @Test
+  fun write_100k_legacyFormatting() {
+    val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US)
+    val out = ArrayList<String>(LOG_CALLS * 2)
+
+    benchmarkRule.measureRepeated {
+      out.clear()
+
+      for (i in 0 until LOG_CALLS) {
+        val date = Date(1_700_000_000_000L + i)
+        out += "[$VERSION] [$THREAD] ${dateFormat.format(date)} I $TAG: ${Scrubber.scrub(MESSAGE)}"
+
+        if (i % THROWABLE_EVERY == 0) {
+          val outputStream = ByteArrayOutputStream()
+          throwable.printStackTrace(PrintStream(outputStream))
+
+          for (line in String(outputStream.toByteArray()).split("\\n".toRegex())) {
+            out += "[$VERSION] [$THREAD] ${dateFormat.format(date)} I $TAG: ${Scrubber.scrub(line)}"
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  fun write_100k_records() {
+    val encoder = LogRecord.Encoder()
+    val traceWriter = StringWriter()
+    val tracePrinter = PrintWriter(traceWriter)
+    val out = ArrayList<ByteArray>(LOG_CALLS * 2)
+
+    benchmarkRule.measureRepeated {
+      out.clear()
+
+      for (i in 0 until LOG_CALLS) {
+        val message = Scrubber.scrub(MESSAGE)
+        out += encoder.encode('I', VERSION, THREAD, TAG, message, 0, message.length)
+
+        if (i % THROWABLE_EVERY == 0) {
+          traceWriter.buffer.setLength(0)
+          throwable.printStackTrace(tracePrinter)
+          tracePrinter.flush()
+
+          val trace = Scrubber.scrub(traceWriter.buffer)
+          var lineStart = 0
+          while (lineStart < trace.length) {
+            val lineEnd = trace.indexOf('\n', lineStart).let { if (it < 0) trace.length else it }
+            out += encoder.encode('I', VERSION, THREAD, TAG, trace, lineStart, lineEnd)
+            lineStart = lineEnd + 1
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  fun read_100k_records() {
+    val encoder = LogRecord.Encoder()
+    val formatter = LogRecord.Formatter()
+    val records = Array(LOG_CALLS) { encoder.encode('I', VERSION, THREAD, TAG, MESSAGE) }
+
+    benchmarkRule.measureRepeated {
+      for (i in records.indices) {
+        formatter.format(1_700_000_000_000L + i, records[i])
+      }
+    }
+  }
+}
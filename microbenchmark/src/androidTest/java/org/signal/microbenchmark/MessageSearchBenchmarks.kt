@@ -0,0 +1,212 @@
+package org.signal.microbenchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import kotlin.random.Random
+
+/**
+ * Benchmarks for full-text message search on a synthetic corpus of [CORPUS_SIZE] messages, comparing the old query (snippets for every match, most recent
+ * first) with the ranked query that only returns hits, followed by generating snippets for a single page of results.
+ *
+ * The schema and queries mirror the ones in the app's SearchTable, which this module can't depend on directly. Message bodies are drawn from a
+ * Zipf-like distribution over a small vocabulary, so [COMMON_TERM] matches a large fraction of the corpus and [RARE_TERM] matches very little of it.
+ *
+ * Building the corpus takes a while, so it's done once per process and shared between benchmarks.
+ */
+@RunWith(AndroidJUnit4::class)
+class MessageSearchBenchmarks {
+
+  companion object {
+    private const val CORPUS_SIZE = 1_000_000
+    private const val THREAD_COUNT = 500
+    private const val VOCABULARY_SIZE = 5_000
+    private const val WORDS_PER_MESSAGE = 12
+    private const val MAX_HITS = 500
+    private const val PAGE_SIZE = 20
+
+    private const val COMMON_TERM = "\"w1\"*"
+    private const val RARE_TERM = "\"w4999\"*"
+
+    private const val LEGACY_QUERY = """
+      SELECT
+        thread.recipient_id,
+        message.from_recipient_id,
+        snippet(message_fts, -1, '', '', '...', 7) AS snippet,
+        message.date_received,
+        message_fts.thread_id,
+        message_fts.body,
+        message_fts.rowid AS message_id
+      FROM
+        message
+          INNER JOIN message_fts ON message_fts.rowid = message._id
+          INNER JOIN thread ON message_fts.thread_id = thread._id
+      WHERE
+        message_fts MATCH ? AND
+        message.type & 1 = 0 AND
+        message.scheduled_date < 0 AND
+        message.latest_revision_id IS NULL
+      ORDER BY message.date_received DESC
+      LIMIT $MAX_HITS
+    """
+
+    private const val RANKED_QUERY = """
+      SELECT
+        thread.recipient_id,
+        message.from_recipient_id,
+        message.date_received,
+        message_fts.thread_id,
+        message_fts.rowid AS message_id
+      FROM
+        message_fts
+          INNER JOIN message ON message_fts.rowid = message._id
+          INNER JOIN thread ON message_fts.thread_id = thread._id
+      WHERE
+        message_fts MATCH ? AND
+        message.type & 1 = 0 AND
+        message.scheduled_date < 0 AND
+        message.latest_revision_id IS NULL
+      ORDER BY bm25(message_fts), message.date_received DESC
+      LIMIT $MAX_HITS
+    """
+
+    private const val SNIPPETS_QUERY = """
+      SELECT
+        message_fts.rowid AS message_id,
+        message_fts.body,
+        snippet(message_fts, -1, '', '', '...', 7) AS snippet
+      FROM
+        message_fts
+      WHERE
+        message_fts MATCH ? AND
+        message_fts.rowid IN 
+    """
+
+    private val database: SQLiteDatabase by lazy { createCorpus() }
+
+    private fun createCorpus(): SQLiteDatabase {
+      System.loadLibrary("sqlcipher")
+
+      val context = InstrumentationRegistry.getInstrumentation().targetContext
+      val file = File(context.cacheDir, "search-benchmark.db")
+      file.delete()
+
+      val db = SQLiteDatabase.openOrCreateDatabase(file, "benchmark", null, null, null)
+
+      db.execSQL("CREATE TABLE thread (_id INTEGER PRIMARY KEY, recipient_id INTEGER)")
+      db.execSQL("CREATE TABLE message (_id INTEGER PRIMARY KEY, thread_id INTEGER, from_recipient_id INTEGER, date_received INTEGER, type INTEGER, scheduled_date INTEGER, latest_revision_id INTEGER, body TEXT)")
+      db.execSQL("""CREATE VIRTUAL TABLE message_fts USING fts5(body, thread_id UNINDEXED, content=message, content_rowid=_id, tokenize = "unicode61 categories 'L* N* Co Sc So'")""")
+
+      val random = Random(42)
+      val cumulativeWeights = DoubleArray(VOCABULARY_SIZE).also { weights ->
+        var total = 0.0
+        for (i in weights.indices) {
+          total += 1.0 / (i + 1)
+          weights[i] = total
+        }
+      }
+
+      db.beginTransaction()
+      try {
+        for (i in 1..THREAD_COUNT) {
+          db.execSQL("INSERT INTO thread (_id, recipient_id) VALUES ($i, $i)")
+        }
+
+        val statement = db.compileStatement("INSERT INTO message (thread_id, from_recipient_id, date_received, type, scheduled_date, latest_revision_id, body) VALUES (?, ?, ?, 0, -1, NULL, ?)")
+        val body = StringBuilder()
+
+        for (i in 0 until CORPUS_SIZE) {
+          body.setLength(0)
+          for (w in 0 until WORDS_PER_MESSAGE) {
+            val target = random.nextDouble() * cumulativeWeights.last()
+            val index = cumulativeWeights.binarySearch(target).let { if (it < 0) -it - 1 else it }.coerceAtMost(VOCABULARY_SIZE - 1)
+            body.append('w').append(index).append(' ')
+          }
+
+          statement.bindLong(1, random.nextLong(1, THREAD_COUNT + 1L))
+          statement.bindLong(2, random.nextLong(1, THREAD_COUNT + 1L))
+          statement.bindLong(3, 1_600_000_000_000L + i * 1000L)
+          statement.bindString(4, body.toString())
+          statement.executeInsert()
+        }
+
+        db.execSQL("INSERT INTO message_fts(message_fts) VALUES('rebuild')")
+        db.setTransactionSuccessful()
+      } finally {
+        db.endTransaction()
+      }
+
+      return db
+    }
+  }
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  @Test
+  fun commonTerm_legacy() {
+    benchmarkRule.measureRepeated {
+      legacySearch(COMMON_TERM)
+    }
+  }
+
+  @Test
+  fun commonTerm_rankedFirstPage() {
+    benchmarkRule.measureRepeated {
+      rankedSearchFirstPage(COMMON_TERM)
+    }
+  }
+
+  @Test
+  fun rareTerm_legacy() {
+    benchmarkRule.measureRepeated {
+      legacySearch(RARE_TERM)
+    }
+  }
+
+  @Test
+  fun rareTerm_rankedFirstPage() {
+    benchmarkRule.measureRepeated {
+      rankedSearchFirstPage(RARE_TERM)
+    }
+  }
+
+  private fun legacySearch(term: String): Int {
+    var count = 0
+    database.rawQuery(LEGACY_QUERY, arrayOf(term)).use { cursor ->
+      while (cursor.moveToNext()) {
+        cursor.getString(2)
+        count++
+      }
+    }
+    return count
+  }
+
+  private fun rankedSearchFirstPage(term: String): Int {
+    val hits = ArrayList<Long>(MAX_HITS)
+    database.rawQuery(RANKED_QUERY, arrayOf(term)).use { cursor ->
+      while (cursor.moveToNext()) {
+        hits += cursor.getLong(4)
+      }
+    }
+
+    if (hits.isEmpty()) {
+      return 0
+    }
+
+    var count = 0
+    database.rawQuery(SNIPPETS_QUERY + hits.take(PAGE_SIZE).joinToString(prefix = "(", postfix = ")"), arrayOf(term)).use { cursor ->
+      while (cursor.moveToNext()) {
+        cursor.getString(2)
+        count++
+      }
+    }
+    return count
+  }
+}
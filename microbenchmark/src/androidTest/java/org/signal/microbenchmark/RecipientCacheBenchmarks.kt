@@ -0,0 +1,96 @@
+package org.signal.microbenchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.concurrent.LongClockCache
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.random.Random
+
+/**
+ * Benchmarks for the data structure backing the recipient cache, comparing the old approach (an access-ordered [LinkedHashMap] behind a single
+ * monitor) with [LongClockCache].
+ *
+ * Each benchmark measures reads on the benchmark thread while [BACKGROUND_READERS] other threads are reading the same cache, so that there are
+ * 8 concurrent readers in total, which is roughly what a busy conversation list + message fetch + notification burst looks like.
+ */
+@RunWith(AndroidJUnit4::class)
+class RecipientCacheBenchmarks {
+
+  companion object {
+    private const val CACHE_SIZE = 1000
+    private const val KEY_SPACE = 1200
+    private const val BACKGROUND_READERS = 7
+    private const val READS_PER_ITERATION = 1000
+  }
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  @Test
+  fun synchronizedLinkedHashMap_8readers() {
+    val map: MutableMap<Long, Any> = object : LinkedHashMap<Long, Any>(CACHE_SIZE / 2, 0.75f, true) {
+      override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Any>?): Boolean {
+        return size > CACHE_SIZE
+      }
+    }
+    val lock = Any()
+
+    for (i in 0L until KEY_SPACE) {
+      map[i] = Any()
+    }
+
+    runWithBackgroundReaders({ key -> synchronized(lock) { map[key] } }) { read ->
+      benchmarkRule.measureRepeated {
+        for (i in 0 until READS_PER_ITERATION) {
+          read(i % KEY_SPACE.toLong())
+        }
+      }
+    }
+  }
+
+  @Test
+  fun longClockCache_8readers() {
+    val cache = LongClockCache<Any>(CACHE_SIZE)
+
+    for (i in 0L until KEY_SPACE) {
+      cache.put(i, Any())
+    }
+
+    runWithBackgroundReaders({ key -> cache.get(key) }) { read ->
+      benchmarkRule.measureRepeated {
+        for (i in 0 until READS_PER_ITERATION) {
+          read(i % KEY_SPACE.toLong())
+        }
+      }
+    }
+  }
+
+  private fun runWithBackgroundReaders(read: (Long) -> Any?, body: ((Long) -> Any?) -> Unit) {
+    val running = AtomicBoolean(true)
+    val started = CountDownLatch(BACKGROUND_READERS)
+
+    val threads = (0 until BACKGROUND_READERS).map { n ->
+      Thread {
+        val random = Random(n)
+        started.countDown()
+        while (running.get()) {
+          read(random.nextLong(KEY_SPACE.toLong()))
+        }
+      }.apply { start() }
+    }
+
+    started.await()
+
+    try {
+      body(read)
+    } finally {
+      running.set(false)
+      threads.forEach { it.join() }
+    }
+  }
+}
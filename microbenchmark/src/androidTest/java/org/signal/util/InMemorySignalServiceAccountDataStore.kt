@@ -12,6 +12,7 @@ import org.signal.libsignal.protocol.state.SignedPreKeyRecord
 import org.whispersystems.signalservice.api.SignalServiceAccountDataStore
 import org.whispersystems.signalservice.api.push.DistributionId
 import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * An in-memory datastore specifically designed for tests.
@@ -19,10 +20,10 @@ import java.util.UUID
 class InMemorySignalServiceAccountDataStore : SignalServiceAccountDataStore {
 
   private val identityKey: IdentityKeyPair = IdentityKeyPair.generate()
-  private val identities: MutableMap<SignalProtocolAddress, IdentityKey> = mutableMapOf()
+  private val identities: MutableMap<SignalProtocolAddress, IdentityKey> = ConcurrentHashMap()
   private val oneTimeEcPreKeys: MutableMap<Int, PreKeyRecord> = mutableMapOf()
   private val signedPreKeys: MutableMap<Int, SignedPreKeyRecord> = mutableMapOf()
-  private var sessions: MutableMap<SignalProtocolAddress, SessionRecord> = mutableMapOf()
+  private var sessions: MutableMap<SignalProtocolAddress, SessionRecord> = ConcurrentHashMap()
   private val senderKeys: MutableMap<SenderKeyLocator, SenderKeyRecord> = mutableMapOf()
   private val kyberPreKeys: MutableMap<Int, KyberPreKeyRecord> = mutableMapOf()
 
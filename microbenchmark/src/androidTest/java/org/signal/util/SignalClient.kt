@@ -43,13 +43,11 @@ import kotlin.random.Random
  *
  * Has a single prekey bundle that can be used to initialize a session with another client.
  */
-class SignalClient {
+class SignalClient(private val lock: SignalSessionLock = TestSessionLock()) {
   companion object {
     private val trustRoot: ECKeyPair = Curve.generateKeyPair()
   }
 
-  private val lock = TestSessionLock()
-
   private val aci: ACI = ACI.from(UUID.randomUUID())
 
   private val store: SignalServiceAccountDataStore = InMemorySignalServiceAccountDataStore()
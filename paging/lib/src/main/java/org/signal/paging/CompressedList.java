@@ -3,46 +3,159 @@ package org.signal.paging;
 import androidx.annotation.NonNull;
 
 import java.util.AbstractList;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * A placeholder class for efficiently storing lists that are mostly empty space.
- * TODO [greyson][paging]
+ * A list that efficiently stores data that is mostly empty space (i.e. nulls), which is what a paged list looks like before most of it has been loaded.
+ *
+ * Items are stored in fixed-size chunks, and a chunk is only allocated once a non-null item is written to it. Copying a {@link CompressedList} only copies
+ * the table of chunks -- the chunks themselves are shared between the two lists and are copied the first time either list writes to them. This matters
+ * because the paging controller makes a fresh copy of the list every time it publishes an update.
  */
 public class CompressedList<E> extends AbstractList<E> {
 
-  private final List<E> wrapped;
+  private static final int CHUNK_SHIFT = 8;
+  private static final int CHUNK_SIZE  = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK  = CHUNK_SIZE - 1;
+
+  private Object[][] chunks;
+
+  /** Whether each chunk may be referenced by another list, meaning it must be copied before it's written to. */
+  private boolean[] shared;
+
+  private int size;
 
   public CompressedList(@NonNull List<E> source) {
-    this.wrapped = new ArrayList<>(source);
-  }
+    if (source instanceof CompressedList) {
+      CompressedList<E> other = (CompressedList<E>) source;
 
-  public CompressedList(int totalSize) {
-    this.wrapped = new ArrayList<>(totalSize);
+      this.size   = other.size;
+      this.chunks = other.chunks.clone();
+      this.shared = new boolean[chunks.length];
 
-    for (int i = 0; i < totalSize; i++) {
-      wrapped.add(null);
+      Arrays.fill(this.shared, true);
+      Arrays.fill(other.shared, true);
+    } else {
+      this.size   = source.size();
+      this.chunks = new Object[chunkCount(size)][];
+      this.shared = new boolean[chunks.length];
+
+      for (int i = 0; i < size; i++) {
+        E item = source.get(i);
+        if (item != null) {
+          writableChunk(i >>> CHUNK_SHIFT)[i & CHUNK_MASK] = item;
+        }
+      }
     }
   }
 
+  public CompressedList(int totalSize) {
+    this.size   = totalSize;
+    this.chunks = new Object[chunkCount(totalSize)][];
+    this.shared = new boolean[chunks.length];
+  }
+
   @Override
   public int size() {
-    return wrapped.size();
+    return size;
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public E get(int index) {
-    return wrapped.get(index);
+    checkIndex(index);
+
+    Object[] chunk = chunks[index >>> CHUNK_SHIFT];
+    return chunk != null ? (E) chunk[index & CHUNK_MASK] : null;
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public E set(int globalIndex, E element) {
-    return wrapped.set(globalIndex, element);
+    checkIndex(globalIndex);
+
+    int chunkIndex = globalIndex >>> CHUNK_SHIFT;
+
+    if (element == null && chunks[chunkIndex] == null) {
+      return null;
+    }
+
+    Object[] chunk    = writableChunk(chunkIndex);
+    E        previous = (E) chunk[globalIndex & CHUNK_MASK];
+
+    chunk[globalIndex & CHUNK_MASK] = element;
+
+    return previous;
   }
 
+  /**
+   * Inserts the element, shifting everything at or after the index to the right. Only chunks that contain data need to be touched.
+   */
   @Override
   public void add(int index, E element) {
-    wrapped.add(index, element);
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    ensureChunkCapacity(size + 1);
+
+    Object carry      = element;
+    int    firstChunk = index >>> CHUNK_SHIFT;
+    int    lastChunk  = size >>> CHUNK_SHIFT;
+
+    for (int chunkIndex = firstChunk; chunkIndex <= lastChunk; chunkIndex++) {
+      if (carry == null && chunks[chunkIndex] == null) {
+        continue;
+      }
+
+      Object[] chunk = writableChunk(chunkIndex);
+      int      start = chunkIndex == firstChunk ? index & CHUNK_MASK : 0;
+      Object   out   = chunk[CHUNK_MASK];
+
+      System.arraycopy(chunk, start, chunk, start + 1, CHUNK_MASK - start);
+      chunk[start] = carry;
+      carry        = out;
+    }
+
+    size++;
+    modCount++;
+  }
+
+  private Object[] writableChunk(int chunkIndex) {
+    Object[] chunk = chunks[chunkIndex];
+
+    if (chunk == null) {
+      chunk              = new Object[CHUNK_SIZE];
+      chunks[chunkIndex] = chunk;
+      shared[chunkIndex] = false;
+    } else if (shared[chunkIndex]) {
+      chunk              = chunk.clone();
+      chunks[chunkIndex] = chunk;
+      shared[chunkIndex] = false;
+    }
+
+    return chunk;
+  }
+
+  private void ensureChunkCapacity(int newSize) {
+    int required = chunkCount(newSize);
+
+    if (required > chunks.length) {
+      int newLength = Math.max(required, chunks.length + (chunks.length >> 1));
+
+      chunks = Arrays.copyOf(chunks, newLength);
+      shared = Arrays.copyOf(shared, newLength);
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  private static int chunkCount(int size) {
+    return (size + CHUNK_MASK) >>> CHUNK_SHIFT;
   }
 }
@@ -6,6 +6,8 @@ import org.signal.core.util.ThreadUtil;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -183,6 +185,67 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
     });
   }
 
+  /**
+   * Like {@link #onDataItemChanged(Object)}, but loads all of the items that are in the cache with a single call to the data source, and
+   * publishes a single update.
+   */
+  @Override
+  public void onDataItemsChanged(@NonNull Collection<Key> keys) {
+    if (DEBUG) Log.d(TAG, buildItemsChangedLog(keys, ""));
+
+    FETCH_EXECUTOR.execute(() -> {
+      List<Key> cachedKeys = new ArrayList<>(keys.size());
+
+      for (Key key : keys) {
+        if (keyToPosition.containsKey(key)) {
+          cachedKeys.add(key);
+        }
+      }
+
+      if (cachedKeys.isEmpty()) {
+        if (DEBUG) Log.d(TAG, buildItemsChangedLog(keys, "None of the keys were in the cache."));
+        return;
+      }
+
+      if (invalidated) {
+        Log.w(TAG, "Invalidated! Just before " + cachedKeys.size() + " individual changes were loaded.");
+        return;
+      }
+
+      synchronized (loadState) {
+        for (Key key : cachedKeys) {
+          loadState.mark(keyToPosition.get(key));
+        }
+      }
+
+      List<Data> items = dataSource.load(cachedKeys);
+
+      if (invalidated) {
+        Log.w(TAG, "Invalidated! Just after " + cachedKeys.size() + " individual changes were loaded.");
+        return;
+      }
+
+      List<Data> updatedList = new CompressedList<>(data);
+      boolean    changed     = false;
+
+      for (Data item : items) {
+        Integer position = keyToPosition.get(dataSource.getKey(item));
+
+        if (position != null) {
+          updatedList.set(position, item);
+          changed = true;
+        }
+      }
+
+      if (changed) {
+        data = updatedList;
+        dataStream.next(updatedList);
+      }
+
+      if (DEBUG) Log.d(TAG, buildItemsChangedLog(keys, "Published updated data for " + items.size() + " items"));
+    });
+  }
+
   @Override
   public void onDataItemInserted(Key key, int inputPosition) {
     if (DEBUG) Log.d(TAG, buildItemInsertedLog(key, inputPosition, ""));
@@ -254,4 +317,8 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
   private String buildItemChangedLog(Key key, String message) {
     return "[onDataItemChanged(" + key + "), size: " + loadState.size() + "] " + message;
   }
+
+  private String buildItemsChangedLog(Collection<Key> keys, String message) {
+    return "[onDataItemsChanged(" + keys.size() + " keys), size: " + loadState.size() + "] " + message;
+  }
 }
@@ -4,6 +4,8 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -30,6 +32,25 @@ public interface PagedDataSource<Key, Data> {
   @WorkerThread
   @Nullable Data load(Key key);
 
+  /**
+   * Loads several items by key. Override this if you can do it more efficiently than loading them one at a time.
+   *
+   * @return The items that could be loaded, in any order. Keys that can't be loaded are simply left out.
+   */
+  @WorkerThread
+  default @NonNull List<Data> load(@NonNull Collection<Key> keys) {
+    List<Data> loaded = new ArrayList<>(keys.size());
+
+    for (Key key : keys) {
+      Data item = load(key);
+      if (item != null) {
+        loaded.add(item);
+      }
+    }
+
+    return loaded;
+  }
+
   @WorkerThread
   @NonNull Key getKey(@NonNull Data data);
 
@@ -1,5 +1,8 @@
 package org.signal.paging;
 
+import androidx.annotation.NonNull;
+
+import java.util.Collection;
 
 public interface PagingController<Key> {
   int POSITION_END = -1;
@@ -8,4 +11,13 @@ public interface PagingController<Key> {
   void onDataInvalidated();
   void onDataItemChanged(Key key);
   void onDataItemInserted(Key key, int position);
+
+  /**
+   * Equivalent to calling {@link #onDataItemChanged(Object)} for each key, but lets the controller reload them all at once.
+   */
+  default void onDataItemsChanged(@NonNull Collection<Key> keys) {
+    for (Key key : keys) {
+      onDataItemChanged(key);
+    }
+  }
 }
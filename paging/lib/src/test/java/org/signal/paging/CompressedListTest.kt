@@ -0,0 +1,103 @@
+package org.signal.paging
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import kotlin.random.Random
+
+class CompressedListTest {
+  @Test
+  fun sizedConstructor_allNull() {
+    val subject = CompressedList<String>(1000)
+
+    assertEquals(1000, subject.size)
+    for (i in 0 until 1000) {
+      assertNull(subject[i])
+    }
+  }
+
+  @Test
+  fun set_get() {
+    val subject = CompressedList<String>(1000)
+
+    subject[0] = "a"
+    subject[500] = "b"
+    subject[999] = "c"
+
+    assertEquals("a", subject[0])
+    assertEquals("b", subject[500])
+    assertEquals("c", subject[999])
+    assertNull(subject[1])
+  }
+
+  @Test(expected = IndexOutOfBoundsException::class)
+  fun get_outOfBounds() {
+    CompressedList<String>(10)[10]
+  }
+
+  @Test
+  fun add_atStart_shiftsAcrossChunks() {
+    val subject = CompressedList<String>(600)
+    subject[255] = "end-of-first-chunk"
+    subject[599] = "last"
+
+    subject.add(0, "new")
+
+    assertEquals(601, subject.size)
+    assertEquals("new", subject[0])
+    assertEquals("end-of-first-chunk", subject[256])
+    assertEquals("last", subject[600])
+    assertNull(subject[255])
+  }
+
+  @Test
+  fun add_atEnd_growsList() {
+    val subject = CompressedList<String>(256)
+
+    subject.add(256, "appended")
+
+    assertEquals(257, subject.size)
+    assertEquals("appended", subject[256])
+  }
+
+  @Test
+  fun copy_doesNotAffectOriginal() {
+    val original = CompressedList<String>(1000)
+    original[10] = "a"
+
+    val copy = CompressedList(original)
+    copy[10] = "b"
+    copy.add(0, "c")
+
+    assertEquals("a", original[10])
+    assertEquals(1000, original.size)
+    assertEquals("b", copy[11])
+    assertEquals("c", copy[0])
+  }
+
+  @Test
+  fun randomOperations_matchArrayList() {
+    val random = Random(42)
+    var subject = CompressedList<Int>(1500)
+    val expected = ArrayList<Int?>(List(1500) { null })
+
+    repeat(5000) {
+      when (random.nextInt(3)) {
+        0 -> {
+          val index = random.nextInt(expected.size)
+          val value = if (random.nextBoolean()) random.nextInt() else null
+          assertEquals(expected.set(index, value), subject.set(index, value))
+        }
+        1 -> {
+          val index = random.nextInt(expected.size + 1)
+          val value = if (random.nextBoolean()) random.nextInt() else null
+          subject.add(index, value)
+          expected.add(index, value)
+        }
+        else -> subject = CompressedList(subject)
+      }
+    }
+
+    assertEquals(expected, subject)
+  }
+}
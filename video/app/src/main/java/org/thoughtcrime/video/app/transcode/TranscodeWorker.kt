@@ -21,7 +21,6 @@ import androidx.work.Data
 import androidx.work.ForegroundInfo
 import androidx.work.WorkManager
 import androidx.work.WorkerParameters
-import org.signal.core.util.readLength
 import org.thoughtcrime.securesms.video.StreamingTranscoder
 import org.thoughtcrime.securesms.video.TranscodingPreset
 import org.thoughtcrime.securesms.video.postprocessing.Mp4FaststartPostProcessor
@@ -31,7 +30,6 @@ import org.thoughtcrime.securesms.video.videoconverter.utils.VideoConstants
 import org.thoughtcrime.video.app.R
 import java.io.File
 import java.io.FileInputStream
-import java.io.IOException
 import java.io.InputStream
 import java.time.Instant
 
@@ -127,15 +125,7 @@ class TranscodeWorker(ctx: Context, params: WorkerParameters) : CoroutineWorker(
       }
       Log.v(TAG, "$logPrefix Rename successful.")
     } else {
-      val tempFileLength: Long
-      applicationContext.openFileInput(tempFilename).use { tempFileStream ->
-        if (tempFileStream == null) {
-          Log.w(TAG, "$logPrefix Could not open temp file for I/O!")
-          return Result.failure()
-        }
-
-        tempFileLength = tempFileStream.readLength()
-      }
+      val tempFileLength: Long = File(applicationContext.filesDir, tempFilename).length()
 
       applicationContext.contentResolver.openOutputStream(finalFile.uri, "w").use { finalFileStream ->
         if (finalFileStream == null) {
@@ -143,8 +133,14 @@ class TranscodeWorker(ctx: Context, params: WorkerParameters) : CoroutineWorker(
           return Result.failure()
         }
 
-        val inputStreamFactory = { applicationContext.openFileInput(tempFilename) ?: throw IOException("Could not open temp file for reading!") }
-        val bytesCopied = Mp4FaststartPostProcessor(inputStreamFactory).processAndWriteTo(finalFileStream)
+        val bytesCopied = applicationContext.openFileInput(tempFilename).use { tempFileStream ->
+          if (tempFileStream == null) {
+            Log.w(TAG, "$logPrefix Could not open temp file for I/O!")
+            return Result.failure()
+          }
+
+          Mp4FaststartPostProcessor.processAndWriteTo(tempFileStream.channel, finalFileStream)
+        }
 
         if (bytesCopied != tempFileLength) {
           Log.w(TAG, "$logPrefix Postprocessing failed! Original transcoded filesize ($tempFileLength) did not match postprocessed filesize ($bytesCopied)")
@@ -11,13 +11,23 @@ import org.signal.libsignal.media.Mp4Sanitizer
 import org.signal.libsignal.media.SanitizedMetadata
 import org.thoughtcrime.securesms.video.exceptions.VideoPostProcessingException
 import java.io.ByteArrayInputStream
+import java.io.FileOutputStream
+import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
 import java.io.SequenceInputStream
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.channels.WritableByteChannel
 
 /**
  * A post processor that takes a stream of bytes, and using [Mp4Sanitizer], moves the metadata to the front of the file.
  *
+ * The stream version reads the input up to three times: once to find its length (unless it's given), once to find the metadata, and once to copy
+ * the media data. When the input is a plaintext file, prefer [processAndWriteTo] with a [FileChannel], which gets the length from the file, skips
+ * over the media data while finding the metadata, and copies the media data with [FileChannel.transferTo].
+ *
  * @property inputStreamFactory factory for the [InputStream]. Expected to be called multiple times.
  */
 class Mp4FaststartPostProcessor(private val inputStreamFactory: InputStreamFactory) {
@@ -57,6 +67,47 @@ class Mp4FaststartPostProcessor(private val inputStreamFactory: InputStreamFacto
       }
     }
 
+    /**
+     * Writes the faststart version of the file open in [input] to [outputStream], reading the media data only once.
+     *
+     * If [outputStream] is a [FileOutputStream], the media data is copied straight from one file to the other (without passing through the Java
+     * heap, where the platform supports it). The position of [input] is not changed.
+     *
+     * @return The number of bytes written.
+     */
+    @JvmStatic
+    fun processAndWriteTo(input: FileChannel, outputStream: OutputStream): Long {
+      val inputLength = input.size()
+      val metadata = sanitizeMetadata(FileChannelInputStream(input), inputLength)
+      val sanitizedMetadata = metadata.sanitizedMetadata ?: throw VideoPostProcessingException("Sanitized metadata was null!")
+
+      if (metadata.dataOffset < 0 || metadata.dataLength < 0 || metadata.dataOffset + metadata.dataLength > inputLength) {
+        throw VideoPostProcessingException("Media data is out of bounds! Offset: ${metadata.dataOffset}, length: ${metadata.dataLength}, file length: $inputLength")
+      }
+
+      outputStream.write(sanitizedMetadata)
+      outputStream.flush()
+
+      val output: WritableByteChannel = if (outputStream is FileOutputStream) outputStream.channel else Channels.newChannel(outputStream)
+      transferFully(input, metadata.dataOffset, metadata.dataLength, output)
+
+      return sanitizedMetadata.size + metadata.dataLength
+    }
+
+    /**
+     * [FileChannel.transferTo] may transfer fewer bytes than requested, so this loops until everything has been transferred.
+     */
+    private fun transferFully(input: FileChannel, offset: Long, length: Long, output: WritableByteChannel) {
+      var transferred = 0L
+      while (transferred < length) {
+        val count = input.transferTo(offset + transferred, length - transferred, output)
+        if (count <= 0) {
+          throw IOException("Unexpected end of file after $transferred of $length bytes!")
+        }
+        transferred += count
+      }
+    }
+
     @JvmStatic
     private fun sanitizeMetadata(inputStream: InputStream, inputLength: Long): SanitizedMetadata {
       inputStream.use {
@@ -65,3 +116,43 @@ class Mp4FaststartPostProcessor(private val inputStreamFactory: InputStreamFacto
     }
   }
 }
+
+/**
+ * Reads a [FileChannel] with positional reads, starting at the beginning of the file, without changing the channel's position. Skipping moves
+ * the read position without reading, which is what lets [Mp4Sanitizer] jump over the media data.
+ */
+private class FileChannelInputStream(private val channel: FileChannel) : InputStream() {
+
+  private var position = 0L
+
+  override fun read(): Int {
+    val buffer = ByteArray(1)
+    return if (read(buffer, 0, 1) == -1) -1 else buffer[0].toInt() and 0xff
+  }
+
+  override fun read(b: ByteArray, off: Int, len: Int): Int {
+    if (len == 0) {
+      return 0
+    }
+
+    val read = channel.read(ByteBuffer.wrap(b, off, len), position)
+    if (read > 0) {
+      position += read
+    }
+    return read
+  }
+
+  override fun skip(n: Long): Long {
+    if (n <= 0) {
+      return 0
+    }
+
+    val skipped = n.coerceAtMost(channel.size() - position).coerceAtLeast(0)
+    position += skipped
+    return skipped
+  }
+
+  override fun available(): Int {
+    return (channel.size() - position).coerceIn(0, Int.MAX_VALUE.toLong()).toInt()
+  }
+}
@@ -12,7 +12,6 @@ import org.mp4parser.boxes.iso14496.part14.ESDescriptorBox;
 import org.mp4parser.boxes.sampleentry.AudioSampleEntry;
 import org.mp4parser.streaming.extensions.DefaultSampleFlagsTrackExtension;
 import org.mp4parser.streaming.input.AbstractStreamingTrack;
-import org.mp4parser.streaming.input.StreamingSampleImpl;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -40,6 +39,11 @@ abstract class AacTrack extends AbstractStreamingTrack {
 
   private final SampleDescriptionBox stsd;
 
+  /**
+   * Holds the buffers for frames passed to {@link #processSample(ByteBuffer)}.
+   */
+  final SampleBufferPool bufferPool = new SampleBufferPool();
+
   private int sampleRate;
 
   AacTrack(long avgBitrate, long maxBitrate, int sampleRate, int channelCount, int aacProfile, @Nullable DecoderSpecificInfo decoderSpecificInfo) {
@@ -117,7 +121,10 @@ abstract class AacTrack extends AbstractStreamingTrack {
   public void close() {
   }
 
+  /**
+   * @param frame A buffer from {@link #bufferPool}, which is released once the sample has been written.
+   */
   void processSample(ByteBuffer frame) throws IOException {
-    sampleSink.acceptSample(new StreamingSampleImpl(frame, 1024), this);
+    sampleSink.acceptSample(new PooledStreamingSample(bufferPool, frame, 1024), this);
   }
 }
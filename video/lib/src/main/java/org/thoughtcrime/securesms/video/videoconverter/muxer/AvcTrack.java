@@ -13,7 +13,6 @@ import org.mp4parser.streaming.extensions.CompositionTimeTrackExtension;
 import org.mp4parser.streaming.extensions.DimensionTrackExtension;
 import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension;
 import org.mp4parser.streaming.input.AbstractStreamingTrack;
-import org.mp4parser.streaming.input.StreamingSampleImpl;
 import org.mp4parser.streaming.input.h264.H264NalUnitHeader;
 import org.mp4parser.streaming.input.h264.H264NalUnitTypes;
 import org.mp4parser.streaming.input.h264.spspps.PictureParameterSet;
@@ -46,6 +45,12 @@ abstract class AvcTrack extends AbstractStreamingTrack {
 
   private final SampleDescriptionBox stsd;
 
+  /**
+   * Holds the buffers for NAL units passed to {@link #consumeNal(ByteBuffer, long)} and for the samples created from them. Parameter sets are
+   * kept, everything else is released once it has been copied into a sample or dropped.
+   */
+  final SampleBufferPool bufferPool = new SampleBufferPool();
+
   private final List<ByteBuffer>    bufferedNals = new ArrayList<>();
   private       FirstVclNalDetector fvnd;
   private       H264NalUnitHeader   sliceNalUnitHeader;
@@ -196,7 +201,6 @@ abstract class AvcTrack extends AbstractStreamingTrack {
         final FirstVclNalDetector current = new FirstVclNalDetector(nal, nalUnitHeader.nal_ref_idc, nalUnitHeader.nal_unit_type);
         if (fvnd != null && fvnd.isFirstInNew(current)) {
           pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
         }
         currentPresentationTimeUs = Math.max(currentPresentationTimeUs, presentationTimeUs);
         sliceNalUnitHeader = nalUnitHeader;
@@ -208,7 +212,6 @@ abstract class AvcTrack extends AbstractStreamingTrack {
       case H264NalUnitTypes.AU_UNIT_DELIMITER:
         if (fvnd != null) {
           pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
           fvnd = null;
         }
         bufferedNals.add(nal);
@@ -217,7 +220,6 @@ abstract class AvcTrack extends AbstractStreamingTrack {
       case H264NalUnitTypes.SEQ_PARAMETER_SET:
         if (fvnd != null) {
           pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
           fvnd = null;
         }
         handleSPS(nal);
@@ -226,7 +228,6 @@ abstract class AvcTrack extends AbstractStreamingTrack {
       case H264NalUnitTypes.PIC_PARAMETER_SET:
         if (fvnd != null) {
           pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
           fvnd = null;
         }
         handlePPS(nal);
@@ -234,6 +235,7 @@ abstract class AvcTrack extends AbstractStreamingTrack {
 
       case H264NalUnitTypes.END_OF_SEQUENCE:
       case H264NalUnitTypes.END_OF_STREAM:
+        bufferPool.release(nal);
         return;
 
       case H264NalUnitTypes.SEQ_PARAMETER_SET_EXT:
@@ -241,6 +243,7 @@ abstract class AvcTrack extends AbstractStreamingTrack {
 
       default:
         Log.w(TAG, "Unknown NAL unit type: " + nalUnitHeader.nal_unit_type);
+        bufferPool.release(nal);
 
     }
   }
@@ -323,9 +326,13 @@ abstract class AvcTrack extends AbstractStreamingTrack {
   }
 
 
+  /**
+   * Creates a sample from the NAL units, releasing them to {@link #bufferPool} and clearing the list.
+   */
   private StreamingSample createSample(List<ByteBuffer> nals, SliceHeader sliceHeader, H264NalUnitHeader nu, long sampleDurationNs) {
     final long            sampleDuration = getTimescale() * Math.max(0, sampleDurationNs) / 1000000L;
-    final StreamingSample ss             = new StreamingSampleImpl(nals, sampleDuration);
+    final StreamingSample ss             = PooledStreamingSample.fromNals(bufferPool, nals, sampleDuration);
+    nals.clear();
     ss.addSampleExtension(createSampleFlagsSampleExtension(nu, sliceHeader));
     final SampleExtension pictureOrderCountType0SampleExtension = createPictureOrderCountType0SampleExtension(sliceHeader);
     if (pictureOrderCountType0SampleExtension != null) {
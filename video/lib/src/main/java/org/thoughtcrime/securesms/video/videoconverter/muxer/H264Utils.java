@@ -29,6 +29,7 @@ package org.thoughtcrime.securesms.video.videoconverter.muxer;
 
 import androidx.annotation.NonNull;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
@@ -38,6 +39,41 @@ final class H264Utils {
 
   private H264Utils() {}
 
+  interface NalConsumer {
+    void accept(@NonNull ByteBuffer buffer, int offset, int length) throws IOException;
+  }
+
+  /**
+   * Finds the same NAL units as {@link #getNals(ByteBuffer)}, but passes their offset and length within {@code buffer} to {@code consumer}
+   * instead of creating a slice and a list for them. Empty NAL units are skipped. Reads with absolute gets, so the position of
+   * {@code buffer} is not changed.
+   */
+  static void scanNals(@NonNull ByteBuffer buffer, @NonNull NalConsumer consumer) throws IOException {
+    final int limit    = buffer.limit();
+    int       position = buffer.position();
+    int       nalStart = -1;
+    int       val      = 0xffffffff;
+
+    while (position < limit) {
+      val <<= 8;
+      val |= (buffer.get(position++) & 0xff);
+      if ((val & 0xffffff) == 1) {
+        if (nalStart >= 0) {
+          final int nalEnd = position - (val == 1 ? 4 : 3);
+          if (nalEnd > nalStart) {
+            consumer.accept(buffer, nalStart, nalEnd - nalStart);
+          }
+        }
+        nalStart = position;
+        val      = 0xffffffff;
+      }
+    }
+
+    if (nalStart >= 0 && limit > nalStart) {
+      consumer.accept(buffer, nalStart, limit - nalStart);
+    }
+  }
+
   static @NonNull List<ByteBuffer> getNals(ByteBuffer buffer) {
     final List<ByteBuffer> nals = new ArrayList<>();
     ByteBuffer             nal;
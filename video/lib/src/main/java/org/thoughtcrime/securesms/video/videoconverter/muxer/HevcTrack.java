@@ -15,7 +15,6 @@ import org.mp4parser.streaming.StreamingSample;
 import org.mp4parser.streaming.extensions.DimensionTrackExtension;
 import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension;
 import org.mp4parser.streaming.input.AbstractStreamingTrack;
-import org.mp4parser.streaming.input.StreamingSampleImpl;
 import org.mp4parser.tools.ByteBufferByteChannel;
 import org.mp4parser.tools.IsoTypeReader;
 
@@ -28,6 +27,11 @@ import java.util.List;
 
 abstract class HevcTrack extends AbstractStreamingTrack implements H265NalUnitTypes {
 
+  /**
+   * Holds the buffers for NAL units passed to {@link #consumeNal(ByteBuffer, long)} and for the samples created from them.
+   */
+  final SampleBufferPool bufferPool = new SampleBufferPool();
+
   private final ArrayList<ByteBuffer> bufferedNals = new ArrayList<>();
   private       boolean               vclNalUnitSeenInAU;
   private       boolean               isIdr        = true;
@@ -143,6 +147,7 @@ abstract class HevcTrack extends AbstractStreamingTrack implements H265NalUnitTy
       case NAL_TYPE_AUD_NUT:
       case NAL_TYPE_FD_NUT:
         // ignore these
+        bufferPool.release(nal);
         break;
       default:
         bufferedNals.add(nal);
@@ -160,8 +165,8 @@ abstract class HevcTrack extends AbstractStreamingTrack implements H265NalUnitTy
     final long duration = presentationTimeUs - currentPresentationTimeUs;
     currentPresentationTimeUs = presentationTimeUs;
 
-    final StreamingSample sample = new StreamingSampleImpl(
-            nals, getTimescale() * Math.max(0, duration) / 1000000L);
+    final StreamingSample sample = PooledStreamingSample.fromNals(
+            bufferPool, nals, getTimescale() * Math.max(0, duration) / 1000000L);
 
     final SampleFlagsSampleExtension sampleFlagsSampleExtension = new SampleFlagsSampleExtension();
     sampleFlagsSampleExtension.setSampleIsNonSyncSample(!isIdr);
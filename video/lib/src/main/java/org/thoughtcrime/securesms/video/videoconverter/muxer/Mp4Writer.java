@@ -105,6 +105,7 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
   private final Map<StreamingTrack, Long>                  chunkNumbers             = new HashMap<>();
   private final Map<StreamingTrack, Long>                  sampleNumbers            = new HashMap<>();
   private       long                                       bytesWritten             = 0;
+  private final ByteBuffer                                 mdatHeader               = ByteBuffer.allocate(8);
 
   Mp4Writer(final @NonNull List<StreamingTrack> source, final @NonNull WritableByteChannel sink) throws IOException {
     this.source = new ArrayList<>(source);
@@ -419,19 +420,24 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
       return size;
     }
 
+    /**
+     * Writes the samples and releases any pooled ones, so this can only be called once.
+     */
     @Override
     public void getBox(WritableByteChannel writableByteChannel) throws IOException {
-      writableByteChannel.write(ByteBuffer.wrap(new byte[]{
-              (byte) ((size & 0xff000000) >> 24),
-              (byte) ((size & 0xff0000) >> 16),
-              (byte) ((size & 0xff00) >> 8),
-              (byte) ((size & 0xff)),
-              109, 100, 97, 116, // mdat
-
-      }));
+      mdatHeader.clear();
+      mdatHeader.putInt((int) size);
+      mdatHeader.put((byte) 109).put((byte) 100).put((byte) 97).put((byte) 116); // mdat
+      mdatHeader.flip();
+      writableByteChannel.write(mdatHeader);
+
       for (StreamingSample sample : samples) {
         writableByteChannel.write((ByteBuffer) sample.getContent().rewind());
+        if (sample instanceof PooledStreamingSample) {
+          ((PooledStreamingSample) sample).release();
+        }
       }
+      samples.clear();
     }
   }
 
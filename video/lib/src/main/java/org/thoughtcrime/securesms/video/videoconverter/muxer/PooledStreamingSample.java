@@ -0,0 +1,53 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+
+import org.mp4parser.streaming.input.StreamingSampleImpl;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A sample whose content lives in a {@link SampleBufferPool} buffer. {@link Mp4Writer} releases it once the content has been written.
+ */
+final class PooledStreamingSample extends StreamingSampleImpl {
+
+  private final SampleBufferPool pool;
+  private final ByteBuffer       content;
+
+  private boolean released;
+
+  PooledStreamingSample(@NonNull SampleBufferPool pool, @NonNull ByteBuffer content, long duration) {
+    super(content, duration);
+    this.pool    = pool;
+    this.content = content;
+  }
+
+  /**
+   * Writes the NAL units into a single pooled buffer, each prefixed with its 4 byte length, and releases the NAL units back to the pool.
+   */
+  static @NonNull PooledStreamingSample fromNals(@NonNull SampleBufferPool pool, @NonNull List<ByteBuffer> nals, long duration) {
+    int size = 0;
+    for (ByteBuffer nal : nals) {
+      size += 4 + nal.limit();
+    }
+
+    final ByteBuffer content = pool.acquire(size);
+    for (ByteBuffer nal : nals) {
+      content.putInt(nal.limit());
+      nal.rewind();
+      content.put(nal);
+      pool.release(nal);
+    }
+    content.flip();
+
+    return new PooledStreamingSample(pool, content, duration);
+  }
+
+  void release() {
+    if (!released) {
+      released = true;
+      pool.release(content);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of byte buffers for NAL units and sample contents, so the muxer doesn't allocate a new buffer for every one of them.
+ * <p>
+ * Buffers are bucketed by power of two capacity. A buffer that is never released is simply garbage collected, so holding on to one (like we do
+ * for parameter sets) is fine.
+ * <p>
+ * Samples can be released by {@link Mp4Writer} while another track is writing, so access is synchronized.
+ */
+final class SampleBufferPool {
+
+  private static final int MIN_CAPACITY_SHIFT = 10;
+  private static final int MAX_CAPACITY_SHIFT = 24;
+  private static final int MAX_PER_BUCKET     = 256;
+
+  @SuppressWarnings("unchecked")
+  private final ArrayDeque<ByteBuffer>[] buckets = new ArrayDeque[MAX_CAPACITY_SHIFT - MIN_CAPACITY_SHIFT + 1];
+
+  SampleBufferPool() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * @return A cleared buffer with room for at least {@code size} bytes.
+   */
+  synchronized @NonNull ByteBuffer acquire(int size) {
+    final int bucket = bucketFor(size);
+    if (bucket >= buckets.length) {
+      return ByteBuffer.allocate(size);
+    }
+
+    final ByteBuffer buffer = buckets[bucket].pollLast();
+    if (buffer != null) {
+      buffer.clear();
+      return buffer;
+    }
+
+    return ByteBuffer.allocate(1 << (bucket + MIN_CAPACITY_SHIFT));
+  }
+
+  /**
+   * Copies {@code length} bytes of {@code source} starting at {@code offset} into a pooled buffer, ready to be read. The position and limit of
+   * {@code source} are left as they were.
+   */
+  @NonNull ByteBuffer copyOf(@NonNull ByteBuffer source, int offset, int length) {
+    final ByteBuffer copy     = acquire(length);
+    final int        position = source.position();
+    final int        limit    = source.limit();
+
+    source.limit(offset + length).position(offset);
+    copy.put(source);
+    source.limit(limit).position(position);
+
+    copy.flip();
+    return copy;
+  }
+
+  synchronized void release(@NonNull ByteBuffer buffer) {
+    final int capacity = buffer.capacity();
+    if (Integer.bitCount(capacity) != 1) {
+      return;
+    }
+
+    final int bucket = Integer.numberOfTrailingZeros(capacity) - MIN_CAPACITY_SHIFT;
+    if (bucket >= 0 && bucket < buckets.length && buckets[bucket].size() < MAX_PER_BUCKET) {
+      buckets[bucket].addLast(buffer);
+    }
+  }
+
+  private static int bucketFor(int size) {
+    if (size <= 1 << MIN_CAPACITY_SHIFT) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CAPACITY_SHIFT;
+  }
+}
@@ -92,16 +92,18 @@ public final class StreamingMuxer implements Muxer {
 
   static class MediaCodecAvcTrack extends AvcTrack implements MediaCodecTrack {
 
+    private long presentationTimeUs;
+
+    private final H264Utils.NalConsumer nalConsumer = (buffer, offset, length) -> consumeNal(bufferPool.copyOf(buffer, offset, length), presentationTimeUs);
+
     MediaCodecAvcTrack(@NonNull MediaFormat format) {
       super(Utils.subBuffer(format.getByteBuffer("csd-0"), 4), Utils.subBuffer(format.getByteBuffer("csd-1"), 4));
     }
 
     @Override
     public void writeSampleData(@NonNull ByteBuffer byteBuf, @NonNull MediaCodec.BufferInfo bufferInfo) throws IOException {
-      final List<ByteBuffer> nals = H264Utils.getNals(byteBuf);
-      for (ByteBuffer nal : nals) {
-        consumeNal(Utils.clone(nal), bufferInfo.presentationTimeUs);
-      }
+      presentationTimeUs = bufferInfo.presentationTimeUs;
+      H264Utils.scanNals(byteBuf, nalConsumer);
     }
 
     @Override
@@ -112,16 +114,18 @@ public final class StreamingMuxer implements Muxer {
 
   static class MediaCodecHevcTrack extends HevcTrack implements MediaCodecTrack {
 
+    private long presentationTimeUs;
+
+    private final H264Utils.NalConsumer nalConsumer = (buffer, offset, length) -> consumeNal(bufferPool.copyOf(buffer, offset, length), presentationTimeUs);
+
     MediaCodecHevcTrack(@NonNull MediaFormat format) throws IOException {
       super(H264Utils.getNals(format.getByteBuffer("csd-0")));
     }
 
     @Override
     public void writeSampleData(@NonNull ByteBuffer byteBuf, @NonNull MediaCodec.BufferInfo bufferInfo) throws IOException {
-      final List<ByteBuffer> nals = H264Utils.getNals(byteBuf);
-      for (ByteBuffer nal : nals) {
-        consumeNal(Utils.clone(nal), bufferInfo.presentationTimeUs);
-      }
+      presentationTimeUs = bufferInfo.presentationTimeUs;
+      H264Utils.scanNals(byteBuf, nalConsumer);
     }
 
     @Override
@@ -173,10 +177,7 @@ public final class StreamingMuxer implements Muxer {
 
     @Override
     public void writeSampleData(@NonNull ByteBuffer byteBuf, @NonNull MediaCodec.BufferInfo bufferInfo) throws IOException {
-      final byte[] buffer = new byte[bufferInfo.size];
-      byteBuf.position(bufferInfo.offset);
-      byteBuf.get(buffer, 0, bufferInfo.size);
-      processSample(ByteBuffer.wrap(buffer));
+      processSample(bufferPool.copyOf(byteBuf, bufferInfo.offset, bufferInfo.size));
     }
 
     @Override
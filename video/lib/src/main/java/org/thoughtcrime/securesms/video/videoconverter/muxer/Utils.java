@@ -21,15 +21,6 @@ final class Utils {
     return bytes;
   }
 
-  public static ByteBuffer clone(final @NonNull ByteBuffer original) {
-    final ByteBuffer clone = ByteBuffer.allocate(original.capacity());
-    original.rewind();
-    clone.put(original);
-    original.rewind();
-    clone.flip();
-    return clone;
-  }
-
   static @NonNull ByteBuffer subBuffer(final @NonNull ByteBuffer buf, final int start) {
     return subBuffer(buf, start, buf.limit() - start);
   }
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.video.videoconverter.muxer
+
+import android.app.Application
+import android.media.MediaCodec
+import android.media.MediaFormat
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class, manifest = Config.NONE)
+class StreamingMuxerTest {
+
+  companion object {
+    /** Baseline, 320x240, pic_order_cnt_type 2, 4 bit frame_num, no VUI. */
+    private val SPS = bytes(0x67, 0x42, 0x00, 0x1e, 0xda, 0x05, 0x07, 0xe4)
+    private val PPS = bytes(0x68, 0xce, 0x3c, 0x80)
+
+    private const val FRAME_COUNT = 300
+    private const val FRAME_DURATION_US = 33_333L
+    private const val KEY_FRAME_INTERVAL = 30
+
+    private fun bytes(vararg values: Int): ByteArray = ByteArray(values.size) { values[it].toByte() }
+  }
+
+  @Test
+  fun `scanNals finds the same NAL units as getNals`() {
+    val random = Random(1234)
+
+    repeat(1000) {
+      val stream = randomAnnexB(random)
+
+      val expected = H264Utils.getNals(ByteBuffer.wrap(stream)).filter { it.hasRemaining() }.map { Utils.toArray(it) }
+      val actual = mutableListOf<ByteArray>()
+      H264Utils.scanNals(ByteBuffer.wrap(stream)) { buffer, offset, length -> actual.add(Utils.toArray(Utils.subBuffer(buffer, offset, length))) }
+
+      assertEquals(expected.size, actual.size)
+      expected.zip(actual).forEach { (e, a) -> assertArrayEquals(e, a) }
+    }
+  }
+
+  @Test
+  fun `pool reuses released buffers of the same size class`() {
+    val pool = SampleBufferPool()
+
+    val first = pool.acquire(3000)
+    assertEquals(4096, first.capacity())
+    pool.release(first)
+
+    val second = pool.acquire(2049)
+    assertSame(first, second)
+    assertEquals(0, second.position())
+    assertEquals(4096, second.limit())
+  }
+
+  @Test
+  fun `muxed file contains every frame in order`() {
+    val frames = syntheticFrames(Random(1234))
+    val output = mux(frames)
+
+    val expected = ByteArrayOutputStream()
+    DataOutputStream(expected).use { out ->
+      for (frame in frames) {
+        out.writeInt(frame.size - 4)
+        out.write(frame, 4, frame.size - 4)
+      }
+    }
+
+    assertArrayEquals(expected.toByteArray(), mediaData(output))
+  }
+
+  /**
+   * Compares splitting encoder output into NAL units the old way (a slice and a copy per NAL unit) against scanning it in place into pooled
+   * buffers, then times muxing the whole stream. Logs per-frame time and allocations.
+   */
+  @Ignore("Benchmark. Run manually.")
+  @Test
+  fun benchmark() {
+    val frames = syntheticFrames(Random(1234)).map { ByteBuffer.wrap(it) }
+    val pool = SampleBufferPool()
+
+    repeat(5) {
+      val (legacyNs, legacyBytes) = measure(frames.size) {
+        for (frame in frames) {
+          for (nal in H264Utils.getNals(frame.duplicate())) {
+            legacyClone(nal)
+          }
+        }
+      }
+
+      val (scanNs, scanBytes) = measure(frames.size) {
+        for (frame in frames) {
+          H264Utils.scanNals(frame) { buffer, offset, length -> pool.release(pool.copyOf(buffer, offset, length)) }
+        }
+      }
+
+      val byteFrames = frames.map { Utils.toArray(it) }
+      val (muxNs, muxBytes) = measure(frames.size) { mux(byteFrames) }
+
+      println("[StreamingMuxerTest] per frame: getNals+clone $legacyNs ns, $legacyBytes B. scanNals+pool $scanNs ns, $scanBytes B. full mux $muxNs ns, $muxBytes B")
+    }
+  }
+
+  private fun legacyClone(original: ByteBuffer): ByteBuffer {
+    val clone = ByteBuffer.allocate(original.capacity())
+    original.rewind()
+    clone.put(original)
+    original.rewind()
+    clone.flip()
+    return clone
+  }
+
+  private fun measure(iterations: Int, block: () -> Unit): Pair<Long, Long> {
+    val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    val threadId = Thread.currentThread().id
+
+    val startBytes = threadMXBean.getThreadAllocatedBytes(threadId)
+    val startNs = System.nanoTime()
+    block()
+    val elapsedNs = System.nanoTime() - startNs
+    val allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - startBytes
+
+    return (elapsedNs / iterations) to (allocatedBytes / iterations)
+  }
+
+  private fun mux(frames: List<ByteArray>): ByteArray {
+    val output = ByteArrayOutputStream()
+    val muxer = StreamingMuxer(output)
+
+    val format = MediaFormat.createVideoFormat("video/avc", 320, 240).apply {
+      setByteBuffer("csd-0", ByteBuffer.wrap(bytes(0, 0, 0, 1) + SPS))
+      setByteBuffer("csd-1", ByteBuffer.wrap(bytes(0, 0, 0, 1) + PPS))
+    }
+    val track = muxer.addTrack(format)
+    muxer.start()
+
+    val bufferInfo = MediaCodec.BufferInfo()
+    frames.forEachIndexed { i, frame ->
+      bufferInfo.set(0, frame.size, i * FRAME_DURATION_US, 0)
+      muxer.writeSampleData(track, ByteBuffer.wrap(frame), bufferInfo)
+    }
+
+    muxer.stop()
+    return output.toByteArray()
+  }
+
+  /**
+   * Concatenates the contents of every mdat box in the file.
+   */
+  private fun mediaData(file: ByteArray): ByteArray {
+    val buffer = ByteBuffer.wrap(file)
+    val mediaData = ByteArrayOutputStream()
+
+    while (buffer.hasRemaining()) {
+      val start = buffer.position()
+      val size = buffer.int
+      val type = String(Utils.toArray(Utils.subBuffer(buffer, start + 4, 4)), Charsets.US_ASCII)
+
+      if (type == "mdat") {
+        mediaData.write(file, start + 8, size - 8)
+      }
+      buffer.position(start + size)
+    }
+
+    return mediaData.toByteArray()
+  }
+
+  /**
+   * One slice per frame, as the encoder would output it: a 4 byte start code, a slice header, and payload bytes that can't be mistaken for a
+   * start code.
+   */
+  private fun syntheticFrames(random: Random): List<ByteArray> {
+    return (0 until FRAME_COUNT).map { i ->
+      val keyFrame = i % KEY_FRAME_INTERVAL == 0
+      val frameNum = (i % KEY_FRAME_INTERVAL) and 0xf
+
+      val header = if (keyFrame) {
+        bytes(0x65, 0x88, 0x86)
+      } else {
+        // first_mb_in_slice 0, slice_type P, pic_parameter_set_id 0, frame_num, stop bit
+        val bits = (0b1001101 shl 9) or (frameNum shl 5) or (1 shl 4)
+        bytes(0x41, bits shr 8, bits and 0xff)
+      }
+
+      val payload = ByteArray(if (keyFrame) 40_000 else random.nextInt(2_000, 20_000)) { random.nextInt(1, 256).toByte() }
+
+      bytes(0, 0, 0, 1) + header + payload
+    }
+  }
+
+  /**
+   * A mix of 3 and 4 byte start codes, NAL units of various sizes (including empty ones), and possibly some garbage before the first start code.
+   */
+  private fun randomAnnexB(random: Random): ByteArray {
+    val out = ByteArrayOutputStream()
+
+    if (random.nextBoolean()) {
+      out.write(random.nextBytes(random.nextInt(0, 8)))
+    }
+
+    repeat(random.nextInt(0, 6)) {
+      out.write(if (random.nextBoolean()) bytes(0, 0, 1) else bytes(0, 0, 0, 1))
+      out.write(ByteArray(random.nextInt(0, 64)) { if (random.nextInt(8) == 0) 0 else random.nextInt(256).toByte() })
+    }
+
+    return out.toByteArray()
+  }
+}